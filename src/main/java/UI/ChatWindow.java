@@ -14,11 +14,15 @@ import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import model.*;
 import com.chatFlow.Chat.*;
-import security.AES_GCM;
+import security.AeadEngine;
+import utils.AppConfig;
 
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import javax.swing.*;
@@ -30,13 +34,13 @@ import javax.swing.text.StyledDocument;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.event.WindowFocusListener;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.*;
 import java.util.List;
 
-import static security.AES_ECB.keySchedule;
 import io.grpc.Context.CancellableContext;
 
 /**
@@ -87,18 +91,48 @@ public class ChatWindow extends JFrame {
     private JDialog dialog;
 
     private final Set<UUID> shownMessageIds = new HashSet<>();
-    private int currentOffset = 0;
+    private String historyCursor = "";
     private static final int BLOCK_SIZE = 16;
     private boolean loading = false;
     private boolean allMessagesLoaded = false;
 
     private int currentKeyVersion ;
-    private final Map<Integer, byte[][]> roundKeysByVersion = new ConcurrentHashMap<>();
+    /**
+     * מנוע ההצפנה לכל גרסת מפתח, נבנה פעם אחת לגרסה. chat.crypto.engine בוחר במה מצפינים
+     * (legacy - ברירת המחדל, או jca); פענוח מנסה את שני הפורמטים, ראו {@link AeadEngine}
+     */
+    private static final String AEAD_ENGINE = AppConfig.getString("chat.crypto.engine", "legacy");
+    private final Map<Integer, AeadEngine> aeadByVersion = new ConcurrentHashMap<>();
+
+    /**
+     * מאגר משותף לפענוח עמודי היסטוריה (chat.history.decryptThreads, ברירת מחדל - מספר הליבות).
+     * חוטי ForkJoinPool הם daemon, כך שאין צורך לסגור אותו עם החלון
+     */
+    private static final ForkJoinPool HISTORY_DECRYPTOR = new ForkJoinPool(Math.max(1,
+            AppConfig.getInt("chat.history.decryptThreads", Runtime.getRuntime().availableProcessors())));
 
     private final ClientTokenRefresher tokenRefresher;
 
     private boolean hasSentJoinAnnouncement = false;
 
+    /**
+     * אישורי קבלה: ההודעה האחרונה מאחרים שטרם אושרה, ומתזמן ששולח אישור אחד לכל פרץ הודעות
+     */
+    private static final long RECEIPT_DELAY_MILLIS = 300;
+    private final ScheduledExecutorService receiptSender = Executors.newSingleThreadScheduledExecutor();
+    private Message pendingReceipt;
+    private boolean receiptScheduled = false;
+    private long deliveredAt = Long.MIN_VALUE;
+    private long seenAt = Long.MIN_VALUE;
+
+    /**
+     * סימני המים של שאר החברים (userId -> זמן ההודעה האחרונה שנמסרה / נראתה), לתצוגת הסטטוס
+     */
+    private final Map<String, Long> deliveredUpTo = new HashMap<>();
+    private final Map<String, Long> seenUpTo = new HashMap<>();
+    private long lastOwnMessageAt = Long.MIN_VALUE;
+    private JLabel receiptLabel;
+
     /**
      * Formatter להציג זמן לפי אזור הזמן של ישראל
      */
@@ -195,6 +229,17 @@ public class ChatWindow extends JFrame {
             }
         });
 
+        // הודעות שהגיעו כשהחלון לא היה בפוקוס אושרו כ-DELIVERED - כשחוזרים אליו הן נראו
+        this.addWindowFocusListener(new WindowFocusListener() {
+            @Override
+            public void windowGainedFocus(WindowEvent e) {
+                scheduleReceipt(null);
+            }
+
+            @Override
+            public void windowLostFocus(WindowEvent e) { }
+        });
+
     }
 
     /**
@@ -244,6 +289,11 @@ public class ChatWindow extends JFrame {
         inputPanel.add(inputField, BorderLayout.CENTER);
         inputPanel.add(sendButton, BorderLayout.EAST);
         inputPanel.add(videoCallButton, BorderLayout.WEST);
+
+        // סטטוס המסירה / הצפייה של ההודעה האחרונה ששלחתי
+        receiptLabel = new JLabel(" ");
+        receiptLabel.setForeground(Color.GRAY);
+        inputPanel.add(receiptLabel, BorderLayout.NORTH);
         mainPanel.add(inputPanel, BorderLayout.SOUTH);
 
         // כפתור ניהול חברים
@@ -261,43 +311,51 @@ public class ChatWindow extends JFrame {
      * טוען את ההיסטוריה המקוונת ומציג אותה.
      */
     private void loadChatHistory() {
-        new SwingWorker<List<Message>, Message>(){
+        new SwingWorker<ChatHistoryResponse, DecryptedMessage>(){
             @Override
-            protected List<Message> doInBackground() {
+            protected ChatHistoryResponse doInBackground() {
                 if(loading || allMessagesLoaded)
-                    return List.of();
+                    return null;
                 loading = true;
+                ChatHistoryResponse response;
                 try {
                     ChatHistoryRequest request = ChatHistoryRequest.newBuilder()
                             .setChatId(chatRoomId)
-                            .setOffset(currentOffset)
+                            .setCursor(historyCursor)
                             .setLimit(100)
                             .setToken(client.getToken())
                             .setRequesterId(user.getId().toString())
                             .build();
 
-                    ChatHistoryResponse response = client.getChatHistory(request);
-                    return response.getMessagesList();
+                    response = client.getChatHistory(request);
                 } catch (Exception e) {
                     e.printStackTrace();
-                    return Collections.emptyList(); // במקום לקרוס
+                    return null; // במקום לקרוס
+                }
+                // ההודעות מוצגות לפי הסדר ברגע שכל מה שלפניהן פוענח, כך שהחלון מתמלא בהדרגה
+                for (CompletableFuture<DecryptedMessage> decrypted : decryptPage(response.getMessagesList())) {
+                    publish(decrypted.join());
+                }
+                return response;
+            }
+
+            @Override
+            protected void process(List<DecryptedMessage> chunks) {
+                for (DecryptedMessage decrypted : chunks) {
+                    processAndAppend(decrypted.message, decrypted.plaintext);
                 }
             }
 
             @Override
             protected void done() {
                 try {
-                    List<Message> messageList = get();
-                    if(messageList.isEmpty()){
-                        allMessagesLoaded = true;
-                    } else {
-                        for (Message message : messageList) {
-                            int version = message.getKeyVersion();
-                            loadRoundKeys(version);
-                            processAndAppend(message);
-                        }
-                        currentOffset += messageList.size();
-                    }
+                    ChatHistoryResponse response = get();
+                    if(response == null)
+                        return;
+                    // הסמן ממשיך מהמקום שבו העמוד הסתיים
+                    if(!response.getNextCursor().isEmpty())
+                        historyCursor = response.getNextCursor();
+                    allMessagesLoaded = !response.getHasMore();
                 } catch (Exception e) {
                     e.printStackTrace();
                     JOptionPane.showMessageDialog(ChatWindow.this,
@@ -310,6 +368,63 @@ public class ChatWindow extends JFrame {
         }.execute();
     }
 
+    /**
+     * הודעה מעמוד היסטוריה יחד עם הטקסט המפוענח שלה, או null אם לא פוענחה מראש
+     */
+    private static final class DecryptedMessage {
+        final Message message;
+        final byte[] plaintext;
+
+        DecryptedMessage(Message message, byte[] plaintext) {
+            this.message = message;
+            this.plaintext = plaintext;
+        }
+    }
+
+    /**
+     * מפענח עמוד היסטוריה במקביל על {@link #HISTORY_DECRYPTOR}. ההודעות מקובצות לפי keyVersion
+     * ומנוע ההצפנה של כל גרסה נטען פעם אחת לפני הפענוח; אחר כך כל הודעה היא משימה נפרדת.
+     * <p>
+     * התוצאות מוחזרות לפי סדר חותמות הזמן. הודעה שלא פוענחה כאן (אישור קבלה, מפתח שלא נטען,
+     * תג שגוי) מוחזרת בלי טקסט, ו-{@link #processAndAppend(Message)} מטפל בה בדרך הרגילה, כולל טעינה מחדש.
+     * </p>
+     *
+     * @param page ההודעות שהתקבלו מהשרת
+     * @return תוצאה לכל הודעה, ממוינות לפי timestamp
+     */
+    private List<CompletableFuture<DecryptedMessage>> decryptPage(List<Message> page) {
+        List<Message> sorted = new ArrayList<>(page);
+        sorted.sort(Comparator.comparingLong(Message::getTimestamp));
+
+        Set<Integer> versions = new TreeSet<>();
+        for (Message message : sorted) {
+            if (!message.getCipherText().isEmpty())
+                versions.add(message.getKeyVersion());
+        }
+        for (int version : versions) {
+            loadRoundKeys(version);
+        }
+
+        List<CompletableFuture<DecryptedMessage>> results = new ArrayList<>(sorted.size());
+        for (Message message : sorted) {
+            AeadEngine aead = message.getCipherText().isEmpty() ? null : aeadByVersion.get(message.getKeyVersion());
+            if (aead == null) {
+                results.add(CompletableFuture.completedFuture(new DecryptedMessage(message, null)));
+                continue;
+            }
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    byte[] aad = generateAAD(UUID.fromString(message.getMessageId()), message.getTimestamp());
+                    return new DecryptedMessage(message, aead.decrypt(message.getCipherText().toByteArray(), aad));
+                } catch (RuntimeException e) {
+                    // processAndAppend ינסה שוב וידווח על השגיאה
+                    return new DecryptedMessage(message, null);
+                }
+            }, HISTORY_DECRYPTOR));
+        }
+        return results;
+    }
+
     /**
      * מבטל מנוי קיים ומבצע מנוי חדש לקבלת הודעות חדשות בזמן אמת.
      */
@@ -373,6 +488,21 @@ public class ChatWindow extends JFrame {
      * @param message ההודעה שהתקבלה מהשרת
      */
     private void processAndAppend(Message message) {
+        processAndAppend(message, null);
+    }
+
+    /**
+     * כמו {@link #processAndAppend(Message)}, עם טקסט שכבר פוענח (למשל ב-{@link #decryptPage(List)}).
+     *
+     * @param message ההודעה שהתקבלה מהשרת
+     * @param plaintext הטקסט המפוענח, או null כדי לפענח כאן
+     */
+    private void processAndAppend(Message message, byte[] plaintext) {
+        // אישור קבלה של חבר אחר - אין תוכן להציג
+        if (message.getStatus() != Chat.MessageStatus.SENT && message.getCipherText().isEmpty()) {
+            handleReceipt(message);
+            return;
+        }
         try {
             UUID messageId = UUID.fromString(message.getMessageId());
             int keyVersion = message.getKeyVersion();
@@ -389,15 +519,15 @@ public class ChatWindow extends JFrame {
             }
 
             // 2) פענוח עם retry logic משופר
-            byte[] decrypted = null;
+            byte[] decrypted = plaintext;
             int retryCount = 0;
             final int MAX_RETRIES = 2;
 
             while (decrypted == null && retryCount < MAX_RETRIES) {
                 try {
                     // וידוא שהמפתחות קיימים לפני הפענוח
-                    if (!roundKeysByVersion.containsKey(keyVersion) ||
-                            roundKeysByVersion.get(keyVersion) == null) {
+                    if (!aeadByVersion.containsKey(keyVersion) ||
+                            aeadByVersion.get(keyVersion) == null) {
                         loadRoundKeys(keyVersion);
                     }
 
@@ -416,7 +546,7 @@ public class ChatWindow extends JFrame {
 
                     if (retryCount < MAX_RETRIES) {
                         // הסר מפתחות ישנים וטען מחדש
-                        roundKeysByVersion.remove(keyVersion);
+                        aeadByVersion.remove(keyVersion);
                         try {
                             loadRoundKeys(keyVersion);
                         } catch (Exception loadEx) {
@@ -434,7 +564,7 @@ public class ChatWindow extends JFrame {
                     if (retryCount == 0) {
                         retryCount++;
                         System.out.println("Invalid keys detected, reloading for version: " + keyVersion);
-                        roundKeysByVersion.remove(keyVersion);
+                        aeadByVersion.remove(keyVersion);
                         try {
                             loadRoundKeys(keyVersion);
                         } catch (Exception loadEx) {
@@ -465,6 +595,13 @@ public class ChatWindow extends JFrame {
 
             appendMessage(formatted, message.getIsSystem());
 
+            if (message.getSenderId().equals(user.getId().toString())) {
+                lastOwnMessageAt = Math.max(lastOwnMessageAt, message.getTimestamp());
+                updateReceiptLabel();
+            } else if (!message.getIsSystem()) {
+                scheduleReceipt(message);
+            }
+
             // If system message indicating membership change, refresh keys & history
             if (message.getIsSystem() &&
                     (content.contains("ההזמנה אושרה") ||
@@ -493,6 +630,94 @@ public class ChatWindow extends JFrame {
         }
     }
 
+    /**
+     * מתזמן אישור קבלה. כל ההודעות שמגיעות בתוך RECEIPT_DELAY_MILLIS מאושרות באישור אחד
+     * על האחרונה שבהן (השרת שומר סימן מים, לא שורה לכל הודעה).
+     *
+     * @param message הודעה חדשה מחבר אחר, או null כדי לאשר שוב את האחרונה (למשל כ-SEEN)
+     */
+    private void scheduleReceipt(Message message) {
+        synchronized (receiptSender) {
+            if (message != null && message.getTimestamp() > seenAt
+                    && (pendingReceipt == null || message.getTimestamp() >= pendingReceipt.getTimestamp())) {
+                pendingReceipt = message;
+            }
+            if (pendingReceipt == null || receiptScheduled || receiptSender.isShutdown()) {
+                return;
+            }
+            receiptScheduled = true;
+        }
+        receiptSender.schedule(this::flushReceipt, RECEIPT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * שולח אישור על ההודעה האחרונה שהצטברה: SEEN אם החלון בפוקוס, אחרת DELIVERED.
+     * אחרי DELIVERED ההודעה נשארת ממתינה, כדי שתאושר כ-SEEN כשהחלון יחזור לפוקוס.
+     */
+    private void flushReceipt() {
+        boolean seen = isFocused();
+        Message message;
+        synchronized (receiptSender) {
+            receiptScheduled = false;
+            message = pendingReceipt;
+            if (message == null || (!seen && message.getTimestamp() <= deliveredAt)) {
+                return;
+            }
+            if (seen) {
+                pendingReceipt = null;
+                seenAt = Math.max(seenAt, message.getTimestamp());
+            }
+            deliveredAt = Math.max(deliveredAt, message.getTimestamp());
+        }
+        ReceiptRequest request = ReceiptRequest.newBuilder()
+                .setUserId(user.getId().toString())
+                .setChatId(chatRoomId)
+                .setMessageId(message.getMessageId())
+                .setTimestamp(message.getTimestamp())
+                .setStatus(seen ? Chat.MessageStatus.SEEN : Chat.MessageStatus.DELIVERED)
+                .build();
+        Futures.addCallback(client.sendReceipt(request), new FutureCallback<>() {
+            @Override
+            public void onSuccess(ACK ack) { }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // לא קריטי - האישור הבא יקדם את סימן המים
+                System.err.println("Failed to send receipt: " + t.getMessage());
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * מעדכן את סימן המים של חבר אחר לפי אישור קבלה שנדחף מהשרת.
+     *
+     * @param receipt הודעת האישור (senderId = החבר שאישר, timestamp = ההודעה האחרונה שאושרה)
+     */
+    private void handleReceipt(Message receipt) {
+        if (receipt.getSenderId().equals(user.getId().toString())) {
+            return;
+        }
+        deliveredUpTo.merge(receipt.getSenderId(), receipt.getTimestamp(), Math::max);
+        if (receipt.getStatus() == Chat.MessageStatus.SEEN) {
+            seenUpTo.merge(receipt.getSenderId(), receipt.getTimestamp(), Math::max);
+        }
+        updateReceiptLabel();
+    }
+
+    /**
+     * מציג כמה חברים קיבלו / ראו את ההודעה האחרונה ששלחתי.
+     */
+    private void updateReceiptLabel() {
+        if (receiptLabel == null || lastOwnMessageAt == Long.MIN_VALUE) {
+            return;
+        }
+        long delivered = deliveredUpTo.values().stream().filter(t -> t >= lastOwnMessageAt).count();
+        long seen = seenUpTo.values().stream().filter(t -> t >= lastOwnMessageAt).count();
+        receiptLabel.setText(seen > 0
+                ? "✓✓ נראה ע\"י " + seen
+                : delivered > 0 ? "✓✓ נמסר ל-" + delivered : "✓ נשלח");
+    }
+
     // מתודה נפרדת לטיפול בשינויי חברות
     private void handleMembershipChange() {
         new Thread(() -> {
@@ -504,13 +729,13 @@ public class ChatWindow extends JFrame {
                 currentKeyVersion = newKeyVersion;
 
                 // הסר מפתחות ישנים וטען חדשים
-                roundKeysByVersion.clear();
+                aeadByVersion.clear();
                 loadRoundKeys(currentKeyVersion);
 
                 SwingUtilities.invokeLater(() -> {
                     shownMessageIds.clear();
                     chatPane.setText("");
-                    currentOffset = 0;
+                    historyCursor = "";
                     allMessagesLoaded = false;
                     loadChatHistory();
                 });
@@ -586,6 +811,8 @@ public class ChatWindow extends JFrame {
                     String formatted = String.format("[%s] %s: %s\n",
                             israelTime.format(Instant.ofEpochMilli(timeStamp)), "אני", text);
                     appendMessage(formatted, false);
+                    lastOwnMessageAt = Math.max(lastOwnMessageAt, timeStamp);
+                    updateReceiptLabel();
                 });
 
                 // שליחה אסינכרונית של ההודעה
@@ -1036,7 +1263,7 @@ public class ChatWindow extends JFrame {
                     SwingUtilities.invokeLater(() -> {
                         shownMessageIds.clear();
                         chatPane.setText("");
-                        currentOffset = 0;
+                        historyCursor = "";
                         allMessagesLoaded = false;
                         loadChatHistory();
                     });
@@ -1079,6 +1306,7 @@ public class ChatWindow extends JFrame {
         }
         signalingClient.removeCallStatusListener(callStatusListener);
         signalingClient.shutdown();
+        receiptSender.shutdown();
     }
 
     /**
@@ -1149,13 +1377,13 @@ public class ChatWindow extends JFrame {
     // --- הצפנה ופענוח של הודעות ---
 
     /**
-     * טוען ממסד המפתח ומחשב round-keys לגרסה נתונה.
+     * טוען ממסד המפתח ובונה את מנוע ההצפנה (round-keys וטבלאות GHASH, או מפתח JCA) לגרסה נתונה.
      *
      * @param version גרסת המפתח
      */
     private void loadRoundKeys(int version) {
         // אם המפתחות כבר קיימים, אל תטען מחדש
-        if (roundKeysByVersion.containsKey(version)) return;
+        if (aeadByVersion.containsKey(version)) return;
 
         try {
             // קבל את המפתח הבסיסי
@@ -1164,10 +1392,7 @@ public class ChatWindow extends JFrame {
                 throw new IllegalStateException("Invalid symmetric key for version " + version);
 
 
-            byte[][] roundKeys = new byte[11][BLOCK_SIZE];
-            roundKeys[0] = Arrays.copyOf(rawKey, BLOCK_SIZE);
-            keySchedule(roundKeys);
-            roundKeysByVersion.put(version, roundKeys);
+            aeadByVersion.put(version, AeadEngine.create(AEAD_ENGINE, rawKey));
             Arrays.fill(rawKey, (byte) 0);
         } catch (Exception e) {
             e.printStackTrace();
@@ -1193,11 +1418,11 @@ public class ChatWindow extends JFrame {
      */
     private byte[] encryptMessage(UUID msgId, byte[] data, long timeStamp) {
         loadRoundKeys(currentKeyVersion);
-        byte[][] round_keys = roundKeysByVersion.get(currentKeyVersion);
-        if (round_keys == null)
+        AeadEngine aead = aeadByVersion.get(currentKeyVersion);
+        if (aead == null)
             throw new IllegalStateException("No roundKeys for version " + currentKeyVersion);
         byte[] aad = generateAAD(msgId, timeStamp);
-        return AES_GCM.encrypt(data, aad, round_keys);
+        return aead.encrypt(data, aad);
     }
 
     /**
@@ -1217,14 +1442,14 @@ public class ChatWindow extends JFrame {
 
         // וידוא שהמפתחות קיימים
         loadRoundKeys(keyVersion);
-        byte[][] round_keys = roundKeysByVersion.get(keyVersion);
+        AeadEngine aead = aeadByVersion.get(keyVersion);
 
-        if (round_keys == null || round_keys.length == 0) {
+        if (aead == null) {
             throw new IllegalArgumentException("Round keys are not valid for version: " + keyVersion);
         }
 
         byte[] aad = generateAAD(msgId, timeStamp);
-        return AES_GCM.decrypt(encryptedData, aad, round_keys);
+        return aead.decrypt(encryptedData, aad);
     }
 
     /**
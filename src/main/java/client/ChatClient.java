@@ -219,6 +219,17 @@
             ));
         }
 
+        /**
+         * שולח אישור קבלה (DELIVERED / SEEN) עד הודעה מסוימת, עם ניהול טוקן.
+         * @param request בקשת ReceiptRequest
+         * @return Future עם ACK
+         */
+        public ListenableFuture<ACK> sendReceipt(ReceiptRequest request) {
+            return withAuthRefresh(() -> futureStub.sendReceipt(
+                    request.toBuilder().setToken(getToken()).build()
+            ));
+        }
+
         /**
          * נרשם לזרם הודעות חדשות בצ'אט.
          * @param request בקשת ChatSubscribeRequest עם chatId
@@ -246,6 +257,21 @@
             return withAuthRefresh(() -> blockingStub.getChatHistory(withToken));
         }
 
+        /**
+         * מקבל היסטוריית צ'אט כזרם של חלקים (למילוי היסטוריה גדולה).
+         * @param request בקשת ChatHistoryRequest עם chatId ואופציונלית cursor
+         * @param observer StreamObserver שמקבל כל חלק; לחלק האחרון מצורפים nextCursor ו-hasMore
+         */
+        public void streamChatHistory(ChatHistoryRequest request, StreamObserver<ChatHistoryResponse> observer) {
+            if (request.getChatId().isEmpty())
+                throw new IllegalArgumentException("Chat ID required");
+
+            ChatHistoryRequest withToken = request.toBuilder()
+                    .setToken(getToken())
+                    .build();
+            asyncStub.streamChatHistory(withToken, observer);
+        }
+
         /**
          * מאתר חדר צ'אט לפי מזהה.
          * @param chatId מזהה החדר כמחרוזת
@@ -475,15 +501,20 @@
                     new HashMap<>()
             );
             room.setCurrentKeyVersion(r.getKeyVersion());
+            if (r.hasLastMessage()) {
+                room.setLastMessageTime(Instant.ofEpochMilli(r.getLastMessage().getTimestamp()));
+            }
             r.getMembersList().forEach(info -> {
                 try {
-                    room.addMember(new ChatMember(
+                    ChatMember member = new ChatMember(
                             room.getChatId(),
                             UUID.fromString(info.getUserId()),
                             Enum.valueOf(model.ChatRole.class, info.getRole()),
-                            room.getCreatedAt(),
-                            InviteStatus.ACCEPTED
-                    ));
+                            info.getJoinDate() > 0 ? Instant.ofEpochMilli(info.getJoinDate()) : room.getCreatedAt(),
+                            Enum.valueOf(InviteStatus.class, info.getInviteStatus())
+                    );
+                    member.setUnreadMessages(info.getUnreadMessages());
+                    room.addMember(member);
                 } catch (Exception e) {
                     log.warn("Failed to map member {}", info.getUserId(), e);
                 }
@@ -1,9 +1,21 @@
 package model;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import java.sql.*;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * DAO עבור ניהול חדרי צ'אט במסד הנתונים.
@@ -11,11 +23,317 @@ import java.util.UUID;
  */
 public class ChatRoomDAO {
 
+    /** ברירות מחדל למטמון תמונות המצב של החדרים */
+    private static final long DEFAULT_CACHE_SIZE = 10_000;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 60;
+
+    /** ברירות מחדל למטמון מוני ההודעות שלא נקראו */
+    private static final long DEFAULT_UNREAD_CACHE_SIZE = 100_000;
+    private static final long DEFAULT_UNREAD_CACHE_TTL_SECONDS = 30;
+
+    /**
+     * ספירת ההודעות שלא נקראו לכל זוג (חדר, חבר) שב-JSON: הודעות של אחרים מאז מיקום הקריאה
+     * (או מאז ההצטרפות). הספירה היא טווח על האינדקס (ChatId, SentAt, Id) שמתחיל במיקום
+     * הקריאה, כך שהעלות היא מספר ההודעות שלא נקראו ולא גודל ההיסטוריה.
+     */
+    private static final String UNREAD_COUNT_SQL = """
+        SELECT Cm.ChatId, Cm.UserId, U.Unread
+        FROM OPENJSON(?) WITH (ChatId uniqueidentifier '$.c', UserId uniqueidentifier '$.u') P
+        JOIN ChatMembers Cm ON Cm.ChatId = P.ChatId AND Cm.UserId = P.UserId
+        CROSS APPLY (
+            SELECT COUNT(*) AS Unread
+            FROM Messages M
+            WHERE M.ChatId = Cm.ChatId
+              AND M.SentAt >= CASE WHEN Cm.LastReadAt > Cm.JoinDate THEN Cm.LastReadAt ELSE Cm.JoinDate END
+              AND (Cm.LastReadAt IS NULL OR M.SentAt > Cm.LastReadAt OR M.Id > Cm.LastReadMessageId)
+              AND M.SenderId <> Cm.UserId
+        ) U
+    """;
+
+    /**
+     * מיקומי הקריאה של כל זוג (חדר, חבר) שב-JSON, כשההודעות לא שמורות בטבלת Messages
+     * והספירה עצמה נעשית במאגר ההודעות ({@link MessageStore#countMessagesAfter}).
+     */
+    private static final String READ_POSITIONS_SQL = """
+        SELECT Cm.ChatId, Cm.UserId, Cm.JoinDate, Cm.LastReadAt, Cm.LastReadMessageId
+        FROM OPENJSON(?) WITH (ChatId uniqueidentifier '$.c', UserId uniqueidentifier '$.u') P
+        JOIN ChatMembers Cm ON Cm.ChatId = P.ChatId AND Cm.UserId = P.UserId
+    """;
+
+    /**
+     * מטמון תמונות מצב של חדרים לבדיקות חברות וגרסת מפתח בנתיבים החמים.
+     * מוגבל בגודל ובזמן, ומתבטל במפורש בכל שינוי חברות / גרסת מפתח.
+     */
+    private final Cache<UUID, ChatRoomSnapshot> snapshotCache;
+
+    /** מונה ביטולים - טעינה שחפפה לביטול לא נכנסת למטמון (כדי לא לשמור מצב ישן) */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** (חדר, חבר) במטמון מוני ההודעות שלא נקראו */
+    private static final class MemberRef {
+        final UUID chatId;
+        final UUID userId;
+
+        MemberRef(UUID chatId, UUID userId) {
+            this.chatId = chatId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MemberRef)) return false;
+            MemberRef other = (MemberRef) o;
+            return chatId.equals(other.chatId) && userId.equals(other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * chatId.hashCode() + userId.hashCode();
+        }
+    }
+
+    /** מונה שנספר, יחד עם גרסאות החדר והחבר שהיו בתוקף לפני הספירה */
+    private static final class UnreadEntry {
+        final int count;
+        final long chatVersion;
+        final long memberVersion;
+
+        UnreadEntry(int count, long chatVersion, long memberVersion) {
+            this.count = count;
+            this.chatVersion = chatVersion;
+            this.memberVersion = memberVersion;
+        }
+    }
+
+    /**
+     * מטמון מוני ההודעות שלא נקראו לכל (חדר, חבר). ערך תקף רק כל עוד גרסת החדר
+     * (מתקדמת בכל הודעה חדשה ושינוי חברות) וגרסת החבר (מתקדמת כשמיקום הקריאה שלו זז)
+     * לא השתנו מאז הספירה. כך כתיבת הודעה לא נוגעת בשורות של החברים - היא רק מקדמת
+     * מספר בזיכרון, והספירה מחדש קורית רק כשמישהו באמת קורא את המונה.
+     * ה-TTL חוסם את הזמן שמונה יכול להישאר ישן בצומת שלא שמע על הודעה מצומת אחר.
+     */
+    private final Cache<MemberRef, UnreadEntry> unreadCache;
+
+    /** גרסאות לפי חדר (UUID) ולפי חבר (MemberRef); ערך חסר מקבל גרסה חדשה, כך שפינוי רק גורם לספירה מחדש */
+    private final Cache<Object, Long> unreadVersions;
+    private final AtomicLong unreadVersionSeq = new AtomicLong();
+
+    /** מאגר ההודעות כשהוא לא טבלת Messages; null - הספירות והתצוגה המקדימה נשלפות ב-SQL */
+    private volatile MessageStore messageStore;
+
     /**
      * בונה מופע חדש של ChatRoomDAO.
      * שימוש ב-DatabaseConnection להשגת חיבור למסד הנתונים.
      */
     public ChatRoomDAO() {
+        this(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS);
+    }
+
+    /**
+     * בונה מופע חדש של ChatRoomDAO עם הגדרות מפורשות למטמון החדרים
+     * וברירות מחדל למטמון מוני ההודעות שלא נקראו.
+     *
+     * @param cacheMaxSize מספר החדרים המרבי במטמון
+     * @param cacheTtlSeconds זמן החיים של תמונת מצב במטמון (בשניות)
+     */
+    public ChatRoomDAO(long cacheMaxSize, long cacheTtlSeconds) {
+        this(cacheMaxSize, cacheTtlSeconds, DEFAULT_UNREAD_CACHE_SIZE, DEFAULT_UNREAD_CACHE_TTL_SECONDS);
+    }
+
+    /**
+     * בונה מופע חדש של ChatRoomDAO עם הגדרות מטמון מפורשות.
+     *
+     * @param cacheMaxSize מספר החדרים המרבי במטמון
+     * @param cacheTtlSeconds זמן החיים של תמונת מצב במטמון (בשניות)
+     * @param unreadCacheMaxSize מספר המונים המרבי במטמון מוני ההודעות שלא נקראו
+     * @param unreadCacheTtlSeconds זמן החיים של מונה במטמון (בשניות)
+     */
+    public ChatRoomDAO(long cacheMaxSize, long cacheTtlSeconds, long unreadCacheMaxSize, long unreadCacheTtlSeconds) {
+        this.snapshotCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.unreadCache = CacheBuilder.newBuilder()
+                .maximumSize(unreadCacheMaxSize)
+                .expireAfterWrite(unreadCacheTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.unreadVersions = CacheBuilder.newBuilder()
+                .maximumSize(unreadCacheMaxSize + cacheMaxSize)
+                .build();
+    }
+
+    /**
+     * מחזיר תמונת מצב של החדר מהמטמון, וטוען מהמסד רק בהחמצה.
+     * מיועד לבדיקות חברות / הרשאה / גרסת מפתח שלא צריכות את מוני ההודעות.
+     *
+     * @param chatId מזהה החדר
+     * @return תמונת מצב בלתי ניתנת לשינוי, או null אם החדר לא קיים
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public ChatRoomSnapshot getChatRoomSnapshot(UUID chatId) throws SQLException {
+        ChatRoomSnapshot snapshot = snapshotCache.getIfPresent(chatId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        long generation = invalidations.get();
+        ChatRoom room = getChatRoomById(chatId);
+        if (room == null) {
+            return null;
+        }
+        snapshot = ChatRoomSnapshot.of(room);
+        if (invalidations.get() == generation) {
+            snapshotCache.put(chatId, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * מגדיר מאגר הודעות חיצוני (למשל {@link LogMessageStore}): מוני ההודעות שלא נקראו וההודעה האחרונה
+     * ברשימת החדרים נלקחים ממנו במקום מטבלת Messages. מיקומי הקריאה והחברות נשארים ב-ChatMembers.
+     *
+     * @param messageStore המאגר, או null (או {@link MessageDAO}) לעבודה מול טבלת Messages
+     */
+    public void setMessageStore(MessageStore messageStore) {
+        this.messageStore = messageStore instanceof MessageDAO ? null : messageStore;
+    }
+
+    /**
+     * מסיר את החדר מהמטמון (נקרא אחרי כל שינוי, וגם על אירועים מצמתים אחרים).
+     *
+     * @param chatId מזהה החדר
+     */
+    public void invalidateChatRoom(UUID chatId) {
+        invalidations.incrementAndGet();
+        snapshotCache.invalidate(chatId);
+        // שינוי חברות משנה גם את תאריכי ההצטרפות שמהם נספרות ההודעות
+        bumpUnreadVersion(chatId);
+    }
+
+    /**
+     * @return סטטיסטיקות המטמון (hits / misses / evictions)
+     */
+    public CacheStats getRoomCacheStats() {
+        return snapshotCache.stats();
+    }
+
+    /**
+     * @return סטטיסטיקות מטמון מוני ההודעות שלא נקראו
+     */
+    public CacheStats getUnreadCacheStats() {
+        return unreadCache.stats();
+    }
+
+    /**
+     * מסמן שנוספו הודעות לחדר (אחרי ה-commit שלהן), כך שהמונים השמורים של חברי החדר
+     * ייספרו מחדש בקריאה הבאה. נקרא גם על הודעות שנכתבו בצמתים אחרים.
+     *
+     * @param chatId מזהה החדר
+     */
+    public void onMessagesAdded(UUID chatId) {
+        bumpUnreadVersion(chatId);
+    }
+
+    private void bumpUnreadVersion(Object key) {
+        unreadVersions.put(key, unreadVersionSeq.incrementAndGet());
+    }
+
+    private long unreadVersion(Object key) {
+        return unreadVersions.asMap().computeIfAbsent(key, k -> unreadVersionSeq.incrementAndGet());
+    }
+
+    /**
+     * מחזיר את מספר ההודעות שלא נקראו לכל אחד מהחברים: מהמטמון אם המונה עדיין תקף,
+     * ואת כל השאר בשאילתה אחת ({@link #UNREAD_COUNT_SQL}). עם מאגר הודעות חיצוני השאילתה מחזירה רק
+     * את מיקומי הקריאה ({@link #READ_POSITIONS_SQL}) והספירה נעשית במאגר. ספירה מה-replica (חיבור read-only)
+     * לא נשמרת במטמון, כי היא עלולה לפגר אחרי הודעה שכבר קידמה את גרסת החדר.
+     *
+     * @param conn חיבור פתוח לקריאה
+     * @param refs החברים
+     * @return מיפוי חבר -> מספר ההודעות שלא נקראו (0 לחבר שלא נמצא)
+     */
+    private Map<MemberRef, Integer> countUnread(Connection conn, Collection<MemberRef> refs) throws SQLException {
+        Map<MemberRef, Integer> counts = new HashMap<>();
+        Map<MemberRef, long[]> misses = new HashMap<>();
+        for (MemberRef ref : refs) {
+            long chatVersion = unreadVersion(ref.chatId);
+            long memberVersion = unreadVersion(ref);
+            UnreadEntry entry = unreadCache.getIfPresent(ref);
+            if (entry != null && entry.chatVersion == chatVersion && entry.memberVersion == memberVersion) {
+                counts.put(ref, entry.count);
+            } else {
+                // הגרסאות נלקחות לפני הספירה: הודעה שתגיע בזמן הספירה תפסול את הערך
+                misses.put(ref, new long[]{chatVersion, memberVersion});
+            }
+        }
+        if (misses.isEmpty()) {
+            return counts;
+        }
+
+        StringBuilder json = new StringBuilder("[");
+        for (MemberRef ref : misses.keySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"c\":\"").append(ref.chatId).append("\",\"u\":\"").append(ref.userId).append("\"}");
+        }
+        json.append(']');
+
+        boolean cacheable = !conn.isReadOnly();
+        MessageStore store = messageStore;
+        try (PreparedStatement stmt = conn.prepareStatement(store == null ? UNREAD_COUNT_SQL : READ_POSITIONS_SQL)) {
+            stmt.setString(1, json.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    MemberRef ref = new MemberRef(UUID.fromString(rs.getString("ChatId")),
+                            UUID.fromString(rs.getString("UserId")));
+                    int count = store == null ? rs.getInt("Unread") : countInStore(store, ref, rs);
+                    long[] versions = misses.remove(ref);
+                    if (versions != null) {
+                        if (cacheable) {
+                            unreadCache.put(ref, new UnreadEntry(count, versions[0], versions[1]));
+                        }
+                        counts.put(ref, count);
+                    }
+                }
+            }
+        }
+        for (MemberRef missing : misses.keySet()) {
+            counts.put(missing, 0);
+        }
+        return counts;
+    }
+
+    /**
+     * סופר במאגר ההודעות החיצוני את ההודעות של אחרים אחרי מיקום הקריאה של החבר (או מאז ההצטרפות),
+     * באותם תנאים כמו {@link #UNREAD_COUNT_SQL}.
+     *
+     * @param rs שורה של {@link #READ_POSITIONS_SQL}
+     */
+    private static int countInStore(MessageStore store, MemberRef ref, ResultSet rs) throws SQLException {
+        Timestamp lastReadAt = rs.getTimestamp("LastReadAt");
+        String lastReadId = rs.getString("LastReadMessageId");
+        MessagePosition readPosition = lastReadAt != null && lastReadId != null
+                ? new MessagePosition(lastReadAt.toInstant(), UUID.fromString(lastReadId))
+                : null;
+        return store.countMessagesAfter(ref.chatId, rs.getTimestamp("JoinDate").toInstant(), readPosition, ref.userId);
+    }
+
+    /**
+     * ממלא את מספר ההודעות שלא נקראו בחברים (בקריאה אחת של {@link #countUnread}).
+     */
+    private void fillUnread(Connection conn, Collection<ChatMember> members) throws SQLException {
+        List<MemberRef> refs = new ArrayList<>(members.size());
+        for (ChatMember member : members) {
+            refs.add(new MemberRef(member.getChatId(), member.getUserId()));
+        }
+        Map<MemberRef, Integer> counts = countUnread(conn, refs);
+        int i = 0;
+        for (ChatMember member : members) {
+            member.setUnreadMessages(counts.getOrDefault(refs.get(i++), 0));
+        }
     }
 
     /**
@@ -40,12 +358,15 @@ public class ChatRoomDAO {
             stmt.setString(5, chatRoom.getFolderId());
             stmt.setTimestamp(6, Timestamp.from(Instant.now()));
             stmt.setInt(7, chatRoom.getCurrentKeyVersion());
-            stmt.executeUpdate();
+            if (stmt.executeUpdate() > 0) {
+                DatabaseConnection.recordWrite(chatRoom.getCreatedBy());
+            }
         }
     }
 
     /**
-     * מאחזר חדר צ'אט לפי מזהה.
+     * מאחזר חדר צ'אט לפי מזהה. מוני ההודעות שלא נקראו של החברים אינם נספרים כאן (נשארים 0):
+     * החדר משמש לבדיקות הרשאה ולבניית תמונת המצב, והמונים נשלפים בנפרד ({@link #getUnreadCounts}).
      *
      * @param chatId UUID של החדר לשאילתה
      * @return אובייקט ChatRoom עם פרטי החדר וחברי החדר, או null אם לא קיים
@@ -86,10 +407,8 @@ public class ChatRoomDAO {
                         ChatRole role = ChatRole.valueOf(memberRs.getString("Role").toUpperCase());
                         Instant joinDate = memberRs.getTimestamp("JoinDate").toInstant();
                         InviteStatus inviteStatus = InviteStatus.valueOf(memberRs.getString("InviteStatus"));
-                        int unread = memberRs.getInt("UnreadMessages");
 
                         ChatMember member = new ChatMember(chatId, userId, role, joinDate, inviteStatus);
-                        member.setUnreadMessages(unread);
                         chatRoom.getMembers().put(userId, member);
                     }
                 }
@@ -100,7 +419,19 @@ public class ChatRoomDAO {
     }
 
     /**
-     * מאחזר את כל חדרי הצ'אט שבהם משתמש חבר.
+     * מקבל חדר אחד מתוך רשימת החדרים של משתמש (ראו {@link #streamUserChatRooms}).
+     */
+    @FunctionalInterface
+    public interface ChatRoomHandler {
+        /**
+         * @param room החדר, כולל כל החברים; מונה ההודעות שלא נקראו ממולא רק למשתמש המבקש
+         * @param lastMessage ההודעה האחרונה בחדר שהמשתמש רשאי לראות, או null אם אין
+         */
+        void handle(ChatRoom room, Messages lastMessage) throws Exception;
+    }
+
+    /**
+     * מאחזר את כל חדרי הצ'אט שבהם משתמש חבר, כולל החברים.
      *
      * @param userId UUID של המשתמש
      * @return רשימת ChatRoom ממוינת לפי זמן ההודעה האחרונה
@@ -108,25 +439,125 @@ public class ChatRoomDAO {
      */
     public ArrayList<ChatRoom> getAllChatRooms(UUID userId) throws SQLException {
         ArrayList<ChatRoom> chatRooms = new ArrayList<>();
-        String sql = """
-            SELECT C.*
-            FROM Chats C
-            JOIN ChatMembers Cm ON Cm.ChatId = C.Id
-            WHERE Cm.UserId = ?
+        try {
+            streamUserChatRooms(userId, (room, lastMessage) -> chatRooms.add(room));
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+        return chatRooms;
+    }
+
+    /**
+     * מעביר ל-handler את כל החדרים של משתמש, ממוינים לפי זמן ההודעה האחרונה,
+     * יחד עם החברים של כל חדר וההודעה האחרונה שלו - בשתי שאילתות בסך הכל, ללא שאילתה לכל חדר.
+     * <p>
+     * השאילתה הראשונה טוענת את חברי כל החדרים של המשתמש (מקובצים לפי חדר). השנייה עוברת
+     * על החדרים עצמם עם ההודעה האחרונה (OUTER APPLY TOP 1 על האינדקס (ChatId, SentAt, Id)),
+     * וכל שורה נמסרת ל-handler מיד, בלי לבנות רשימה של כל החדרים.
+     * עם מאגר הודעות חיצוני ({@link #setMessageStore}) ההודעה האחרונה נקראת ממנו, עמוד של הודעה אחת לכל חדר.
+     * </p>
+     *
+     * @param userId UUID של המשתמש
+     * @param handler מקבל כל חדר לפי הסדר
+     * @return מספר החדרים
+     * @throws Exception אם מתרחשת שגיאה במסד הנתונים או ב-handler
+     */
+    public int streamUserChatRooms(UUID userId, ChatRoomHandler handler) throws Exception {
+        String membersSql = """
+            SELECT Cm.ChatId, Cm.UserId, Cm.Role, Cm.JoinDate, Cm.InviteStatus
+            FROM ChatMembers Me
+            JOIN ChatMembers Cm ON Cm.ChatId = Me.ChatId
+            WHERE Me.UserId = ?
+        """;
+        MessageStore store = messageStore;
+        String roomsSql = store != null ? """
+            SELECT C.*, Me.JoinDate AS MyJoinDate
+            FROM ChatMembers Me
+            JOIN Chats C ON C.Id = Me.ChatId
+            WHERE Me.UserId = ?
+            ORDER BY
+              CASE WHEN C.LastMessageTime IS NULL THEN 1 ELSE 0 END,
+              C.LastMessageTime DESC
+        """ : """
+            SELECT C.*,
+                   L.Id AS LastId, L.SenderId AS LastSenderId, L.Content AS LastContent, L.SentAt AS LastSentAt,
+                   L.Status AS LastStatus, L.IsSystem AS LastIsSystem, L.KeyVersion AS LastKeyVersion
+            FROM ChatMembers Me
+            JOIN Chats C ON C.Id = Me.ChatId
+            OUTER APPLY (
+                SELECT TOP (1) M.Id, M.SenderId, M.Content, M.SentAt, M.Status, M.IsSystem, M.KeyVersion
+                FROM Messages M
+                WHERE M.ChatId = Me.ChatId AND M.SentAt >= Me.JoinDate
+                ORDER BY M.SentAt DESC, M.Id DESC
+            ) L
+            WHERE Me.UserId = ?
             ORDER BY
               CASE WHEN C.LastMessageTime IS NULL THEN 1 ELSE 0 END,
               C.LastMessageTime DESC
         """;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setObject(1, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    chatRooms.add(mapChatRoom(rs));
+        try (Connection conn = DatabaseConnection.getReadConnection(userId)) {
+            Map<UUID, HashMap<UUID, ChatMember>> members = new HashMap<>();
+            try (PreparedStatement stmt = conn.prepareStatement(membersSql)) {
+                stmt.setObject(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        UUID chatId = UUID.fromString(rs.getString("ChatId"));
+                        UUID memberId = UUID.fromString(rs.getString("UserId"));
+                        ChatMember member = new ChatMember(chatId, memberId,
+                                ChatRole.valueOf(rs.getString("Role").toUpperCase()),
+                                rs.getTimestamp("JoinDate").toInstant(),
+                                InviteStatus.valueOf(rs.getString("InviteStatus")));
+                        members.computeIfAbsent(chatId, k -> new HashMap<>()).put(memberId, member);
+                    }
+                }
+            }
+            // מוני ההודעות שלא נקראו של המשתמש עצמו בלבד (שאר החברים נשארים 0):
+            // מהמטמון, והחסרים בשאילתה אחת לכל החדרים
+            List<ChatMember> ownMembers = new ArrayList<>();
+            for (HashMap<UUID, ChatMember> roomMembers : members.values()) {
+                ChatMember own = roomMembers.get(userId);
+                if (own != null) {
+                    ownMembers.add(own);
                 }
             }
+            fillUnread(conn, ownMembers);
+
+            int count = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(roomsSql)) {
+                stmt.setObject(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ChatRoom room = mapChatRoom(rs);
+                        HashMap<UUID, ChatMember> roomMembers = members.remove(room.getChatId());
+                        if (roomMembers != null) {
+                            room.getMembers().putAll(roomMembers);
+                        }
+                        Messages lastMessage = null;
+                        String lastId = store == null ? rs.getString("LastId") : null;
+                        if (store != null) {
+                            List<Messages> last = store.getMessagesBefore(room.getChatId(), userId,
+                                    rs.getTimestamp("MyJoinDate").toInstant(), null, 1);
+                            lastMessage = last.isEmpty() ? null : last.get(0);
+                        } else if (lastId != null) {
+                            lastMessage = new Messages(
+                                    UUID.fromString(lastId),
+                                    room.getChatId(),
+                                    UUID.fromString(rs.getString("LastSenderId")),
+                                    rs.getBytes("LastContent"),
+                                    rs.getTimestamp("LastSentAt").toInstant(),
+                                    MessageStatus.valueOf(rs.getString("LastStatus")),
+                                    rs.getBoolean("LastIsSystem"),
+                                    rs.getInt("LastKeyVersion"));
+                        }
+                        handler.handle(room, lastMessage);
+                        count++;
+                    }
+                }
+            }
+            return count;
         }
-        return chatRooms;
     }
 
     /**
@@ -153,7 +584,13 @@ public class ChatRoomDAO {
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, newName);
             stmt.setObject(2, chatId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(user);
+            }
+            return updated;
+        } finally {
+            invalidateChatRoom(chatId);
         }
     }
 
@@ -188,7 +625,11 @@ public class ChatRoomDAO {
             stmt.setObject(2, chatId);
             stmt.setString(3, ChatRole.MEMBER.name());
             stmt.setString(4, InviteStatus.PENDING.name());
-            stmt.executeUpdate();
+            if (stmt.executeUpdate() > 0) {
+                DatabaseConnection.recordWrite(targetUserId);
+            }
+        } finally {
+            invalidateChatRoom(chatId);
         }
     }
 
@@ -217,7 +658,11 @@ public class ChatRoomDAO {
             stmt.setObject(2, chatRoom.getChatId());
             stmt.setString(3, ChatRole.ADMIN.name());
             stmt.setString(4, InviteStatus.ACCEPTED.name());
-            stmt.executeUpdate();
+            if (stmt.executeUpdate() > 0) {
+                DatabaseConnection.recordWrite(targetId);
+            }
+        } finally {
+            invalidateChatRoom(chatRoom.getChatId());
         }
     }
 
@@ -244,7 +689,11 @@ public class ChatRoomDAO {
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setObject(1, targetUserId);
             stmt.setObject(2, chatId);
-            stmt.executeUpdate();
+            if (stmt.executeUpdate() > 0) {
+                DatabaseConnection.recordWrite(targetUserId);
+            }
+        } finally {
+            invalidateChatRoom(chatId);
         }
     }
 
@@ -276,7 +725,11 @@ public class ChatRoomDAO {
             stmt.setString(1, newRole);
             stmt.setObject(2, chatId);
             stmt.setObject(3, userId);
-            stmt.executeUpdate();
+            if (stmt.executeUpdate() > 0) {
+                DatabaseConnection.recordWrite(userId);
+            }
+        } finally {
+            invalidateChatRoom(chatId);
         }
     }
 
@@ -290,11 +743,18 @@ public class ChatRoomDAO {
      */
     public boolean updateKeyVersion(UUID chatId, int newVersion) throws SQLException {
         String sql = "UPDATE Chats SET CurrentKeyVersion = ? WHERE Id = ?";
+        Set<UUID> members = memberIds(chatId);
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, newVersion);
             stmt.setObject(2, chatId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                members.forEach(DatabaseConnection::recordWrite);
+            }
+            return updated;
+        } finally {
+            invalidateChatRoom(chatId);
         }
     }
 
@@ -308,7 +768,7 @@ public class ChatRoomDAO {
      */
     public ChatMember getChatMember(UUID chatId, UUID userId) throws SQLException {
         String sql = """
-            SELECT CM.Role, CM.JoinDate, CM.InviteStatus, CM.UnreadMessages
+            SELECT CM.Role, CM.JoinDate, CM.InviteStatus
             FROM ChatMembers CM
             JOIN Users U ON CM.UserId = U.Id
             WHERE CM.ChatId = ? AND U.Id = ?
@@ -322,9 +782,8 @@ public class ChatRoomDAO {
                 ChatRole role = ChatRole.fromString(rs.getString("Role"));
                 Instant joinDate = rs.getTimestamp("JoinDate").toInstant();
                 InviteStatus status = InviteStatus.valueOf(rs.getString("InviteStatus"));
-                int unread = rs.getInt("UnreadMessages");
                 ChatMember member = new ChatMember(chatId, userId, role, joinDate, status);
-                member.setUnreadMessages(unread);
+                fillUnread(conn, List.of(member));
                 return member;
             }
         }
@@ -374,9 +833,9 @@ public class ChatRoomDAO {
         Timestamp lastTs = rs.getTimestamp("LastMessageTime");
         int keyVer = rs.getInt("CurrentKeyVersion");
         ChatRoom chatRoom = new ChatRoom(id, name, createdBy, createdAt, folderId, null);
+        chatRoom.setCurrentKeyVersion(keyVer);
         if (lastTs != null) {
             chatRoom.setLastMessageTime(lastTs.toInstant());
-            chatRoom.setCurrentKeyVersion(keyVer);
         }
         return chatRoom;
     }
@@ -422,7 +881,9 @@ public class ChatRoomDAO {
     }
 
     /**
-     * מחזיר את מספר ההודעות הלא נקראות של משתמש בחדר.
+     * מחזיר את מספר ההודעות הלא נקראות של משתמש בחדר: הודעות של אחרים אחרי מיקום הקריאה
+     * שלו (או מאז ההצטרפות). נספר לפי דרישה ונשמר במטמון עד ההודעה הבאה בחדר
+     * או עד שמיקום הקריאה זז.
      *
      * @param chatId מזהה החדר
      * @param userId מזהה המשתמש
@@ -430,39 +891,180 @@ public class ChatRoomDAO {
      * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
      */
     public int getUnreadMessages(UUID chatId, UUID userId) throws SQLException {
-        String sql = "SELECT UnreadMessages FROM ChatMembers WHERE ChatId = ? AND UserId = ?";
+        MemberRef ref = new MemberRef(chatId, userId);
+        try (Connection conn = DatabaseConnection.getReadConnection(userId)) {
+            return countUnread(conn, List.of(ref)).getOrDefault(ref, 0);
+        }
+    }
+
+    /**
+     * מחזיר את מספר ההודעות הלא נקראות של כל חברי החדר: מהמטמון, והחסרים בשאילתה אחת.
+     *
+     * @param chatId מזהה החדר
+     * @return מיפוי משתמש -> מספר ההודעות הלא נקראות
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public Map<UUID, Integer> getUnreadCounts(UUID chatId) throws SQLException {
+        Map<UUID, Integer> counts = new HashMap<>();
+        ChatRoomSnapshot room = getChatRoomSnapshot(chatId);
+        if (room == null) {
+            return counts;
+        }
+        List<MemberRef> refs = new ArrayList<>();
+        for (UUID userId : room.getMembers().keySet()) {
+            refs.add(new MemberRef(chatId, userId));
+        }
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            countUnread(conn, refs).forEach((ref, count) -> counts.put(ref.userId, count));
+        }
+        return counts;
+    }
+
+    /**
+     * מחזיר את מיקום הקריאה השמור של משתמש בחדר (ההודעה האחרונה שנשלחה אליו בהיסטוריה).
+     *
+     * @param chatId מזהה החדר
+     * @param userId מזהה המשתמש
+     * @return המיקום, או null אם המשתמש עוד לא קרא דבר
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public MessagePosition getReadPosition(UUID chatId, UUID userId) throws SQLException {
+        String sql = "SELECT LastReadAt, LastReadMessageId FROM ChatMembers WHERE ChatId = ? AND UserId = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setObject(1, chatId);
             stmt.setObject(2, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getInt("UnreadMessages");
+                    Timestamp lastReadAt = rs.getTimestamp("LastReadAt");
+                    String lastReadId = rs.getString("LastReadMessageId");
+                    if (lastReadAt != null && lastReadId != null) {
+                        return new MessagePosition(lastReadAt.toInstant(), UUID.fromString(lastReadId));
+                    }
                 }
             }
         }
-        return 0;
+        return null;
     }
 
     /**
-     * מעדכן את מספר ההודעות הלא נקראות של משתמש בחדר.
+     * מקדם את מיקום הקריאה של משתמש בחדר. המיקום רק מתקדם קדימה ב-(SentAt, Id),
+     * כך שקריאת עמוד ישן או בקשות מקבילות לא מחזירות אותו אחורה.
      *
      * @param chatId מזהה החדר
      * @param userId מזהה המשתמש
-     * @param unreadMessages מספר ההודעות החדשות
+     * @param position ההודעה האחרונה שנקראה
+     * @return true אם המיקום עודכן
      * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
      */
-    public void updateUnreadMessages(UUID chatId, UUID userId, int unreadMessages) throws SQLException {
-        String sql = "UPDATE ChatMembers SET UnreadMessages = ? WHERE ChatId = ? AND UserId = ?";
+    public boolean advanceReadPosition(UUID chatId, UUID userId, MessagePosition position) throws SQLException {
+        String sql = """
+            UPDATE ChatMembers
+            SET LastReadAt = ?, LastReadMessageId = ?
+            WHERE ChatId = ? AND UserId = ?
+              AND (LastReadAt IS NULL
+                   OR LastReadAt < ?
+                   OR (LastReadAt = ? AND LastReadMessageId < ?))
+        """;
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, unreadMessages);
-            stmt.setObject(2, chatId);
-            stmt.setObject(3, userId);
-            stmt.executeUpdate();
+            Timestamp sentAt = Timestamp.from(position.getSentAt());
+            stmt.setTimestamp(1, sentAt);
+            stmt.setObject(2, position.getMessageId());
+            stmt.setObject(3, chatId);
+            stmt.setObject(4, userId);
+            stmt.setTimestamp(5, sentAt);
+            stmt.setTimestamp(6, sentAt);
+            stmt.setObject(7, position.getMessageId());
+            boolean advanced = stmt.executeUpdate() > 0;
+            if (advanced) {
+                DatabaseConnection.recordWrite(userId);
+                bumpUnreadVersion(new MemberRef(chatId, userId));
+            }
+            return advanced;
+        }
+    }
+
+    /**
+     * כותב באצווה את סימני המים של אישורי הקבלה: מיקום המסירה (LastDelivered*) ומיקום
+     * הצפייה (LastRead*) של כל חבר. כמו {@link #advanceReadPosition}, כל מיקום רק מתקדם
+     * קדימה ב-(SentAt, Id), כך שאישור ישן שהגיע באיחור לא מחזיר אותו אחורה.
+     * כל העדכונים נשלחים יחד בטרנזקציה אחת.
+     *
+     * @param delivered מיפוי חדר -> (משתמש -> ההודעה האחרונה שנמסרה לו)
+     * @param seen מיפוי חדר -> (משתמש -> ההודעה האחרונה שהוא ראה)
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public void advanceReceiptPositions(Map<UUID, Map<UUID, MessagePosition>> delivered,
+                                        Map<UUID, Map<UUID, MessagePosition>> seen) throws SQLException {
+        String deliveredSql = """
+            UPDATE ChatMembers
+            SET LastDeliveredAt = ?, LastDeliveredMessageId = ?
+            WHERE ChatId = ? AND UserId = ?
+              AND (LastDeliveredAt IS NULL
+                   OR LastDeliveredAt < ?
+                   OR (LastDeliveredAt = ? AND LastDeliveredMessageId < ?))
+        """;
+        String seenSql = """
+            UPDATE ChatMembers
+            SET LastReadAt = ?, LastReadMessageId = ?
+            WHERE ChatId = ? AND UserId = ?
+              AND (LastReadAt IS NULL
+                   OR LastReadAt < ?
+                   OR (LastReadAt = ? AND LastReadMessageId < ?))
+        """;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement deliveredStmt = conn.prepareStatement(deliveredSql);
+                 PreparedStatement seenStmt = conn.prepareStatement(seenSql)) {
+                boolean anyDelivered = addPositionBatch(deliveredStmt, delivered);
+                boolean anySeen = addPositionBatch(seenStmt, seen);
+                if (anyDelivered) {
+                    deliveredStmt.executeBatch();
+                }
+                if (anySeen) {
+                    seenStmt.executeBatch();
+                }
+                conn.commit();
+                delivered.values().forEach(members -> members.keySet().forEach(DatabaseConnection::recordWrite));
+                seen.values().forEach(members -> members.keySet().forEach(DatabaseConnection::recordWrite));
+                // מיקומי הקריאה זזו - המונים של החברים האלה ייספרו מחדש
+                seen.forEach((chatId, members) -> members.keySet()
+                        .forEach(userId -> bumpUnreadVersion(new MemberRef(chatId, userId))));
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
     }
 
+    /**
+     * מוסיף ל-batch עדכון מיקום קדימה לכל זוג (חדר, משתמש).
+     * @return true אם נוסף לפחות עדכון אחד
+     */
+    private static boolean addPositionBatch(PreparedStatement stmt,
+                                            Map<UUID, Map<UUID, MessagePosition>> positions) throws SQLException {
+        boolean added = false;
+        for (Map.Entry<UUID, Map<UUID, MessagePosition>> chat : positions.entrySet()) {
+            for (Map.Entry<UUID, MessagePosition> member : chat.getValue().entrySet()) {
+                MessagePosition position = member.getValue();
+                Timestamp sentAt = Timestamp.from(position.getSentAt());
+                stmt.setTimestamp(1, sentAt);
+                stmt.setObject(2, position.getMessageId());
+                stmt.setObject(3, chat.getKey());
+                stmt.setObject(4, member.getKey());
+                stmt.setTimestamp(5, sentAt);
+                stmt.setTimestamp(6, sentAt);
+                stmt.setObject(7, position.getMessageId());
+                stmt.addBatch();
+                added = true;
+            }
+        }
+        return added;
+    }
+
     /**
      * סופר את מספר החברים בחדר.
      *
@@ -494,11 +1096,55 @@ public class ChatRoomDAO {
      */
     public boolean updateFolderId(UUID chatId, String folderId) throws SQLException {
         String sql = "UPDATE Chats SET FolderId = ? WHERE Id = ?";
+        Set<UUID> members = memberIds(chatId);
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, folderId);
             stmt.setObject(2, chatId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                members.forEach(DatabaseConnection::recordWrite);
+            }
+            return updated;
+        } finally {
+            invalidateChatRoom(chatId);
+        }
+    }
+
+    /**
+     * חברי החדר, לסימון {@link DatabaseConnection#recordWrite} אחרי שינוי בשורת Chats שכל החברים קוראים
+     * (גרסת מפתח, תיקייה): הקריאות הבאות שלהם יגיעו למאגר הראשי ולא לערך הישן ב-replica.
+     * נקרא לפני פתיחת החיבור של העדכון: החטאה במטמון שואלת חיבור משלה, ושני חיבורים באותו ת'רד
+     * עלולים להיתקע כשהמאגר מלא. החברים נלקחים מתמונת המצב, לפני שהעדכון פוסל אותה.
+     */
+    private Set<UUID> memberIds(UUID chatId) throws SQLException {
+        ChatRoomSnapshot snapshot = getChatRoomSnapshot(chatId);
+        return snapshot == null ? Set.of() : snapshot.getMembers().keySet();
+    }
+
+    /**
+     * מקדם את LastMessageTime של כמה חדרים על גבי חיבור קיים (כחלק מטרנזקציה של הכותב).
+     * הזמן מתעדכן רק קדימה, כך שאצוות שמגיעות שלא לפי הסדר לא מחזירות אותו אחורה.
+     *
+     * @param connection חיבור פתוח; הטרנזקציה באחריות הקורא
+     * @param lastMessageTimes מיפוי חדר -> זמן ההודעה המאוחרת באצווה
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public void advanceLastMessageTimes(Connection connection, Map<UUID, Instant> lastMessageTimes) throws SQLException {
+        String sql = """
+            UPDATE Chats
+            SET LastMessageTime = ?
+            WHERE Id = ? AND (LastMessageTime IS NULL OR LastMessageTime < ?)
+        """;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Map.Entry<UUID, Instant> entry : lastMessageTimes.entrySet()) {
+                Timestamp ts = Timestamp.from(entry.getValue());
+                stmt.setTimestamp(1, ts);
+                stmt.setObject(2, entry.getKey());
+                stmt.setTimestamp(3, ts);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
         }
     }
 
@@ -518,4 +1164,14 @@ public class ChatRoomDAO {
             stmt.executeUpdate();
         }
     }
+
+    // ===== גרסאות אסינכרוניות: כל אחת רצה ב-bulkhead של סוג העבודה שלה (DaoExecutor) =====
+
+    /**
+     * גרסה אסינכרונית של {@link #streamUserChatRooms(UUID, ChatRoomHandler)} ({@link Workload#HISTORY}).
+     * ה-handler רץ על ת'רד של ה-bulkhead.
+     */
+    public CompletableFuture<Integer> streamUserChatRoomsAsync(UUID userId, ChatRoomHandler handler) {
+        return DaoExecutor.of(Workload.HISTORY).supply(() -> streamUserChatRooms(userId, handler));
+    }
 }
@@ -0,0 +1,104 @@
+package model;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * תמונת מצב בלתי ניתנת לשינוי של חדר צ'אט והחברים בו, לשימוש במטמון של {@link ChatRoomDAO}.
+ * <p>
+ * מכילה רק את מה שנדרש לבדיקות הרשאה בנתיבים החמים (חברות, תפקיד, תאריך הצטרפות,
+ * גרסת מפתח). מוני הודעות שלא נקראו משתנים בכל הודעה ולכן לא נשמרים כאן.
+ * </p>
+ */
+public final class ChatRoomSnapshot {
+
+    /**
+     * פרטי חברות בלתי ניתנים לשינוי.
+     */
+    public static final class Member {
+        private final UUID userId;
+        private final ChatRole role;
+        private final Instant joinDate;
+        private final InviteStatus inviteStatus;
+
+        private Member(ChatMember member) {
+            this.userId = member.getUserId();
+            this.role = member.getRole();
+            this.joinDate = member.getJoinDate();
+            this.inviteStatus = member.getInviteStatus();
+        }
+
+        public UUID getUserId() { return userId; }
+        public ChatRole getRole() { return role; }
+        public Instant getJoinDate() { return joinDate; }
+        public InviteStatus getInviteStatus() { return inviteStatus; }
+
+        /**
+         * @return true אם הסטטוס PENDING או ACCEPTED (כמו {@link ChatMember#canAccess()})
+         */
+        public boolean canAccess() {
+            return inviteStatus == InviteStatus.PENDING || inviteStatus == InviteStatus.ACCEPTED;
+        }
+    }
+
+    private final UUID chatId;
+    private final String name;
+    private final UUID createdBy;
+    private final Instant createdAt;
+    private final String folderId;
+    private final int currentKeyVersion;
+    private final Map<UUID, Member> members;
+
+    private ChatRoomSnapshot(ChatRoom room) {
+        this.chatId = room.getChatId();
+        this.name = room.getName();
+        this.createdBy = room.getCreatedBy();
+        this.createdAt = room.getCreatedAt();
+        this.folderId = room.getFolderId();
+        this.currentKeyVersion = room.getCurrentKeyVersion();
+        Map<UUID, Member> copy = new HashMap<>();
+        for (ChatMember member : room.getMembers().values()) {
+            copy.put(member.getUserId(), new Member(member));
+        }
+        this.members = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * יוצר תמונת מצב מחדר שנטען מהמסד.
+     * @param room החדר המלא
+     * @return תמונת מצב בלתי ניתנת לשינוי
+     */
+    public static ChatRoomSnapshot of(ChatRoom room) {
+        return new ChatRoomSnapshot(room);
+    }
+
+    public UUID getChatId() { return chatId; }
+    public String getName() { return name; }
+    public UUID getCreatedBy() { return createdBy; }
+    public Instant getCreatedAt() { return createdAt; }
+    public String getFolderId() { return folderId; }
+    public int getCurrentKeyVersion() { return currentKeyVersion; }
+
+    /** @return מפת החברים (לקריאה בלבד) */
+    public Map<UUID, Member> getMembers() { return members; }
+
+    /**
+     * @param userId מזהה המשתמש
+     * @return פרטי החברות, או null אם המשתמש אינו חבר
+     */
+    public Member getMember(UUID userId) {
+        return members.get(userId);
+    }
+
+    public boolean isMember(UUID userId) {
+        return members.containsKey(userId);
+    }
+
+    public boolean isAdmin(UUID userId) {
+        Member member = members.get(userId);
+        return member != null && member.getRole() == ChatRole.ADMIN;
+    }
+}
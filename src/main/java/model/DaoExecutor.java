@@ -0,0 +1,152 @@
+package model;
+
+import utils.AppConfig;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead for one {@link Workload}: a bounded thread pool that runs blocking DAO calls and
+ * hands back a {@link CompletableFuture}.
+ * <p>
+ * Every DAO method borrows at most one connection and returns it before it completes, so the
+ * number of threads ({@code db.bulkhead.<workload>.connections}) caps the connections a workload
+ * can hold. {@code db.bulkhead.<workload>.reserved} of them are set aside in the pool for that
+ * workload alone ({@link DatabaseConnection#reserve}), so synchronous callers and other workloads
+ * cannot take them; beyond its reservation a workload competes for the shared remainder.
+ * By default only {@link Workload#MESSAGING}, which carries the message batch writer, reserves
+ * connections.
+ * </p>
+ * When a workload's queue ({@code db.bulkhead.<workload>.queueCapacity}) is full the call fails
+ * fast with {@link RejectedExecutionException} instead of waiting for a connection.
+ */
+public final class DaoExecutor {
+
+    /** A blocking DAO call. */
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws Exception;
+    }
+
+    private static final Map<Workload, DaoExecutor> EXECUTORS = new EnumMap<>(Workload.class);
+
+    static {
+        int[] defaults = {4, 6, 6, 2}; // AUTH, MESSAGING, HISTORY, ADMIN
+        int[] reservedDefaults = {0, 3, 0, 0};
+        int total = 0;
+        for (Workload workload : Workload.values()) {
+            String prefix = "db.bulkhead." + workload.configKey();
+            int connections = Math.max(1, AppConfig.getInt(prefix + ".connections", defaults[workload.ordinal()]));
+            int queueCapacity = AppConfig.getInt(prefix + ".queueCapacity", 1_000);
+            int reserved = Math.min(connections,
+                    Math.max(0, AppConfig.getInt(prefix + ".reserved", reservedDefaults[workload.ordinal()])));
+            if (reserved > 0 && DatabaseConnection.reserve(workload, reserved) < reserved) {
+                System.err.println("[DaoExecutor] could not reserve " + reserved + " connections for " + workload
+                        + "; the pool is too small");
+            }
+            EXECUTORS.put(workload, new DaoExecutor(workload, connections, queueCapacity));
+            total += connections;
+        }
+        int poolSize = DatabaseConnection.getMaximumPoolSize();
+        if (total > poolSize) {
+            System.err.println("[DaoExecutor] bulkhead quotas (" + total + ") exceed the connection pool ("
+                    + poolSize + "); workloads can still block each other");
+        }
+    }
+
+    private final Workload workload;
+    private final int connections;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private DaoExecutor(Workload workload, int connections, int queueCapacity) {
+        this.workload = workload;
+        this.connections = connections;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(connections, connections, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(() -> {
+                        DatabaseConnection.bindWorkload(workload);
+                        r.run();
+                    }, "dao-" + workload.configKey() + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param workload the workload class.
+     * @return the bulkhead of that class.
+     */
+    public static DaoExecutor of(Workload workload) {
+        return EXECUTORS.get(workload);
+    }
+
+    /**
+     * Runs a blocking DAO call inside this bulkhead.
+     *
+     * @param call the call to run.
+     * @return a future completed with the call's result, or exceptionally with its exception
+     *         (or {@link RejectedExecutionException} if the bulkhead is saturated).
+     */
+    public <T> CompletableFuture<T> supply(SqlCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(
+                    new RejectedExecutionException(workload + " database bulkhead is saturated"));
+        }
+        return future;
+    }
+
+    /**
+     * @return metrics of every bulkhead, one line per workload.
+     */
+    public static String allStats() {
+        StringBuilder sb = new StringBuilder();
+        for (DaoExecutor executor : EXECUTORS.values()) {
+            if (sb.length() > 0) {
+                sb.append(" | ");
+            }
+            sb.append(executor.stats());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return metrics of this bulkhead.
+     */
+    public String stats() {
+        return String.format("%s active=%d/%d queued=%d completed=%d rejected=%d",
+                workload, pool.getActiveCount(), connections, pool.getQueue().size(),
+                completed.get(), rejected.get());
+    }
+
+    /**
+     * Stops all bulkheads after the queued calls finish.
+     */
+    public static void shutdownAll() {
+        for (DaoExecutor executor : EXECUTORS.values()) {
+            executor.pool.shutdown();
+        }
+    }
+}
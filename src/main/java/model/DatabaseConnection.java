@@ -1,14 +1,25 @@
 package model;
 
 // ייבוא המחלקות הנדרשות מ-HikariCP, ספרייה לניהול יעיל של מאגרי חיבורים
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * מחלקת Singleton האחראית על יצירת וניהול מאגר חיבורים למסד הנתונים באמצעות HikariCP.
@@ -24,6 +35,38 @@ public class DatabaseConnection {
      */
     private static HikariDataSource dataSource;
 
+    /** מאגר הקריאה מול ה-replica, או null אם לא הוגדר */
+    private static HikariDataSource replica;
+
+    /**
+     * משתמשים שכתבו לאחרונה. הקריאות שלהם הולכות למאגר הראשי עד שחלון read-your-writes
+     * ({@code db.replica.readYourWritesMillis}) עובר, כדי שלא יראו מצב שקדם לכתיבה שלהם.
+     */
+    private static Cache<UUID, Boolean> recentWriters;
+
+    private static final PoolMetrics primaryMetrics = new PoolMetrics();
+    private static PoolMetrics replicaMetrics;
+
+    /**
+     * היתרים לחיבורים מהמאגר הראשי, כמספר החיבורים בו. קוראים ממתינים כאן בתור הוגן (לפי סדר הגעה)
+     * ולא בתוך Hikari, כך שגם אלפי ת'רדים וירטואליים של handlers לא פותחים יותר חיבורים ממה שיש
+     * במאגר ולא נכשלים ב-connectionTimeout בזמן שאחרים שהגיעו אחריהם מקבלים חיבור.
+     * רק מי שבאמת מבקש חיבור ממתין; handler שחוסם על שירות חיצוני לא תופס היתר.
+     */
+    private static Semaphore primaryPermits;
+    private static long connectionTimeoutMillis;
+
+    /**
+     * חיבורים שמורים לכל סוג עבודה ({@link #reserve}), שהוצאו מ-{@link #primaryPermits}.
+     * רק ת'רדים של ה-bulkhead של אותו סוג ({@link DaoExecutor}) משתמשים בהם, כך שעומס במקום אחר
+     * לא משאיר את נתיב השליחה בלי חיבור.
+     */
+    private static final Map<Workload, Semaphore> reservedPermits = new ConcurrentHashMap<>();
+    /** סוג העבודה של ת'רד bulkhead; null בכל ת'רד אחר */
+    private static final ThreadLocal<Workload> currentWorkload = new ThreadLocal<>();
+    /** כל כמה זמן ת'רד עם חיבורים שמורים שממתין בתור המשותף בודק אם התפנה חיבור שמור */
+    private static final long RESERVED_POLL_MILLIS = 10;
+
     // בלוק אתחול סטטי שנטען פעם אחת בעת טעינת המחלקה בתאימות ל-Singleton
     static {
         try (
@@ -40,24 +83,22 @@ public class DatabaseConnection {
             Properties properties = new Properties();
             properties.load(input);
 
-            // קריאת כתובת ה-JDBC, שם המשתמש והסיסמה
-            String url      = properties.getProperty("db.url");
-            String username = properties.getProperty("db.username");
-            String password = properties.getProperty("db.password");
-
-            // הכנה והגדרה של HikariConfig
-            HikariConfig config = new HikariConfig();
-            config.setJdbcUrl(url);                    // כתובת החיבור למסד הנתונים
-            config.setUsername(username);              // שם המשתמש
-            config.setPassword(password);              // סיסמה
-            config.setMaximumPoolSize(20);             // גודל מקסימלי של מאגר החיבורים
-            config.setMinimumIdle(5);                  // מספר מינימלי של חיבורים רדומים
-            config.setIdleTimeout(60000);              // זמן מרבי לחיבור רדום (במילישניות)
-            config.setMaxLifetime(300000);             // זמן חיים מרבי של חיבור במאגר
-            config.setConnectionTimeout(30000);        // זמן המתנה לקבלת חיבור זמין
-
-            // אתחול המאגר עם ההגדרות שהוגדרו
-            dataSource = new HikariDataSource(config);
+            // מאגר הכתיבה (הראשי) - תמיד קיים
+            dataSource = createPool(properties, "db", "db", "primary", false, 20, primaryMetrics);
+            primaryPermits = new Semaphore(dataSource.getMaximumPoolSize(), true);
+            connectionTimeoutMillis = dataSource.getConnectionTimeout();
+
+            // מאגר קריאה אופציונלי מול replica; בלי db.replica.url כל הקריאות הולכות לראשי
+            if (properties.getProperty("db.replica.url") != null) {
+                replicaMetrics = new PoolMetrics();
+                replica = createPool(properties, "db.replica", "db", "replica", true, 10, replicaMetrics);
+                long readYourWritesMillis = Long.parseLong(
+                        properties.getProperty("db.replica.readYourWritesMillis", "5000"));
+                recentWriters = CacheBuilder.newBuilder()
+                        .maximumSize(100_000)
+                        .expireAfterWrite(readYourWritesMillis, TimeUnit.MILLISECONDS)
+                        .build();
+            }
 
         } catch (IOException e) {
             // במקרה של בעיה בקריאת קובץ התצורה – זריקה של RuntimeException
@@ -65,6 +106,34 @@ public class DatabaseConnection {
         }
     }
 
+    /**
+     * בונה מאגר חיבורים לפי מפתחות {@code <prefix>.*}: url, username, password,
+     * pool.maxSize, pool.minIdle, pool.connectionTimeoutMillis.
+     * שם משתמש וסיסמה שלא הוגדרו נלקחים מ-{@code <fallbackPrefix>.*}.
+     */
+    private static HikariDataSource createPool(Properties properties, String prefix, String fallbackPrefix,
+                                               String poolName, boolean readOnly, int defaultMaxSize,
+                                               PoolMetrics metrics) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl(properties.getProperty(prefix + ".url"));                  // כתובת החיבור למסד הנתונים
+        config.setUsername(properties.getProperty(prefix + ".username",
+                properties.getProperty(fallbackPrefix + ".username")));             // שם המשתמש
+        config.setPassword(properties.getProperty(prefix + ".password",
+                properties.getProperty(fallbackPrefix + ".password")));             // סיסמה
+        config.setMaximumPoolSize(Integer.parseInt(properties.getProperty(
+                prefix + ".pool.maxSize", String.valueOf(defaultMaxSize))));       // גודל מקסימלי של מאגר החיבורים
+        config.setMinimumIdle(Integer.parseInt(
+                properties.getProperty(prefix + ".pool.minIdle", "5")));           // מספר מינימלי של חיבורים רדומים
+        config.setIdleTimeout(60000);              // זמן מרבי לחיבור רדום (במילישניות)
+        config.setMaxLifetime(300000);             // זמן חיים מרבי של חיבור במאגר
+        config.setConnectionTimeout(Long.parseLong(properties.getProperty(
+                prefix + ".pool.connectionTimeoutMillis", "30000")));              // זמן המתנה לקבלת חיבור זמין
+        config.setReadOnly(readOnly);
+        config.setMetricsTrackerFactory(metrics);
+        return new HikariDataSource(config);
+    }
+
     /**
      * בנאי פרטי למניעת יצירה חיצונית של מופעים נוספים (Pattern: Singleton).
      */
@@ -85,13 +154,168 @@ public class DatabaseConnection {
     }
 
     /**
-     * שולף חיבור פעיל ממאגר החיבורים.
+     * שולף חיבור פעיל ממאגר החיבורים, אחרי המתנה בתור ההוגן ({@link #primaryPermits})
+     * של עד connectionTimeout. סגירת החיבור מחזירה גם את ההיתר.
      *
      * @return Connection מ-DataSource
-     * @throws SQLException אם לא ניתן לקבל חיבור
+     * @throws SQLException אם לא ניתן לקבל חיבור (כולל המתנה שעברה את connectionTimeout)
      */
     public static Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        Semaphore permits = acquirePermit();
+        try {
+            return releasingOnClose(dataSource.getConnection(), permits);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * ממתין להיתר לחיבור. ת'רד של bulkhead לוקח קודם חיבור שמור של סוג העבודה שלו, ואם כולם
+     * בשימוש - ממתין בתור המשותף ובודק שוב את השמורים כל {@link #RESERVED_POLL_MILLIS}.
+     * כל ת'רד אחר ממתין רק בתור המשותף.
+     *
+     * @return ה-semaphore שממנו נלקח ההיתר (אליו הוא יוחזר)
+     */
+    private static Semaphore acquirePermit() throws SQLException {
+        Workload workload = currentWorkload.get();
+        Semaphore reserved = workload == null ? null : reservedPermits.get(workload);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+        try {
+            while (true) {
+                if (reserved != null && reserved.tryAcquire()) {
+                    return reserved;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTransientConnectionException("primary - connection is not available, request timed out after "
+                            + connectionTimeoutMillis + "ms (" + primaryPermits.getQueueLength() + " waiting)");
+                }
+                long wait = reserved == null ? remaining
+                        : Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(RESERVED_POLL_MILLIS));
+                if (primaryPermits.tryAcquire(wait, TimeUnit.NANOSECONDS)) {
+                    return primaryPermits;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    /**
+     * שומר חיבורים מהמאגר הראשי לסוג עבודה: הם יוצאים מהתור המשותף וזמינים רק לת'רדים שנקשרו
+     * לאותו סוג ב-{@link #bindWorkload}. לפחות חיבור אחד נשאר תמיד משותף.
+     *
+     * @param workload סוג העבודה
+     * @param connections מספר החיבורים המבוקש
+     * @return מספר החיבורים שנשמרו בפועל
+     */
+    static synchronized int reserve(Workload workload, int connections) {
+        int granted = Math.min(connections, primaryPermits.availablePermits() - 1);
+        if (granted <= 0 || reservedPermits.containsKey(workload) || !primaryPermits.tryAcquire(granted)) {
+            return 0;
+        }
+        reservedPermits.put(workload, new Semaphore(granted, true));
+        return granted;
+    }
+
+    /**
+     * קושר את הת'רד הנוכחי לסוג עבודה, כך שהחיבורים שלו נלקחים קודם מהשמורים של אותו סוג.
+     * נקרא פעם אחת בתחילת כל ת'רד של {@link DaoExecutor}.
+     */
+    static void bindWorkload(Workload workload) {
+        currentWorkload.set(workload);
+    }
+
+    /**
+     * עוטף חיבור כך שהסגירה הראשונה שלו מחזירה היתר ל-{@code permits}. שאר הקריאות מועברות לחיבור כמו שהן.
+     */
+    private static Connection releasingOnClose(Connection connection, Semaphore permits) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(DatabaseConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("close") && method.getParameterCount() == 0
+                                && released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * שולף חיבור לקריאה בלבד. אם הוגדר replica והקורא לא כתב בחלון האחרון - מה-replica,
+     * אחרת מהמאגר הראשי. אם ה-replica לא זמין הקריאה נופלת למאגר הראשי.
+     * <p>
+     * לשימוש רק בשאילתות שמוצגות למשתמש, לא בקריאה שלאחריה כתיבה על סמך התוצאה.
+     * </p>
+     *
+     * @param readerId המשתמש שעבורו נקרא המידע; null - קריאה מהמאגר הראשי (למשל כשהתוצאה
+     *                 נשמרת במטמון שחייב להיות עדכני)
+     * @return Connection מה-replica או מהמאגר הראשי
+     * @throws SQLException אם לא ניתן לקבל חיבור מהמאגר הראשי
+     */
+    public static Connection getReadConnection(UUID readerId) throws SQLException {
+        if (replica == null || readerId == null || recentWriters.getIfPresent(readerId) != null) {
+            return getConnection();
+        }
+        try {
+            return replica.getConnection();
+        } catch (SQLException e) {
+            System.err.println("[DatabaseConnection] replica unavailable, reading from primary: " + e.getMessage());
+            return getConnection();
+        }
+    }
+
+    /**
+     * מסמן שהנתונים של משתמש השתנו עכשיו (הוא כתב, או שכתבו עבורו - הזמנה, צירוף לחדר),
+     * כך שהקריאות הבאות שלו ב-{@link #getReadConnection(UUID)} יגיעו למאגר הראשי
+     * עד שה-replica יספיק להתעדכן. נקרא ממתודות הכתיבה ב-DAO.
+     *
+     * @param userId המשתמש
+     */
+    public static void recordWrite(UUID userId) {
+        if (recentWriters != null && userId != null) {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return true אם הוגדר מאגר קריאה נפרד
+     */
+    public static boolean hasReplica() {
+        return replica != null;
+    }
+
+    /**
+     * @return מדדי המאגרים (ראשי, ו-replica אם קיים)
+     */
+    public static String poolStats() {
+        StringBuilder primary = new StringBuilder(primaryMetrics.stats())
+                .append(" queued=").append(primaryPermits.getQueueLength());
+        reservedPermits.forEach((workload, permits) ->
+                primary.append(' ').append(workload).append("Free=").append(permits.availablePermits()));
+        return replicaMetrics == null ? primary.toString() : primary + " | " + replicaMetrics.stats();
+    }
+
+    /**
+     * @return הגודל המרבי של מאגר החיבורים הראשי (לחישוב תקרות מקביליות מעליו)
+     */
+    public static int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
     }
 
     /**
@@ -103,5 +327,8 @@ public class DatabaseConnection {
             dataSource.close();
             System.out.println("🔌 החיבור למסד הנתונים נסגר.");
         }
+        if (replica != null && !replica.isClosed()) {
+            replica.close();
+        }
     }
 }
@@ -45,6 +45,9 @@ public class InviteDAO {
 
             int rowsInserted = stmt.executeUpdate();
             System.out.println("Rows inserted: " + rowsInserted);
+            if (rowsInserted > 0) {
+                DatabaseConnection.recordWrite(invite.getReceiverId());
+            }
             return rowsInserted > 0;
         } catch (SQLException e) {
             System.err.println("Failed to create invite: " + e.getMessage());
@@ -129,7 +132,11 @@ public class InviteDAO {
              PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setObject(1, chatId);
             stmt.setObject(2, invitedId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(invitedId);
+            }
+            return updated;
         }
     }
 
@@ -149,7 +156,11 @@ public class InviteDAO {
             stmt.setString(1, newStatus.name());
             stmt.setObject(2, chatId);
             stmt.setObject(3, invitedId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(invitedId);
+            }
+            return updated;
         }
     }
 
@@ -198,7 +209,7 @@ public class InviteDAO {
     public ArrayList<Invite> getUserInvites(UUID userId) throws SQLException {
         String sql = "SELECT * FROM Invites WHERE InvitedId = ? AND Status = 'PENDING'";
         ArrayList<Invite> invites = new ArrayList<>();
-        try (Connection connection = DatabaseConnection.getConnection();
+        try (Connection connection = DatabaseConnection.getReadConnection(userId);
              PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setObject(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
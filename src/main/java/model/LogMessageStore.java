@@ -0,0 +1,802 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded {@link MessageStore}: one append-only log file per chat and an in-memory index,
+ * for single-node deployments and for measuring the service without SQL Server.
+ * <p>
+ * {@code <dir>/<chatId>.log} holds a header (magic, version, chat id) followed by records
+ * {@code [payload length][CRC32 of batch id and payload][batch id][payload]}, where the payload is a
+ * {@link MessageCodec} record. Records are appended in arrival order. The index of a chat holds the (SentAt, Id) position,
+ * sender, file offset and length of every record, sorted by position, so a keyset page is a binary search
+ * followed by positional reads; records that are adjacent in the file are read with one call.
+ * </p>
+ * <p>
+ * {@link #saveMessages} writes the records of each chat with one call, forces every file it touched
+ * once and then commits the batch by writing its id to {@code <dir>/batches.commit}, so a batch costs
+ * one fsync per chat plus one for the commit file rather than one per message. With
+ * {@code syncIntervalMillis > 0} the forces and the commit are left to a background thread instead,
+ * and messages acknowledged during the last interval can be lost on power failure. A batch that fails
+ * to write is truncated away, and it becomes visible to readers only after it is on disk.
+ * </p>
+ * <p>
+ * A batch id is a run epoch and a sequence number. Every store instance, and every write failure,
+ * starts a new epoch, and the commit file keeps the highest committed sequence of each epoch in two
+ * alternating slots so a torn slot write leaves the previous value readable. A batch is committed
+ * when its sequence is at most the committed one of its epoch; a sequence is never reused after a
+ * failed batch, because the failure moves on to the next epoch.
+ * </p>
+ * <p>
+ * A chat's log is opened and indexed on first access. Every record is checked against its CRC and its
+ * batch against the commit file: records of batches that were never committed are skipped, and the file
+ * is truncated after the last committed record, which removes torn records and the tail of a batch that
+ * was being written when the process died. A batch of several chats is therefore kept or dropped as a
+ * whole.
+ * </p>
+ * Only the Messages table is replaced. {@link ChatRoomDAO} takes unread counts and the room list preview
+ * from this store when it is given one ({@link ChatRoomDAO#setMessageStore}); {@link MessageArchiver}
+ * works on the Messages table only and is not used with this store. The index lives in one process, so
+ * the store is for single-node deployments and cannot be combined with event bus peers.
+ */
+public class LogMessageStore implements MessageStore {
+
+    private static final int MAGIC = 0x43464C47; // "CFLG"
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".log";
+    private static final String COMMIT_FILE = "batches.commit";
+    /** epoch, sequence, CRC32 of both; two slots per epoch */
+    private static final int COMMIT_SLOT_BYTES = 4 + 8 + 4;
+    /** the low bits of a batch id hold the sequence, the high bits the epoch */
+    private static final int SEQUENCE_BITS = 40;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /** magic, version, chat id */
+    private static final int HEADER_BYTES = 4 + 4 + 16;
+    /** payload length, CRC32 of batch id and payload, batch id */
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 8;
+    /** the fixed part of a {@link MessageCodec} record; anything shorter is corrupt */
+    private static final int MIN_PAYLOAD_BYTES = 16 + 16 + 8 + 4 + 2 + 1 + 4 + 4;
+    private static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+    /** smallest Id in SQL Server order, to turn a SentAt floor into a position */
+    private static final UUID MIN_ID = new UUID(0, 0);
+
+    /** The log file and index of one chat. */
+    private static final class ChatLog {
+        private final UUID chatId;
+        private final FileChannel channel;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /** end of the last complete record; changed only under the store's write lock */
+        private long size;
+        private MessagePosition[] positions = new MessagePosition[16];
+        /** sender ids, so unread counts need no record reads */
+        private long[] senderMsb = new long[16];
+        private long[] senderLsb = new long[16];
+        private long[] offsets = new long[16];
+        private int[] lengths = new int[16];
+        private int count;
+
+        private ChatLog(UUID chatId, FileChannel channel) {
+            this.chatId = chatId;
+            this.channel = channel;
+        }
+
+        /** Adds a record to the index; in-order messages are appended, late ones are shifted into place. */
+        private void insert(MessagePosition position, UUID senderId, long offset, int length) {
+            if (count == positions.length) {
+                int capacity = count * 2;
+                positions = Arrays.copyOf(positions, capacity);
+                senderMsb = Arrays.copyOf(senderMsb, capacity);
+                senderLsb = Arrays.copyOf(senderLsb, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            int at = count == 0 || position.compareTo(positions[count - 1]) > 0 ? count : lower(position);
+            int tail = count - at;
+            if (tail > 0) {
+                System.arraycopy(positions, at, positions, at + 1, tail);
+                System.arraycopy(senderMsb, at, senderMsb, at + 1, tail);
+                System.arraycopy(senderLsb, at, senderLsb, at + 1, tail);
+                System.arraycopy(offsets, at, offsets, at + 1, tail);
+                System.arraycopy(lengths, at, lengths, at + 1, tail);
+            }
+            positions[at] = position;
+            senderMsb[at] = senderId.getMostSignificantBits();
+            senderLsb[at] = senderId.getLeastSignificantBits();
+            offsets[at] = offset;
+            lengths[at] = length;
+            count++;
+        }
+
+        /** @return the first index whose position is {@code >= position}. */
+        private int lower(MessagePosition position) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions[mid].compareTo(position) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** @return the first index whose position is {@code > position}. */
+        private int upper(MessagePosition position) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions[mid].compareTo(position) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private boolean contains(MessagePosition position) {
+            lock.readLock().lock();
+            try {
+                int i = lower(position);
+                return i < count && positions[i].equals(position);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /** Counts the entries after {@code after} (and not before {@code notBefore}) not sent by {@code excluded}. */
+        private int countAfter(Instant notBefore, MessagePosition after, UUID excluded) {
+            lock.readLock().lock();
+            try {
+                int floor = notBefore == null ? 0 : lower(new MessagePosition(notBefore, MIN_ID));
+                int start = after == null ? floor : Math.max(floor, upper(after));
+                int matches = 0;
+                for (int i = start; i < count; i++) {
+                    if (excluded == null || senderMsb[i] != excluded.getMostSignificantBits()
+                            || senderLsb[i] != excluded.getLeastSignificantBits()) {
+                        matches++;
+                    }
+                }
+                return matches;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Copies up to {@code max} index entries of a keyset range, in scan order, so the records
+         * can be read without holding the lock.
+         */
+        private Slice slice(Instant notBefore, MessagePosition from, boolean newer, int max) {
+            lock.readLock().lock();
+            try {
+                int floor = notBefore == null ? 0 : lower(new MessagePosition(notBefore, MIN_ID));
+                int start;
+                int end;
+                if (newer) {
+                    start = from == null ? floor : Math.max(floor, upper(from));
+                    end = Math.min(count, start + max);
+                } else {
+                    end = from == null ? count : lower(from);
+                    start = Math.max(floor, end - max);
+                }
+                Slice slice = new Slice(Math.max(0, end - start));
+                for (int i = 0; i < slice.size; i++) {
+                    int at = newer ? start + i : end - 1 - i;
+                    slice.positions[i] = positions[at];
+                    slice.offsets[i] = offsets[at];
+                    slice.lengths[i] = lengths[at];
+                }
+                return slice;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /** Index entries of one read, in scan order. */
+    private static final class Slice {
+        private final int size;
+        private final MessagePosition[] positions;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private Slice(int size) {
+            this.size = size;
+            this.positions = new MessagePosition[size];
+            this.offsets = new long[size];
+            this.lengths = new int[size];
+        }
+    }
+
+    /** The encoded records of one chat in a batch. */
+    private static final class PendingAppend {
+        private final ChatLog log;
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final List<MessagePosition> positions = new ArrayList<>();
+        private final List<UUID> senders = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+
+        private PendingAppend(ChatLog log) {
+            this.log = log;
+        }
+    }
+
+    private final Path dir;
+    private final ConcurrentHashMap<UUID, ChatLog> chats = new ConcurrentHashMap<>();
+    /** batches are written one at a time, which also keeps each log's size consistent */
+    private final Object writeLock = new Object();
+    /** logs written since their last force (only with a sync interval) */
+    private final Set<ChatLog> unsynced = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService syncer;
+
+    /** the commit file; slot writes and epoch changes are made while holding its monitor */
+    private final FileChannel commits;
+    /** highest committed sequence of each epoch before this instance; decides which records are kept on open */
+    private final long[] committed;
+    /** current epoch and last sequence handed out in it; changed only under {@link #writeLock} */
+    private int epoch;
+    private long sequence;
+    /** last batch id written to the logs, committed by the next background sync */
+    private volatile long lastWritten;
+    /** last batch id in the commit file, and which slot of the epoch the next commit overwrites */
+    private long lastCommitted;
+    private int nextSlot;
+    /** set when a failed batch could not be fenced off by a new epoch; no further batches are accepted */
+    private volatile IOException broken;
+
+    // metrics
+    private final AtomicLong messagesAppended = new AtomicLong();
+    private final AtomicLong batchesAppended = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncNanos = new AtomicLong();
+    private final AtomicLong messagesRead = new AtomicLong();
+
+    /**
+     * Reads the commit file and starts a new epoch.
+     *
+     * @param dir directory of the chat logs and the commit file (created if missing).
+     * @param syncIntervalMillis 0 to force and commit every batch before {@link #saveMessages} returns,
+     *                           or the interval of a background force and commit.
+     * @throws IOException if the commit file could not be read or written.
+     */
+    public LogMessageStore(Path dir, long syncIntervalMillis) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.commits = FileChannel.open(dir.resolve(COMMIT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.committed = readCommitted(commits);
+            startEpoch(committed.length);
+        } catch (IOException | RuntimeException e) {
+            commits.close();
+            throw e;
+        }
+        if (syncIntervalMillis > 0) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "message-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    // ---------------------------------------------------------------- writing
+
+    @Override
+    public void saveMessages(List<Messages> messages) throws SQLException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (broken != null) {
+                throw new SQLException("The message log does not accept writes until it is reopened", broken);
+            }
+            List<PendingAppend> appends = new ArrayList<>();
+            List<ChatLog> written = new ArrayList<>();
+            try {
+                if (sequence == SEQUENCE_MASK) {
+                    startEpoch(epoch + 1);
+                }
+                long batchId = ((long) epoch << SEQUENCE_BITS) | ++sequence;
+                Map<UUID, PendingAppend> byChat = new LinkedHashMap<>();
+                Set<MessagePosition> inBatch = new HashSet<>();
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+                DataOutputStream payloadOut = new DataOutputStream(payload);
+                CRC32 crc = new CRC32();
+                for (Messages message : messages) {
+                    PendingAppend append = byChat.get(message.getChatId());
+                    if (append == null) {
+                        append = new PendingAppend(chat(message.getChatId(), true));
+                        byChat.put(message.getChatId(), append);
+                        appends.add(append);
+                    }
+                    MessagePosition position = MessagePosition.of(message);
+                    if (!inBatch.add(position) || append.log.contains(position)) {
+                        throw new SQLException("Duplicate message " + message.getMessageId()
+                                + " in chat " + message.getChatId(), "23000");
+                    }
+                    payload.reset();
+                    MessageCodec.write(payloadOut, message);
+                    crc.reset();
+                    crc.update(ByteBuffer.allocate(8).putLong(0, batchId));
+                    crc.update(payload.toByteArray());
+                    DataOutputStream out = new DataOutputStream(append.records);
+                    out.writeInt(payload.size());
+                    out.writeInt((int) crc.getValue());
+                    out.writeLong(batchId);
+                    payload.writeTo(out);
+                    append.positions.add(position);
+                    append.senders.add(message.getSenderId());
+                    append.lengths.add(RECORD_HEADER_BYTES + payload.size());
+                }
+
+                for (PendingAppend append : appends) {
+                    written.add(append.log);
+                    writeFully(append.log.channel, ByteBuffer.wrap(append.records.toByteArray()), append.log.size);
+                }
+                if (syncer == null) {
+                    long start = System.nanoTime();
+                    for (ChatLog log : written) {
+                        log.channel.force(true);
+                    }
+                    commit(batchId);
+                    syncs.incrementAndGet();
+                    syncNanos.addAndGet(System.nanoTime() - start);
+                } else {
+                    unsynced.addAll(written);
+                    lastWritten = batchId;
+                }
+            } catch (IOException e) {
+                // the failed batch was never indexed; cut it off so the next batch starts at a record boundary
+                for (ChatLog log : written) {
+                    try {
+                        log.channel.truncate(log.size);
+                    } catch (IOException ignored) {
+                    }
+                }
+                fence();
+                throw new SQLException("Could not append to the message log", e);
+            }
+
+            for (PendingAppend append : appends) {
+                ChatLog log = append.log;
+                log.lock.writeLock().lock();
+                try {
+                    long offset = log.size;
+                    for (int i = 0; i < append.positions.size(); i++) {
+                        log.insert(append.positions.get(i), append.senders.get(i), offset, append.lengths.get(i));
+                        offset += append.lengths.get(i);
+                    }
+                    log.size = offset;
+                } finally {
+                    log.lock.writeLock().unlock();
+                }
+            }
+            messagesAppended.addAndGet(messages.size());
+            batchesAppended.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forces the logs written since the last sync and commits every batch written before it started.
+     * A batch is committed only once all of its logs are forced.
+     */
+    private synchronized void syncQuietly() {
+        long upTo = lastWritten;
+        long start = System.nanoTime();
+        boolean any = false;
+        boolean failed = false;
+        for (ChatLog log : unsynced) {
+            unsynced.remove(log);
+            any = true;
+            try {
+                log.channel.force(true);
+            } catch (IOException e) {
+                unsynced.add(log);
+                failed = true;
+                System.err.println("[LogMessageStore] sync of chat " + log.chatId + " failed: " + e.getMessage());
+            }
+        }
+        if (!failed) {
+            try {
+                commit(upTo);
+            } catch (IOException e) {
+                System.err.println("[LogMessageStore] commit of batch " + upTo + " failed: " + e.getMessage());
+            }
+        }
+        if (any) {
+            syncs.incrementAndGet();
+            syncNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * After a failed batch: commits what was acknowledged before it and moves to a new epoch, so the
+     * failed batch's sequence, whose records may still be on disk, is never committed by a later batch.
+     */
+    private void fence() {
+        if (syncer != null) {
+            syncQuietly();
+        }
+        try {
+            startEpoch(epoch + 1);
+        } catch (IOException e) {
+            broken = e;
+            System.err.println("[LogMessageStore] could not start a new epoch, refusing further writes: "
+                    + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------- commit file
+
+    /** Registers {@code next} in the commit file with nothing committed and makes it the current epoch. */
+    private void startEpoch(int next) throws IOException {
+        synchronized (commits) {
+            ByteBuffer slots = ByteBuffer.allocate(2 * COMMIT_SLOT_BYTES);
+            slots.put(slot(next, 0)).put(slot(next, 0)).flip();
+            writeFully(commits, slots, 2L * next * COMMIT_SLOT_BYTES);
+            commits.force(false);
+            epoch = next;
+            sequence = 0;
+            lastCommitted = (long) next << SEQUENCE_BITS;
+            nextSlot = 0;
+        }
+    }
+
+    /** Commits every batch of the batch's epoch up to and including {@code batchId}. */
+    private void commit(long batchId) throws IOException {
+        synchronized (commits) {
+            if (batchId <= lastCommitted) {
+                return;
+            }
+            int batchEpoch = (int) (batchId >>> SEQUENCE_BITS);
+            writeFully(commits, slot(batchEpoch, batchId & SEQUENCE_MASK),
+                    (2L * batchEpoch + nextSlot) * COMMIT_SLOT_BYTES);
+            commits.force(false);
+            lastCommitted = batchId;
+            nextSlot ^= 1;
+        }
+    }
+
+    private static ByteBuffer slot(int epoch, long sequence) {
+        ByteBuffer slot = ByteBuffer.allocate(COMMIT_SLOT_BYTES);
+        slot.putInt(epoch).putLong(sequence);
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, 12);
+        return slot.putInt((int) crc.getValue()).flip();
+    }
+
+    /** @return the highest committed sequence of every epoch in the commit file; torn slots are ignored. */
+    private static long[] readCommitted(FileChannel commits) throws IOException {
+        long epochBytes = 2L * COMMIT_SLOT_BYTES;
+        long[] committed = new long[(int) ((commits.size() + epochBytes - 1) / epochBytes)];
+        ByteBuffer slots = ByteBuffer.allocate((int) commits.size());
+        while (slots.hasRemaining() && commits.read(slots, slots.position()) >= 0) {
+            // read the whole file
+        }
+        CRC32 crc = new CRC32();
+        for (int at = 0; at + COMMIT_SLOT_BYTES <= slots.position(); at += COMMIT_SLOT_BYTES) {
+            int slotEpoch = at / COMMIT_SLOT_BYTES / 2;
+            crc.reset();
+            crc.update(slots.array(), at, 12);
+            if (slots.getInt(at) == slotEpoch && slots.getInt(at + 12) == (int) crc.getValue()) {
+                committed[slotEpoch] = Math.max(committed[slotEpoch], slots.getLong(at + 4));
+            }
+        }
+        return committed;
+    }
+
+    private boolean isCommitted(long batchId) {
+        int batchEpoch = (int) (batchId >>> SEQUENCE_BITS);
+        long batchSequence = batchId & SEQUENCE_MASK;
+        return batchEpoch < committed.length && batchSequence > 0 && batchSequence <= committed[batchEpoch];
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    @Override
+    public ArrayList<Messages> getMessagesBefore(UUID chatId, UUID readerId, Instant notBefore,
+                                                 MessagePosition before, int limit) throws SQLException {
+        ArrayList<Messages> messages = new ArrayList<>();
+        scan(chatId, notBefore, before, false, limit, limit, messages::add);
+        return messages;
+    }
+
+    @Override
+    public ArrayList<Messages> getMessagesAfter(UUID chatId, UUID readerId, Instant notBefore,
+                                                MessagePosition after, int limit) throws SQLException {
+        ArrayList<Messages> messages = new ArrayList<>();
+        scan(chatId, notBefore, after, true, limit, limit, messages::add);
+        return messages;
+    }
+
+    @Override
+    public int streamMessages(UUID chatId, UUID readerId, Instant notBefore, MessagePosition from, boolean newer,
+                              int limit, int fetchSize, MessageHandler handler) throws Exception {
+        return scanOrThrow(chatId, notBefore, from, newer, limit, fetchSize, handler);
+    }
+
+    /** Counts from the index alone, without reading records. */
+    @Override
+    public int countMessagesAfter(UUID chatId, Instant notBefore, MessagePosition after,
+                                  UUID excludedSenderId) throws SQLException {
+        ChatLog log;
+        try {
+            log = chat(chatId, false);
+        } catch (IOException e) {
+            throw new SQLException("Could not open the message log of chat " + chatId, e);
+        }
+        return log == null ? 0 : log.countAfter(notBefore, after, excludedSenderId);
+    }
+
+    /** {@link #scanOrThrow} for handlers that cannot fail. */
+    private void scan(UUID chatId, Instant notBefore, MessagePosition from, boolean newer, int limit,
+                      int fetchSize, MessageHandler handler) throws SQLException {
+        try {
+            scanOrThrow(chatId, notBefore, from, newer, limit, fetchSize, handler);
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Reads a keyset range {@code fetchSize} index entries at a time. Each chunk is re-located
+     * from the last position returned, so messages indexed meanwhile do not shift the scan.
+     */
+    private int scanOrThrow(UUID chatId, Instant notBefore, MessagePosition from, boolean newer, int limit,
+                            int fetchSize, MessageHandler handler) throws Exception {
+        ChatLog log;
+        try {
+            log = chat(chatId, false);
+        } catch (IOException e) {
+            throw new SQLException("Could not open the message log of chat " + chatId, e);
+        }
+        if (log == null) {
+            return 0;
+        }
+        int count = 0;
+        MessagePosition cursor = from;
+        int chunk = Math.max(1, fetchSize);
+        while (count < limit) {
+            Slice slice = log.slice(notBefore, cursor, newer, Math.min(chunk, limit - count));
+            if (slice.size == 0) {
+                break;
+            }
+            Messages[] messages;
+            try {
+                messages = read(log, slice);
+            } catch (IOException e) {
+                throw new SQLException("Could not read the message log of chat " + chatId, e);
+            }
+            messagesRead.addAndGet(messages.length);
+            for (Messages message : messages) {
+                count++;
+                if (!handler.handle(message)) {
+                    return count;
+                }
+            }
+            cursor = slice.positions[slice.size - 1];
+        }
+        return count;
+    }
+
+    /** Reads the records of a slice, one positional read per run of records adjacent in the file. */
+    private static Messages[] read(ChatLog log, Slice slice) throws IOException {
+        Integer[] byOffset = new Integer[slice.size];
+        for (int i = 0; i < byOffset.length; i++) {
+            byOffset[i] = i;
+        }
+        Arrays.sort(byOffset, (a, b) -> Long.compare(slice.offsets[a], slice.offsets[b]));
+
+        Messages[] messages = new Messages[slice.size];
+        int i = 0;
+        while (i < byOffset.length) {
+            int j = i;
+            long start = slice.offsets[byOffset[i]];
+            long end = start + slice.lengths[byOffset[i]];
+            while (j + 1 < byOffset.length && slice.offsets[byOffset[j + 1]] == end) {
+                j++;
+                end += slice.lengths[byOffset[j]];
+            }
+            ByteBuffer run = ByteBuffer.allocate((int) (end - start));
+            while (run.hasRemaining()) {
+                if (log.channel.read(run, start + run.position()) < 0) {
+                    throw new EOFException("Message log of chat " + log.chatId + " ends at " + (start + run.position()));
+                }
+            }
+            for (int k = i; k <= j; k++) {
+                int entry = byOffset[k];
+                int at = (int) (slice.offsets[entry] - start) + RECORD_HEADER_BYTES;
+                messages[entry] = MessageCodec.read(
+                        run.slice(at, slice.lengths[entry] - RECORD_HEADER_BYTES), log.chatId);
+            }
+            i = j + 1;
+        }
+        return messages;
+    }
+
+    // ---------------------------------------------------------------- files
+
+    /** @return the log of a chat (opened and recovered on first use), or null if it has none and {@code create} is false. */
+    private ChatLog chat(UUID chatId, boolean create) throws IOException {
+        ChatLog log = chats.get(chatId);
+        if (log != null) {
+            return log;
+        }
+        Path path = dir.resolve(chatId + SUFFIX);
+        if (!create && !Files.exists(path)) {
+            return null;
+        }
+        synchronized (chats) {
+            log = chats.get(chatId);
+            if (log == null) {
+                Files.createDirectories(dir);
+                log = open(chatId, path);
+                chats.put(chatId, log);
+            }
+            return log;
+        }
+    }
+
+    /** Opens a chat log, indexes its committed records and truncates everything after the last one. */
+    private ChatLog open(UUID chatId, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ChatLog log = new ChatLog(chatId, channel);
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                // new file, or a crash before the header reached the disk
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION)
+                        .putLong(chatId.getMostSignificantBits()).putLong(chatId.getLeastSignificantBits());
+                channel.truncate(0);
+                writeFully(channel, header.flip(), 0);
+                channel.force(true);
+                log.size = HEADER_BYTES;
+                return log;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // read the whole header
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || !new UUID(header.getLong(8), header.getLong(16)).equals(chatId)) {
+                throw new IOException("Not a message log of chat " + chatId + ": " + path);
+            }
+
+            long offset = HEADER_BYTES;
+            // end of the last committed record; records after it are torn or belong to failed batches
+            long end = offset;
+            int skipped = 0;
+            int pending = 0;
+            channel.position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            CRC32 crc = new CRC32();
+            while (offset + RECORD_HEADER_BYTES <= fileSize) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                long batchId = in.readLong();
+                if (length < MIN_PAYLOAD_BYTES || length > MAX_PAYLOAD_BYTES
+                        || offset + RECORD_HEADER_BYTES + length > fileSize) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(ByteBuffer.allocate(8).putLong(0, batchId));
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                offset += RECORD_HEADER_BYTES + length;
+                if (!isCommitted(batchId)) {
+                    pending++;
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                MessagePosition position = new MessagePosition(
+                        Instant.ofEpochSecond(record.getLong(32), record.getInt(40)),
+                        new UUID(record.getLong(0), record.getLong(8)));
+                log.insert(position, new UUID(record.getLong(16), record.getLong(24)),
+                        offset - RECORD_HEADER_BYTES - length, RECORD_HEADER_BYTES + length);
+                end = offset;
+                skipped += pending;
+                pending = 0;
+            }
+            if (end < fileSize) {
+                System.err.println("[LogMessageStore] truncating " + (fileSize - end)
+                        + " bytes of uncommitted or incomplete writes at the end of " + path);
+                channel.truncate(end);
+                channel.force(true);
+            }
+            if (skipped > 0) {
+                System.err.println("[LogMessageStore] skipped " + skipped + " records of uncommitted batches in " + path);
+            }
+            log.size = end;
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String stats() {
+        long syncCount = syncs.get();
+        return String.format("chats=%d appended=%d batches=%d syncs=%d avgSync=%.2fms read=%d",
+                chats.size(), messagesAppended.get(), batchesAppended.get(), syncCount,
+                syncCount == 0 ? 0 : syncNanos.get() / 1e6 / syncCount, messagesRead.get());
+    }
+
+    /**
+     * Forces outstanding writes and closes every log.
+     */
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (writeLock) {
+            syncQuietly();
+            for (ChatLog log : chats.values()) {
+                try {
+                    log.channel.close();
+                } catch (IOException e) {
+                    System.err.println("[LogMessageStore] close of chat " + log.chatId + " failed: " + e.getMessage());
+                }
+            }
+            chats.clear();
+            try {
+                commits.close();
+            } catch (IOException e) {
+                System.err.println("[LogMessageStore] close of the commit file failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package model;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold storage for old chat messages: per-chat, append-only segment files that
+ * {@link MessageArchiver} fills with rows it then deletes from the Messages table.
+ * <p>
+ * A segment {@code <root>/<chatId>/<sequence>.seg} starts with a header (magic, version, chat id),
+ * followed by Deflate-compressed blocks of about {@code blockBytes} of messages each, in
+ * (SentAt, Id) order. Every append ends with a commit record: the sparse index (first position,
+ * offset and sizes of every block so far) and a fixed-size trailer holding the index offset, the
+ * CRC32 of the index and the magic. The file is forced before {@link #append} returns. A torn
+ * append leaves the previous commit intact; readers find it by scanning back for the last trailer
+ * whose index checksum matches, and the next append starts a new segment instead of writing after
+ * the torn tail.
+ * </p>
+ * <p>
+ * Segments are read through a read-only {@link FileChannel#map} of the file. A lookup
+ * binary-searches the sparse index and inflates only the blocks it walks; recently inflated blocks
+ * are kept in a small cache so consecutive history pages do not inflate the same block again.
+ * </p>
+ * Within one segment the blocks never go backward in (SentAt, Id) order: a batch that starts at or
+ * before the segment's last message goes to a new segment, and {@link #scan} merges the segments
+ * of a chat. When several nodes share the directory, each node notices a new segment by the
+ * directory's modification time, or at the latest after the listing cache expires.
+ */
+public class MessageArchive {
+
+    private static final int MAGIC = 0x43464152; // "CFAR"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".seg";
+    /** magic, version, chat id */
+    private static final int HEADER_BYTES = 4 + 4 + 16;
+    /** index offset, index CRC32, magic */
+    private static final int TRAILER_BYTES = 8 + 4 + 4;
+    /** SentAt seconds + nanos and Id */
+    private static final int POSITION_BYTES = 8 + 4 + 16;
+    /** first position, offset, compressed length, raw length, message count */
+    private static final int INDEX_ENTRY_BYTES = POSITION_BYTES + 8 + 4 + 4 + 4;
+
+    /** One segment file, mapped up to its last valid commit. */
+    private static final class Segment {
+        private final Path path;
+        private final UUID chatId;
+        private final long fileSize;
+        private final ByteBuffer data;
+        private final int end;
+        private final MessagePosition[] firsts;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] rawLengths;
+        private final int[] counts;
+        /** The newest message in the segment, or null if it has no committed blocks. */
+        private final MessagePosition last;
+
+        private Segment(Path path, UUID chatId, long fileSize, ByteBuffer data, int end, int blocks,
+                        MessagePosition last) {
+            this.path = path;
+            this.chatId = chatId;
+            this.fileSize = fileSize;
+            this.data = data;
+            this.end = end;
+            this.firsts = new MessagePosition[blocks];
+            this.offsets = new int[blocks];
+            this.lengths = new int[blocks];
+            this.rawLengths = new int[blocks];
+            this.counts = new int[blocks];
+            this.last = last;
+        }
+
+        private int blockCount() {
+            return firsts.length;
+        }
+
+        /** @return true if the segment may hold messages of the requested range. */
+        private boolean overlaps(Instant notBefore, MessagePosition from, boolean newer) {
+            if (last == null || (notBefore != null && last.getSentAt().isBefore(notBefore))) {
+                return false;
+            }
+            if (from == null) {
+                return true;
+            }
+            return newer ? last.compareTo(from) > 0 : firsts[0].compareTo(from) < 0;
+        }
+
+        /** @return the last block whose first position matches {@code test} (a prefix of the blocks), or -1. */
+        private int lastBlockWhere(Predicate<MessagePosition> test) {
+            int low = 0;
+            int high = firsts.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (test.test(firsts[mid])) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+
+    /** The segments of one chat, as listed at {@code directoryModified}. */
+    private static final class ChatSegments {
+        private final FileTime directoryModified;
+        private final List<Segment> segments;
+        private final MessagePosition last;
+
+        private ChatSegments(FileTime directoryModified, List<Segment> segments) {
+            this.directoryModified = directoryModified;
+            this.segments = segments;
+            MessagePosition newest = null;
+            for (Segment segment : segments) {
+                if (segment.last != null && (newest == null || segment.last.compareTo(newest) > 0)) {
+                    newest = segment.last;
+                }
+            }
+            this.last = newest;
+        }
+
+        /** @return false if the active (last) segment grew since it was mapped. */
+        private boolean activeUnchanged() throws IOException {
+            if (segments.isEmpty()) {
+                return true;
+            }
+            Segment active = segments.get(segments.size() - 1);
+            try {
+                return Files.size(active.path) == active.fileSize;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    private final Path root;
+    private final int blockBytes;
+    private final long segmentBytes;
+    private final Cache<UUID, ChatSegments> chats;
+    private final Cache<String, Messages[]> blocks;
+
+    // metrics
+    private final AtomicLong messagesAppended = new AtomicLong();
+    private final AtomicLong segmentsOpened = new AtomicLong();
+    private final AtomicLong blocksInflated = new AtomicLong();
+    private final AtomicLong blockCacheHits = new AtomicLong();
+
+    /**
+     * @param root directory that holds one sub-directory per chat.
+     * @param blockBytes uncompressed size at which a block is closed; also the granularity of the sparse index.
+     * @param segmentBytes size after which appends go to a new segment file.
+     * @param maxOpenChats maximum number of chats whose segments stay mapped.
+     * @param maxCachedBlocks maximum number of inflated blocks kept in memory.
+     */
+    public MessageArchive(Path root, int blockBytes, long segmentBytes, long maxOpenChats, long maxCachedBlocks) {
+        this.root = root;
+        this.blockBytes = Math.max(1024, blockBytes);
+        this.segmentBytes = Math.min(Math.max(this.blockBytes, segmentBytes), Integer.MAX_VALUE / 2);
+        this.chats = CacheBuilder.newBuilder()
+                .maximumSize(maxOpenChats)
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .build();
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedBlocks)
+                .build();
+    }
+
+    // ---------------------------------------------------------------- writing
+
+    /**
+     * Appends messages of one chat and forces them to disk. Only after this returns may the
+     * caller delete the rows from the Messages table.
+     *
+     * @param chatId the chat the messages belong to.
+     * @param messages the messages to archive, in any order.
+     * @throws IOException if the segment could not be written.
+     */
+    public synchronized void append(UUID chatId, List<Messages> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Messages> sorted = new ArrayList<>(messages);
+        sorted.sort(Comparator.comparing(MessagePosition::of));
+        MessagePosition first = MessagePosition.of(sorted.get(0));
+
+        Path dir = chatDirectory(chatId);
+        Files.createDirectories(dir);
+        List<Path> files = listSegments(dir);
+        Segment active = files.isEmpty() ? null : openSegment(files.get(files.size() - 1), chatId);
+
+        if (active == null
+                || active.fileSize != active.end // torn tail of a failed append
+                || active.end >= segmentBytes
+                || (active.last != null && first.compareTo(active.last) <= 0)) {
+            Path target = dir.resolve(String.format("%08d%s", nextSequence(files), SUFFIX));
+            Path temp = dir.resolve(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION)
+                        .putLong(chatId.getMostSignificantBits()).putLong(chatId.getLeastSignificantBits());
+                writeFully(channel, header.flip(), 0);
+                writeCommit(channel, HEADER_BYTES, null, sorted);
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(dir);
+        } else {
+            try (FileChannel channel = FileChannel.open(active.path, StandardOpenOption.WRITE)) {
+                writeCommit(channel, active.end, active, sorted);
+                channel.force(true);
+            }
+        }
+        chats.invalidate(chatId);
+        messagesAppended.addAndGet(sorted.size());
+    }
+
+    /**
+     * Writes the blocks of {@code messages} at {@code start}, then the index of the previous
+     * blocks plus the new ones, then the trailer.
+     */
+    private void writeCommit(FileChannel channel, long start, Segment previous, List<Messages> messages)
+            throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        int blockCount = previous == null ? 0 : previous.blockCount();
+        indexOut.writeInt(0); // patched below
+        for (int i = 0; i < blockCount; i++) {
+            writeIndexEntry(indexOut, previous.firsts[i], previous.offsets[i], previous.lengths[i],
+                    previous.rawLengths[i], previous.counts[i]);
+        }
+
+        long position = start;
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(blockBytes + 1024);
+        DataOutputStream rawOut = new DataOutputStream(raw);
+        MessagePosition blockFirst = null;
+        int count = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Messages message = messages.get(i);
+            if (count == 0) {
+                blockFirst = MessagePosition.of(message);
+            }
+            MessageCodec.write(rawOut, message);
+            count++;
+            if (raw.size() >= blockBytes || i == messages.size() - 1) {
+                byte[] compressed = deflate(raw.toByteArray());
+                writeFully(channel, ByteBuffer.wrap(compressed), position);
+                writeIndexEntry(indexOut, blockFirst, position, compressed.length, raw.size(), count);
+                position += compressed.length;
+                blockCount++;
+                raw.reset();
+                count = 0;
+            }
+        }
+        writePosition(indexOut, MessagePosition.of(messages.get(messages.size() - 1)));
+
+        byte[] indexBytes = index.toByteArray();
+        ByteBuffer.wrap(indexBytes).putInt(0, blockCount);
+        if (position + indexBytes.length + TRAILER_BYTES > Integer.MAX_VALUE) {
+            throw new IOException("Archive segment would exceed 2 GB: " + channel);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(indexBytes);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        trailer.putLong(position).putInt((int) crc.getValue()).putInt(MAGIC);
+        writeFully(channel, ByteBuffer.wrap(indexBytes), position);
+        writeFully(channel, trailer.flip(), position + indexBytes.length);
+    }
+
+    private static void writeIndexEntry(DataOutputStream out, MessagePosition first, long offset,
+                                        int length, int rawLength, int count) throws IOException {
+        writePosition(out, first);
+        out.writeLong(offset);
+        out.writeInt(length);
+        out.writeInt(rawLength);
+        out.writeInt(count);
+    }
+
+    private static void writePosition(DataOutputStream out, MessagePosition position) throws IOException {
+        out.writeLong(position.getSentAt().getEpochSecond());
+        out.writeInt(position.getSentAt().getNano());
+        out.writeLong(position.getMessageId().getMostSignificantBits());
+        out.writeLong(position.getMessageId().getLeastSignificantBits());
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** Makes a rename durable. Not supported on every platform (Windows cannot open a directory). */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    /**
+     * @param chatId the chat's UUID.
+     * @return the newest archived position of the chat, or null if nothing is archived.
+     * @throws IOException if the segments could not be read.
+     */
+    public MessagePosition lastPosition(UUID chatId) throws IOException {
+        return segments(chatId).last;
+    }
+
+    /**
+     * Lazily walks the archived messages of a chat from an exclusive position. Nothing is
+     * inflated until the first call to {@link Iterator#hasNext()}; read errors surface as
+     * {@link UncheckedIOException}.
+     *
+     * @param chatId the chat's UUID.
+     * @param notBefore oldest SentAt to return, or null for no floor.
+     * @param from exclusive start position, or null to start at the edge of the archive.
+     * @param newer true to walk forward (oldest first), false to walk backward (newest first).
+     * @return the messages in (SentAt, Id) order of the requested direction.
+     * @throws IOException if the segments could not be listed.
+     */
+    public Iterator<Messages> scan(UUID chatId, Instant notBefore, MessagePosition from, boolean newer)
+            throws IOException {
+        List<Cursor> cursors = new ArrayList<>();
+        for (Segment segment : segments(chatId).segments) {
+            if (segment.overlaps(notBefore, from, newer)) {
+                cursors.add(new Cursor(segment, notBefore, from, newer));
+            }
+        }
+        return new MergingIterator(cursors, newer);
+    }
+
+    private ChatSegments segments(UUID chatId) throws IOException {
+        Path dir = chatDirectory(chatId);
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(dir);
+        } catch (NoSuchFileException e) {
+            modified = null;
+        }
+        ChatSegments cached = chats.getIfPresent(chatId);
+        if (cached != null && Objects.equals(cached.directoryModified, modified) && cached.activeUnchanged()) {
+            return cached;
+        }
+        List<Segment> segments = new ArrayList<>();
+        if (modified != null) {
+            for (Path file : listSegments(dir)) {
+                segments.add(openSegment(file, chatId));
+            }
+        }
+        ChatSegments loaded = new ChatSegments(modified, segments);
+        chats.put(chatId, loaded);
+        return loaded;
+    }
+
+    private Segment openSegment(Path path, UUID chatId) throws IOException {
+        ByteBuffer data;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Not an archive segment: " + path);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                || !new UUID(data.getLong(8), data.getLong(16)).equals(chatId)) {
+            throw new IOException("Not an archive segment of chat " + chatId + ": " + path);
+        }
+        segmentsOpened.incrementAndGet();
+
+        int end = lastCommit(data, (int) size);
+        if (end < 0) {
+            return new Segment(path, chatId, size, data, HEADER_BYTES, 0, null);
+        }
+        int p = (int) data.getLong(end - TRAILER_BYTES);
+        int blockCount = data.getInt(p);
+        p += 4;
+        MessagePosition last = readPosition(data, p + blockCount * INDEX_ENTRY_BYTES);
+        Segment segment = new Segment(path, chatId, size, data, end, blockCount, last);
+        for (int i = 0; i < blockCount; i++) {
+            segment.firsts[i] = readPosition(data, p);
+            p += POSITION_BYTES;
+            segment.offsets[i] = (int) data.getLong(p);
+            segment.lengths[i] = data.getInt(p + 8);
+            segment.rawLengths[i] = data.getInt(p + 12);
+            segment.counts[i] = data.getInt(p + 16);
+            p += INDEX_ENTRY_BYTES - POSITION_BYTES;
+        }
+        return segment;
+    }
+
+    /**
+     * @return the end offset of the last commit whose trailer and index checksum are valid,
+     *         or -1 if the segment has none. Normally this is the end of the file; after a torn
+     *         append the trailer of the previous commit is found by scanning back.
+     */
+    private static int lastCommit(ByteBuffer data, int size) {
+        for (int end = size; end >= HEADER_BYTES + 4 + TRAILER_BYTES; end--) {
+            if (data.getInt(end - 4) != MAGIC) {
+                continue;
+            }
+            long indexOffset = data.getLong(end - TRAILER_BYTES);
+            int indexEnd = end - TRAILER_BYTES;
+            if (indexOffset < HEADER_BYTES || indexOffset > indexEnd - 4) {
+                continue;
+            }
+            int blockCount = data.getInt((int) indexOffset);
+            if (blockCount < 1 || (long) indexEnd - indexOffset
+                    != 4 + (long) blockCount * INDEX_ENTRY_BYTES + POSITION_BYTES) {
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.slice((int) indexOffset, indexEnd - (int) indexOffset));
+            if ((int) crc.getValue() == data.getInt(end - 8)) {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    private static MessagePosition readPosition(ByteBuffer data, int p) {
+        Instant sentAt = Instant.ofEpochSecond(data.getLong(p), data.getInt(p + 8));
+        return new MessagePosition(sentAt, new UUID(data.getLong(p + 12), data.getLong(p + 20)));
+    }
+
+    /** Inflates one block, or returns it from the block cache. */
+    private Messages[] block(Segment segment, int block) throws IOException {
+        String key = segment.path + "@" + segment.offsets[block];
+        Messages[] cached = blocks.getIfPresent(key);
+        if (cached != null) {
+            blockCacheHits.incrementAndGet();
+            return cached;
+        }
+        byte[] raw = new byte[segment.rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(segment.data.slice(segment.offsets[block], segment.lengths[block]));
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, raw.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != raw.length) {
+                throw new IOException("Truncated archive block at " + segment.offsets[block] + " in " + segment.path);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block at " + segment.offsets[block] + " in " + segment.path, e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        Messages[] messages = new Messages[segment.counts[block]];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = MessageCodec.read(in, segment.chatId);
+        }
+        blocksInflated.incrementAndGet();
+        blocks.put(key, messages);
+        return messages;
+    }
+
+    /** Walks one segment in one direction, skipping messages outside the requested range. */
+    private final class Cursor {
+        private final Segment segment;
+        private final Instant notBefore;
+        private final MessagePosition from;
+        private final boolean newer;
+        private int block;
+        private Messages[] records;
+        private int index;
+        private Messages current;
+
+        private Cursor(Segment segment, Instant notBefore, MessagePosition from, boolean newer) {
+            this.segment = segment;
+            this.notBefore = notBefore;
+            this.from = from;
+            this.newer = newer;
+        }
+
+        /** Positions the cursor on its first message; {@link #current} is null if there is none. */
+        private void start() throws IOException {
+            if (newer) {
+                block = 0;
+                if (from != null) {
+                    block = Math.max(block, segment.lastBlockWhere(p -> p.compareTo(from) <= 0));
+                }
+                if (notBefore != null) {
+                    block = Math.max(block, segment.lastBlockWhere(p -> p.getSentAt().isBefore(notBefore)));
+                }
+                records = block(segment, block);
+                index = -1;
+            } else {
+                block = from == null ? segment.blockCount() - 1
+                        : segment.lastBlockWhere(p -> p.compareTo(from) < 0);
+                if (block < 0) {
+                    current = null;
+                    return;
+                }
+                records = block(segment, block);
+                index = records.length;
+            }
+            advance();
+        }
+
+        private void advance() throws IOException {
+            while (true) {
+                index += newer ? 1 : -1;
+                if (index < 0 || index >= records.length) {
+                    block += newer ? 1 : -1;
+                    if (block < 0 || block >= segment.blockCount()) {
+                        current = null;
+                        return;
+                    }
+                    records = block(segment, block);
+                    index = newer ? 0 : records.length - 1;
+                }
+                Messages message = records[index];
+                boolean tooOld = notBefore != null && message.getTimestamp().isBefore(notBefore);
+                if (newer) {
+                    if (tooOld || (from != null && MessagePosition.of(message).compareTo(from) <= 0)) {
+                        continue;
+                    }
+                } else {
+                    if (tooOld) {
+                        current = null;
+                        return;
+                    }
+                    if (from != null && MessagePosition.of(message).compareTo(from) >= 0) {
+                        continue;
+                    }
+                }
+                current = message;
+                return;
+            }
+        }
+    }
+
+    /** Merges the cursors of several segments, dropping positions already returned. */
+    private static final class MergingIterator implements Iterator<Messages> {
+        private final List<Cursor> cursors;
+        private final PriorityQueue<Cursor> queue;
+        private boolean started;
+        private MessagePosition lastReturned;
+        private Messages next;
+
+        private MergingIterator(List<Cursor> cursors, boolean newer) {
+            Comparator<Cursor> order = Comparator.comparing(cursor -> MessagePosition.of(cursor.current));
+            this.cursors = cursors;
+            this.queue = new PriorityQueue<>(Math.max(1, cursors.size()), newer ? order : order.reversed());
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = pull();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Messages next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Messages result = next;
+            next = null;
+            return result;
+        }
+
+        private Messages pull() throws IOException {
+            if (!started) {
+                started = true;
+                for (Cursor cursor : cursors) {
+                    cursor.start();
+                    if (cursor.current != null) {
+                        queue.add(cursor);
+                    }
+                }
+            }
+            while (!queue.isEmpty()) {
+                Cursor cursor = queue.poll();
+                Messages message = cursor.current;
+                cursor.advance();
+                if (cursor.current != null) {
+                    queue.add(cursor);
+                }
+                MessagePosition position = MessagePosition.of(message);
+                if (!position.equals(lastReturned)) {
+                    lastReturned = position;
+                    return message;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- files
+
+    private Path chatDirectory(UUID chatId) {
+        return root.resolve(chatId.toString());
+    }
+
+    private static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (NoSuchFileException e) {
+            return files;
+        }
+        files.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        return files;
+    }
+
+    private static int nextSequence(List<Path> files) {
+        if (files.isEmpty()) {
+            return 1;
+        }
+        String name = files.get(files.size() - 1).getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())) + 1;
+    }
+
+    /**
+     * @return metrics of the archive.
+     */
+    public String stats() {
+        return String.format("appended=%d segmentsOpened=%d blocksInflated=%d blockCacheHits=%d openChats=%d",
+                messagesAppended.get(), segmentsOpened.get(), blocksInflated.get(), blockCacheHits.get(),
+                chats.size());
+    }
+}
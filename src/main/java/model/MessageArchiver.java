@@ -0,0 +1,104 @@
+package model;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that moves messages older than {@code maxAge} from the Messages table into the
+ * {@link MessageArchive}, so the hot table and its (ChatId, SentAt, Id) index only hold recent history.
+ * <p>
+ * Per chat it reads the oldest expired rows in batches of {@code batchSize}, appends each batch to
+ * the chat's segment (forced to disk) and only then deletes exactly those rows. A crash between
+ * the two steps leaves the rows in both places, which readers tolerate: {@link MessageDAO} returns
+ * a message found in both only once, and the next run archives and deletes it again.
+ * </p>
+ * The archive directory must be shared by every node that serves history, and the archiver
+ * itself should run on one node only, since segment appends are not coordinated between processes.
+ */
+public class MessageArchiver {
+
+    private final MessageDAO messageDAO;
+    private final MessageArchive archive;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the archiver and schedules a run every {@code intervalMinutes}, the first one immediately.
+     *
+     * @param messageDAO DAO used to read and delete the expired rows.
+     * @param archive the archive the rows are moved to.
+     * @param maxAge age after which a message is archived.
+     * @param intervalMinutes delay between the end of one run and the start of the next.
+     * @param batchSize maximum number of messages per segment append and delete transaction.
+     */
+    public MessageArchiver(MessageDAO messageDAO, MessageArchive archive, Duration maxAge,
+                           long intervalMinutes, int batchSize) {
+        this.messageDAO = messageDAO;
+        this.archive = archive;
+        this.maxAge = maxAge;
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archiveQuietly, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Archives every message older than {@code maxAge}.
+     *
+     * @return the number of messages moved.
+     * @throws SQLException if a database access error occurs.
+     * @throws IOException if a segment could not be written (the batch stays in the table).
+     */
+    public int archiveExpired() throws SQLException, IOException {
+        Instant cutoff = Instant.now().minus(maxAge);
+        int moved = 0;
+        for (UUID chatId : messageDAO.getChatsWithMessagesBefore(cutoff)) {
+            while (running) {
+                ArrayList<Messages> batch = messageDAO.getMessagesOlderThan(chatId, cutoff, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                archive.append(chatId, batch);
+                messageDAO.deleteMessages(batch);
+                moved += batch.size();
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private void archiveQuietly() {
+        try {
+            int moved = archiveExpired();
+            if (moved > 0) {
+                System.out.printf("[MessageArchiver] archived %d messages older than %s%n", moved, maxAge);
+            }
+        } catch (SQLException e) {
+            System.err.println("[MessageArchiver] DB error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("[MessageArchiver] archive error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the archiver after the batch in progress.
+     */
+    public void stop() {
+        running = false;
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,356 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group-commit pipeline for new chat messages.
+ * <p>
+ * Concurrent {@code sendMessage} RPCs hand their message to {@link #submit(Messages)} and get a
+ * future back. A single writer thread collects messages for up to {@code lingerMillis}
+ * (or until {@code maxBatchSize} are waiting), inserts them with one JDBC batch and advances
+ * {@code Chats.LastMessageTime} for every affected chat in the same transaction.
+ * Each future completes only after that transaction commits, so the caller can ACK safely.
+ * The transaction runs on the {@link Workload#MESSAGING} bulkhead ({@link DaoExecutor}), so sends use the
+ * connections reserved for that workload and never compete with history or admin reads for them.
+ * Futures are completed on a separate completion thread, so the callers' post-commit work
+ * (ACK, fan-out to subscribers) never delays the next batch; one thread keeps the batches in commit order.
+ * </p>
+ * If a batch fails on a row-level constraint (for example a duplicate message id from a client retry)
+ * it is rolled back and its messages are retried one by one, so a single bad row does not fail its
+ * neighbours. Any other failure (connection, timeout) fails the whole batch without retrying per row.
+ * <p>
+ * With a store other than {@link MessageDAO} the messages are committed by the store first and
+ * {@code Chats.LastMessageTime} is advanced afterwards in its own statement; it only orders the room
+ * list, so a failure there is logged and does not fail the messages.
+ * </p>
+ */
+public class MessageBatchWriter {
+
+    /** A message waiting to be written, together with the future of its sender. */
+    private static final class PendingWrite {
+        private final Messages message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(Messages message) {
+            this.message = message;
+        }
+    }
+
+    private final MessageStore messageStore;
+    private final ChatRoomDAO chatRoomDAO;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread worker;
+    private final ExecutorService completions;
+    private volatile boolean running = true;
+
+    // metrics
+    private final AtomicLong messagesWritten = new AtomicLong();
+    private final AtomicLong batchesCommitted = new AtomicLong();
+    private final AtomicLong messagesFailed = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final long startedAt = System.nanoTime();
+    private long lastSnapshotAt = startedAt;
+    private long lastSnapshotMessages = 0;
+
+    /**
+     * Creates the writer and starts its background thread.
+     *
+     * @param messageStore store used for the batch insert.
+     * @param chatRoomDAO DAO used to advance Chats.LastMessageTime.
+     * @param maxBatchSize maximum number of messages per transaction.
+     * @param lingerMillis how long to wait for more messages after the first one arrives.
+     * @param queueCapacity maximum number of messages waiting to be written.
+     */
+    public MessageBatchWriter(MessageStore messageStore, ChatRoomDAO chatRoomDAO,
+                              int maxBatchSize, long lingerMillis, int queueCapacity) {
+        this.messageStore = messageStore;
+        this.chatRoomDAO = chatRoomDAO;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.completions = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "message-batch-completions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.worker = new Thread(this::run, "message-batch-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a message for the next batch.
+     *
+     * @param message the message to persist.
+     * @return a future completed once the message is committed, or completed exceptionally
+     *         if it could not be written (or the queue is full).
+     */
+    public CompletableFuture<Void> submit(Messages message) {
+        PendingWrite pending = new PendingWrite(message);
+        if (!running || !queue.offer(pending)) {
+            messagesFailed.incrementAndGet();
+            pending.future.completeExceptionally(
+                    new RejectedExecutionException("Message writer queue is full"));
+        }
+        return pending.future;
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // linger: wait a few milliseconds for other RPCs to join this transaction
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                System.err.println("[MessageBatchWriter] unexpected error: " + e.getMessage());
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        try {
+            commitOnBulkhead(batch);
+            commitNanos.addAndGet(System.nanoTime() - start);
+            batchesCommitted.incrementAndGet();
+            messagesWritten.addAndGet(batch.size());
+            List<PendingWrite> committed = List.copyOf(batch);
+            onCompletionThread(() -> {
+                for (PendingWrite pending : committed) {
+                    pending.future.complete(null);
+                }
+            });
+        } catch (SQLException e) {
+            if (batch.size() == 1 || !isRowLevel(e)) {
+                fail(batch, e);
+                return;
+            }
+            // isolate the failing row(s): retry each message in its own transaction
+            for (PendingWrite pending : batch) {
+                writeBatch(List.of(pending));
+            }
+        } catch (RuntimeException e) {
+            // the MESSAGING bulkhead rejected the batch
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Runs {@link #commit} on a {@link Workload#MESSAGING} thread, so the batch uses the connections
+     * reserved for that workload and counts against its quota. The writer thread waits for it,
+     * which keeps the batches in order.
+     */
+    private void commitOnBulkhead(List<PendingWrite> batch) throws SQLException {
+        try {
+            DaoExecutor.of(Workload.MESSAGING).supply(() -> {
+                commit(batch);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while committing a batch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) {
+                throw sql;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) throws SQLException {
+        List<Messages> messages = new ArrayList<>(batch.size());
+        Map<UUID, Instant> lastMessageTimes = new HashMap<>();
+        for (PendingWrite pending : batch) {
+            Messages message = pending.message;
+            messages.add(message);
+            lastMessageTimes.merge(message.getChatId(), message.getTimestamp(),
+                    (a, b) -> a.isAfter(b) ? a : b);
+        }
+
+        if (!(messageStore instanceof MessageDAO messageDAO)) {
+            messageStore.saveMessages(messages);
+            try (Connection connection = DatabaseConnection.getConnection()) {
+                chatRoomDAO.advanceLastMessageTimes(connection, lastMessageTimes);
+            } catch (SQLException e) {
+                System.err.println("[MessageBatchWriter] could not advance LastMessageTime: " + e.getMessage());
+            }
+            return;
+        }
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                messageDAO.saveMessages(connection, messages);
+                chatRoomDAO.advanceLastMessageTimes(connection, lastMessageTimes);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Whether the failure belongs to specific rows (integrity constraint, SQLState class 23),
+     * so that retrying the rows one by one can save the others.
+     */
+    private static boolean isRowLevel(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fail(List<PendingWrite> batch, Throwable cause) {
+        List<PendingWrite> failed = List.copyOf(batch);
+        onCompletionThread(() -> {
+            for (PendingWrite pending : failed) {
+                if (pending.future.completeExceptionally(cause)) {
+                    messagesFailed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /** Runs the callers' completion off the writer thread; inline only once the writer is stopping. */
+    private void onCompletionThread(Runnable task) {
+        try {
+            completions.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Stops accepting messages, writes everything still queued and waits for the writer thread.
+     */
+    public void stop() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+            completions.shutdown();
+            completions.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pipeline metrics. The throughput figure covers the period
+     * since the previous call.
+     *
+     * @return current metrics of the writer.
+     */
+    public synchronized Stats stats() {
+        long now = System.nanoTime();
+        long written = messagesWritten.get();
+        long batches = batchesCommitted.get();
+        double seconds = Math.max(1e-9, (now - lastSnapshotAt) / 1e9);
+        double throughput = (written - lastSnapshotMessages) / seconds;
+        lastSnapshotAt = now;
+        lastSnapshotMessages = written;
+        return new Stats(written, batches, messagesFailed.get(), queue.size(),
+                batches == 0 ? 0 : (double) written / batches,
+                batches == 0 ? 0 : commitNanos.get() / 1e6 / batches,
+                throughput);
+    }
+
+    /**
+     * Throughput metrics of the writer.
+     */
+    public static final class Stats {
+        private final long messagesWritten;
+        private final long batchesCommitted;
+        private final long messagesFailed;
+        private final int queued;
+        private final double averageBatchSize;
+        private final double averageCommitMillis;
+        private final double messagesPerSecond;
+
+        Stats(long messagesWritten, long batchesCommitted, long messagesFailed, int queued,
+              double averageBatchSize, double averageCommitMillis, double messagesPerSecond) {
+            this.messagesWritten = messagesWritten;
+            this.batchesCommitted = batchesCommitted;
+            this.messagesFailed = messagesFailed;
+            this.queued = queued;
+            this.averageBatchSize = averageBatchSize;
+            this.averageCommitMillis = averageCommitMillis;
+            this.messagesPerSecond = messagesPerSecond;
+        }
+
+        public long getMessagesWritten() { return messagesWritten; }
+        public long getBatchesCommitted() { return batchesCommitted; }
+        public long getMessagesFailed() { return messagesFailed; }
+        public int getQueued() { return queued; }
+        public double getAverageBatchSize() { return averageBatchSize; }
+        public double getAverageCommitMillis() { return averageCommitMillis; }
+        public double getMessagesPerSecond() { return messagesPerSecond; }
+
+        @Override
+        public String toString() {
+            return String.format("written=%d batches=%d failed=%d queued=%d avgBatch=%.1f avgCommit=%.2fms rate=%.1f msg/s",
+                    messagesWritten, batchesCommitted, messagesFailed, queued,
+                    averageBatchSize, averageCommitMillis, messagesPerSecond);
+        }
+    }
+}
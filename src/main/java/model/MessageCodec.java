@@ -0,0 +1,57 @@
+package model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Binary form of a stored message, shared by the file-based stores ({@link MessageArchive},
+ * {@link LogMessageStore}). The chat id is not part of the record; each file belongs to one chat.
+ * <p>
+ * Layout: id, sender id (two longs each), SentAt seconds (long) and nanos (int), status name
+ * (modified UTF-8), isSystem (byte), key version (int), content length (int, -1 for null), content.
+ * </p>
+ */
+final class MessageCodec {
+
+    private MessageCodec() {
+    }
+
+    static void write(DataOutputStream out, Messages message) throws IOException {
+        out.writeLong(message.getMessageId().getMostSignificantBits());
+        out.writeLong(message.getMessageId().getLeastSignificantBits());
+        out.writeLong(message.getSenderId().getMostSignificantBits());
+        out.writeLong(message.getSenderId().getLeastSignificantBits());
+        out.writeLong(message.getTimestamp().getEpochSecond());
+        out.writeInt(message.getTimestamp().getNano());
+        out.writeUTF(message.getStatus().name());
+        out.writeBoolean(message.getIsSystem());
+        out.writeInt(message.getKeyVersion());
+        byte[] content = message.getContent();
+        out.writeInt(content == null ? -1 : content.length);
+        if (content != null) {
+            out.write(content);
+        }
+    }
+
+    static Messages read(ByteBuffer in, UUID chatId) {
+        UUID id = new UUID(in.getLong(), in.getLong());
+        UUID senderId = new UUID(in.getLong(), in.getLong());
+        Instant sentAt = Instant.ofEpochSecond(in.getLong(), in.getInt());
+        byte[] status = new byte[in.getShort() & 0xFFFF];
+        in.get(status);
+        boolean isSystem = in.get() != 0;
+        int keyVersion = in.getInt();
+        int length = in.getInt();
+        byte[] content = null;
+        if (length >= 0) {
+            content = new byte[length];
+            in.get(content);
+        }
+        return new Messages(id, chatId, senderId, content, sentAt,
+                MessageStatus.valueOf(new String(status, StandardCharsets.UTF_8)), isSystem, keyVersion);
+    }
+}
@@ -1,20 +1,43 @@
 package model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
 
 /**
  * Data Access Object (DAO) responsible for managing CRUD operations on the Messages table.
  * Supports pagination, status updates, and timestamp-based retrieval.
+ * <p>
+ * When a {@link MessageArchive} is attached, the keyset reads ({@link #getMessagesBefore},
+ * {@link #getMessagesAfter} and {@link #streamMessages}) merge the archived part of the range
+ * with the live rows, so callers do not see where {@link MessageArchiver} moved the boundary.
+ * </p>
  */
-public class MessageDAO {
+public class MessageDAO implements MessageStore {
+
+    /** Cold segments of old messages, or null if archiving is off. */
+    private final MessageArchive archive;
 
     /**
      * Constructs a MessageDAO with the provided database connection manager.
      *
      */
     public MessageDAO() {
+        this(null);
+    }
+
+    /**
+     * Constructs a MessageDAO whose history reads also cover archived messages.
+     *
+     * @param archive the message archive, or null if archiving is off.
+     */
+    public MessageDAO(MessageArchive archive) {
+        this.archive = archive;
     }
 
     /**
@@ -40,7 +63,66 @@ public class MessageDAO {
             stmt.setString(6, message.getStatus().name());
             stmt.setBoolean(7, message.getIsSystem());
             stmt.setInt(8, message.getKeyVersion());
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(message.getSenderId());
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * Inserts several messages as a single JDBC batch in its own transaction.
+     *
+     * @param messages the messages to insert.
+     * @throws SQLException if a database access error occurs.
+     */
+    @Override
+    public void saveMessages(List<Messages> messages) throws SQLException {
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                saveMessages(connection, messages);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Inserts several messages as a single JDBC batch on a caller-supplied connection.
+     * The caller owns the transaction (commit / rollback) and closes the connection.
+     *
+     * @param connection an open connection, usually with auto-commit disabled.
+     * @param messages the messages to insert.
+     * @throws SQLException if a database access error occurs.
+     */
+    public void saveMessages(Connection connection, List<Messages> messages) throws SQLException {
+        String sql = """
+        INSERT INTO Messages
+            (Id, ChatId, SenderId, Content, SentAt, Status, IsSystem, KeyVersion) VALUES
+            (?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Messages message : messages) {
+                stmt.setObject(1, message.getMessageId());
+                stmt.setObject(2, message.getChatId());
+                stmt.setObject(3, message.getSenderId());
+                stmt.setBytes(4, message.getContent());
+                stmt.setTimestamp(5, Timestamp.from(message.getTimestamp()));
+                stmt.setString(6, message.getStatus().name());
+                stmt.setBoolean(7, message.getIsSystem());
+                stmt.setInt(8, message.getKeyVersion());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            for (Messages message : messages) {
+                DatabaseConnection.recordWrite(message.getSenderId());
+            }
         }
     }
 
@@ -103,6 +185,360 @@ public class MessageDAO {
         }
     }
 
+    /**
+     * Keyset page of a chat, newest first: messages strictly older than {@code before}
+     * in (SentAt, Id) order. Seeks on the (ChatId, SentAt, Id) index, so the cost of a page
+     * does not depend on how deep into the history it is.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading, routed to the read replica unless they wrote recently;
+     *                 null to read from the primary.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param before exclusive upper bound, or null to start from the newest message.
+     * @param limit the maximum number of messages to fetch.
+     * @return messages ordered by SentAt, Id descending.
+     * @throws SQLException if a database access error occurs.
+     */
+    @Override
+    public ArrayList<Messages> getMessagesBefore(UUID chatId, UUID readerId, Instant notBefore, MessagePosition before,
+                                                 int limit) throws SQLException {
+        String sql = before == null ? """
+        SELECT *
+        FROM Messages
+        WHERE ChatId = ?
+          AND SentAt >= ?
+        ORDER BY SentAt DESC, Id DESC
+        OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+        """ : """
+        SELECT *
+        FROM Messages
+        WHERE ChatId = ?
+          AND SentAt >= ?
+          AND (SentAt < ? OR (SentAt = ? AND Id < ?))
+        ORDER BY SentAt DESC, Id DESC
+        OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+        """;
+        try (Connection connection = DatabaseConnection.getReadConnection(readerId);
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = bindKeyset(stmt, chatId, notBefore, before);
+            stmt.setInt(i, limit);
+            return withArchived(readMessages(stmt), chatId, notBefore, before, false, limit);
+        }
+    }
+
+    /**
+     * Keyset page of a chat, oldest first: messages strictly newer than {@code after}
+     * in (SentAt, Id) order. Used to resume from a member's read position.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading, routed to the read replica unless they wrote recently;
+     *                 null to read from the primary.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param after exclusive lower bound.
+     * @param limit the maximum number of messages to fetch.
+     * @return messages ordered by SentAt, Id ascending.
+     * @throws SQLException if a database access error occurs.
+     */
+    @Override
+    public ArrayList<Messages> getMessagesAfter(UUID chatId, UUID readerId, Instant notBefore, MessagePosition after,
+                                                int limit) throws SQLException {
+        String sql = """
+        SELECT *
+        FROM Messages
+        WHERE ChatId = ?
+          AND SentAt >= ?
+          AND (SentAt > ? OR (SentAt = ? AND Id > ?))
+        ORDER BY SentAt ASC, Id ASC
+        OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+        """;
+        try (Connection connection = DatabaseConnection.getReadConnection(readerId);
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = bindKeyset(stmt, chatId, notBefore, after);
+            stmt.setInt(i, limit);
+            return withArchived(readMessages(stmt), chatId, notBefore, after, true, limit);
+        }
+    }
+
+    /**
+     * Streams a keyset range of a chat row by row from a forward-only, read-only result set.
+     * Only {@code fetchSize} rows are buffered by the driver at a time, so the caller can
+     * process arbitrarily large ranges in constant memory.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading, routed to the read replica unless they wrote recently;
+     *                 null to read from the primary.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param from exclusive start position, or null to start at the edge of the history.
+     * @param newer true to walk forward (oldest first), false to walk backward (newest first).
+     * @param limit the maximum number of rows to read.
+     * @param fetchSize JDBC fetch size hint.
+     * @param handler receives each message in order.
+     * @return the number of messages handed to the handler.
+     * @throws Exception if a database access error occurs or the handler fails.
+     */
+    @Override
+    public int streamMessages(UUID chatId, UUID readerId, Instant notBefore, MessagePosition from, boolean newer,
+                              int limit, int fetchSize, MessageHandler handler) throws Exception {
+        String seek = from == null ? "" : newer
+                ? "AND (SentAt > ? OR (SentAt = ? AND Id > ?))"
+                : "AND (SentAt < ? OR (SentAt = ? AND Id < ?))";
+        String order = newer ? "ASC" : "DESC";
+        String sql = """
+        SELECT *
+        FROM Messages
+        WHERE ChatId = ?
+          AND SentAt >= ?
+          %s
+        ORDER BY SentAt %s, Id %s
+        OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+        """.formatted(seek, order, order);
+        MessagePosition archivedLast = archivedLast(chatId, from, newer);
+        Iterator<Messages> archived = archivedLast == null ? null : archiveScan(chatId, notBefore, from, newer);
+        try (Connection connection = DatabaseConnection.getReadConnection(readerId);
+             PreparedStatement stmt = connection.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            int i = bindKeyset(stmt, chatId, notBefore, from);
+            stmt.setInt(i, limit);
+            stmt.setFetchSize(fetchSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return merge(() -> rs.next() ? mapResultSetToMessage(rs) : null,
+                        archived, archivedLast, newer, limit, handler);
+            } catch (UncheckedIOException e) {
+                throw archiveFailure(chatId, e.getCause());
+            }
+        }
+    }
+
+    /** A source of live rows in scan order; returns null when exhausted. */
+    @FunctionalInterface
+    private interface RowSource {
+        Messages next() throws Exception;
+    }
+
+    /**
+     * Merges live rows with archived ones in the scan order and hands up to {@code limit} messages
+     * to the handler. A message that is both archived and still live (the archiver deletes rows
+     * only after their segment is on disk) is returned once, from the live side.
+     * Walking backward, the archive is not touched until the live rows reach its newest position.
+     *
+     * @param archived archived messages in the same order, or null if the archive cannot contribute.
+     * @param archivedLast the newest archived position of the chat (only used if {@code archived} is set).
+     * @return the number of messages handed to the handler.
+     */
+    private static int merge(RowSource live, Iterator<Messages> archived, MessagePosition archivedLast,
+                             boolean newer, int limit, MessageHandler handler) throws Exception {
+        int count = 0;
+        Messages liveNext = live.next();
+        Messages archivedNext = null;
+        while (count < limit) {
+            boolean archiveMayLead = archived != null && (newer || liveNext == null
+                    || MessagePosition.of(liveNext).compareTo(archivedLast) <= 0);
+            if (archiveMayLead && archivedNext == null && archived.hasNext()) {
+                archivedNext = archived.next();
+            }
+            Messages next;
+            if (archivedNext == null) {
+                if (liveNext == null) {
+                    break;
+                }
+                next = liveNext;
+                liveNext = live.next();
+            } else if (liveNext == null) {
+                next = archivedNext;
+                archivedNext = null;
+            } else {
+                int cmp = MessagePosition.of(archivedNext).compareTo(MessagePosition.of(liveNext));
+                if (newer ? cmp < 0 : cmp > 0) {
+                    next = archivedNext;
+                    archivedNext = null;
+                } else {
+                    if (cmp == 0) {
+                        archivedNext = null;
+                    }
+                    next = liveNext;
+                    liveNext = live.next();
+                }
+            }
+            count++;
+            if (!handler.handle(next)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Completes a keyset page from the live table with archived messages of the same range.
+     * The archive is skipped when nothing archived lies past {@code from}, or when a full backward
+     * page is already newer than everything archived (the common case for recent history).
+     */
+    private ArrayList<Messages> withArchived(ArrayList<Messages> live, UUID chatId, Instant notBefore,
+                                             MessagePosition from, boolean newer, int limit) throws SQLException {
+        MessagePosition archivedLast = archivedLast(chatId, from, newer);
+        if (archivedLast == null || (!newer && live.size() >= limit
+                && archivedLast.compareTo(MessagePosition.of(live.get(live.size() - 1))) < 0)) {
+            return live;
+        }
+        Iterator<Messages> archived = archiveScan(chatId, notBefore, from, newer);
+        Iterator<Messages> rows = live.iterator();
+        ArrayList<Messages> merged = new ArrayList<>(limit);
+        try {
+            merge(() -> rows.hasNext() ? rows.next() : null, archived, archivedLast, newer, limit, merged::add);
+        } catch (UncheckedIOException e) {
+            throw archiveFailure(chatId, e.getCause());
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+        return merged;
+    }
+
+    /**
+     * @return the newest archived position of the chat, or null if the archive has nothing
+     *         in the direction of the scan.
+     */
+    private MessagePosition archivedLast(UUID chatId, MessagePosition from, boolean newer) throws SQLException {
+        if (archive == null) {
+            return null;
+        }
+        try {
+            MessagePosition last = archive.lastPosition(chatId);
+            return last == null || (newer && from != null && last.compareTo(from) <= 0) ? null : last;
+        } catch (IOException e) {
+            throw archiveFailure(chatId, e);
+        }
+    }
+
+    private Iterator<Messages> archiveScan(UUID chatId, Instant notBefore, MessagePosition from, boolean newer)
+            throws SQLException {
+        try {
+            return archive.scan(chatId, notBefore, from, newer);
+        } catch (IOException e) {
+            throw archiveFailure(chatId, e);
+        }
+    }
+
+    private static SQLException archiveFailure(UUID chatId, IOException e) {
+        return new SQLException("Could not read the message archive of chat " + chatId, e);
+    }
+
+    /**
+     * Lists the chats that still have live messages older than {@code cutoff}.
+     * Each chat is probed with a seek on the (ChatId, SentAt, Id) index.
+     *
+     * @param cutoff the archiving boundary.
+     * @return the ids of those chats.
+     * @throws SQLException if a database access error occurs.
+     */
+    public List<UUID> getChatsWithMessagesBefore(Instant cutoff) throws SQLException {
+        String sql = """
+        SELECT C.Id
+        FROM Chats C
+        WHERE EXISTS (SELECT 1 FROM Messages M WHERE M.ChatId = C.Id AND M.SentAt < ?)
+        """;
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.from(cutoff));
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<UUID> chatIds = new ArrayList<>();
+                while (rs.next()) {
+                    chatIds.add(UUID.fromString(rs.getString(1)));
+                }
+                return chatIds;
+            }
+        }
+    }
+
+    /**
+     * Oldest live messages of a chat that are older than {@code cutoff}, read from the primary.
+     *
+     * @param chatId the chat's UUID.
+     * @param cutoff exclusive upper bound on SentAt.
+     * @param limit the maximum number of messages to fetch.
+     * @return messages ordered by SentAt, Id ascending.
+     * @throws SQLException if a database access error occurs.
+     */
+    public ArrayList<Messages> getMessagesOlderThan(UUID chatId, Instant cutoff, int limit) throws SQLException {
+        String sql = """
+        SELECT *
+        FROM Messages
+        WHERE ChatId = ?
+          AND SentAt < ?
+        ORDER BY SentAt ASC, Id ASC
+        OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+        """;
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, chatId);
+            stmt.setTimestamp(2, Timestamp.from(cutoff));
+            stmt.setInt(3, limit);
+            return readMessages(stmt);
+        }
+    }
+
+    /**
+     * Deletes exactly the given messages (by their clustered key) in one transaction.
+     * Used by the archiver once the messages are durable in the archive.
+     *
+     * @param messages the messages to delete.
+     * @return the number of rows deleted.
+     * @throws SQLException if a database access error occurs.
+     */
+    public int deleteMessages(List<Messages> messages) throws SQLException {
+        String sql = "DELETE FROM Messages WHERE ChatId = ? AND SentAt = ? AND Id = ?";
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (Messages message : messages) {
+                    stmt.setObject(1, message.getChatId());
+                    stmt.setTimestamp(2, Timestamp.from(message.getTimestamp()));
+                    stmt.setObject(3, message.getMessageId());
+                    stmt.addBatch();
+                }
+                int deleted = 0;
+                for (int count : stmt.executeBatch()) {
+                    deleted += Math.max(count, 0);
+                }
+                connection.commit();
+                return deleted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Binds ChatId, the JoinDate floor and (optionally) the seek position.
+     *
+     * @return the index of the next parameter.
+     */
+    private int bindKeyset(PreparedStatement stmt, UUID chatId, Instant notBefore, MessagePosition position) throws SQLException {
+        int i = 1;
+        stmt.setObject(i++, chatId);
+        stmt.setTimestamp(i++, Timestamp.from(notBefore));
+        if (position != null) {
+            Timestamp sentAt = Timestamp.from(position.getSentAt());
+            stmt.setTimestamp(i++, sentAt);
+            stmt.setTimestamp(i++, sentAt);
+            stmt.setObject(i++, position.getMessageId());
+        }
+        return i;
+    }
+
+    private ArrayList<Messages> readMessages(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            ArrayList<Messages> messages = new ArrayList<>();
+            while (rs.next()) {
+                messages.add(mapResultSetToMessage(rs));
+            }
+            return messages;
+        }
+    }
+
     /**
      * Maps a result set row to a Messages object.
      *
@@ -0,0 +1,94 @@
+package model;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A position in a chat's message order, the (SentAt, Id) pair used for keyset pagination.
+ * Messages are ordered by SentAt and then by Id, so a position identifies exactly one
+ * boundary even when several messages share the same timestamp.
+ * <p>
+ * {@link #compareTo} orders Ids the way SQL Server orders {@code uniqueidentifier} values
+ * (not {@link UUID#compareTo}), so positions compared in memory agree with
+ * {@code ORDER BY SentAt, Id} in {@link MessageDAO}.
+ * </p>
+ */
+public final class MessagePosition implements Comparable<MessagePosition> {
+
+    /**
+     * Significance of the canonical (string order) UUID bytes in SQL Server's comparison:
+     * the last group first, then the fourth group, then the first three groups with each
+     * group's bytes taken little-endian.
+     */
+    private static final int[] SQL_SERVER_ID_ORDER = {10, 11, 12, 13, 14, 15, 8, 9, 7, 6, 5, 4, 3, 2, 1, 0};
+
+    private final Instant sentAt;
+    private final UUID messageId;
+
+    /**
+     * @param sentAt the SentAt value of the boundary message.
+     * @param messageId the Id of the boundary message.
+     */
+    public MessagePosition(Instant sentAt, UUID messageId) {
+        this.sentAt = Objects.requireNonNull(sentAt, "sentAt");
+        this.messageId = Objects.requireNonNull(messageId, "messageId");
+    }
+
+    /**
+     * @param message a stored message.
+     * @return the position of that message.
+     */
+    public static MessagePosition of(Messages message) {
+        return new MessagePosition(message.getTimestamp(), message.getMessageId());
+    }
+
+    public Instant getSentAt() { return sentAt; }
+    public UUID getMessageId() { return messageId; }
+
+    @Override
+    public int compareTo(MessagePosition other) {
+        int bySentAt = sentAt.compareTo(other.sentAt);
+        return bySentAt != 0 ? bySentAt : compareIds(messageId, other.messageId);
+    }
+
+    /**
+     * Compares two Ids in SQL Server {@code uniqueidentifier} order.
+     *
+     * @param a first id.
+     * @param b second id.
+     * @return negative, zero or positive like {@link Comparable#compareTo}.
+     */
+    public static int compareIds(UUID a, UUID b) {
+        for (int index : SQL_SERVER_ID_ORDER) {
+            int cmp = Integer.compare(idByte(a, index), idByte(b, index));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Unsigned byte {@code index} (0..15) of the canonical big-endian form of the id. */
+    private static int idByte(UUID id, int index) {
+        long half = index < 8 ? id.getMostSignificantBits() : id.getLeastSignificantBits();
+        return (int) (half >>> (8 * (7 - (index & 7)))) & 0xFF;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MessagePosition other)) return false;
+        return sentAt.equals(other.sentAt) && messageId.equals(other.messageId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sentAt, messageId);
+    }
+
+    @Override
+    public String toString() {
+        return sentAt + "/" + messageId;
+    }
+}
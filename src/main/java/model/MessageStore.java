@@ -0,0 +1,125 @@
+package model;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persistence of chat messages: the batch append used by {@link MessageBatchWriter} and the keyset
+ * history reads used by the chat service.
+ * <p>
+ * {@link MessageDAO} keeps messages in the SQL Server Messages table; {@link LogMessageStore}
+ * keeps them in local append-only files. Both order a chat by (SentAt, Id) as defined by
+ * {@link MessagePosition}, and both report failures as {@link SQLException} so callers handle
+ * every backend the same way.
+ * </p>
+ */
+public interface MessageStore {
+
+    /**
+     * Callback for {@link #streamMessages}. Returning false stops the scan early
+     * (for example when the receiving call was cancelled).
+     */
+    @FunctionalInterface
+    interface MessageHandler {
+        boolean handle(Messages message) throws Exception;
+    }
+
+    /**
+     * Stores new messages. When this returns the messages are durable (subject to the store's
+     * sync policy) and visible to the read methods. Either every message is stored or none is.
+     *
+     * @param messages the messages to store, possibly of several chats.
+     * @throws SQLException if the messages could not be stored (for example a duplicate id).
+     */
+    void saveMessages(List<Messages> messages) throws SQLException;
+
+    /**
+     * Keyset page of a chat, newest first: messages strictly older than {@code before}.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading (a hint for stores with replicas); null for the primary copy.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param before exclusive upper bound, or null to start from the newest message.
+     * @param limit the maximum number of messages to fetch.
+     * @return messages ordered by SentAt, Id descending.
+     * @throws SQLException if the messages could not be read.
+     */
+    ArrayList<Messages> getMessagesBefore(UUID chatId, UUID readerId, Instant notBefore, MessagePosition before,
+                                          int limit) throws SQLException;
+
+    /**
+     * Keyset page of a chat, oldest first: messages strictly newer than {@code after}.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading (a hint for stores with replicas); null for the primary copy.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param after exclusive lower bound.
+     * @param limit the maximum number of messages to fetch.
+     * @return messages ordered by SentAt, Id ascending.
+     * @throws SQLException if the messages could not be read.
+     */
+    ArrayList<Messages> getMessagesAfter(UUID chatId, UUID readerId, Instant notBefore, MessagePosition after,
+                                         int limit) throws SQLException;
+
+    /**
+     * Streams a keyset range of a chat in constant memory.
+     *
+     * @param chatId the chat's UUID.
+     * @param readerId the member reading (a hint for stores with replicas); null for the primary copy.
+     * @param notBefore oldest SentAt visible to the reader (the member's JoinDate).
+     * @param from exclusive start position, or null to start at the edge of the history.
+     * @param newer true to walk forward (oldest first), false to walk backward (newest first).
+     * @param limit the maximum number of messages to read.
+     * @param fetchSize how many messages to read ahead at a time.
+     * @param handler receives each message in order.
+     * @return the number of messages handed to the handler.
+     * @throws Exception if the messages could not be read or the handler fails.
+     */
+    int streamMessages(UUID chatId, UUID readerId, Instant notBefore, MessagePosition from, boolean newer,
+                       int limit, int fetchSize, MessageHandler handler) throws Exception;
+
+    /**
+     * Counts the messages of a chat strictly newer than {@code after}, for unread counters.
+     * The default walks the range with {@link #streamMessages}; stores with an index override it.
+     *
+     * @param chatId the chat's UUID.
+     * @param notBefore oldest SentAt to count (the member's JoinDate).
+     * @param after exclusive lower bound (the member's read position), or null to count from {@code notBefore}.
+     * @param excludedSenderId messages of this sender are not counted (the member's own), or null.
+     * @return the number of matching messages.
+     * @throws SQLException if the messages could not be read.
+     */
+    default int countMessagesAfter(UUID chatId, Instant notBefore, MessagePosition after,
+                                   UUID excludedSenderId) throws SQLException {
+        int[] count = {0};
+        try {
+            streamMessages(chatId, null, notBefore, after, true, Integer.MAX_VALUE, 256, message -> {
+                if (!message.getSenderId().equals(excludedSenderId)) {
+                    count[0]++;
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+        return count[0];
+    }
+
+    /**
+     * @return one line of store metrics, or null if the store has none.
+     */
+    default String stats() {
+        return null;
+    }
+
+    /**
+     * Flushes and releases the store's resources.
+     */
+    default void close() {
+    }
+}
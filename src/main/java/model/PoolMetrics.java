@@ -0,0 +1,57 @@
+package model;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * מדדים של מאגר חיבורים אחד: זמן ההמתנה לקבלת חיבור, timeouts,
+ * ותמונת מצב של החיבורים הפעילים / הרדומים / הת'רדים הממתינים.
+ * מחובר ל-HikariCP דרך {@link com.zaxxer.hikari.HikariConfig#setMetricsTrackerFactory}.
+ */
+final class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    /** ההמתנה הארוכה ביותר מאז הדיווח הקודם */
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile String poolName = "?";
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquisitions.increment();
+                waitNanos.add(elapsedAcquiredNanos);
+                maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * @return שורת מדדים; מאפס את ההמתנה המרבית כך שכל דיווח מציג את המקסימום של התקופה שלו
+     */
+    String stats() {
+        PoolStats pool = poolStats;
+        long count = acquisitions.sum();
+        double avgWaitMillis = count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+        String state = pool == null ? "not started" : String.format("active=%d/%d idle=%d waiting=%d",
+                pool.getActiveConnections(), pool.getMaxConnections(),
+                pool.getIdleConnections(), pool.getPendingThreads());
+        return String.format("%s %s acquired=%d avgWait=%.2fms maxWait=%.2fms timeouts=%d",
+                poolName, state, count, avgWaitMillis, maxWaitNanos.getAndSet(0) / 1e6, timeouts.sum());
+    }
+}
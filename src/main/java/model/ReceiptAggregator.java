@@ -0,0 +1,170 @@
+package model;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * מצבר write-behind לאישורי קבלה (DELIVERED / SEEN).
+ * <p>
+ * אישור לא נשמר כשורה לכל הודעה, אלא כסימן מים לכל חבר: ההודעה האחרונה שנמסרה לו
+ * וההודעה האחרונה שהוא ראה. בזיכרון נשמר רק המיקום המקסימלי לכל (חדר, משתמש, סוג),
+ * כך שמאה אישורים של אותו חבר בין שתי כתיבות מתכווצים לעדכון אחד.
+ * פעם ב-flushMillis כל מה שהצטבר נכתב באצווה אחת דרך
+ * {@link ChatRoomDAO#advanceReceiptPositions(Map, Map)}, ואחרי הכתיבה כל מיקום
+ * מדווח ל-{@link Listener} (למשל כדי לדחוף אותו לשולחים).
+ * </p>
+ */
+public class ReceiptAggregator {
+
+    /**
+     * מקבל את סימני המים שנכתבו בכל flush.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param chatId מזהה החדר
+         * @param userId החבר שאישר
+         * @param status DELIVERED או SEEN
+         * @param position ההודעה האחרונה שאושרה
+         */
+        void onReceipt(UUID chatId, UUID userId, MessageStatus status, MessagePosition position);
+    }
+
+    private final ChatRoomDAO chatRoomDAO;
+    private final ScheduledExecutorService scheduler;
+    private volatile Listener listener;
+
+    /** חדר -> (משתמש -> מיקום) לכל סוג ; מוגנים ע"י הנעילה של המופע */
+    private Map<UUID, Map<UUID, MessagePosition>> delivered = new HashMap<>();
+    private Map<UUID, Map<UUID, MessagePosition>> seen = new HashMap<>();
+
+    /** כתיבה אחת בכל רגע, כך ש-flush שחזר מבטיח שכל מה שנרשם לפניו כבר במסד */
+    private final Object flushLock = new Object();
+
+    /**
+     * יוצר מצבר ומתזמן כתיבה מחזורית.
+     * @param chatRoomDAO ה-DAO שמבצע את העדכון
+     * @param flushMillis מרווח הזמן בין כתיבות (במילישניות)
+     */
+    public ReceiptAggregator(ChatRoomDAO chatRoomDAO, long flushMillis) {
+        this.chatRoomDAO = chatRoomDAO;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "receipt-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param listener מקבל את סימני המים אחרי כל כתיבה, או null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * רושם אישור קבלה. SEEN מקדם גם את מיקום המסירה, כי הודעה שנראתה כבר נמסרה.
+     * @param chatId מזהה החדר
+     * @param userId החבר שאישר
+     * @param status DELIVERED או SEEN
+     * @param position ההודעה האחרונה שאושרה
+     */
+    public synchronized void record(UUID chatId, UUID userId, MessageStatus status, MessagePosition position) {
+        if (status == MessageStatus.SEEN) {
+            advance(seen, chatId, userId, position);
+            advance(delivered, chatId, userId, position);
+        } else if (status == MessageStatus.DELIVERED) {
+            advance(delivered, chatId, userId, position);
+        } else {
+            throw new IllegalArgumentException("Not a receipt status: " + status);
+        }
+    }
+
+    private static void advance(Map<UUID, Map<UUID, MessagePosition>> positions,
+                                UUID chatId, UUID userId, MessagePosition position) {
+        positions.computeIfAbsent(chatId, id -> new HashMap<>())
+                .merge(userId, position, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+    }
+
+    /**
+     * כותב מיד את כל מה שהצטבר ומדווח ל-listener.
+     * @throws SQLException אם הכתיבה נכשלה (המיקומים חוזרים לתור)
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<UUID, Map<UUID, MessagePosition>> deliveredBatch;
+            Map<UUID, Map<UUID, MessagePosition>> seenBatch;
+            synchronized (this) {
+                if (delivered.isEmpty() && seen.isEmpty()) {
+                    return;
+                }
+                deliveredBatch = delivered;
+                seenBatch = seen;
+                delivered = new HashMap<>();
+                seen = new HashMap<>();
+            }
+            try {
+                chatRoomDAO.advanceReceiptPositions(deliveredBatch, seenBatch);
+            } catch (SQLException e) {
+                // הטרנזקציה בוטלה - מחזירים את המיקומים (המקסימום נשמר גם מול מה שנרשם בינתיים)
+                synchronized (this) {
+                    requeue(delivered, deliveredBatch);
+                    requeue(seen, seenBatch);
+                }
+                throw e;
+            }
+            Listener current = listener;
+            if (current != null) {
+                report(current, deliveredBatch, MessageStatus.DELIVERED, seenBatch);
+                report(current, seenBatch, MessageStatus.SEEN, null);
+            }
+        }
+    }
+
+    private static void requeue(Map<UUID, Map<UUID, MessagePosition>> target,
+                                Map<UUID, Map<UUID, MessagePosition>> batch) {
+        batch.forEach((chatId, members) ->
+                members.forEach((userId, position) -> advance(target, chatId, userId, position)));
+    }
+
+    /**
+     * @param covered מיקומים שכבר מדווחים בסוג חזק יותר (SEEN באותו מיקום מכסה את DELIVERED), או null
+     */
+    private static void report(Listener listener, Map<UUID, Map<UUID, MessagePosition>> batch,
+                               MessageStatus status, Map<UUID, Map<UUID, MessagePosition>> covered) {
+        batch.forEach((chatId, members) -> members.forEach((userId, position) -> {
+            Map<UUID, MessagePosition> coveredMembers = covered == null ? null : covered.get(chatId);
+            if (coveredMembers != null && position.equals(coveredMembers.get(userId))) {
+                return;
+            }
+            try {
+                listener.onReceipt(chatId, userId, status, position);
+            } catch (RuntimeException e) {
+                System.err.println("[ReceiptAggregator] listener failed: " + e.getMessage());
+            }
+        }));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("[ReceiptAggregator] DB error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * עוצר את הכתיבה המחזורית וכותב את מה שנשאר.
+     */
+    public void stop() {
+        scheduler.shutdown();
+        flushQuietly();
+    }
+}
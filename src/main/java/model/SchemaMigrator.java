@@ -0,0 +1,556 @@
+package model;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * מריץ מיגרציות סכמה ממוספרות מול SQL Server ומאמת שהאינדקסים של הנתיבים החמים קיימים.
+ * <p>
+ * כל מיגרציה רצה בטרנזקציה אחת ונרשמת בטבלת SchemaVersion יחד עם checksum של הפקודות,
+ * כך שכל גרסה מוחלת פעם אחת בלבד. כמה צמתים שעולים יחד מסונכרנים ע"י sp_getapplock.
+ * מיגרציה שכבר הוחלה אסור לשנות - שינוי סכמה חדש נכנס כגרסה חדשה בסוף הרשימה.
+ * </p>
+ * <p>
+ * מצב verify לא משנה דבר: הוא מדווח על אינדקסים חסרים או לא מכסים, ובודק את תוכניות
+ * הביצוע (SHOWPLAN_XML) של שאילתות ה-DAO. מיועד לרוץ מול קונטיינר מקומי, למשל:
+ * </p>
+ * <pre>
+ * docker run -e ACCEPT_EULA=Y -e MSSQL_SA_PASSWORD=... -p 1433:1433 mcr.microsoft.com/mssql/server:2022-latest
+ * java model.SchemaMigrator migrate verify
+ * </pre>
+ * (עם db.url ב-application.properties שמצביע על הקונטיינר).
+ */
+public final class SchemaMigrator {
+
+    /** שם הנעילה שמונעת משני צמתים להריץ מיגרציות בו-זמנית */
+    private static final String LOCK_RESOURCE = "chatflow-schema-migrations";
+    private static final int LOCK_TIMEOUT_MILLIS = 60_000;
+
+    /** מיגרציה אחת. כל פקודה נשלחת כ-batch נפרד (אין צורך ב-GO) */
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+
+        long checksum() {
+            CRC32 crc = new CRC32();
+            for (String statement : statements) {
+                crc.update(statement.strip().getBytes(StandardCharsets.UTF_8));
+            }
+            return crc.getValue();
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "baseline tables",
+                    """
+                    IF OBJECT_ID(N'dbo.Users', N'U') IS NULL
+                    CREATE TABLE dbo.Users (
+                        Id            uniqueidentifier NOT NULL CONSTRAINT PK_Users PRIMARY KEY,
+                        Username      nvarchar(50)     NOT NULL,
+                        PasswordHash  nvarchar(255)    NOT NULL,
+                        Email         nvarchar(255)    NOT NULL,
+                        Verified      bit              NOT NULL DEFAULT 0,
+                        Online        bit              NOT NULL DEFAULT 0,
+                        LastLogin     datetime2        NULL,
+                        PublicKey     varbinary(max)   NULL,
+                        PrivateKey    varbinary(max)   NULL,
+                        N             varbinary(max)   NULL,
+                        failed_logins int              NOT NULL DEFAULT 0,
+                        lock_until    datetime2        NULL
+                    )
+                    """,
+                    """
+                    IF OBJECT_ID(N'dbo.Chats', N'U') IS NULL
+                    CREATE TABLE dbo.Chats (
+                        Id                uniqueidentifier NOT NULL CONSTRAINT PK_Chats PRIMARY KEY,
+                        Name              nvarchar(50)     NOT NULL,
+                        CreatedAt         datetime2        NOT NULL,
+                        CreatedBy         uniqueidentifier NOT NULL,
+                        FolderId          nvarchar(255)    NULL,
+                        LastMessageTime   datetime2        NULL,
+                        CurrentKeyVersion int              NOT NULL DEFAULT 1
+                    )
+                    """,
+                    // המפתח הראשי (ChatId, UserId) משמש גם כאינדקס המכסה של בדיקות החברות
+                    """
+                    IF OBJECT_ID(N'dbo.ChatMembers', N'U') IS NULL
+                    CREATE TABLE dbo.ChatMembers (
+                        ChatId         uniqueidentifier NOT NULL,
+                        UserId         uniqueidentifier NOT NULL,
+                        Role           nvarchar(20)     NOT NULL,
+                        JoinDate       datetime2        NOT NULL,
+                        InviteStatus   nvarchar(20)     NOT NULL,
+                        UnreadMessages int              NOT NULL DEFAULT 0,
+                        CONSTRAINT PK_ChatMembers PRIMARY KEY CLUSTERED (ChatId, UserId)
+                    )
+                    """,
+                    // ההודעות מאוחסנות לפי (ChatId, SentAt, Id), כך שעמוד היסטוריה הוא קריאה רציפה אחת
+                    """
+                    IF OBJECT_ID(N'dbo.Messages', N'U') IS NULL
+                    CREATE TABLE dbo.Messages (
+                        Id         uniqueidentifier NOT NULL CONSTRAINT PK_Messages PRIMARY KEY NONCLUSTERED,
+                        ChatId     uniqueidentifier NOT NULL,
+                        SenderId   uniqueidentifier NOT NULL,
+                        Content    varbinary(max)   NOT NULL,
+                        SentAt     datetime2        NOT NULL,
+                        Status     nvarchar(20)     NOT NULL,
+                        IsSystem   bit              NOT NULL DEFAULT 0,
+                        KeyVersion int              NOT NULL DEFAULT 1,
+                        INDEX CX_Messages_Chat UNIQUE CLUSTERED (ChatId, SentAt, Id)
+                    )
+                    """,
+                    """
+                    IF OBJECT_ID(N'dbo.Invites', N'U') IS NULL
+                    CREATE TABLE dbo.Invites (
+                        InviteId                  uniqueidentifier NOT NULL CONSTRAINT PK_Invites PRIMARY KEY,
+                        ChatId                    uniqueidentifier NOT NULL,
+                        InviterId                 uniqueidentifier NOT NULL,
+                        InvitedId                 uniqueidentifier NOT NULL,
+                        SentAt                    datetime2        NOT NULL,
+                        Status                    nvarchar(20)     NOT NULL,
+                        EncryptedPersonalGroupKey varbinary(max)   NULL,
+                        KeyVersion                int              NOT NULL DEFAULT 1
+                    )
+                    """),
+
+            new Migration(2, "member read position",
+                    """
+                    IF COL_LENGTH(N'dbo.ChatMembers', N'LastReadAt') IS NULL
+                    ALTER TABLE dbo.ChatMembers ADD LastReadAt datetime2 NULL
+                    """,
+                    """
+                    IF COL_LENGTH(N'dbo.ChatMembers', N'LastReadMessageId') IS NULL
+                    ALTER TABLE dbo.ChatMembers ADD LastReadMessageId uniqueidentifier NULL
+                    """),
+
+            // בהתקנות שנוצרו ב-V1 חלק מהנתיבים כבר מכוסים ע"י האינדקס המקובץ, ואז לא נוצר כפיל
+            new Migration(3, "hot path indexes",
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.Messages')
+                                   AND name IN (N'CX_Messages_Chat', N'IX_Messages_ChatId_SentAt_Id'))
+                    CREATE INDEX IX_Messages_ChatId_SentAt_Id ON dbo.Messages (ChatId, SentAt, Id)
+                        INCLUDE (SenderId, Status, IsSystem, KeyVersion, Content)
+                    """,
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.ChatMembers')
+                                   AND name IN (N'PK_ChatMembers', N'IX_ChatMembers_ChatId_UserId'))
+                    CREATE INDEX IX_ChatMembers_ChatId_UserId ON dbo.ChatMembers (ChatId, UserId)
+                        INCLUDE (Role, JoinDate, InviteStatus, UnreadMessages, LastReadAt, LastReadMessageId)
+                    """,
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.ChatMembers')
+                                   AND name = N'IX_ChatMembers_UserId')
+                    CREATE INDEX IX_ChatMembers_UserId ON dbo.ChatMembers (UserId)
+                        INCLUDE (Role, JoinDate, InviteStatus, UnreadMessages)
+                    """,
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.Invites')
+                                   AND name = N'IX_Invites_InvitedId_Status')
+                    CREATE INDEX IX_Invites_InvitedId_Status ON dbo.Invites (InvitedId, Status)
+                        INCLUDE (ChatId, InviterId, SentAt, KeyVersion, EncryptedPersonalGroupKey)
+                    """,
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.Invites')
+                                   AND name = N'IX_Invites_Status_SentAt')
+                    CREATE INDEX IX_Invites_Status_SentAt ON dbo.Invites (Status, SentAt)
+                    """,
+                    """
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID(N'dbo.Users')
+                                   AND name = N'IX_Users_Email')
+                    CREATE INDEX IX_Users_Email ON dbo.Users (Email)
+                    """),
+
+            // מיקום המסירה של כל חבר (סימן המים של אישורי DELIVERED); SEEN משתמש ב-LastRead*
+            new Migration(4, "member delivery position",
+                    """
+                    IF COL_LENGTH(N'dbo.ChatMembers', N'LastDeliveredAt') IS NULL
+                    ALTER TABLE dbo.ChatMembers ADD LastDeliveredAt datetime2 NULL
+                    """,
+                    """
+                    IF COL_LENGTH(N'dbo.ChatMembers', N'LastDeliveredMessageId') IS NULL
+                    ALTER TABLE dbo.ChatMembers ADD LastDeliveredMessageId uniqueidentifier NULL
+                    """)
+    );
+
+    /** נתיב גישה שחייב אינדקס: עמודות מפתח מובילות, ועמודות שהאינדקס צריך לכסות */
+    private static final class IndexCheck {
+        final String table;
+        final List<String> keys;
+        final List<String> covers;
+
+        IndexCheck(String table, List<String> keys, List<String> covers) {
+            this.table = table;
+            this.keys = keys;
+            this.covers = covers;
+        }
+    }
+
+    private static final List<IndexCheck> INDEX_CHECKS = List.of(
+            new IndexCheck("Messages", List.of("ChatId", "SentAt", "Id"),
+                    List.of("SenderId", "Content", "Status", "IsSystem", "KeyVersion")),
+            new IndexCheck("ChatMembers", List.of("ChatId", "UserId"),
+                    List.of("Role", "JoinDate", "InviteStatus", "LastReadAt", "LastReadMessageId")),
+            new IndexCheck("ChatMembers", List.of("UserId"), List.of()),
+            new IndexCheck("Invites", List.of("InvitedId", "Status"),
+                    List.of("ChatId", "InviterId", "SentAt", "KeyVersion", "EncryptedPersonalGroupKey")),
+            new IndexCheck("Invites", List.of("Status", "SentAt"), List.of()),
+            new IndexCheck("Users", List.of("Email"), List.of())
+    );
+
+    /**
+     * שאילתות ה-DAO שתוכנית הביצוע שלהן נבדקת. ה-? של JDBC מוחלפים במשתנים @p1..@pN
+     * מהסוגים שב-declarations, כדי שהאופטימייזר יקמפל אותן כמו שאילתה עם פרמטרים.
+     */
+    private static final Map<String, String[]> PLAN_CHECKS = new LinkedHashMap<>();
+
+    static {
+        String uuid = "uniqueidentifier";
+        String time = "datetime2";
+        PLAN_CHECKS.put("MessageDAO.getMessagesBefore", new String[]{"""
+                SELECT * FROM Messages
+                WHERE ChatId = ? AND SentAt >= ? AND (SentAt < ? OR (SentAt = ? AND Id < ?))
+                ORDER BY SentAt DESC, Id DESC
+                OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+                """, uuid, time, time, time, uuid, "int"});
+        PLAN_CHECKS.put("MessageDAO.getMessagesAfter", new String[]{"""
+                SELECT * FROM Messages
+                WHERE ChatId = ? AND SentAt >= ? AND (SentAt > ? OR (SentAt = ? AND Id > ?))
+                ORDER BY SentAt ASC, Id ASC
+                OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY
+                """, uuid, time, time, time, uuid, "int"});
+        PLAN_CHECKS.put("ChatRoomDAO.isMember", new String[]{
+                "SELECT 1 FROM ChatMembers WHERE ChatId = ? AND UserId = ?", uuid, uuid});
+        PLAN_CHECKS.put("ChatRoomDAO.getReadPosition", new String[]{
+                "SELECT LastReadAt, LastReadMessageId FROM ChatMembers WHERE ChatId = ? AND UserId = ?", uuid, uuid});
+        PLAN_CHECKS.put("ChatRoomDAO.streamUserChatRooms (members)", new String[]{"""
+                SELECT Cm.ChatId, Cm.UserId, Cm.Role, Cm.JoinDate, Cm.InviteStatus
+                FROM ChatMembers Me JOIN ChatMembers Cm ON Cm.ChatId = Me.ChatId
+                WHERE Me.UserId = ?
+                """, uuid});
+        PLAN_CHECKS.put("ChatRoomDAO.streamUserChatRooms (rooms)", new String[]{"""
+                SELECT C.*, L.Id, L.SenderId, L.Content, L.SentAt, L.Status, L.IsSystem, L.KeyVersion
+                FROM ChatMembers Me
+                JOIN Chats C ON C.Id = Me.ChatId
+                OUTER APPLY (
+                    SELECT TOP (1) M.Id, M.SenderId, M.Content, M.SentAt, M.Status, M.IsSystem, M.KeyVersion
+                    FROM Messages M
+                    WHERE M.ChatId = Me.ChatId AND M.SentAt >= Me.JoinDate
+                    ORDER BY M.SentAt DESC, M.Id DESC
+                ) L
+                WHERE Me.UserId = ?
+                """, uuid});
+        PLAN_CHECKS.put("ChatRoomDAO.countUnread", new String[]{"""
+                SELECT Cm.ChatId, Cm.UserId, U.Unread
+                FROM OPENJSON(?) WITH (ChatId uniqueidentifier '$.c', UserId uniqueidentifier '$.u') P
+                JOIN ChatMembers Cm ON Cm.ChatId = P.ChatId AND Cm.UserId = P.UserId
+                CROSS APPLY (
+                    SELECT COUNT(*) AS Unread
+                    FROM Messages M
+                    WHERE M.ChatId = Cm.ChatId
+                      AND M.SentAt >= CASE WHEN Cm.LastReadAt > Cm.JoinDate THEN Cm.LastReadAt ELSE Cm.JoinDate END
+                      AND (Cm.LastReadAt IS NULL OR M.SentAt > Cm.LastReadAt OR M.Id > Cm.LastReadMessageId)
+                      AND M.SenderId <> Cm.UserId
+                ) U
+                """, "nvarchar(max)"});
+        PLAN_CHECKS.put("InviteDAO.getUserInvites", new String[]{
+                "SELECT * FROM Invites WHERE InvitedId = ? AND Status = 'PENDING'", uuid});
+        PLAN_CHECKS.put("InviteDAO.expirePendingInvites", new String[]{
+                "UPDATE Invites SET Status = 'EXPIRED' WHERE Status = 'PENDING' AND SentAt < ?", time});
+        PLAN_CHECKS.put("UserDAO.getUserByEmail", new String[]{
+                "SELECT * FROM Users WHERE Email = ?", "nvarchar(255)"});
+    }
+
+    /** שאילתות שמחזירות שורה אחת, ולכן Key Lookup בודד בהן זול ומותר */
+    private static final Set<String> LOOKUP_ALLOWED = Set.of("UserDAO.getUserByEmail");
+
+    /** אופרטורים שמעידים על סריקה או על חזרה לטבלה במקום אינדקס מכסה */
+    private static final Pattern BAD_OPERATOR =
+            Pattern.compile("PhysicalOp=\"(Table Scan|Clustered Index Scan|Index Scan|Key Lookup|RID Lookup)\"");
+
+    private SchemaMigrator() {}
+
+    /**
+     * מחיל את כל המיגרציות שעוד לא הוחלו, לפי הסדר.
+     *
+     * @return מספר המיגרציות שהוחלו
+     * @throws SQLException אם מיגרציה נכשלה (היא מבוטלת כולה) או שלא ניתן לקבל את הנעילה
+     */
+    public static int migrate() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(true);
+            acquireLock(conn);
+            try {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("""
+                            IF OBJECT_ID(N'dbo.SchemaVersion', N'U') IS NULL
+                            CREATE TABLE dbo.SchemaVersion (
+                                Version     int           NOT NULL CONSTRAINT PK_SchemaVersion PRIMARY KEY,
+                                Description nvarchar(200) NOT NULL,
+                                Checksum    bigint        NOT NULL,
+                                AppliedAt   datetime2     NOT NULL DEFAULT SYSUTCDATETIME()
+                            )
+                            """);
+                }
+                Map<Integer, Long> applied = new HashMap<>();
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT Version, Checksum FROM dbo.SchemaVersion")) {
+                    while (rs.next()) {
+                        applied.put(rs.getInt(1), rs.getLong(2));
+                    }
+                }
+
+                int count = 0;
+                for (Migration migration : MIGRATIONS) {
+                    Long checksum = applied.get(migration.version);
+                    if (checksum != null) {
+                        if (checksum != migration.checksum()) {
+                            System.err.println("[SchemaMigrator] V" + migration.version
+                                    + " was changed after it was applied; add a new migration instead");
+                        }
+                        continue;
+                    }
+                    apply(conn, migration);
+                    count++;
+                }
+                return count;
+            } finally {
+                releaseLock(conn);
+            }
+        }
+    }
+
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            try (Statement st = conn.createStatement()) {
+                for (String statement : migration.statements) {
+                    st.execute(statement);
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO dbo.SchemaVersion (Version, Description, Checksum) VALUES (?, ?, ?)")) {
+                ps.setInt(1, migration.version);
+                ps.setString(2, migration.description);
+                ps.setLong(3, migration.checksum());
+                ps.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("[SchemaMigrator] applied V" + migration.version + " " + migration.description);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Migration V" + migration.version + " (" + migration.description + ") failed", e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void acquireLock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("""
+                DECLARE @result int;
+                EXEC @result = sp_getapplock @Resource = ?, @LockMode = 'Exclusive',
+                                             @LockOwner = 'Session', @LockTimeout = ?;
+                SELECT @result;
+                """)) {
+            ps.setString(1, LOCK_RESOURCE);
+            ps.setInt(2, LOCK_TIMEOUT_MILLIS);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) < 0) {
+                    throw new SQLException("Could not acquire the schema migration lock");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "EXEC sp_releaseapplock @Resource = ?, @LockOwner = 'Session'")) {
+            ps.setString(1, LOCK_RESOURCE);
+            ps.execute();
+        }
+    }
+
+    /**
+     * בודק את הסכמה בלי לשנות אותה: אינדקסים חסרים / לא מכסים, ותוכניות ביצוע
+     * של שאילתות ה-DAO שכוללות סריקה או Key Lookup.
+     *
+     * @return רשימת הבעיות שנמצאו (ריקה אם הכל תקין)
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים
+     */
+    public static List<String> verify() throws SQLException {
+        List<String> problems = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            for (IndexCheck check : INDEX_CHECKS) {
+                String problem = checkIndex(conn, check);
+                if (problem != null) {
+                    problems.add(problem);
+                }
+            }
+
+            try (Statement st = conn.createStatement()) {
+                st.execute("SET SHOWPLAN_XML ON");
+                try {
+                    for (Map.Entry<String, String[]> entry : PLAN_CHECKS.entrySet()) {
+                        String plan = showPlan(st, entry.getValue());
+                        Set<String> operators = new HashSet<>();
+                        Matcher m = BAD_OPERATOR.matcher(plan);
+                        while (m.find()) {
+                            operators.add(m.group(1));
+                        }
+                        if (plan.contains("Lookup=\"true\"") || plan.contains("Lookup=\"1\"")) {
+                            operators.add("Key Lookup");
+                        }
+                        if (LOOKUP_ALLOWED.contains(entry.getKey())) {
+                            operators.remove("Key Lookup");
+                        }
+                        if (!operators.isEmpty()) {
+                            problems.add(entry.getKey() + ": plan uses " + operators);
+                        }
+                    }
+                } finally {
+                    st.execute("SET SHOWPLAN_XML OFF");
+                }
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * @return תיאור הבעיה, או null אם יש אינדקס שמתחיל בעמודות המפתח ומכסה את העמודות הנדרשות
+     */
+    private static String checkIndex(Connection conn, IndexCheck check) throws SQLException {
+        // לכל אינדקס: עמודות המפתח לפי הסדר וכל העמודות שהוא מכיל (מקובץ מכיל את כל הטבלה)
+        Map<String, List<String>> keys = new LinkedHashMap<>();
+        Map<String, Set<String>> columns = new HashMap<>();
+        Set<String> clustered = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement("""
+                SELECT i.name, i.type, c.name, ic.key_ordinal, ic.is_included_column
+                FROM sys.indexes i
+                JOIN sys.index_columns ic ON ic.object_id = i.object_id AND ic.index_id = i.index_id
+                JOIN sys.columns c ON c.object_id = ic.object_id AND c.column_id = ic.column_id
+                WHERE i.object_id = OBJECT_ID(?)
+                ORDER BY i.index_id, ic.key_ordinal
+                """)) {
+            ps.setString(1, "dbo." + check.table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String index = rs.getString(1);
+                    String column = rs.getString(3).toLowerCase(Locale.ROOT);
+                    if (rs.getInt(2) == 1) {
+                        clustered.add(index);
+                    }
+                    if (!rs.getBoolean(5) && rs.getInt(4) > 0) {
+                        keys.computeIfAbsent(index, k -> new ArrayList<>()).add(column);
+                    }
+                    columns.computeIfAbsent(index, k -> new HashSet<>()).add(column);
+                }
+            }
+        }
+
+        List<String> wantedKeys = check.keys.stream().map(k -> k.toLowerCase(Locale.ROOT)).toList();
+        String partial = null;
+        for (Map.Entry<String, List<String>> index : keys.entrySet()) {
+            List<String> indexKeys = index.getValue();
+            if (indexKeys.size() < wantedKeys.size() || !indexKeys.subList(0, wantedKeys.size()).equals(wantedKeys)) {
+                continue;
+            }
+            if (clustered.contains(index.getKey())) {
+                return null;
+            }
+            List<String> missing = new ArrayList<>();
+            for (String column : check.covers) {
+                if (!columns.get(index.getKey()).contains(column.toLowerCase(Locale.ROOT))) {
+                    missing.add(column);
+                }
+            }
+            if (missing.isEmpty()) {
+                return null;
+            }
+            partial = "index " + index.getKey() + " does not cover " + missing;
+        }
+        String path = check.table + "(" + String.join(", ", check.keys) + ")";
+        return partial != null ? path + ": " + partial : path + ": missing index";
+    }
+
+    private static String showPlan(Statement st, String[] check) throws SQLException {
+        StringBuilder batch = new StringBuilder();
+        String sql = check[0];
+        int param = 0;
+        StringBuilder body = new StringBuilder();
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                param++;
+                body.append("@p").append(param);
+                batch.append("DECLARE @p").append(param).append(' ').append(check[param]).append(";\n");
+            } else {
+                body.append(c);
+            }
+        }
+        batch.append(body);
+
+        StringBuilder plan = new StringBuilder();
+        boolean hasResult = st.execute(batch.toString());
+        while (true) {
+            if (hasResult) {
+                try (ResultSet rs = st.getResultSet()) {
+                    while (rs.next()) {
+                        plan.append(rs.getString(1));
+                    }
+                }
+            } else if (st.getUpdateCount() == -1) {
+                break;
+            }
+            hasResult = st.getMoreResults();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * שימוש: {@code java model.SchemaMigrator [migrate] [verify]} - הפעולות רצות לפי הסדר.
+     * ללא ארגומנטים מריץ migrate. יוצא עם קוד 1 אם verify מצא בעיות.
+     */
+    public static void main(String[] args) throws SQLException {
+        String[] actions = args.length == 0 ? new String[]{"migrate"} : args;
+        boolean failed = false;
+        try {
+            for (String action : actions) {
+                switch (action.toLowerCase(Locale.ROOT)) {
+                    case "migrate" -> System.out.println("[SchemaMigrator] " + migrate() + " migration(s) applied");
+                    case "verify" -> {
+                        List<String> problems = verify();
+                        problems.forEach(p -> System.out.println("[SchemaMigrator] " + p));
+                        System.out.println("[SchemaMigrator] verify: " + problems.size() + " problem(s)");
+                        failed |= !problems.isEmpty();
+                    }
+                    default -> throw new IllegalArgumentException("Unknown action: " + action);
+                }
+            }
+        } finally {
+            DatabaseConnection.close();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.sql.*;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * UserDAO היא מחלקת גישה למסד נתונים (Data Access Object) שמנהלת את פעולות השאילתה והעדכון
@@ -42,7 +43,11 @@ public class UserDAO {
             stmt.setBytes(8, user.getPublicKey());
             stmt.setBytes(9, user.getPrivateKey());
             stmt.setBytes(10,user.getN());
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(user.getId());
+            }
+            return updated;
         }
     }
 
@@ -56,6 +61,24 @@ public class UserDAO {
         return getUser("SELECT * FROM Users WHERE Id = ?", userId.toString());
     }
 
+    /**
+     * מחזיר משתמש לתצוגה בלבד (למשל פרטי משתמש אחר), מה-replica אם הוגדר.
+     * לא לשימוש לפני עדכון של המשתמש - ה-replica עשוי להיות מעט מאחור.
+     * @param userId מזהה המשתמש.
+     * @param readerId המשתמש שמבקש, להגנת read-your-writes.
+     * @return אובייקט User אם נמצא, אחרת null.
+     * @throws SQLException אם מתרחשת שגיאה במסד הנתונים.
+     */
+    public User getUserById(UUID userId, UUID readerId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getReadConnection(readerId);
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Users WHERE Id = ?")) {
+            stmt.setString(1, userId.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapUser(rs) : null;
+            }
+        }
+    }
+
     /**
      * מחפש משתמש לפי כתובת דוא"ל.
      * @param email כתובת האימייל של המשתמש.
@@ -67,6 +90,15 @@ public class UserDAO {
         return getUser("SELECT * FROM Users WHERE Email = ?", email);
     }
 
+    /**
+     * גרסה אסינכרונית של {@link #getUserByEmail(String)} שרצה ב-bulkhead של {@link Workload#AUTH}.
+     * @param email כתובת האימייל של המשתמש.
+     * @return future עם המשתמש, או null אם לא נמצא.
+     */
+    public CompletableFuture<User> getUserByEmailAsync(String email) {
+        return DaoExecutor.of(Workload.AUTH).supply(() -> getUserByEmail(email));
+    }
+
     // מתודת עזר למציאה
     private User getUser(String sql, Object param) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection();
@@ -140,7 +172,11 @@ public class UserDAO {
                 }
             }
 
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(user.getId());
+            }
+            return updated;
         }catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -160,7 +196,11 @@ public class UserDAO {
             stmt.setBoolean(1, user.isOnline());
             stmt.setTimestamp(2, Timestamp.from(user.getLastLogin()));
             stmt.setObject(3, user.getId());
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                DatabaseConnection.recordWrite(user.getId());
+            }
+            return updated;
         }
     }
 
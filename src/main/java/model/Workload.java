@@ -0,0 +1,22 @@
+package model;
+
+/**
+ * Workload classes for database access. Each class gets its own {@link DaoExecutor}
+ * (bulkhead) with its own connection quota, so a burst in one class cannot take
+ * pool capacity from the others.
+ */
+public enum Workload {
+    /** login, registration, token refresh */
+    AUTH,
+    /** sending messages and the membership checks on that path */
+    MESSAGING,
+    /** history pages, room lists, unread counters */
+    HISTORY,
+    /** group management, invites, role changes */
+    ADMIN;
+
+    /** @return the configuration key segment, e.g. {@code db.bulkhead.history.connections} */
+    String configKey() {
+        return name().toLowerCase(java.util.Locale.ROOT);
+    }
+}
@@ -1,11 +1,13 @@
 package security;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import static security.AES_ECB.*;
 
 public class AES_CTR {
     private static final int IV_LENGTH = 12; // אורך ה-IV (12 בתים, 96 ביטים)
     private static final int BLOCK_SIZE = 16; // גודל הבלוק ב-AES (16 בתים)
+    private static final long COUNTER_BLOCKS = 1L << 32; // מונה של 4 בתים: 2^32 בלוקים שונים
 
     /**
      * Decrypt a plaintext of arbitrary length (same as encrypt)
@@ -28,35 +30,165 @@ public class AES_CTR {
      * @return ciphertext (same length as plaintext)
      */
     protected static byte[] encryptCTR(byte[] plainText, byte[][] roundKeys, byte[] ivOrCounter) {
-        byte[] counter;
+        return encryptCTR(plainText, new AES_Core(roundKeys), ivOrCounter);
+    }
+
+    /**
+     * Encrypt a plaintext of arbitrary length with an already expanded key.
+     * The counter and keystream buffers are allocated once per call, not per block.
+     *
+     * @param plainText the data to encrypt
+     * @param core the block cipher for the 16-byte AES key
+     * @param ivOrCounter a 12-byte nonce or a full 16-byte counter block
+     * @return ciphertext (same length as plaintext)
+     */
+    protected static byte[] encryptCTR(byte[] plainText, AES_Core core, byte[] ivOrCounter) {
+        byte[] counter = initialCounter(ivOrCounter);
+        byte[] cipher = new byte[plainText.length];
+        encryptCTR(core, counter, new byte[BLOCK_SIZE], plainText, 0, plainText.length, cipher, 0);
+        return cipher;
+    }
+
+    /**
+     * A streaming view of the same keystream, for channels and files that do not fit in memory.
+     * Block {@code i} of the stream uses the initial counter plus {@code i} in its last 4 bytes,
+     * wrapping like {@link #incrementCounter}, so any byte offset can be reached directly
+     * and large files can be processed in parallel. The stream ends after 2^32 blocks (64 GiB),
+     * where the keystream would start to repeat; ranges beyond it are rejected.
+     *
+     * @param core the block cipher for the 16-byte AES key
+     * @param ivOrCounter a 12-byte nonce or a full 16-byte counter block
+     * @return a stream whose output from offset 0 equals {@link #encryptCTR(byte[], AES_Core, byte[])}
+     */
+    public static CtrStream stream(AES_Core core, byte[] ivOrCounter) {
+        byte[] base = initialCounter(ivOrCounter);
+        int first = ByteBuffer.wrap(base, IV_LENGTH, 4).getInt();
+        return new CtrStream(BLOCK_SIZE, COUNTER_BLOCKS, (index, counter, keystream) -> {
+            if (index < 0 || index >= COUNTER_BLOCKS)
+                throw new IllegalArgumentException("Block index outside the 32-bit counter space: " + index);
+            System.arraycopy(base, 0, counter, 0, IV_LENGTH);
+            int value = first + (int) index;
+            counter[12] = (byte) (value >>> 24);
+            counter[13] = (byte) (value >>> 16);
+            counter[14] = (byte) (value >>> 8);
+            counter[15] = (byte) value;
+            core.encryptBlock(counter, 0, keystream, 0);
+        });
+    }
+
+    private static byte[] initialCounter(byte[] ivOrCounter) {
         if (ivOrCounter.length == IV_LENGTH) {
             // IV בן 12, נעביר ל־16 בתים עם padding של אפסים
-            counter = Arrays.copyOf(ivOrCounter, BLOCK_SIZE);
+            return Arrays.copyOf(ivOrCounter, BLOCK_SIZE);
         } else if (ivOrCounter.length == BLOCK_SIZE) {
             // כבר מונה מלא של 16 בתים
-            counter = ivOrCounter.clone();
-        } else {
-            throw new IllegalArgumentException("Expected 12-byte IV or 16-byte counter, got "
-                    + ivOrCounter.length);
+            return ivOrCounter.clone();
         }
+        throw new IllegalArgumentException("Expected 12-byte IV or 16-byte counter, got "
+                + ivOrCounter.length);
+    }
 
-        byte[] cipher = new byte[plainText.length];
-        byte[] encryptedCounter; // משתנה לשמירת התוצאה לאחר הצפנת האוגדן
+    /**
+     * Encrypt the remaining bytes of {@code in} into {@code out}, between heap or direct buffers,
+     * without allocating. Both positions advance by the number of bytes processed.
+     * The buffers must not overlap, unless they are the same buffer at the same position.
+     *
+     * @param core the block cipher for the 16-byte AES key
+     * @param counter the 16-byte counter block of the first block; advanced in place past the last block used
+     * @param keystream caller-supplied 16-byte scratch block
+     * @param in the data to encrypt
+     * @param out where the ciphertext is written
+     * @return the number of bytes processed
+     * @throws IllegalArgumentException if {@code out} has less room than {@code in} has bytes
+     */
+    public static int encryptCTR(AES_Core core, byte[] counter, byte[] keystream, ByteBuffer in, ByteBuffer out) {
+        if (counter.length != BLOCK_SIZE || keystream.length < BLOCK_SIZE)
+            throw new IllegalArgumentException("Expected 16-byte counter and keystream blocks");
+        int length = in.remaining();
+        if (out.remaining() < length)
+            throw new IllegalArgumentException("Output buffer too small: need " + length + ", have " + out.remaining());
+        encryptCTR(core, counter, keystream, in, in.position(), length, out, out.position());
+        in.position(in.position() + length);
+        out.position(out.position() + length);
+        return length;
+    }
+
+    /**
+     * Decrypt between buffers (same as encrypt).
+     *
+     * @see #encryptCTR(AES_Core, byte[], byte[], ByteBuffer, ByteBuffer)
+     */
+    public static int decryptCTR(AES_Core core, byte[] counter, byte[] keystream, ByteBuffer in, ByteBuffer out) {
+        return encryptCTR(core, counter, keystream, in, out);
+    }
+
+    /**
+     * Encrypt {@code length} bytes at absolute index {@code inIndex} of {@code in} into {@code out}
+     * at {@code outIndex}. Buffer positions are not changed.
+     */
+    static void encryptCTR(AES_Core core, byte[] counter, byte[] keystream, ByteBuffer in, int inIndex,
+                           int length, ByteBuffer out, int outIndex) {
+        if (in.hasArray() && out.hasArray()) {
+            encryptCTR(core, counter, keystream, in.array(), in.arrayOffset() + inIndex, length,
+                    out.array(), out.arrayOffset() + outIndex);
+            return;
+        }
+        // באפרים ישירים: XOR של 8 בתים בכל פעם, בלי תלות בסדר הבתים שהוגדר לבאפר
+        boolean swapIn = in.order() != ByteOrder.BIG_ENDIAN;
+        boolean swapOut = out.order() != ByteOrder.BIG_ENDIAN;
+        for (int pos = 0; pos < length; pos += BLOCK_SIZE) {
+            core.encryptBlock(counter, 0, keystream, 0);
+            int blockLength = Math.min(BLOCK_SIZE, length - pos);
+            if (blockLength == BLOCK_SIZE) {
+                for (int half = 0; half < BLOCK_SIZE; half += 8) {
+                    long word = in.getLong(inIndex + pos + half);
+                    if (swapIn) word = Long.reverseBytes(word);
+                    word ^= bigEndianLong(keystream, half);
+                    out.putLong(outIndex + pos + half, swapOut ? Long.reverseBytes(word) : word);
+                }
+            } else {
+                for (int i = 0; i < blockLength; i++)
+                    out.put(outIndex + pos + i, (byte) (in.get(inIndex + pos + i) ^ keystream[i]));
+            }
+            incrementCounter(counter);
+        }
+    }
+
+    private static long bigEndianLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
 
+    /**
+     * Encrypt {@code length} bytes of {@code in} starting at {@code inOff} into {@code out} at {@code outOff}.
+     * {@code in} and {@code out} may be the same array at the same offset.
+     *
+     * @param core the block cipher for the 16-byte AES key
+     * @param counter the 16-byte counter block of the first block; advanced in place past the last block used
+     * @param encryptedCounter 16-byte scratch block for the encrypted counter
+     * @param in the data to encrypt
+     * @param inOff where the data starts
+     * @param length number of bytes to encrypt
+     * @param out where the ciphertext is written
+     * @param outOff where the ciphertext starts
+     */
+    protected static void encryptCTR(AES_Core core, byte[] counter, byte[] encryptedCounter, byte[] in, int inOff,
+                                     int length, byte[] out, int outOff) {
         // הצפנה של ההודעה בלוקים, כאשר כל בלוק בגודל BLOCK_SIZE
-        for (int pos = 0; pos < plainText.length; pos += BLOCK_SIZE) {
+        for (int pos = 0; pos < length; pos += BLOCK_SIZE) {
 
             // הצפנת האוגדן הנוכחי
-            encryptedCounter = encrypt_block(counter, roundKeys);
+            core.encryptBlock(counter, 0, encryptedCounter, 0);
 
             // חישוב ה-XOR בין האוגדן המוצפן להודעה הגולמית כדי לקבל את ההודעה המפוצפת
-            int blockLength = Math.min(BLOCK_SIZE, plainText.length - pos);
-            xor(encryptedCounter, plainText, pos, blockLength, cipher, pos);
+            int blockLength = Math.min(BLOCK_SIZE, length - pos);
+            xor(encryptedCounter, in, inOff + pos, blockLength, out, outOff + pos);
 
             // הגדלת האוגדן לצורך השימוש הבא
             incrementCounter(counter);
         }
-        return cipher;
     }
 
     // פונקציה לחישוב XOR בין אוגדן מוצפן להודעה, ותוצאה שתישמר במערך המוצפן
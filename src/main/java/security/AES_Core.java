@@ -0,0 +1,269 @@
+package security;
+
+import java.util.Arrays;
+
+/**
+ * ליבת בלוק AES-128 מבוססת T-tables: כל סיבוב הוא 16 גישות לטבלאות של int ו-XOR,
+ * במקום SubBytes/ShiftRows/MixColumns בית אחר בית.
+ * <p>
+ * מפתחות הסיבוב מומרים פעם אחת למילים של 32 ביט (עמודה במילה, שורה 0 בבית העליון),
+ * כולל מפתחות הפענוח לפי ה-Equivalent Inverse Cipher (InvMixColumns מוחל עליהם מראש),
+ * כך שהצפנה ופענוח של בלוק אינם מקצים זיכרון. מופע בטוח לשימוש מכמה תהליכונים.
+ * </p>
+ * שני סידורי בתים נתמכים:
+ * <ul>
+ *   <li>{@link #AES_Core(byte[][])} - הסידור של {@link AES_ECB}: מטריצת המצב ומפתחות הסיבוב
+ *       נקראים שורה אחר שורה ({@code state[row*4+col]}), ומפתחות הסיבוב הם הפלט של
+ *       {@link AES_ECB#keySchedule}. זה הסידור של כל ההודעות והמפתחות השמורים.</li>
+ *   <li>{@link #fips197(byte[])} - סידור עמודות והרחבת מפתח לפי FIPS-197, לבדיקה מול וקטורי התקן.</li>
+ * </ul>
+ * שני הסידורים חולקים את אותם סיבובים בדיוק; ההבדל הוא רק איזה בית נטען לאיזה תא במטריצה.
+ */
+public final class AES_Core {
+
+    private static final int ROUNDS = 10;
+
+    private static final int[] TE0 = new int[256], TE1 = new int[256], TE2 = new int[256], TE3 = new int[256];
+    private static final int[] TD0 = new int[256], TD1 = new int[256], TD2 = new int[256], TD3 = new int[256];
+    private static final byte[] SBOX = new byte[256];
+    private static final byte[] INV_SBOX = new byte[256];
+
+    static {
+        // S-box מההגדרה: ההופכי ב-GF(2^8) ואחריו ההעתקה האפינית. בדיקת הסידור ב-AesBenchmark
+        // משווה את הליבה מול encrypt_block_reference, שעובד עם הטבלה של AES_ECB
+        for (int x = 0; x < 256; x++) {
+            int b = inverse(x);
+            int s = b ^ rotl8(b, 1) ^ rotl8(b, 2) ^ rotl8(b, 3) ^ rotl8(b, 4) ^ 0x63;
+            SBOX[x] = (byte) s;
+            INV_SBOX[s] = (byte) x;
+        }
+        for (int x = 0; x < 256; x++) {
+            byte s = SBOX[x];
+            int te = (GF(s, 2) << 24) | ((s & 0xff) << 16) | ((s & 0xff) << 8) | GF(s, 3);
+            TE0[x] = te;
+            TE1[x] = Integer.rotateRight(te, 8);
+            TE2[x] = Integer.rotateRight(te, 16);
+            TE3[x] = Integer.rotateRight(te, 24);
+
+            byte is = INV_SBOX[x];
+            int td = (GF(is, 0x0e) << 24) | (GF(is, 0x09) << 16) | (GF(is, 0x0d) << 8) | GF(is, 0x0b);
+            TD0[x] = td;
+            TD1[x] = Integer.rotateRight(td, 8);
+            TD2[x] = Integer.rotateRight(td, 16);
+            TD3[x] = Integer.rotateRight(td, 24);
+        }
+    }
+
+    /** מפתחות ההצפנה: 4 מילים (עמודות) לכל סיבוב */
+    private final int[] encKeys;
+    /** מפתחות הפענוח בסדר הפוך, עם InvMixColumns על סיבובים 1-9 */
+    private final int[] decKeys;
+    /** true - הסידור של AES_ECB (שורה אחר שורה); false - סידור עמודות לפי FIPS-197 */
+    private final boolean rowMajor;
+
+    /**
+     * בונה ליבה ממפתחות הסיבוב של {@link AES_ECB#keySchedule}, בסידור של AES_ECB.
+     * התוצאה זהה בית בבית ל-{@code encrypt_block}/{@code decrypt_block}.
+     *
+     * @param roundKeys 11 מפתחות סיבוב של 16 בתים
+     */
+    public AES_Core(byte[][] roundKeys) {
+        if (roundKeys == null || roundKeys.length < ROUNDS + 1)
+            throw new IllegalArgumentException("Round keys are not valid.");
+        int[] words = new int[4 * (ROUNDS + 1)];
+        for (int round = 0; round <= ROUNDS; round++) {
+            byte[] rk = roundKeys[round];
+            for (int col = 0; col < 4; col++) {
+                words[round * 4 + col] = column(rk, 0, col, true);
+            }
+        }
+        this.encKeys = words;
+        this.decKeys = inverseKeys(words);
+        this.rowMajor = true;
+    }
+
+    private AES_Core(int[] encKeys, boolean rowMajor) {
+        this.encKeys = encKeys;
+        this.decKeys = inverseKeys(encKeys);
+        this.rowMajor = rowMajor;
+    }
+
+    /**
+     * בונה ליבת AES-128 לפי FIPS-197: הרחבת מפתח תקנית וסידור בתים לפי עמודות.
+     *
+     * @param key מפתח של 16 בתים
+     */
+    public static AES_Core fips197(byte[] key) {
+        if (key == null || key.length != 16)
+            throw new IllegalArgumentException("AES-128 key must be 16 bytes");
+        int[] w = new int[4 * (ROUNDS + 1)];
+        for (int i = 0; i < 4; i++) {
+            w[i] = column(key, 0, i, false);
+        }
+        int rcon = 1;
+        for (int i = 4; i < w.length; i++) {
+            int temp = w[i - 1];
+            if (i % 4 == 0) {
+                temp = subWord(Integer.rotateLeft(temp, 8)) ^ (rcon << 24);
+                rcon = GF((byte) rcon, 2);
+            }
+            w[i] = w[i - 4] ^ temp;
+        }
+        return new AES_Core(w, false);
+    }
+
+    /**
+     * הצפנת בלוק של 16 בתים. {@code in} ו-{@code out} יכולים להיות אותו מערך.
+     */
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        int[] rk = encKeys;
+        int s0 = column(in, inOff, 0, rowMajor) ^ rk[0];
+        int s1 = column(in, inOff, 1, rowMajor) ^ rk[1];
+        int s2 = column(in, inOff, 2, rowMajor) ^ rk[2];
+        int s3 = column(in, inOff, 3, rowMajor) ^ rk[3];
+
+        int k = 4;
+        for (int round = 1; round < ROUNDS; round++, k += 4) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+
+        // סיבוב אחרון: SubBytes + ShiftRows בלבד
+        int t0 = finalRound(SBOX, s0, s1, s2, s3) ^ rk[k];
+        int t1 = finalRound(SBOX, s1, s2, s3, s0) ^ rk[k + 1];
+        int t2 = finalRound(SBOX, s2, s3, s0, s1) ^ rk[k + 2];
+        int t3 = finalRound(SBOX, s3, s0, s1, s2) ^ rk[k + 3];
+        store(out, outOff, t0, t1, t2, t3);
+    }
+
+    /**
+     * פענוח בלוק של 16 בתים. {@code in} ו-{@code out} יכולים להיות אותו מערך.
+     */
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        int[] dk = decKeys;
+        int s0 = column(in, inOff, 0, rowMajor) ^ dk[0];
+        int s1 = column(in, inOff, 1, rowMajor) ^ dk[1];
+        int s2 = column(in, inOff, 2, rowMajor) ^ dk[2];
+        int s3 = column(in, inOff, 3, rowMajor) ^ dk[3];
+
+        int k = 4;
+        for (int round = 1; round < ROUNDS; round++, k += 4) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ dk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ dk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ dk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ dk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+
+        // סיבוב אחרון: InverseSubBytes + InverseShiftRows בלבד
+        int t0 = finalRound(INV_SBOX, s0, s3, s2, s1) ^ dk[k];
+        int t1 = finalRound(INV_SBOX, s1, s0, s3, s2) ^ dk[k + 1];
+        int t2 = finalRound(INV_SBOX, s2, s1, s0, s3) ^ dk[k + 2];
+        int t3 = finalRound(INV_SBOX, s3, s2, s1, s0) ^ dk[k + 3];
+        store(out, outOff, t0, t1, t2, t3);
+    }
+
+    /**
+     * מאפס את מפתחות הסיבוב. אחרי הקריאה אסור להשתמש בליבה.
+     */
+    public void destroy() {
+        Arrays.fill(encKeys, 0);
+        Arrays.fill(decKeys, 0);
+    }
+
+    /**
+     * מפתחות הפענוח: סדר סיבובים הפוך, ו-InvMixColumns על סיבובים 1-9
+     */
+    private static int[] inverseKeys(int[] enc) {
+        int[] dec = new int[enc.length];
+        for (int round = 0; round <= ROUNDS; round++) {
+            for (int col = 0; col < 4; col++) {
+                int w = enc[(ROUNDS - round) * 4 + col];
+                if (round > 0 && round < ROUNDS) {
+                    // Td(S[x]) = InvMixColumns של הבית x בלבד
+                    w = TD0[SBOX[w >>> 24] & 0xff] ^ TD1[SBOX[(w >>> 16) & 0xff] & 0xff]
+                            ^ TD2[SBOX[(w >>> 8) & 0xff] & 0xff] ^ TD3[SBOX[w & 0xff] & 0xff];
+                }
+                dec[round * 4 + col] = w;
+            }
+        }
+        return dec;
+    }
+
+    private static int finalRound(byte[] box, int a, int b, int c, int d) {
+        return ((box[a >>> 24] & 0xff) << 24)
+                | ((box[(b >>> 16) & 0xff] & 0xff) << 16)
+                | ((box[(c >>> 8) & 0xff] & 0xff) << 8)
+                | (box[d & 0xff] & 0xff);
+    }
+
+    private static int subWord(int w) {
+        return ((SBOX[w >>> 24] & 0xff) << 24)
+                | ((SBOX[(w >>> 16) & 0xff] & 0xff) << 16)
+                | ((SBOX[(w >>> 8) & 0xff] & 0xff) << 8)
+                | (SBOX[w & 0xff] & 0xff);
+    }
+
+    private static int GF(byte b, int multiplier) {
+        return AES_ECB.GMul(b, (byte) multiplier) & 0xff;
+    }
+
+    /**
+     * x^254 = x^-1 ב-GF(2^8) (ו-0 עבור 0)
+     */
+    private static int inverse(int x) {
+        int result = 1;
+        int base = x;
+        for (int e = 254; e != 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                result = GF((byte) result, base);
+            }
+            base = GF((byte) base, base);
+        }
+        return x == 0 ? 0 : result;
+    }
+
+    private static int rotl8(int b, int n) {
+        return ((b << n) | (b >>> (8 - n))) & 0xff;
+    }
+
+    /**
+     * קורא עמודה {@code col} של בלוק כמילה, שורה 0 בבית העליון
+     */
+    private static int column(byte[] block, int off, int col, boolean rowMajor) {
+        if (rowMajor) {
+            return ((block[off + col] & 0xff) << 24) | ((block[off + 4 + col] & 0xff) << 16)
+                    | ((block[off + 8 + col] & 0xff) << 8) | (block[off + 12 + col] & 0xff);
+        }
+        int p = off + col * 4;
+        return ((block[p] & 0xff) << 24) | ((block[p + 1] & 0xff) << 16)
+                | ((block[p + 2] & 0xff) << 8) | (block[p + 3] & 0xff);
+    }
+
+    private void store(byte[] out, int off, int c0, int c1, int c2, int c3) {
+        if (rowMajor) {
+            for (int row = 0; row < 4; row++) {
+                int shift = 24 - row * 8;
+                out[off + row * 4] = (byte) (c0 >>> shift);
+                out[off + row * 4 + 1] = (byte) (c1 >>> shift);
+                out[off + row * 4 + 2] = (byte) (c2 >>> shift);
+                out[off + row * 4 + 3] = (byte) (c3 >>> shift);
+            }
+            return;
+        }
+        putInt(out, off, c0);
+        putInt(out, off + 4, c1);
+        putInt(out, off + 8, c2);
+        putInt(out, off + 12, c3);
+    }
+
+    private static void putInt(byte[] out, int off, int v) {
+        out[off] = (byte) (v >>> 24);
+        out[off + 1] = (byte) (v >>> 16);
+        out[off + 2] = (byte) (v >>> 8);
+        out[off + 3] = (byte) v;
+    }
+}
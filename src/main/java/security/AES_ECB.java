@@ -50,6 +50,13 @@ public class AES_ECB {
             (byte) 0xa0, (byte) 0xe0, (byte) 0x3b, (byte) 0x4d, (byte) 0xae, (byte) 0x2a, (byte) 0xf5, (byte) 0xb0, (byte) 0xc8, (byte) 0xeb, (byte) 0xbb, (byte) 0x3c, (byte) 0x83, (byte) 0x53, (byte) 0x99, (byte) 0x61,
             (byte) 0x17, (byte) 0x2b, (byte) 0x04, (byte) 0x7e, (byte) 0xba, (byte) 0x77, (byte) 0xd6, (byte) 0x26, (byte) 0xe1, (byte) 0x69, (byte) 0x14, (byte) 0x63, (byte) 0x55, (byte) 0x21, (byte) 0x0c, (byte) 0x7d };
 
+    /** ערכי Round Constant לסיבובי Key Schedule */
+    private static final byte[] rconTable = new byte[] {
+            (byte) 0x01, (byte) 0x02, (byte) 0x04, (byte) 0x08,
+            (byte) 0x10, (byte) 0x20, (byte) 0x40, (byte) 0x80,
+            (byte) 0x1B, (byte) 0x36
+    };
+
     /**
      * מקבלת בלוק נתונים ומפתחי סיבובים ומחזירה מערך מוצפן בפורמט ECB:
      * - מוסיפה PKCS#7 padding
@@ -93,12 +100,33 @@ public class AES_ECB {
     }
 
     /**
-     * הצפנת בלוק יחיד (AES-128):
+     * הצפנת בלוק יחיד (AES-128) דרך {@link AES_Core}.
+     * מי שמצפין כמה בלוקים באותו מפתח צריך להחזיק AES_Core משלו ולא לקרוא לכאן בלולאה,
+     * כי כאן מפתחות הסיבוב מומרים מחדש בכל קריאה.
+     */
+    protected static byte[] encrypt_block(byte[] input, byte[][] rounds_key){
+        byte[] state = Arrays.copyOf(input, BLOCK_SIZE);
+        new AES_Core(rounds_key).encryptBlock(state, 0, state, 0);
+        return state;
+    }
+
+    /**
+     * פענוח בלוק יחיד דרך {@link AES_Core}.
+     */
+    private static byte[] decrypt_block(byte[] input, byte[][] round_keys) {
+        byte[] state = Arrays.copyOf(input, BLOCK_SIZE);
+        new AES_Core(round_keys).decryptBlock(state, 0, state, 0);
+        return state;
+    }
+
+    /**
+     * הצפנת בלוק יחיד (AES-128), המימוש המקורי בית אחר בית.
+     * נשאר כמימוש ייחוס: AesBenchmark משווה מולו את AES_Core ומודד את שניהם.
      * 1. AddRoundKey עם מפתח סיבוב 0
      * 2. 9 סיבובים של SubBytes, ShiftRows, MixColumns, AddRoundKey
      * 3. סיבוב אחרון של SubBytes, ShiftRows, AddRoundKey
      */
-    protected static byte[] encrypt_block(byte[] input, byte[][] rounds_key){
+    static byte[] encrypt_block_reference(byte[] input, byte[][] rounds_key){
         byte[] state = Arrays.copyOf(input, BLOCK_SIZE);
 
         addRoundKey(state, rounds_key[0]);
@@ -117,12 +145,12 @@ public class AES_ECB {
     }
 
     /**
-     * פענוח בלוק יחיד:
+     * פענוח בלוק יחיד, המימוש המקורי בית אחר בית (מימוש ייחוס):
      * 1. AddRoundKey עם מפתח סיבוב 10
      * 2. 9 סיבובים של InverseShiftRows, InverseSubByte, AddRoundKey, InverseMixColumns
      * 3. סיבוב אחרון של InverseShiftRows, InverseSubByte, AddRoundKey
      */
-    private static byte[] decrypt_block(byte[] input, byte[][] round_keys) {
+    static byte[] decrypt_block_reference(byte[] input, byte[][] round_keys) {
         byte[] state = Arrays.copyOf(input, BLOCK_SIZE);
 
         addRoundKey(state, round_keys[10]);  // start with the last round key
@@ -184,14 +212,6 @@ public class AES_ECB {
         }
     }
 
-    private static void inverse_rotWord(byte[] word, int times) {
-        for (int i = 0; i < times; i++) {
-            byte temp = word[word.length - 1];
-            System.arraycopy(word, 0, word, 1, word.length - 1);
-            word[0] = temp;
-        }
-    }
-
     /**
      * מחולל מפתח אקראי ראשוני (16 בתים) עבור AES
      */
@@ -299,7 +319,8 @@ public class AES_ECB {
     private static void inverseShiftRows(byte[] state) {
         for (int row = 1; row < 4; row++) {
             byte[] temp = Arrays.copyOfRange(state, row * 4, row * 4 + 4);
-            inverse_rotWord(temp, row);
+            // הזזה ימינה ב-row = הזזה שמאלה ב-(4 - row); נכתב כך לבהירות, במקום פונקציית הזזה ימינה נפרדת
+            rotWord(temp, 4 - row);
             System.arraycopy(temp, 0, state, row * 4, 4);
         }
     }
@@ -368,11 +389,6 @@ public class AES_ECB {
     private static byte Rcon(int round) {
         if(round > 10 || round < 1)
             throw new IllegalArgumentException("Invalid round Number" + round);
-        byte[] rconTable = new byte[] {
-                (byte) 0x01, (byte) 0x02, (byte) 0x04, (byte) 0x08,
-                (byte) 0x10, (byte) 0x20, (byte) 0x40, (byte) 0x80,
-                (byte) 0x1B, (byte) 0x36
-        };
         return rconTable[round - 1];
     }
 
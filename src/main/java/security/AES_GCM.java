@@ -3,7 +3,6 @@ package security;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Arrays;
-import static security.AES_CTR.*;
 import static security.AES_ECB.*;
 
 /**
@@ -19,10 +18,15 @@ public class AES_GCM {
     private static final int IV_LENGTH = 12;
     /** גודל בלוק AES (16 בתים) */
     private static final int BLOCK_SIZE = 16;
+    /** מקור אקראיות משותף ל-IV; SecureRandom בטוח לשימוש מכמה תהליכונים */
+    static final SecureRandom RANDOM = new SecureRandom();
 
     /**
      * מפעיל AES-GCM להצפנת הטקסט הגולמי ביחד עם AAD:
      * מחזיר מערך בתים המסודר: IV || ciphertext || tag
+     * <p>
+     * בונה {@link GcmContext} חד-פעמי. מי שמצפין כמה הודעות באותו מפתח צריך להחזיק GcmContext בעצמו.
+     * </p>
      *
      * @param plainText הטקסט הגולמי להצפנה
      * @param AAD נתונים נוספים לאימות (אופציונלי)
@@ -30,32 +34,7 @@ public class AES_GCM {
      * @return מערך בתים: IV + ciphertext + תג האימות
      */
     public static byte[] encrypt(byte[] plainText, byte[] AAD, byte[][] round_keys) {
-        // 1. צור IV אקראי בן 12 בתים
-        byte[] iv = ivGenerator();
-
-        // 2. הרכב את J0 = IV || 0x00000001
-        byte[] J0 = new byte[BLOCK_SIZE];
-        System.arraycopy(iv, 0, J0, 0, IV_LENGTH);
-        J0[15] = 1;
-
-        // 3. חשב H = E(K, 0^128) לשימוש ב-GHASH
-        byte[] H = encrypt_block(new byte[BLOCK_SIZE], round_keys);
-
-        // 4. הצפן ב-CTR החל מ-J0+1
-        byte[] firstCounter = Arrays.copyOf(J0, BLOCK_SIZE);
-        incrementCounter(firstCounter);
-        byte[] cipher = encryptCTR(plainText, round_keys, firstCounter);
-
-        // 5. חשב את תג האימות: Tag = E(K, J0) ⊕ GHASH(H, AAD, cipher)
-        byte[] tag = generateAuthTag(cipher, AAD, round_keys, J0, H);
-
-        // 6. הרכב את הפלט: IV || ciphertext || tag
-        byte[] encryptedMessage = new byte[IV_LENGTH + cipher.length + TAG_SIZE];
-        System.arraycopy(iv, 0, encryptedMessage, 0, IV_LENGTH);
-        System.arraycopy(cipher, 0, encryptedMessage, IV_LENGTH, cipher.length);
-        System.arraycopy(tag, 0, encryptedMessage, IV_LENGTH + cipher.length, tag.length);
-
-        return encryptedMessage;
+        return new GcmContext(round_keys).encrypt(plainText, AAD);
     }
 
     /**
@@ -76,55 +55,14 @@ public class AES_GCM {
         if (round_keys == null || round_keys.length == 0) {
             throw new IllegalArgumentException("Round keys are not valid.");
         }
-
-        // פיצול IV, ciphertext, ו-tag
-        byte[] iv = Arrays.copyOfRange(encryptedMessage, 0, IV_LENGTH);
-        byte[] cipher = Arrays.copyOfRange(encryptedMessage, IV_LENGTH, encryptedMessage.length - TAG_SIZE);
-        byte[] tag = Arrays.copyOfRange(encryptedMessage, encryptedMessage.length - TAG_SIZE, encryptedMessage.length);
-
-        // הרכב J0 מחדש
-        byte[] J0 = new byte[BLOCK_SIZE];
-        System.arraycopy(iv, 0, J0, 0, IV_LENGTH);
-        J0[15] = 1;
-
-        // חשב H לשימוש ב-GHASH
-        byte[] H = encrypt_block(new byte[BLOCK_SIZE], round_keys);
-
-        // אימות התג
-        if (!verifyTag(cipher, AAD, tag, round_keys, J0, H))
-            throw new SecurityException("Authentication failed. Data may have been tampered with.");
-
-        // פענוח ב-CTR החל מ-J0+1
-        byte[] firstCounter = Arrays.copyOf(J0, BLOCK_SIZE);
-        incrementCounter(firstCounter);
-        return decryptCTR(cipher, round_keys, firstCounter);
+        return new GcmContext(round_keys).decrypt(encryptedMessage, AAD);
     }
 
     /**
-     * בודק שהתכלול של תג תקין על ידי חישוב תג מחדש והשוואה
+     * מבצע GHASH על AAD ו-cipher, כולל padding והוספת בלוק אורכי.
+     * המימוש המקורי ביט אחר ביט; GcmContext משתמש בטבלאות, ו-AesBenchmark משווה מול המימוש הזה.
      */
-    private static boolean verifyTag(byte[] cipher, byte[] AAD, byte[] authTag, byte[][] roundKeys, byte[] J0, byte[] H) {
-        byte[] computedTag = generateAuthTag(cipher, AAD, roundKeys, J0, H);
-        return Arrays.equals(computedTag, authTag);
-    }
-
-    /**
-     * מחשב את תג האימות: E(K,J0) ⊕ GHASH(H, AAD, cipher)
-     */
-    private static byte[] generateAuthTag(byte[] cipher, byte[] AAD, byte[][] round_keys, byte[] J0, byte[] H) {
-        byte[] X = ghash(H, AAD, cipher);
-        byte[] E_J0 = encrypt_block(J0, round_keys);
-        byte[] tag = new byte[TAG_SIZE];
-        for (int i = 0; i < TAG_SIZE; i++) {
-            tag[i] = (byte) (E_J0[i] ^ X[i]);
-        }
-        return tag;
-    }
-
-    /**
-     * מבצע GHASH על AAD ו-cipher, כולל padding והוספת בלוק אורכי
-     */
-    private static byte[] ghash(byte[] H, byte[] AAD, byte[] cipher) {
+    static byte[] ghash(byte[] H, byte[] AAD, byte[] cipher) {
         byte[] Y = new byte[BLOCK_SIZE];
 
         // עיבוד AAD
@@ -181,7 +119,7 @@ public class AES_GCM {
      * ביצוע כפל בשדה גאלואה GF(2^128)
      *  משמש כדי לקבל ערך שתלוי במערך שהתקבל. שינוי של אפילו ביט אחד יגרום לשינוי בערך
      */
-    private static byte[] GF_Multiply(byte[] a, byte[] b) {
+    static byte[] GF_Multiply(byte[] a, byte[] b) {
         byte[] result = new byte[BLOCK_SIZE];
         byte[] tempA = Arrays.copyOf(a, BLOCK_SIZE);
 
@@ -214,23 +152,12 @@ public class AES_GCM {
         }
     }
 
-    /**
-     * מגדיל את הספירה בתווי נגד מ-IV_LENGTH ועד סוף הבלוק
-     */
-    private static void incrementCounter(byte[] counter) {
-        for (int i = BLOCK_SIZE - 1; i >= IV_LENGTH; i--) {
-            counter[i]++;
-            if (counter[i] != 0) break;
-        }
-    }
-
     /**
      * מחולל IV אקראי עבור GCM
      */
     public static byte[] ivGenerator() {
-        SecureRandom random = new SecureRandom();
         byte[] iv = new byte[IV_LENGTH];
-        random.nextBytes(iv);
+        RANDOM.nextBytes(iv);
         return iv;
     }
 
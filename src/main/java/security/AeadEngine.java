@@ -0,0 +1,80 @@
+package security;
+
+import java.util.Arrays;
+
+/**
+ * מנוע הצפנה מאומתת (AEAD) עבור מפתח אחד, בפורמט של AES_GCM: IV (12 בתים) || ciphertext || tag (16 בתים).
+ * <p>
+ * שני מימושים:
+ * <ul>
+ *   <li>{@code legacy} - {@link GcmContext}, המימוש שלנו. זה הפורמט של כל ההודעות הקיימות.</li>
+ *   <li>{@code jca} - {@link JcaAeadEngine}, {@code AES/GCM/NoPadding} של ה-JDK (עם AES-NI כשיש).</li>
+ * </ul>
+ * הפריסה וה-AAD זהים, אבל התוכן לא: ה-AES של AES_ECB קורא את המצב שורה אחר שורה עם key schedule משלו,
+ * וה-GHASH של AES_GCM משתמש בכפל אחר מזה של NIST, ולכן שני המנועים לא יכולים לפענח זה את זה.
+ * {@link #create} מחזיר מנוע שמצפין במנוע שנבחר ומפענח בו, ואם התג לא מתאים מנסה את המנוע השני,
+ * כך שלקוח שמוגדר ל-jca עדיין קורא הודעות ישנות (ולהפך).
+ * </p>
+ */
+public interface AeadEngine {
+
+    /** שם המנוע ({@code legacy} או {@code jca}) */
+    String name();
+
+    /**
+     * הצפנה עם IV אקראי.
+     *
+     * @param plainText הטקסט הגולמי להצפנה
+     * @param aad נתונים נוספים לאימות (אופציונלי)
+     * @return מערך בתים: IV + ciphertext + תג האימות
+     */
+    byte[] encrypt(byte[] plainText, byte[] aad);
+
+    /**
+     * פענוח ואימות.
+     *
+     * @param encryptedMessage IV + ciphertext + tag
+     * @param aad נתונים נוספים לאימות
+     * @return הטקסט הגולמי לאחר פענוח
+     * @throws IllegalArgumentException אם הנתונים לא תקפים
+     * @throws SecurityException אם אימות התג נכשל
+     */
+    byte[] decrypt(byte[] encryptedMessage, byte[] aad);
+
+    /**
+     * מאפס את חומר המפתח. אחרי הקריאה אסור להשתמש במנוע.
+     */
+    void destroy();
+
+    /**
+     * בונה מנוע למפתח: מצפין ב-{@code engine}, ומפענח בו ואחר כך במנוע השני.
+     *
+     * @param engine {@code legacy} או {@code jca}
+     * @param rawKey מפתח של 16 בתים; לא נשמר, אפשר לאפס אותו אחרי הקריאה
+     * @throws IllegalArgumentException אם שם המנוע לא מוכר או שהמפתח לא באורך 16
+     */
+    static AeadEngine create(String engine, byte[] rawKey) {
+        AeadEngine legacy = legacy(rawKey);
+        AeadEngine jca = new JcaAeadEngine(rawKey);
+        return switch (engine) {
+            case "legacy" -> new FallbackAeadEngine(legacy, jca);
+            case "jca" -> new FallbackAeadEngine(jca, legacy);
+            default -> throw new IllegalArgumentException("Unknown AEAD engine: " + engine);
+        };
+    }
+
+    /**
+     * המנוע שלנו בלבד, בלי ניסיון פענוח במנוע השני
+     */
+    static AeadEngine legacy(byte[] rawKey) {
+        if (rawKey == null || rawKey.length != 16)
+            throw new IllegalArgumentException("AES-128 key must be 16 bytes");
+        byte[][] roundKeys = new byte[11][16];
+        System.arraycopy(rawKey, 0, roundKeys[0], 0, 16);
+        AES_ECB.keySchedule(roundKeys);
+        GcmContext context = new GcmContext(roundKeys);
+        for (byte[] rk : roundKeys)
+            Arrays.fill(rk, (byte) 0);
+        return context;
+    }
+}
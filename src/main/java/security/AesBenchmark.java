@@ -0,0 +1,367 @@
+package security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+/**
+ * בדיקה ומדידה של ליבת ה-AES ({@link AES_Core}) מול המימוש המקורי בית אחר בית.
+ * <p>
+ * לפני המדידה: {@link AES_Core#fips197} נבדקת מול וקטורי FIPS-197 (נספח B ונספח C.1),
+ * והסידור של AES_ECB נבדק מול {@code encrypt_block_reference}/{@code decrypt_block_reference}
+ * על מפתחות ובלוקים אקראיים. כל אי התאמה עוצרת את הריצה.
+ * </p>
+ * GHASH של {@link GcmContext} (טבלאות Shoup של 8 ביט) נבדק מול {@code AES_GCM.ghash} (ביט אחר ביט)
+ * על אורכים אקראיים, כולל בלוקים חלקיים, וה-API של ByteBuffer (באפרים ישירים) נבדק מול ה-API של byte[]
+ * בשני הכיוונים. הבדיקות של {@link AeadEngine} (וקטור NIST, פענוח בין המנועים) נמצאות ב-AeadEngineTest.
+ * {@link CtrStream} של AES ושל Blowfish נבדק מול הצפנת המערך כולו: מהיסטים אקראיים, מעל ערוצים,
+ * דרך גלישת המונה, ועל קובץ מעל סף המצב המקבילי (כולל הצפנה במקום), וטווח שחורג ממרחב המונה נדחה.
+ * <p>
+ * אחר כך נמדד קצב (MB/s) של הצפנה ופענוח בלוקים בשני המימושים, של GHASH בשני המימושים,
+ * ושל AES_CTR ו-AES-GCM על הודעות בגודל messageBytes (GCM גם עם GcmContext אחד לכל המפתח),
+ * וקצב הצפנת קובץ בגודל megabytes דרך {@link CtrStream} (במקביל כשיש יותר מליבה אחת).
+ * </p>
+ * כל מדידה רצה לחימום לפחות שתי שניות ואז rounds פעמים, ומודפסת הטובה ביותר. בלי חימום jca נמדד
+ * לפני שהקוד שלו הודר, ויוצא איטי מ-legacy; גם הודעות קטנות מקטינות את היתרון שלו (אתחול Cipher לכל הודעה).
+ * שימוש: {@code java security.AesBenchmark [megabytes] [messageBytes] [rounds]}
+ */
+public class AesBenchmark {
+
+    private static final int BLOCK_SIZE = 16;
+    /** חימום לפני כל מדידה: ה-intrinsics של ה-JDK (AES-NI, CLMUL ב-jca) נכנסים רק אחרי הידור C2 */
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int messageBytes = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        checkFips197();
+        checkLegacyLayout(10_000);
+        checkGhash(2_000);
+        checkBuffers(2_000);
+        checkStreams(300);
+        System.out.println("FIPS-197 vectors, AES_ECB layout, GHASH, ByteBuffer and stream cross-checks passed");
+        System.out.printf("data=%dMB message=%dB rounds=%d java=%s%n",
+                megabytes, messageBytes, rounds, System.getProperty("java.version"));
+
+        byte[][] roundKeys = new byte[11][BLOCK_SIZE];
+        roundKeys[0] = AES_ECB.keyGenerator();
+        AES_ECB.keySchedule(roundKeys);
+        AES_Core core = new AES_Core(roundKeys);
+
+        byte[] data = new byte[megabytes * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        byte[] out = new byte[BLOCK_SIZE];
+
+        report("reference encrypt", data.length, rounds, () -> {
+            for (int pos = 0; pos < data.length; pos += BLOCK_SIZE) {
+                byte[] block = Arrays.copyOfRange(data, pos, pos + BLOCK_SIZE);
+                out[0] ^= AES_ECB.encrypt_block_reference(block, roundKeys)[0];
+            }
+        });
+        report("t-table encrypt", data.length, rounds, () -> {
+            for (int pos = 0; pos < data.length; pos += BLOCK_SIZE) {
+                core.encryptBlock(data, pos, out, 0);
+            }
+        });
+        report("reference decrypt", data.length, rounds, () -> {
+            for (int pos = 0; pos < data.length; pos += BLOCK_SIZE) {
+                byte[] block = Arrays.copyOfRange(data, pos, pos + BLOCK_SIZE);
+                out[0] ^= AES_ECB.decrypt_block_reference(block, roundKeys)[0];
+            }
+        });
+        report("t-table decrypt", data.length, rounds, () -> {
+            for (int pos = 0; pos < data.length; pos += BLOCK_SIZE) {
+                core.decryptBlock(data, pos, out, 0);
+            }
+        });
+
+        byte[] message = Arrays.copyOf(data, messageBytes);
+        byte[] iv = new byte[12];
+        int messages = Math.max(1, data.length / Math.max(1, messageBytes));
+        report("ctr (per message)", (long) messages * messageBytes, rounds, () -> {
+            for (int i = 0; i < messages; i++) {
+                out[0] ^= AES_CTR.encryptCTR(message, roundKeys, iv)[0];
+            }
+        });
+        Path source = Files.createTempFile("aes-ctr", ".plain");
+        Path target = Files.createTempFile("aes-ctr", ".enc");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.WRITE, StandardOpenOption.READ);
+             FileChannel fileOut = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            in.write(ByteBuffer.wrap(data), 0);
+            CtrStream stream = AES_CTR.stream(core, iv);
+            report("ctr stream (file)", data.length, rounds, () -> {
+                try {
+                    stream.process(in, fileOut);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+
+        byte[] H = AES_ECB.encrypt_block(new byte[BLOCK_SIZE], roundKeys);
+        byte[] aad = new byte[32];
+        GcmContext gcm = new GcmContext(roundKeys);
+        report("reference ghash", data.length, rounds, () ->
+                out[0] ^= AES_GCM.ghash(H, aad, data)[0]);
+        report("table ghash", data.length, rounds, () ->
+                out[0] ^= gcm.ghash(aad, data, 0, data.length)[0]);
+
+        report("gcm (per message)", (long) messages * messageBytes, rounds, () -> {
+            for (int i = 0; i < messages; i++) {
+                out[0] ^= AES_GCM.encrypt(message, aad, roundKeys)[0];
+            }
+        });
+        report("gcm (context)", (long) messages * messageBytes, rounds, () -> {
+            for (int i = 0; i < messages; i++) {
+                out[0] ^= gcm.encrypt(message, aad)[0];
+            }
+        });
+        ByteBuffer plainBuffer = ByteBuffer.allocateDirect(messageBytes);
+        plainBuffer.put(message).flip();
+        ByteBuffer aadBuffer = ByteBuffer.allocateDirect(aad.length);
+        aadBuffer.put(aad).flip();
+        ByteBuffer cipherBuffer = ByteBuffer.allocateDirect(GcmContext.encryptedLength(messageBytes));
+        GcmContext.Scratch scratch = new GcmContext.Scratch();
+        report("gcm (direct bufs)", (long) messages * messageBytes, rounds, () -> {
+            for (int i = 0; i < messages; i++) {
+                plainBuffer.rewind();
+                cipherBuffer.clear();
+                gcm.encrypt(plainBuffer, aadBuffer, cipherBuffer, scratch);
+            }
+        });
+
+        for (String engineName : new String[]{"legacy", "jca"}) {
+            AeadEngine engine = AeadEngine.create(engineName, roundKeys[0]);
+            report("aead " + engineName, (long) messages * messageBytes, rounds, () -> {
+                for (int i = 0; i < messages; i++) {
+                    out[0] ^= engine.decrypt(engine.encrypt(message, aad), aad)[0];
+                }
+            });
+        }
+        System.out.println("checksum " + out[0]);
+    }
+
+    /**
+     * וקטורי FIPS-197 נספח B ו-C.1 (AES-128), הצפנה ופענוח
+     */
+    private static void checkFips197() {
+        checkVector("2b7e151628aed2a6abf7158809cf4f3c",
+                "3243f6a8885a308d313198a2e0370734", "3925841d02dc09fbdc118597196a0b32");
+        checkVector("000102030405060708090a0b0c0d0e0f",
+                "00112233445566778899aabbccddeeff", "69c4e0d86a7b0430d8cdb78070b4c55a");
+    }
+
+    private static void checkVector(String keyHex, String plainHex, String cipherHex) {
+        HexFormat hex = HexFormat.of();
+        AES_Core core = AES_Core.fips197(hex.parseHex(keyHex));
+        byte[] block = hex.parseHex(plainHex);
+        core.encryptBlock(block, 0, block, 0);
+        if (!hex.formatHex(block).equals(cipherHex))
+            throw new IllegalStateException("FIPS-197 encrypt mismatch for key " + keyHex + ": " + hex.formatHex(block));
+        core.decryptBlock(block, 0, block, 0);
+        if (!hex.formatHex(block).equals(plainHex))
+            throw new IllegalStateException("FIPS-197 decrypt mismatch for key " + keyHex + ": " + hex.formatHex(block));
+    }
+
+    /**
+     * AES_Core בסידור של AES_ECB חייב להחזיר בדיוק את מה שהמימוש המקורי מחזיר
+     */
+    private static void checkLegacyLayout(int blocks) {
+        Random random = new Random(1);
+        byte[] out = new byte[BLOCK_SIZE];
+        for (int i = 0; i < blocks; i++) {
+            byte[][] roundKeys = new byte[11][BLOCK_SIZE];
+            random.nextBytes(roundKeys[0]);
+            AES_ECB.keySchedule(roundKeys);
+            AES_Core core = new AES_Core(roundKeys);
+
+            byte[] block = new byte[BLOCK_SIZE];
+            random.nextBytes(block);
+            core.encryptBlock(block, 0, out, 0);
+            if (!Arrays.equals(out, AES_ECB.encrypt_block_reference(block, roundKeys)))
+                throw new IllegalStateException("encrypt mismatch at block " + i);
+            core.decryptBlock(block, 0, out, 0);
+            if (!Arrays.equals(out, AES_ECB.decrypt_block_reference(block, roundKeys)))
+                throw new IllegalStateException("decrypt mismatch at block " + i);
+        }
+    }
+
+    /**
+     * GHASH מהטבלאות חייב להחזיר בדיוק את מה שהכפל ביט אחר ביט מחזיר
+     */
+    private static void checkGhash(int samples) {
+        Random random = new Random(2);
+        for (int i = 0; i < samples; i++) {
+            byte[][] roundKeys = new byte[11][BLOCK_SIZE];
+            random.nextBytes(roundKeys[0]);
+            AES_ECB.keySchedule(roundKeys);
+            byte[] H = AES_ECB.encrypt_block(new byte[BLOCK_SIZE], roundKeys);
+
+            byte[] aad = new byte[random.nextInt(40)];
+            byte[] data = new byte[random.nextInt(100)];
+            random.nextBytes(aad);
+            random.nextBytes(data);
+            if (!Arrays.equals(new GcmContext(roundKeys).ghash(aad, data, 0, data.length),
+                    AES_GCM.ghash(H, aad, data)))
+                throw new IllegalStateException("GHASH mismatch at sample " + i);
+        }
+    }
+
+    /**
+     * הצפנה בבאפרים ישירים (עם סדר בתים LITTLE_ENDIAN, שאסור שישפיע) נפתחת ב-byte[] ולהפך,
+     * כולל הודעות שעוברות כמה חלקים של ה-Scratch ו-AAD בבאפר ישיר
+     */
+    private static void checkBuffers(int samples) {
+        Random random = new Random(3);
+        byte[][] roundKeys = new byte[11][BLOCK_SIZE];
+        random.nextBytes(roundKeys[0]);
+        AES_ECB.keySchedule(roundKeys);
+        GcmContext gcm = new GcmContext(roundKeys);
+        GcmContext.Scratch scratch = new GcmContext.Scratch();
+        ByteBuffer in = ByteBuffer.allocateDirect(16_384).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocateDirect(16_384).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer aadBuffer = ByteBuffer.allocateDirect(64);
+        for (int i = 0; i < samples; i++) {
+            byte[] aad = new byte[random.nextInt(40)];
+            byte[] plain = new byte[i % 8 == 0 ? random.nextInt(12_000) : random.nextInt(100)];
+            random.nextBytes(aad);
+            random.nextBytes(plain);
+            aadBuffer.clear();
+            aadBuffer.put(aad).flip();
+
+            in.clear();
+            in.put(3, (byte) 0).position(3);  // היסט לא מיושר
+            in.put(plain).flip().position(3);
+            out.clear();
+            gcm.encrypt(in, i % 2 == 0 ? ByteBuffer.wrap(aad) : aadBuffer, out, scratch);
+            out.flip();
+            byte[] encrypted = new byte[out.remaining()];
+            out.get(encrypted);
+            if (!Arrays.equals(gcm.decrypt(encrypted, aad), plain))
+                throw new IllegalStateException("buffer encrypt -> array decrypt mismatch at sample " + i);
+
+            in.clear();
+            in.put(gcm.encrypt(plain, aad)).flip();
+            out.clear();
+            gcm.decrypt(in, i % 2 == 0 ? ByteBuffer.wrap(aad) : aadBuffer, out, scratch);
+            out.flip();
+            byte[] decrypted = new byte[out.remaining()];
+            out.get(decrypted);
+            if (!Arrays.equals(decrypted, plain))
+                throw new IllegalStateException("array encrypt -> buffer decrypt mismatch at sample " + i);
+        }
+    }
+
+    /**
+     * CtrStream מול encryptCTR/process על המערך כולו: היסט אקראי בבאפר, ערוצים, גלישת מונה
+     * וקובץ גדול מהסף של המצב המקבילי, מוצפן לקובץ אחר ומפוענח במקום
+     */
+    private static void checkStreams(int samples) throws IOException {
+        Random random = new Random(5);
+        for (int i = 0; i < samples; i++) {
+            byte[] key = new byte[BLOCK_SIZE];
+            byte[] iv = new byte[i % 2 == 0 ? 12 : BLOCK_SIZE];
+            byte[] plain = new byte[random.nextInt(3000)];
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(plain);
+            if (i % 10 == 1)
+                Arrays.fill(iv, 12, BLOCK_SIZE, (byte) 0xff);  // המונה גולש בתוך ההודעה
+            AES_Core core = AES_Core.fips197(key);
+            byte[] nonce = Arrays.copyOf(key, 8);
+
+            checkStream("aes", AES_CTR.stream(core, iv), AES_CTR.encryptCTR(plain, core, iv), plain, random, i);
+            checkStream("blowfish", new Blowfish_CTR(key, nonce).stream(),
+                    new Blowfish_CTR(key, nonce).process(plain), plain, random, i);
+        }
+
+        byte[] key = new byte[BLOCK_SIZE];
+        byte[] iv = new byte[12];
+        byte[] plain = new byte[9 * 1024 * 1024 + 5];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(plain);
+        AES_Core core = AES_Core.fips197(key);
+        CtrStream stream = AES_CTR.stream(core, iv);
+        Path source = Files.createTempFile("aes-ctr", ".plain");
+        Path target = Files.createTempFile("aes-ctr", ".enc");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.WRITE, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            in.write(ByteBuffer.wrap(plain), 0);
+            if (stream.process(in, out) != plain.length
+                    || !Arrays.equals(Files.readAllBytes(target), AES_CTR.encryptCTR(plain, core, iv)))
+                throw new IllegalStateException("file stream does not match encryptCTR");
+            stream.process(out, 0, out, 0, Long.MAX_VALUE, 0);
+            if (!Arrays.equals(Files.readAllBytes(target), plain))
+                throw new IllegalStateException("in-place file decrypt mismatch");
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+
+        // סוף מרחב המונה: הבלוק האחרון מותר, בית אחד אחריו נדחה
+        checkCounterSpace("aes", stream, (1L << 32) * BLOCK_SIZE);
+        checkCounterSpace("blowfish", new Blowfish_CTR(key, Arrays.copyOf(key, 8)).stream(), (1L << 32) * 8);
+    }
+
+    private static void checkCounterSpace(String name, CtrStream stream, long limit) {
+        ByteBuffer block = ByteBuffer.allocate(8);
+        stream.process(limit - 8, block, block.duplicate());
+        for (long offset : new long[]{limit - 7, limit, Long.MAX_VALUE}) {
+            try {
+                block.clear();
+                stream.process(offset, block, block.duplicate());
+                throw new IllegalStateException(name + " stream accepted a range past its counter space at " + offset);
+            } catch (IllegalArgumentException expected) {
+                // הבלוקים שאחרי 2^32 היו חוזרים על ה-keystream
+            }
+        }
+    }
+
+    private static void checkStream(String name, CtrStream stream, byte[] expected, byte[] plain,
+                                    Random random, int sample) throws IOException {
+        int offset = random.nextInt(plain.length + 1);
+        ByteBuffer out = ByteBuffer.allocateDirect(plain.length);
+        stream.process(offset, ByteBuffer.wrap(plain, offset, plain.length - offset), out);
+        out.flip();
+        byte[] tail = new byte[out.remaining()];
+        out.get(tail);
+
+        ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        stream.process(Channels.newChannel(new ByteArrayInputStream(plain)), Channels.newChannel(channelOut));
+
+        if (!Arrays.equals(tail, Arrays.copyOfRange(expected, offset, expected.length))
+                || !Arrays.equals(channelOut.toByteArray(), expected))
+            throw new IllegalStateException(name + " stream mismatch at sample " + sample);
+    }
+
+    private static void report(String name, long bytes, int rounds, Runnable task) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        do {
+            task.run();
+        } while (System.nanoTime() < warmupEnd);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-18s %9.1f MB/s%n", name, bytes / (1024.0 * 1024.0) / (best / 1e9));
+    }
+}
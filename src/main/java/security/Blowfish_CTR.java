@@ -17,6 +17,9 @@ public class Blowfish_CTR {
     /** גודל בלוק ההצפנה בפונקציית ה-CTR */
     private static final int BLOCK_SIZE = 8;
 
+    /** מספר הבלוקים השונים במונה של 4 בתים */
+    private static final long COUNTER_BLOCKS = 1L << 32;
+
     /** מופע של Blowfish_ECB לשם הצפנת בלוק ה-Nonce+Counter */
     private final Blowfish_ECB blowfish;
 
@@ -84,6 +87,25 @@ public class Blowfish_CTR {
         return output;
     }
 
+    /**
+     * זרם CTR על אותו מפתח ו-Nonce, לערוצים וקבצים שלא נטענים לזיכרון.
+     * בלוק מספר i בזרם הוא Nonce || i, כמו ב-{@link #process} מהמונה 0, ולכן אפשר להתחיל
+     * מכל היסט ולעבד קבצים גדולים במקביל. לא תלוי במונה של המופע ולא משנה אותו.
+     * המונה הוא 4 בתים, ולכן הזרם נגמר אחרי 2^32 בלוקים (32GiB) וטווח שחורג מהם נדחה.
+     *
+     * @return זרם שהפלט שלו מהיסט 0 זהה ל-process על מופע חדש
+     */
+    public CtrStream stream() {
+        int noncePrefix = blowfish.bytesToInt(nonce, 0);
+        return new CtrStream(BLOCK_SIZE, COUNTER_BLOCKS, (index, scratch, keystream) -> {
+            if (index < 0 || index >= COUNTER_BLOCKS)
+                throw new IllegalArgumentException("Block index outside the 32-bit counter space: " + index);
+            int[] encryptedCounter = blowfish.encryptBlock(noncePrefix, (int) index);
+            blowfish.intToBytes(encryptedCounter[0], keystream, 0);
+            blowfish.intToBytes(encryptedCounter[1], keystream, 4);
+        });
+    }
+
     /**
      * בונה את בלוק ההצפנה לשלב ה-CTR:
      *  - מעתיק את ה-Nonce
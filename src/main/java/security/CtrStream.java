@@ -0,0 +1,281 @@
+package security;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * הצפנה ופענוח במצב CTR בזרם, מעל ערוצי NIO, בלי לטעון את כל הקובץ לזיכרון.
+ * <p>
+ * ה-keystream מחושב לפי היסט: בלוק מספר {@code offset / blockSize} הוא הצפנת בלוק המונה
+ * של אותו אינדקס, כך שאפשר להתחיל מכל בית בזרם (גישה אקראית) ולחלק טווחים בלתי תלויים
+ * בין ליבות. הבלוקים זהים לאלה של {@link AES_CTR} ו-{@link Blowfish_CTR} על אותו מפתח ואותו IV,
+ * כלומר {@code process} מהיסט 0 נותן את אותו פלט כמו הצפנת המערך כולו.
+ * </p>
+ * <p>
+ * מרחב המונה סופי ({@code blocks} בלוקים): מעבר לו ה-keystream היה חוזר על עצמו, ולכן טווח
+ * שחורג ממנו נדחה ב-{@link IllegalArgumentException} לפני שנכתב בית כלשהו.
+ * </p>
+ * מופעים נוצרים דרך {@link AES_CTR#stream(AES_Core, byte[])} ו-{@link Blowfish_CTR#stream()}.
+ * הצפנה ופענוח הם אותה פעולה; מופע בטוח לשימוש מכמה תהליכונים.
+ */
+public final class CtrStream {
+
+    /** גודל הבאפר בקריאה רציפה מערוץ */
+    private static final int STREAM_BUFFER = 64 * 1024;
+    /** גודל טווח שמעובד כמשימה אחת במצב המקבילי */
+    private static final int PARALLEL_CHUNK = 1024 * 1024;
+    /** מתחת לגודל הזה (בבתים) קובץ מעובד בתהליכון הקורא */
+    private static final long PARALLEL_THRESHOLD = 4L * PARALLEL_CHUNK;
+
+    /**
+     * תהליכוני המצב המקבילי (security.ctrStream.threads, ברירת מחדל - מספר הליבות).
+     * מאגר נפרד ולא ה-commonPool, כי כל משימה חוסמת על קריאה וכתיבה ל-FileChannel.
+     * נוצר רק בשימוש הראשון במצב המקבילי.
+     */
+    private static final class Workers {
+        private static final int THREADS = Integer.getInteger("security.ctrStream.threads",
+                Runtime.getRuntime().availableProcessors());
+        private static final ExecutorService EXECUTOR = THREADS < 2 ? null : newExecutor();
+
+        private static ExecutorService newExecutor() {
+            AtomicInteger next = new AtomicInteger();
+            return Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, "ctr-stream-" + next.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * מחולל בלוק keystream לפי אינדקס בלוק. חייב להיות בטוח לשימוש מכמה תהליכונים.
+     */
+    interface Keystream {
+        /**
+         * @param index אינדקס הבלוק מתחילת הזרם
+         * @param scratch באפר עזר בגודל בלוק
+         * @param out בלוק ה-keystream נכתב לכאן
+         */
+        void block(long index, byte[] scratch, byte[] out);
+    }
+
+    private final int blockSize;
+    /** אורך מרחב המונה בבתים: מספר הבלוקים השונים כפול גודל הבלוק */
+    private final long limit;
+    private final Keystream keystream;
+
+    /**
+     * @param blockSize גודל בלוק הצופן
+     * @param blocks מספר הבלוקים במרחב המונה (אינדקסים 0 עד blocks - 1)
+     * @param keystream מחולל הבלוקים
+     */
+    CtrStream(int blockSize, long blocks, Keystream keystream) {
+        this.blockSize = blockSize;
+        this.limit = Math.multiplyExact(blocks, (long) blockSize);
+        this.keystream = keystream;
+    }
+
+    /**
+     * מעבד את כל מה שנקרא מ-{@code in} עד סוף הערוץ וכותב ל-{@code out}, מהיסט 0 בזרם.
+     *
+     * @return מספר הבתים שעובדו
+     */
+    public long process(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return process(in, out, 0);
+    }
+
+    /**
+     * מעבד את כל מה שנקרא מ-{@code in} עד סוף הערוץ וכותב ל-{@code out}.
+     * הבית הראשון שנקרא מוצפן כבית מספר {@code offset} בזרם. מיועד לערוצים חוסמים.
+     *
+     * @param in מקור הנתונים
+     * @param out יעד הנתונים
+     * @param offset ההיסט בזרם של הבית הראשון
+     * @return מספר הבתים שעובדו
+     * @throws IllegalArgumentException אם הקלט ממשיך מעבר למרחב המונה; מה שלפניו כבר נכתב
+     */
+    public long process(ReadableByteChannel in, WritableByteChannel out, long offset) throws IOException {
+        checkRange(offset, 0);
+        byte[] data = new byte[STREAM_BUFFER];
+        byte[] scratch = new byte[blockSize];
+        byte[] block = new byte[blockSize];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (read == 0)
+                continue;
+            buffer.flip();
+            checkRange(offset + total, buffer.limit());
+            apply(offset + total, data, 0, buffer.limit(), scratch, block);
+            total += buffer.limit();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    /**
+     * מעבד את הבתים שנותרו ב-{@code in} אל {@code out}, כאשר הבית הראשון הוא בית מספר {@code offset}
+     * בזרם. שני המיקומים מתקדמים במספר הבתים שעובדו.
+     *
+     * @return מספר הבתים שעובדו
+     * @throws IllegalArgumentException אם ב-{@code out} יש פחות מקום ממה שיש ב-{@code in},
+     *                                  או אם הטווח חורג ממרחב המונה
+     */
+    public int process(long offset, ByteBuffer in, ByteBuffer out) {
+        int length = in.remaining();
+        checkRange(offset, length);
+        if (out.remaining() < length)
+            throw new IllegalArgumentException("Output buffer too small: need " + length + ", have " + out.remaining());
+        byte[] scratch = new byte[blockSize];
+        byte[] block = new byte[blockSize];
+        if (out.hasArray()) {
+            // גם כאשר in ו-out הם אותו באפר באותו מיקום
+            int outPosition = out.position();
+            int outOff = out.arrayOffset() + outPosition;
+            in.get(out.array(), outOff, length);
+            apply(offset, out.array(), outOff, length, scratch, block);
+            out.position(outPosition + length);
+            return length;
+        }
+        byte[] data = new byte[Math.min(length, STREAM_BUFFER)];
+        for (int pos = 0; pos < length; pos += data.length) {
+            int n = Math.min(data.length, length - pos);
+            in.get(data, 0, n);
+            apply(offset + pos, data, 0, n, scratch, block);
+            out.put(data, 0, n);
+        }
+        return length;
+    }
+
+    /**
+     * מעבד קובץ שלם: מתחילת {@code in} אל תחילת {@code out}, מהיסט 0 בזרם.
+     *
+     * @return מספר הבתים שעובדו
+     * @see #process(FileChannel, long, FileChannel, long, long, long)
+     */
+    public long process(FileChannel in, FileChannel out) throws IOException {
+        return process(in, 0, out, 0, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * מעבד עד {@code length} בתים של {@code in} ממיקום {@code inPosition} אל {@code out} במיקום
+     * {@code outPosition}, כאשר הבית הראשון הוא בית מספר {@code offset} בזרם. מיקומי הערוצים לא משתנים.
+     * <p>
+     * טווח של {@link #PARALLEL_THRESHOLD} בתים ומעלה מחולק לטווחים של {@link #PARALLEL_CHUNK}
+     * שמעובדים במקביל במאגר התהליכונים של המחלקה ({@link Workers}): לכל טווח טווח מונים משלו,
+     * וקריאה וכתיבה לפי מיקום. {@code in} ו-{@code out} יכולים להיות אותו ערוץ באותו מיקום (הצפנה במקום).
+     * </p>
+     *
+     * @param length מספר הבתים המרבי; נעצר בסוף {@code in}
+     * @return מספר הבתים שעובדו
+     * @throws IllegalArgumentException אם הטווח שיעובד חורג ממרחב המונה
+     */
+    public long process(FileChannel in, long inPosition, FileChannel out, long outPosition,
+                        long length, long offset) throws IOException {
+        if (inPosition < 0 || outPosition < 0 || length < 0)
+            throw new IllegalArgumentException("Negative position or length");
+        long total = Math.max(0, Math.min(length, in.size() - inPosition));
+        checkRange(offset, total);
+        long chunks = (total + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+
+        if (total < PARALLEL_THRESHOLD || Workers.EXECUTOR == null) {
+            byte[] data = new byte[(int) Math.min(total, PARALLEL_CHUNK)];
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                processChunk(in, inPosition, out, outPosition, total, offset, chunk, data);
+            }
+            return total;
+        }
+        List<Future<?>> tasks = new ArrayList<>((int) chunks);
+        try {
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                long index = chunk;
+                tasks.add(Workers.EXECUTOR.submit(() -> {
+                    processChunk(in, inPosition, out, outPosition, total, offset, index, new byte[PARALLEL_CHUNK]);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing " + total + " bytes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io)
+                throw io;
+            if (cause instanceof RuntimeException runtime)
+                throw runtime;
+            if (cause instanceof Error error)
+                throw error;
+            throw new IOException(cause);
+        } finally {
+            // אחרי כישלון: טווחים שעוד לא התחילו לא ירוצו
+            for (Future<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * טווח מספר {@code chunk}: קריאה לפי מיקום, XOR עם ה-keystream של הטווח וכתיבה לפי מיקום.
+     */
+    private void processChunk(FileChannel in, long inPosition, FileChannel out, long outPosition,
+                              long total, long offset, long chunk, byte[] data) throws IOException {
+        long start = chunk * PARALLEL_CHUNK;
+        int length = (int) Math.min(PARALLEL_CHUNK, total - start);
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, inPosition + start + buffer.position()) == -1)
+                throw new IOException("Unexpected end of file at " + (inPosition + start + buffer.position()));
+        }
+        apply(offset + start, data, 0, length, new byte[blockSize], new byte[blockSize]);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer, outPosition + start + buffer.position());
+        }
+    }
+
+    /**
+     * XOR במקום של {@code length} בתים ב-{@code data} עם ה-keystream מהיסט {@code offset}.
+     */
+    private void apply(long offset, byte[] data, int off, int length, byte[] scratch, byte[] block) {
+        long index = offset / blockSize;
+        int skip = (int) (offset % blockSize);
+        for (int pos = 0; pos < length; ) {
+            keystream.block(index++, scratch, block);
+            int n = Math.min(blockSize - skip, length - pos);
+            for (int i = 0; i < n; i++)
+                data[off + pos + i] ^= block[skip + i];
+            pos += n;
+            skip = 0;
+        }
+    }
+
+    /**
+     * בודק ש-{@code length} בתים מהיסט {@code offset} נמצאים בתוך מרחב המונה.
+     */
+    private void checkRange(long offset, long length) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Negative stream offset: " + offset);
+        if (offset > limit || length > limit - offset)
+            throw new IllegalArgumentException("Stream range " + offset + "+" + length
+                    + " exceeds the counter space of " + limit + " bytes");
+    }
+}
@@ -0,0 +1,45 @@
+package security;
+
+/**
+ * מצפין במנוע הראשי; מפענח בו, ואם התג לא מתאים - במנוע המשני.
+ * תג GCM שגוי הוא הדרך היחידה להבחין בין הפורמטים, והסיכוי שהודעה תעבור אימות במנוע הלא נכון הוא 2^-128.
+ */
+final class FallbackAeadEngine implements AeadEngine {
+
+    private final AeadEngine primary;
+    private final AeadEngine secondary;
+
+    FallbackAeadEngine(AeadEngine primary, AeadEngine secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    @Override
+    public String name() {
+        return primary.name();
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plainText, byte[] aad) {
+        return primary.encrypt(plainText, aad);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encryptedMessage, byte[] aad) {
+        try {
+            return primary.decrypt(encryptedMessage, aad);
+        } catch (SecurityException primaryFailure) {
+            try {
+                return secondary.decrypt(encryptedMessage, aad);
+            } catch (SecurityException secondaryFailure) {
+                throw primaryFailure;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        primary.destroy();
+        secondary.destroy();
+    }
+}
@@ -0,0 +1,389 @@
+package security;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * הקשר AES-GCM למפתח אחד: נבנה פעם אחת לכל מפתח ומשמש להצפנה ולפענוח של הרבה הודעות.
+ * <p>
+ * ההקשר מחזיק את מפתחות הסיבוב ({@link AES_Core}), את H = E(K, 0^128), וטבלאות כפל
+ * בשיטת Shoup של 8 ביט עבור GHASH: 256 כפולות של H (4KB למפתח), כך שכפל ב-H הוא
+ * 16 גישות לטבלה במקום 128 סבבים של הזזה ו-XOR.
+ * AAD והטקסט המוצפן מעובדים ישירות מהמערך שבו הם נמצאים, בלי העתקות ריפוד.
+ * </p>
+ * <p>
+ * לצד ה-API של byte[] יש גרסאות בין {@link ByteBuffer}-ים (heap או direct) עם {@link Scratch}
+ * שהקורא מספק, שאינן מקצות זיכרון בכלל - לעיבוד היסטוריה בכמויות ולקלט/פלט עם באפרים ישירים.
+ * באפר ישיר מועתק בחלקים של 4KB למערך של ה-Scratch (העתקה גורפת) ומעובד משם כמו מערך,
+ * כך שהקצב קרוב לזה של באפרי heap.
+ * </p>
+ * הפורמט זהה בדיוק ל-{@link AES_GCM}: IV (12 בתים) || ciphertext || tag (16 בתים),
+ * כולל הכפל ב-GF(2^128) של AES_GCM (שאינו הכפל של NIST SP 800-38D). מופע בטוח לשימוש מכמה תהליכונים.
+ */
+public final class GcmContext implements AeadEngine {
+
+    /** גודל התג באימות (בבתים) */
+    public static final int TAG_SIZE = AES_GCM.TAG_SIZE;
+    /** אורך IV ב-GCM (12 בתים, 96 ביט) */
+    public static final int IV_LENGTH = 12;
+    private static final int BLOCK_SIZE = 16;
+    /** גודל החלק שבו מועתקים באפרים ישירים; כפולה של בלוק, כך שבלוק לא נחתך בין שני חלקים */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * R[t] = החלק שחוזר לבית העליון כשבית עליון t נדחק החוצה בהזזה של 8 ביט.
+     * תלוי רק בפולינום, לא במפתח.
+     */
+    private static final long[] REDUCE = new long[256];
+
+    static {
+        for (int t = 0; t < 256; t++) {
+            long[] z = {(long) t << 56, 0};
+            for (int i = 0; i < 8; i++) {
+                shiftLeft(z);
+            }
+            REDUCE[t] = z[0];
+        }
+    }
+
+    private final AES_Core core;
+    /** M[v] = v·H עבור בית v בעמדה הנמוכה, חצי עליון ותחתון */
+    private final long[] tableHi = new long[256];
+    private final long[] tableLo = new long[256];
+
+    /**
+     * בונה הקשר ממפתחות הסיבוב של {@link AES_ECB#keySchedule}.
+     * המערך לא נשמר; אפשר לאפס אותו מיד אחרי הבנייה.
+     *
+     * @param roundKeys 11 מפתחות סיבוב של 16 בתים
+     */
+    public GcmContext(byte[][] roundKeys) {
+        this.core = new AES_Core(roundKeys);
+
+        byte[] H = new byte[BLOCK_SIZE];
+        core.encryptBlock(H, 0, H, 0);
+
+        // M[1] = הכפל של H בבית 0x01 בעמדה הנמוכה = H כשכל בית שלו הפוך בסדר הביטים
+        long[] v = new long[2];
+        for (int i = 0; i < 8; i++) {
+            v[0] = (v[0] << 8) | (Integer.reverse(H[i] & 0xff) >>> 24);
+            v[1] = (v[1] << 8) | (Integer.reverse(H[8 + i] & 0xff) >>> 24);
+        }
+        Arrays.fill(H, (byte) 0);
+
+        for (int bit = 1; bit < 256; bit <<= 1) {
+            tableHi[bit] = v[0];
+            tableLo[bit] = v[1];
+            shiftLeft(v);
+        }
+        for (int b = 3; b < 256; b++) {
+            int low = b & -b;
+            if (low != b) {
+                tableHi[b] = tableHi[b ^ low] ^ tableHi[low];
+                tableLo[b] = tableLo[b ^ low] ^ tableLo[low];
+            }
+        }
+    }
+
+    /**
+     * שטח עבודה של הצפנה/פענוח אחד: מונה, E(K, J0), בלוק keystream ומצב GHASH.
+     * מופע אחד לכל תהליכון מאפשר לעבד הודעות בלי הקצאות; אסור לשתף מופע בין תהליכונים.
+     */
+    public static final class Scratch {
+        private final byte[] counter = new byte[BLOCK_SIZE];
+        private final byte[] tag = new byte[BLOCK_SIZE];
+        private final byte[] keystream = new byte[BLOCK_SIZE];
+        private final long[] y = new long[2];
+        /** העתק של חלק מבאפר ישיר */
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * אורך הפלט המוצפן (IV + ciphertext + tag) עבור טקסט באורך נתון
+     */
+    public static int encryptedLength(int plainLength) {
+        return IV_LENGTH + plainLength + TAG_SIZE;
+    }
+
+    @Override
+    public String name() {
+        return "legacy";
+    }
+
+    /**
+     * הצפנה עם IV אקראי.
+     *
+     * @param plainText הטקסט הגולמי להצפנה
+     * @param aad נתונים נוספים לאימות (אופציונלי)
+     * @return מערך בתים: IV + ciphertext + תג האימות
+     */
+    @Override
+    public byte[] encrypt(byte[] plainText, byte[] aad) {
+        byte[] out = new byte[encryptedLength(plainText.length)];
+        encrypt(ByteBuffer.wrap(plainText), aad == null ? null : ByteBuffer.wrap(aad), ByteBuffer.wrap(out),
+                new Scratch());
+        return out;
+    }
+
+    /**
+     * פענוח ואימות.
+     *
+     * @param encryptedMessage IV + ciphertext + tag
+     * @param aad נתונים נוספים לאימות
+     * @return הטקסט הגולמי לאחר פענוח
+     * @throws IllegalArgumentException אם הנתונים לא תקפים
+     * @throws SecurityException אם אימות התג נכשל
+     */
+    @Override
+    public byte[] decrypt(byte[] encryptedMessage, byte[] aad) {
+        if (encryptedMessage == null || encryptedMessage.length == 0) {
+            throw new IllegalArgumentException("Data to decrypt cannot be null or empty.");
+        }
+        if (encryptedMessage.length < IV_LENGTH + TAG_SIZE) {
+            throw new IllegalArgumentException("Data to decrypt is too short.");
+        }
+        byte[] plain = new byte[encryptedMessage.length - IV_LENGTH - TAG_SIZE];
+        decrypt(ByteBuffer.wrap(encryptedMessage), aad == null ? null : ByteBuffer.wrap(aad), ByteBuffer.wrap(plain),
+                new Scratch());
+        return plain;
+    }
+
+    /**
+     * הצפנה בין באפרים (heap או direct) בלי הקצאות: כותבת ל-out את IV || ciphertext || tag
+     * של כל הבתים הנותרים ב-plainText, באותו פורמט בדיוק כמו {@link #encrypt(byte[], byte[])}.
+     * המיקום של plainText ושל out מתקדם; המיקום של aad לא משתנה. הבאפרים לא יכולים לחפוף.
+     *
+     * @param plainText הטקסט להצפנה (הבתים הנותרים)
+     * @param aad נתונים נוספים לאימות (הבתים הנותרים), או null
+     * @param out באפר היעד, עם מקום ל-{@link #encryptedLength(int)} בתים לפחות
+     * @param scratch שטח עבודה של התהליכון הנוכחי
+     * @return מספר הבתים שנכתבו ל-out
+     * @throws IllegalArgumentException אם אין מספיק מקום ב-out
+     */
+    public int encrypt(ByteBuffer plainText, ByteBuffer aad, ByteBuffer out, Scratch scratch) {
+        int length = plainText.remaining();
+        int total = encryptedLength(length);
+        if (out.remaining() < total)
+            throw new IllegalArgumentException("Output buffer too small: need " + total + ", have " + out.remaining());
+        int o = out.position();
+
+        byte[] counter = scratch.counter;
+        AES_GCM.RANDOM.nextBytes(counter);
+        for (int i = 0; i < IV_LENGTH; i++) {
+            out.put(o + i, counter[i]);
+        }
+        startCounter(scratch);
+
+        encryptCTR(scratch, plainText, plainText.position(), length, out, o + IV_LENGTH);
+        computeTag(scratch, aad, out, o + IV_LENGTH, length);
+        for (int i = 0; i < TAG_SIZE; i++) {
+            out.put(o + IV_LENGTH + length + i, scratch.tag[i]);
+        }
+
+        plainText.position(plainText.position() + length);
+        out.position(o + total);
+        return total;
+    }
+
+    /**
+     * פענוח ואימות בין באפרים (heap או direct) בלי הקצאות. הבתים הנותרים ב-encrypted הם
+     * IV || ciphertext || tag, כמו ב-{@link #decrypt(byte[], byte[])}. התג נבדק לפני שנכתב בית ל-out.
+     * בהצלחה המיקום של encrypted ושל out מתקדם; בכישלון שניהם לא משתנים. הבאפרים לא יכולים לחפוף.
+     *
+     * @param encrypted IV + ciphertext + tag (הבתים הנותרים)
+     * @param aad נתונים נוספים לאימות (הבתים הנותרים), או null
+     * @param out באפר היעד, עם מקום לטקסט הגולמי
+     * @param scratch שטח עבודה של התהליכון הנוכחי
+     * @return מספר הבתים שנכתבו ל-out
+     * @throws IllegalArgumentException אם הנתונים קצרים מדי או שאין מספיק מקום ב-out
+     * @throws SecurityException אם אימות התג נכשל
+     */
+    public int decrypt(ByteBuffer encrypted, ByteBuffer aad, ByteBuffer out, Scratch scratch) {
+        int total = encrypted.remaining();
+        if (total < IV_LENGTH + TAG_SIZE)
+            throw new IllegalArgumentException("Data to decrypt is too short.");
+        int length = total - IV_LENGTH - TAG_SIZE;
+        if (out.remaining() < length)
+            throw new IllegalArgumentException("Output buffer too small: need " + length + ", have " + out.remaining());
+        int p = encrypted.position();
+
+        byte[] counter = scratch.counter;
+        for (int i = 0; i < IV_LENGTH; i++) {
+            counter[i] = encrypted.get(p + i);
+        }
+        startCounter(scratch);
+
+        computeTag(scratch, aad, encrypted, p + IV_LENGTH, length);
+        int diff = 0;
+        for (int i = 0; i < TAG_SIZE; i++) {
+            diff |= scratch.tag[i] ^ encrypted.get(p + IV_LENGTH + length + i);
+        }
+        if (diff != 0)
+            throw new SecurityException("Authentication failed. Data may have been tampered with.");
+
+        encryptCTR(scratch, encrypted, p + IV_LENGTH, length, out, out.position());
+        encrypted.position(p + total);
+        out.position(out.position() + length);
+        return length;
+    }
+
+    /**
+     * מאפס את מפתחות הסיבוב והטבלאות. אחרי הקריאה אסור להשתמש בהקשר.
+     */
+    @Override
+    public void destroy() {
+        core.destroy();
+        Arrays.fill(tableHi, 0);
+        Arrays.fill(tableLo, 0);
+    }
+
+    /**
+     * GHASH(H, AAD, data) כמו ב-AES_GCM, לבדיקה ולמדידה מול המימוש הישן
+     */
+    byte[] ghash(byte[] aad, byte[] data, int offset, int length) {
+        long[] y = new long[2];
+        ghash(y, aad == null ? null : ByteBuffer.wrap(aad), ByteBuffer.wrap(data), offset, length, null);
+        byte[] out = new byte[BLOCK_SIZE];
+        putLong(out, 0, y[0]);
+        putLong(out, 8, y[1]);
+        return out;
+    }
+
+    /**
+     * J0 = IV || 0x00000001, כשה-IV כבר ב-12 הבתים הראשונים של המונה.
+     * כותב את E(K, J0) ל-tag ומשאיר במונה את J0+1
+     */
+    private void startCounter(Scratch scratch) {
+        byte[] counter = scratch.counter;
+        counter[12] = 0;
+        counter[13] = 0;
+        counter[14] = 0;
+        counter[15] = 1;
+        core.encryptBlock(counter, 0, scratch.tag, 0);
+        counter[15] = 2;
+    }
+
+    /**
+     * CTR מהמונה של scratch, מאינדקסים מוחלטים. באפרים שאינם מגובים במערך עוברים דרך scratch.chunk
+     */
+    private void encryptCTR(Scratch scratch, ByteBuffer in, int inIndex, int length, ByteBuffer out, int outIndex) {
+        if (in.hasArray() && out.hasArray()) {
+            AES_CTR.encryptCTR(core, scratch.counter, scratch.keystream, in.array(), in.arrayOffset() + inIndex,
+                    length, out.array(), out.arrayOffset() + outIndex);
+            return;
+        }
+        byte[] chunk = scratch.chunk;
+        for (int pos = 0; pos < length; pos += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, length - pos);
+            in.get(inIndex + pos, chunk, 0, n);
+            AES_CTR.encryptCTR(core, scratch.counter, scratch.keystream, chunk, 0, n, chunk, 0);
+            out.put(outIndex + pos, chunk, 0, n);
+        }
+    }
+
+    /**
+     * tag = E(K, J0) ⊕ GHASH(H, AAD, cipher); tag נכנס עם E(K, J0) ויוצא עם התג
+     */
+    private void computeTag(Scratch scratch, ByteBuffer aad, ByteBuffer cipher, int index, int length) {
+        long[] y = scratch.y;
+        ghash(y, aad, cipher, index, length, scratch.chunk);
+        byte[] tag = scratch.tag;
+        for (int i = 0; i < 8; i++) {
+            tag[i] ^= (byte) (y[0] >>> (56 - 8 * i));
+            tag[8 + i] ^= (byte) (y[1] >>> (56 - 8 * i));
+        }
+    }
+
+    private void ghash(long[] y, ByteBuffer aad, ByteBuffer data, int index, int length, byte[] chunk) {
+        y[0] = 0;
+        y[1] = 0;
+        int aadLength = aad == null ? 0 : aad.remaining();
+        if (aadLength > 0) {
+            absorb(y, aad, aad.position(), aadLength, chunk);
+        }
+        absorb(y, data, index, length, chunk);
+
+        // בלוק אורכי AAD ו-cipher (ביטים)
+        y[0] ^= aadLength * 8L;
+        y[1] ^= length * 8L;
+        multiplyH(y);
+    }
+
+    /**
+     * Y = (Y ⊕ block)·H לכל בלוק, מאינדקס מוחלט בבאפר. באפר שאינו מגובה במערך מועתק ל-chunk חלק אחר חלק
+     */
+    private void absorb(long[] y, ByteBuffer data, int index, int length, byte[] chunk) {
+        if (data.hasArray()) {
+            absorb(y, data.array(), data.arrayOffset() + index, length);
+            return;
+        }
+        for (int pos = 0; pos < length; pos += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, length - pos);
+            data.get(index + pos, chunk, 0, n);
+            absorb(y, chunk, 0, n);
+        }
+    }
+
+    /**
+     * Y = (Y ⊕ block)·H לכל בלוק; בלוק אחרון חלקי מתנהג כאילו רופד באפסים
+     */
+    private void absorb(long[] y, byte[] data, int offset, int length) {
+        int end = offset + length;
+        int pos = offset;
+        for (; pos + BLOCK_SIZE <= end; pos += BLOCK_SIZE) {
+            y[0] ^= getLong(data, pos);
+            y[1] ^= getLong(data, pos + 8);
+            multiplyH(y);
+        }
+        if (pos < end) {
+            for (int i = 0; pos + i < end; i++) {
+                long b = (long) (data[pos + i] & 0xff);
+                if (i < 8) y[0] ^= b << (56 - 8 * i);
+                else y[1] ^= b << (56 - 8 * (i - 8));
+            }
+            multiplyH(y);
+        }
+    }
+
+    /**
+     * Y = Y·H בשיטת Horner על בתים: Z = Z·x^8 ⊕ M[byte], מהבית הראשון לאחרון
+     */
+    private void multiplyH(long[] y) {
+        long hi = y[0], lo = y[1];
+        long zHi = 0, zLo = 0;
+        for (int i = 0; i < 16; i++) {
+            int b = (int) ((i < 8 ? hi >>> (56 - 8 * i) : lo >>> (120 - 8 * i)) & 0xff);
+            int top = (int) (zHi >>> 56);
+            zHi = ((zHi << 8) | (zLo >>> 56)) ^ REDUCE[top] ^ tableHi[b];
+            zLo = (zLo << 8) ^ tableLo[b];
+        }
+        y[0] = zHi;
+        y[1] = zLo;
+    }
+
+    /**
+     * הכפלה ב-x כמו ב-AES_GCM.GF_Multiply: הזזה שמאלה, וכשהביט העליון נשר - XOR של 0x87 לבית העליון
+     */
+    private static void shiftLeft(long[] z) {
+        boolean carry = z[0] < 0;
+        z[0] = (z[0] << 1) | (z[1] >>> 63);
+        z[1] <<= 1;
+        if (carry) {
+            z[0] ^= 0x87L << 56;
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte) (v >>> (56 - 8 * i));
+        }
+    }
+}
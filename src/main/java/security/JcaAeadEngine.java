@@ -0,0 +1,104 @@
+package security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * מנוע AES-128-GCM תקני (NIST SP 800-38D) מעל {@code AES/GCM/NoPadding} של ה-JDK,
+ * שמשתמש ב-AES-NI וב-CLMUL כשהמעבד תומך.
+ * <p>
+ * הפלט באותה פריסה כמו {@link GcmContext}: IV אקראי (12 בתים) || ciphertext || tag (16 בתים),
+ * ו-AAD עובר כמו שהוא. התוכן לא תואם למנוע legacy - ראו {@link AeadEngine}.
+ * מופע בטוח לשימוש מכמה תהליכונים: לכל תהליכון Cipher משלו.
+ * </p>
+ */
+public final class JcaAeadEngine implements AeadEngine {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = GcmContext.IV_LENGTH;
+    private static final int TAG_SIZE = GcmContext.TAG_SIZE;
+
+    /** Cipher אינו בטוח לתהליכונים, ו-getInstance יקר - אחד לכל תהליכון */
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+        }
+    });
+
+    private volatile SecretKey key;
+
+    /**
+     * @param rawKey מפתח של 16 בתים; מועתק, אפשר לאפס אותו אחרי הקריאה
+     */
+    public JcaAeadEngine(byte[] rawKey) {
+        if (rawKey == null || rawKey.length != 16)
+            throw new IllegalArgumentException("AES-128 key must be 16 bytes");
+        this.key = new SecretKeySpec(rawKey, "AES");
+    }
+
+    @Override
+    public String name() {
+        return "jca";
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plainText, byte[] aad) {
+        return encrypt(plainText, aad, AES_GCM.ivGenerator());
+    }
+
+    /**
+     * הצפנה עם IV נתון (לבדיקה מול וקטורי התקן)
+     */
+    byte[] encrypt(byte[] plainText, byte[] aad, byte[] iv) {
+        byte[] out = new byte[GcmContext.encryptedLength(plainText.length)];
+        System.arraycopy(iv, 0, out, 0, IV_LENGTH);
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, iv, 0, IV_LENGTH));
+            if (aad != null && aad.length > 0) {
+                cipher.updateAAD(aad);
+            }
+            cipher.doFinal(plainText, 0, plainText.length, out, IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM encryption failed", e);
+        }
+        return out;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encryptedMessage, byte[] aad) {
+        if (encryptedMessage == null || encryptedMessage.length == 0) {
+            throw new IllegalArgumentException("Data to decrypt cannot be null or empty.");
+        }
+        if (encryptedMessage.length < IV_LENGTH + TAG_SIZE) {
+            throw new IllegalArgumentException("Data to decrypt is too short.");
+        }
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, encryptedMessage, 0, IV_LENGTH));
+            if (aad != null && aad.length > 0) {
+                cipher.updateAAD(aad);
+            }
+            return cipher.doFinal(encryptedMessage, IV_LENGTH, encryptedMessage.length - IV_LENGTH);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Authentication failed. Data may have been tampered with.");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM decryption failed", e);
+        }
+    }
+
+    /**
+     * משחרר את המפתח. SecretKeySpec ב-JDK 17 לא תומך ב-destroy, ולכן העותק שבתוכו
+     * לא מאופס אלא רק משתחרר לאיסוף זבל.
+     */
+    @Override
+    public void destroy() {
+        key = null;
+    }
+}
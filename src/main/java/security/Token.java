@@ -146,29 +146,41 @@ public class Token {
      * @return true אם תקין, false אחרת
      */
     public static boolean verifyToken(String token) {
+        return parseVerified(token) != null;
+    }
+
+    /**
+     * מאמת את הטוקן ומחזיר את הטענות שבו, במעבר אחד על המחרוזת
+     * (ללא regex וללא פענוח נוסף לכל שדה).
+     * @param token הטוקן לבדיקה
+     * @return הטענות המאומתות, או null אם הטוקן אינו תקין או פג תוקף
+     */
+    public static TokenClaims parseVerified(String token) {
         try {
-            String[] parts = token.split("\\$");
-            if (parts.length != 2) return false;
+            int separator = token.indexOf('$');
+            if (separator < 0 || token.indexOf('$', separator + 1) >= 0) return null;
 
-            byte[] payloadBytes = Base64.getDecoder().decode(parts[0]);
-            byte[] receivedSig = Base64.getDecoder().decode(parts[1]);
+            byte[] payloadBytes = Base64.getDecoder().decode(token.substring(0, separator));
+            byte[] receivedSig = Base64.getDecoder().decode(token.substring(separator + 1));
 
             byte[] expectedSig = HMAC.generateHMAC(SECRET_KEY, payloadBytes);
-            if (!MessageDigest.isEqual(expectedSig, receivedSig)) return false;
+            if (!MessageDigest.isEqual(expectedSig, receivedSig)) return null;
 
             String payload = new String(payloadBytes, StandardCharsets.UTF_8);
-            String[] fields = payload.split(":");
-            if (fields.length != 3) return false;
+            int first = payload.indexOf(':');
+            int second = payload.indexOf(':', first + 1);
+            if (first < 0 || second < 0 || payload.indexOf(':', second + 1) >= 0) return null;
 
-            // אימות UUID
-            try { UUID.fromString(fields[0]); } catch (IllegalArgumentException e) { return false; }
+            UUID userId = UUID.fromString(payload.substring(0, first));
+            long issuedAt = Long.parseLong(payload.substring(first + 1, second));
+            long expiresAt = Long.parseLong(payload.substring(second + 1));
 
-            long expiresAt = Long.parseLong(fields[2]);
-            if (Instant.now().toEpochMilli() > expiresAt) return false;
+            TokenClaims claims = new TokenClaims(userId, issuedAt, expiresAt);
+            if (claims.isExpired(Instant.now().toEpochMilli())) return null;
 
-            return true;
+            return claims;
         } catch (Exception e) {
-            return false;
+            return null;
         }
     }
 
@@ -0,0 +1,42 @@
+package security;
+
+import java.util.UUID;
+
+/**
+ * הטענות (claims) של טוקן שכבר אומת: מזהה המשתמש, זמן ההנפקה וזמן התפוגה.
+ * נוצר רק ע"י {@link Token#parseVerified(String)}, כך שקיום מופע מעיד שהחתימה נבדקה.
+ */
+public final class TokenClaims {
+    private final UUID userId;
+    private final long issuedAt;
+    private final long expiresAt;
+
+    TokenClaims(UUID userId, long issuedAt, long expiresAt) {
+        this.userId = userId;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /** @return מזהה המשתמש שהטוקן הונפק עבורו */
+    public UUID getUserId() {
+        return userId;
+    }
+
+    /** @return זמן ההנפקה במילישניות */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    /** @return זמן התפוגה במילישניות */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param nowMillis הזמן הנוכחי במילישניות
+     * @return true אם הטוקן פג תוקף
+     */
+    public boolean isExpired(long nowMillis) {
+        return nowMillis > expiresAt;
+    }
+}
@@ -0,0 +1,161 @@
+package server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Descriptors;
+import io.grpc.Context;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import security.Token;
+import security.TokenClaims;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interceptor שמאמת את הטוקן פעם אחת לכל קריאה ומפרסם את הטענות דרך {@link Context}.
+ * <p>
+ * הטוקן נמצא בשדה {@code token} של הודעת הבקשה (לא ב-metadata), ולכן הוא נקרא מההודעה
+ * הראשונה בעזרת ה-descriptor של protobuf. טוקנים שאומתו נשמרים במטמון חסום לפי המחרוזת,
+ * כך ש-HMAC מחושב פעם אחת לכל טוקן ולא בכל RPC. פג התוקף נבדק בכל שליפה מהמטמון.
+ * </p>
+ * קריאות ללא טוקן תקין (register, login וכו') ממשיכות כרגיל ללא טענות - ההחלטה
+ * אם לדחות נשארת אצל ה-handler.
+ */
+public class AuthInterceptor implements ServerInterceptor {
+
+    private static final Context.Key<String> TOKEN = Context.key("chat-token");
+    private static final Context.Key<TokenClaims> CLAIMS = Context.key("chat-token-claims");
+
+    private final Cache<String, TokenClaims> claimsCache;
+
+    /**
+     * @param maxSize מספר הטוקנים המרבי במטמון
+     * @param ttlSeconds כמה זמן טוקן מאומת נשמר (פג התוקף של הטוקן עצמו נבדק בנפרד)
+     */
+    public AuthInterceptor(long maxSize, long ttlSeconds) {
+        this.claimsCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        ServerCall.Listener<ReqT> delegate = next.startCall(call, headers);
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(delegate) {
+            /** ה-Context עם הטענות; נקבע בהודעה הראשונה ומשמש לכל האירועים הבאים של הקריאה */
+            private Context authenticated;
+
+            @Override
+            public void onMessage(ReqT message) {
+                if (authenticated == null) {
+                    authenticated = contextFor(message);
+                }
+                run(() -> super.onMessage(message));
+            }
+
+            @Override
+            public void onHalfClose() {
+                run(super::onHalfClose);
+            }
+
+            @Override
+            public void onCancel() {
+                run(super::onCancel);
+            }
+
+            @Override
+            public void onComplete() {
+                run(super::onComplete);
+            }
+
+            @Override
+            public void onReady() {
+                run(super::onReady);
+            }
+
+            private void run(Runnable callback) {
+                if (authenticated == null) {
+                    callback.run();
+                    return;
+                }
+                Context previous = authenticated.attach();
+                try {
+                    callback.run();
+                } finally {
+                    authenticated.detach(previous);
+                }
+            }
+        };
+    }
+
+    private Context contextFor(Object message) {
+        String token = tokenOf(message);
+        if (token == null || token.isEmpty()) {
+            return Context.current();
+        }
+        TokenClaims claims = verify(token);
+        if (claims == null) {
+            return Context.current();
+        }
+        return Context.current().withValues(TOKEN, token, CLAIMS, claims);
+    }
+
+    /**
+     * מאמת טוקן דרך המטמון.
+     * @param token הטוקן
+     * @return הטענות, או null אם הטוקן אינו תקין או פג תוקף
+     */
+    public TokenClaims verify(String token) {
+        TokenClaims claims = claimsCache.getIfPresent(token);
+        if (claims == null) {
+            claims = Token.parseVerified(token);
+            if (claims == null) {
+                return null; // טוקנים פסולים לא נשמרים, כדי שלא ימלאו את המטמון
+            }
+            claimsCache.put(token, claims);
+        }
+        if (claims.isExpired(System.currentTimeMillis())) {
+            claimsCache.invalidate(token);
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * מחזיר את הטענות שה-interceptor אימת עבור הקריאה הנוכחית.
+     * @param token הטוקן מהבקשה (חייב להיות אותו טוקן שאומת)
+     * @return הטענות, או null אם לא אומתו עבור הטוקן הזה או שפג תוקפן
+     */
+    public static TokenClaims currentClaims(String token) {
+        TokenClaims claims = CLAIMS.get();
+        if (claims == null || token == null || !token.equals(TOKEN.get())
+                || claims.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * @return מדדי מטמון הטענות
+     */
+    public String stats() {
+        return String.format("size=%d hitRate=%.3f", claimsCache.size(), claimsCache.stats().hitRate());
+    }
+
+    private static String tokenOf(Object message) {
+        if (!(message instanceof com.google.protobuf.Message proto)) {
+            return null;
+        }
+        Descriptors.FieldDescriptor field = proto.getDescriptorForType().findFieldByName("token");
+        if (field == null || field.getJavaType() != Descriptors.FieldDescriptor.JavaType.STRING) {
+            return null;
+        }
+        return (String) proto.getField(field);
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import model.MessageStatus;
+
+import java.util.UUID;
+
+/**
+ * אירוע צ'אט שמופץ דרך {@link ChatEventBus} לכל הצמתים שיש להם מנויים לצ'אט.
+ * <p>
+ * האירוע נושא את ההודעה כבר מקודדת ({@link EncodedMessage}), כך שהיא מקודדת פעם אחת
+ * בצומת המקור ונשלחת כמו שהיא גם בין צמתים וגם למנויים המקומיים.
+ * </p>
+ */
+public final class ChatEvent {
+
+    /**
+     * סוג האירוע.
+     */
+    public enum Type {
+        /** הודעת צ'אט רגילה */
+        MESSAGE,
+        /** חבר נוסף לצ'אט */
+        MEMBER_ADDED,
+        /** חבר הוסר / עזב - המנויים שלו נסגרים */
+        MEMBER_REMOVED,
+        /** שינוי תפקיד של חבר */
+        ROLE_CHANGED,
+        /** הוחלף מפתח הקבוצה */
+        KEY_ROTATED,
+        /** אישור קבלה (DELIVERED / SEEN) של חבר - נדחף לשאר החברים */
+        RECEIPT;
+
+        /**
+         * @return true לאירוע שמשנה את תמונת המצב של החדר (חברות / מפתח),
+         *         false לאירועים שרק נמסרים למנויים (הודעות ואישורי קבלה)
+         */
+        public boolean changesRoom() {
+            return this != MESSAGE && this != RECEIPT;
+        }
+    }
+
+    private final Type type;
+    private final UUID chatId;
+    private final EncodedMessage message;
+    private final UUID excludeUserId;
+    private final UUID affectedUserId;
+    private final String coalesceKey;
+
+    /**
+     * @param type סוג האירוע
+     * @param chatId הצ'אט (ה-topic) של האירוע
+     * @param message הודעה לדחיפה למנויים, או null
+     * @param excludeUserId משתמש שלא יקבל את ההודעה (השולח), או null
+     * @param affectedUserId החבר שהאירוע נוגע בו, או null
+     * @param coalesceKey מפתח איחוד בתורי המנויים, או null
+     */
+    public ChatEvent(Type type, UUID chatId, EncodedMessage message,
+                     UUID excludeUserId, UUID affectedUserId, String coalesceKey) {
+        this.type = type;
+        this.chatId = chatId;
+        this.message = message;
+        this.excludeUserId = excludeUserId;
+        this.affectedUserId = affectedUserId;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * אירוע הודעת צ'אט רגילה.
+     */
+    public static ChatEvent message(UUID chatId, EncodedMessage message, UUID senderId) {
+        return new ChatEvent(Type.MESSAGE, chatId, message, senderId, null, null);
+    }
+
+    /**
+     * אירוע אישור קבלה. מפתח האיחוד הוא (סוג, חבר), כך שבתור של מנוי איטי
+     * נשאר רק סימן המים האחרון של כל חבר.
+     *
+     * @param receipt הודעת האישור (status, senderId = החבר שאישר), מקודדת
+     * @param status DELIVERED או SEEN
+     */
+    public static ChatEvent receipt(UUID chatId, EncodedMessage receipt, UUID readerId, MessageStatus status) {
+        return new ChatEvent(Type.RECEIPT, chatId, receipt, readerId, readerId,
+                "receipt:" + status + ":" + readerId);
+    }
+
+    /**
+     * אירוע שינוי חברות (הוספה / הסרה / שינוי תפקיד / החלפת מפתח).
+     */
+    public static ChatEvent membership(Type type, UUID chatId, UUID affectedUserId,
+                                       EncodedMessage systemMessage, String coalesceKey) {
+        return new ChatEvent(type, chatId, systemMessage, null, affectedUserId, coalesceKey);
+    }
+
+    public Type getType() { return type; }
+    public UUID getChatId() { return chatId; }
+    public EncodedMessage getMessage() { return message; }
+    public UUID getExcludeUserId() { return excludeUserId; }
+    public UUID getAffectedUserId() { return affectedUserId; }
+    public String getCoalesceKey() { return coalesceKey; }
+
+    @Override
+    public String toString() {
+        return "ChatEvent{" + type + ", chat=" + chatId
+                + (affectedUserId != null ? ", user=" + affectedUserId : "") + "}";
+    }
+}
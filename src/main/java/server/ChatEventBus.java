@@ -0,0 +1,45 @@
+package server;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * ערוץ הפצת אירועי צ'אט בין מופעי ChatServer.
+ * <p>
+ * כל RPC שמשנה מצב של צ'אט (שליחת הודעה, הזמנה, הסרה, שינוי תפקיד) מפרסם אירוע,
+ * והמאזין של כל צומת מעביר אותו למנויים המקומיים שלו. הניתוב הוא topic לכל צ'אט:
+ * צומת מקבל אירועים רק עבור צ'אטים שהוא הצהיר עליהם ב-{@link #addInterest}.
+ * </p>
+ */
+public interface ChatEventBus {
+
+    /**
+     * מפרסם אירוע לכל הצמתים המעוניינים בצ'אט, כולל הצומת הנוכחי.
+     * לא ממתין למסירה.
+     * @param event האירוע לפרסום
+     */
+    void publish(ChatEvent event);
+
+    /**
+     * מגדיר את המאזין המקומי שמקבל אירועים (מקומיים ומרוחקים).
+     * @param listener המאזין - בדרך כלל שירות הצ'אט
+     */
+    void setListener(Consumer<ChatEvent> listener);
+
+    /**
+     * מצהיר שלצומת יש מנויים מקומיים לצ'אט.
+     * @param chatId מזהה הצ'אט
+     */
+    void addInterest(UUID chatId);
+
+    /**
+     * מבטל הצהרת עניין לאחר שהמנוי המקומי האחרון עזב.
+     * @param chatId מזהה הצ'אט
+     */
+    void removeInterest(UUID chatId);
+
+    /**
+     * משחרר משאבים (ערוצים לצמתים אחרים, מתזמנים).
+     */
+    default void close() {}
+}
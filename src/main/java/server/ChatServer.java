@@ -2,13 +2,21 @@ package server;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import io.grpc.Server;
+import io.grpc.ServerInterceptors;
 import java.io.File;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import model.*;
 import utils.*;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,6 +30,30 @@ public class ChatServer {
     private final Server server;
     /** שירות ניהול פג תוקף הזמנות (InviteExpirationService) */
     private final InviteExpirationService inviteExpirationService;
+    /** שירות הצ'אט עצמו (נשמר לצורך דיווח מדדים) */
+    private final ChatServiceImpl chatService;
+    /** מצבר write-behind לאישורי הקבלה */
+    private final ReceiptAggregator receiptAggregator;
+    /** DAO של החדרים (נשמר לצורך דיווח מדדי המטמון) */
+    private final ChatRoomDAO chatRoomDAO;
+    /** כותב ההודעות באצוות */
+    private final MessageBatchWriter messageWriter;
+    /** מאגר ההודעות (chat.messageStore) */
+    private final MessageStore messageStore;
+    /** ארכיון ההודעות הישנות, או null אם מושבת */
+    private final MessageArchive messageArchive;
+    /** מעביר ההודעות הישנות לארכיון, או null אם לא רץ בצומת הזה */
+    private final MessageArchiver messageArchiver;
+    /** ערוץ האירועים בין מופעי השרת */
+    private final ChatEventBus eventBus;
+    /** זנב ההודעות האחרונות בזיכרון, או null אם מושבת */
+    private final RecentMessageCache recentMessages;
+    /** אימות הטוקן לכל קריאה */
+    private final AuthInterceptor authInterceptor;
+    /** ה-executor שעליו רצים ה-handlers */
+    private final RpcExecutor rpcExecutor;
+    /** מתזמן לדיווח מחזורי על מדדי השרת (כותב ההודעות, תורי המנויים) */
+    private final ScheduledExecutorService metricsReporter;
 
     /** ברירת מחדל של ה-port שבו השרת יפעל */
     public static final int PORT = 50051;
@@ -32,6 +64,7 @@ public class ChatServer {
      *  - מגדיר Cache ל-OTP, רישומים ממתינים, משתמשים ממתינים
      *  - אתחול DAO שונים
      *  - אתחול InviteExpirationService
+     *  - בחירת ערוץ האירועים (מקומי / בין צמתים)
      *  - הקמת ה-gRPC server עם TLS ותוספת שירות ChatServiceImpl
      */
     public ChatServer() {
@@ -57,32 +90,161 @@ public class ChatServer {
 
         // DAO לאינטראקציה עם מסד הנתונים
         UserDAO userDAO = new UserDAO();
-        ChatRoomDAO chatRoomDAO = new ChatRoomDAO();
-        MessageDAO messageDAO = new MessageDAO();
+        this.chatRoomDAO = new ChatRoomDAO(
+                AppConfig.getLong("chat.roomCache.maxSize", 10_000),
+                AppConfig.getLong("chat.roomCache.ttlSeconds", 60),
+                AppConfig.getLong("chat.unread.cacheMaxSize", 100_000),
+                AppConfig.getLong("chat.unread.cacheTtlSeconds", 30));
+        // ארכיון קר: הודעות ישנות מ-chat.archive.maxAgeDays עוברות לקבצי סגמנטים דחוסים ב-chat.archive.dir.
+        // הקריאה מהארכיון פעילה בכל צומת שהוגדרה לו תיקייה; ההעברה עצמה רק בצומת אחד (chat.archive.enabled)
+        String archiveDir = AppConfig.getString("chat.archive.dir", "");
+        this.messageArchive = archiveDir.isBlank() ? null : new MessageArchive(
+                Paths.get(archiveDir),
+                AppConfig.getInt("chat.archive.blockBytes", 64 * 1024),
+                AppConfig.getLong("chat.archive.segmentBytes", 256L * 1024 * 1024),
+                AppConfig.getLong("chat.archive.openChats", 1_000),
+                AppConfig.getLong("chat.archive.cachedBlocks", 512));
+        MessageDAO messageDAO = new MessageDAO(messageArchive);
+
+        // ערוץ אירועים: מקומי, או בין צמתים אם הוגדרו chat.bus.peers
+        this.eventBus = GrpcChatEventBus.fromConfig();
+
+        // מאגר ההודעות: jdbc (טבלת Messages) או log - קובץ append-only לכל חדר בתיקייה מקומית.
+        // ב-log מוני ההודעות שלא נקראו והתצוגה המקדימה ברשימת החדרים נקראים מהמאגר, והארכיון לא פועל.
+        // הקבצים והאינדקס שלהם נמצאים בצומת אחד בלבד, ולכן log לא מותר יחד עם chat.bus.peers
+        String storeType = AppConfig.getString("chat.messageStore", "jdbc");
+        if ("log".equalsIgnoreCase(storeType)) {
+            if (!(eventBus instanceof InProcessChatEventBus)) {
+                throw new IllegalStateException(
+                        "chat.messageStore=log keeps messages on this node only and cannot be used with chat.bus.peers");
+            }
+            Path logDir = Paths.get(AppConfig.getString("chat.messageStore.log.dir", "data/messages"));
+            try {
+                this.messageStore = new LogMessageStore(logDir,
+                        AppConfig.getLong("chat.messageStore.log.syncIntervalMillis", 0));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the message log in " + logDir, e);
+            }
+        } else if ("jdbc".equalsIgnoreCase(storeType)) {
+            this.messageStore = messageDAO;
+        } else {
+            throw new IllegalArgumentException("Unknown chat.messageStore: " + storeType);
+        }
+        chatRoomDAO.setMessageStore(messageStore);
+        this.messageArchiver = messageStore == messageDAO && messageArchive != null
+                && AppConfig.getBoolean("chat.archive.enabled", false)
+                ? new MessageArchiver(messageDAO, messageArchive,
+                        Duration.ofDays(AppConfig.getLong("chat.archive.maxAgeDays", 180)),
+                        AppConfig.getLong("chat.archive.intervalMinutes", 60),
+                        AppConfig.getInt("chat.archive.batchSize", 5_000))
+                : null;
         InviteDAO inviteDAO = new InviteDAO();
         ChatMemberKeyDAO chatMemberKeyDAO = new ChatMemberKeyDAO();
 
         // שירות לבדיקת פג תוקף הזמנות ברקע
         inviteExpirationService = new InviteExpirationService(inviteDAO);
 
+        // אישורי קבלה (סימני מים) נכתבים ונדחפים באצווה כל chat.receipts.flushMillis (0 = מיידית)
+        long receiptFlushMillis = AppConfig.getLong("chat.receipts.flushMillis", 500);
+        this.receiptAggregator = receiptFlushMillis > 0
+                ? new ReceiptAggregator(chatRoomDAO, receiptFlushMillis)
+                : null;
+
+        // כתיבת הודעות באצוות: עד batchSize הודעות או lingerMillis מההודעה הראשונה
+        this.messageWriter = new MessageBatchWriter(
+                messageStore,
+                chatRoomDAO,
+                AppConfig.getInt("chat.messageWriter.batchSize", 256),
+                AppConfig.getLong("chat.messageWriter.lingerMillis", 3),
+                AppConfig.getInt("chat.messageWriter.queueCapacity", 10_000));
+
+        // זנב ההודעות האחרונות לכל צ'אט פעיל. רק בצומת יחיד: בין צמתים הודעות מופצות
+        // רק לצמתים עם מנויים, כך שזנב בצומת אחר עלול להחמיץ הודעות
+        int recentPerChat = AppConfig.getInt("chat.recentCache.perChat", 256);
+        if (recentPerChat > 0 && eventBus instanceof InProcessChatEventBus) {
+            this.recentMessages = new RecentMessageCache(recentPerChat,
+                    AppConfig.getLong("chat.recentCache.maxBytes", 64L * 1024 * 1024));
+        } else {
+            this.recentMessages = null;
+        }
+
+        this.chatService = new ChatServiceImpl(
+                userDAO,
+                chatRoomDAO,
+                messageStore,
+                inviteDAO,
+                chatMemberKeyDAO,
+                connectionManager,
+                otpCache,
+                pendingRegistrations,
+                pendingUsers,
+                eventBus,
+                receiptAggregator,
+                messageWriter,
+                recentMessages
+        );
+
+        // אימות הטוקן פעם אחת לכל קריאה, עם מטמון של טוקנים שכבר אומתו
+        this.authInterceptor = new AuthInterceptor(
+                AppConfig.getLong("chat.auth.claimsCacheSize", 100_000),
+                AppConfig.getLong("chat.auth.claimsCacheTtlSeconds", 300));
+
         // הקמת שרת gRPC עם TLS והוספת שירות ה-Chat
-        this.server = NettyServerBuilder.forPort(port)
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port)
                 .useTransportSecurity(
                         new File("certs/server.crt"),
                         new File("certs/server.key")
                 )
-                .addService(new ChatServiceImpl(
-                        userDAO,
-                        chatRoomDAO,
-                        messageDAO,
-                        inviteDAO,
-                        chatMemberKeyDAO,
-                        connectionManager,
-                        otpCache,
-                        pendingRegistrations,
-                        pendingUsers
-                ))
-                .build();
+                .addService(ServerInterceptors.intercept(ChatServiceImpl.definition(chatService), authInterceptor));
+
+        // ה-executor של ה-handlers (chat.executor.mode); מספר החיבורים למסד מוגבל
+        // ב-DatabaseConnection, לא כאן
+        this.rpcExecutor = RpcExecutor.fromConfig("chat");
+        rpcExecutor.applyTo(builder);
+
+        // בריצה מרובת צמתים השרת מקבל גם אירועים מהצמתים האחרים
+        if (eventBus instanceof GrpcChatEventBus) {
+            builder.addService(((GrpcChatEventBus) eventBus).getService());
+        }
+        this.server = builder.build();
+
+        this.metricsReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * מדפיס את מדדי כותב ההודעות ואת מדדי התורים של מנויים שיש להם הודעות ממתינות או שאיבדו הודעות.
+     */
+    private void reportMetrics() {
+        System.out.println("[MessageBatchWriter] " + messageWriter.stats());
+        CacheStats roomCache = chatRoomDAO.getRoomCacheStats();
+        System.out.printf("[RoomCache] hits=%d misses=%d hitRate=%.3f evictions=%d%n",
+                roomCache.hitCount(), roomCache.missCount(), roomCache.hitRate(), roomCache.evictionCount());
+        CacheStats unreadCache = chatRoomDAO.getUnreadCacheStats();
+        System.out.printf("[UnreadCache] hits=%d misses=%d evictions=%d%n",
+                unreadCache.hitCount(), unreadCache.missCount(), unreadCache.evictionCount());
+        System.out.println("[AuthInterceptor] " + authInterceptor.stats());
+        System.out.println("[RpcExecutor] " + rpcExecutor.stats());
+        System.out.println("[DaoExecutor] " + DaoExecutor.allStats());
+        System.out.println("[DatabaseConnection] " + DatabaseConnection.poolStats());
+        if (recentMessages != null) {
+            System.out.println("[RecentMessageCache] " + recentMessages.stats());
+        }
+        if (messageArchive != null) {
+            System.out.println("[MessageArchive] " + messageArchive.stats());
+        }
+        String storeStats = messageStore.stats();
+        if (storeStats != null) {
+            System.out.println("[MessageStore] " + storeStats);
+        }
+        for (SubscriberQueue.Stats stats : chatService.getSubscriberStats()) {
+            if (stats.getDepth() > 0 || stats.getDropped() > 0) {
+                System.out.println("[SubscriberQueue] " + stats);
+            }
+        }
     }
 
     /**
@@ -95,10 +257,30 @@ public class ChatServer {
         server.start();
         System.out.println("Chat Server started on port " + port);
 
+        long metricsInterval = AppConfig.getLong("chat.metrics.intervalSeconds", 60);
+        if (metricsInterval > 0) {
+            metricsReporter.scheduleAtFixedRate(this::reportMetrics,
+                    metricsInterval, metricsInterval, TimeUnit.SECONDS);
+        }
+
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down gRPC server...");
             ChatServer.this.stop();
+            rpcExecutor.shutdown();
             inviteExpirationService.stop();
+            if (messageArchiver != null) {
+                messageArchiver.stop();
+            }
+            metricsReporter.shutdown();
+            chatService.shutdown();
+            DaoExecutor.shutdownAll();
+            messageWriter.stop();
+            messageStore.close();
+            if (receiptAggregator != null) {
+                // לפני סגירת ה-bus, כדי שסימני המים האחרונים עוד נדחפים
+                receiptAggregator.stop();
+            }
+            eventBus.close();
         }));
     }
 
@@ -124,14 +306,18 @@ public class ChatServer {
 
     /**
      * נקודת הכניסה הראשית:
-     * 1. יוצר מופע ChatServer
-     * 2. מפעיל אותו ו
-     * 3. ממתין לסיומו
+     * 1. מחיל מיגרציות סכמה שעוד לא הוחלו (אלא אם db.migrate.onStartup=false)
+     * 2. יוצר מופע ChatServer
+     * 3. מפעיל אותו ו
+     * 4. ממתין לסיומו
      *
      * @param args פרמטרים מחרוזתיים (לא בשימוש)
-     * @throws Exception שגיאות שונות (IOException, InterruptedException)
+     * @throws Exception שגיאות שונות (IOException, InterruptedException, SQLException)
      */
     public static void main(String[] args) throws Exception {
+        if (AppConfig.getBoolean("db.migrate.onStartup", true)) {
+            SchemaMigrator.migrate();
+        }
         ChatServer chatServer = new ChatServer();
         chatServer.start();
         chatServer.aWaitTermination();
@@ -5,16 +5,23 @@ import com.chatFlow.Chat.*;
 import com.google.common.cache.Cache;
 import com.google.protobuf.ByteString;
 import io.grpc.Context;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 
 
 import model.*;
 import model.MessageStatus;
-import security.AES_GCM;
+import security.GcmContext;
 import security.PasswordHasher;
 import security.RSA;
 import security.Token;
+import security.TokenClaims;
 import utils.*;
 
 import java.io.IOException;
@@ -26,6 +33,11 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import static security.AES_ECB.keyGenerator;
@@ -50,8 +62,39 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     private final Cache<String, User> pendingRegistrations;
     private final Cache<String, User> pendingUsers;
 
-    // מנויים להודעות לכל צ'אט
-    private final Map<UUID, Map<UUID, StreamObserver<Message>>> subscribers = new ConcurrentHashMap<>();
+    // מנויים להודעות לכל צ'אט - לכל מנוי תור יוצא חסום משלו
+    private final Map<UUID, Map<UUID, SubscriberQueue<EncodedMessage>>> subscribers = new ConcurrentHashMap<>();
+
+    // הגדרות התור היוצא של כל מנוי (ניתנות לשינוי ב-application.properties)
+    private final int subscriberQueueCapacity =
+            AppConfig.getInt("chat.subscriber.queueCapacity", 256);
+    private final SubscriberQueue.OverflowPolicy subscriberOverflowPolicy =
+            SubscriberQueue.OverflowPolicy.fromString(
+                    AppConfig.getString("chat.subscriber.overflowPolicy", "DROP_OLDEST"));
+
+    // מפתח איחוד להודעות מערכת על שינויי חברות - הלקוח טוען מחדש את החברים בכל מקרה
+    private static final String MEMBERSHIP_COALESCE_KEY = "membership";
+
+    // גודל עמוד היסטוריה: ברירת מחדל כשהלקוח לא ביקש, ותקרה לבקשה
+    private static final int DEFAULT_HISTORY_PAGE = 100;
+    private static final int MAX_HISTORY_PAGE = 500;
+
+    // זרמי היסטוריה: גודל חלק, fetch size ל-JDBC, תקרת הודעות לזרם ומספר ת'רדים
+    private final int historyStreamChunkSize =
+            AppConfig.getInt("chat.historyStream.chunkSize", 200);
+    private final int historyStreamFetchSize =
+            AppConfig.getInt("chat.historyStream.fetchSize", 500);
+    private final int historyStreamMaxMessages =
+            AppConfig.getInt("chat.historyStream.maxMessages", 50_000);
+    /**
+     * כמה זמן זרם היסטוריה ממתין ללקוח שלא קורא לפני שהוא נסגר (ה-ResultSet והחיבור נסגרים איתו)
+     */
+    private final long historyStreamReadyTimeoutMillis =
+            AppConfig.getLong("chat.historyStream.readyTimeoutMillis", 30_000);
+    private final ThreadPoolExecutor historyStreamExecutor = newHistoryStreamExecutor(
+            AppConfig.getInt("chat.historyStream.threads", 4),
+            AppConfig.getInt("chat.historyStream.queueCapacity", 64));
+    private static final long HISTORY_STREAM_READY_POLL_MILLIS = 100;
 
     // קבועים לניהול נעילות חוזרות
     private static final int BLOCK_SIZE = 16;
@@ -60,36 +103,77 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
 
     // DAO לגישה לנתונים
     private final UserDAO userDAO;
-    private final MessageDAO messageDAO;
+    private final MessageStore messageStore;
     private final InviteDAO inviteDAO;
     private final ChatRoomDAO chatRoomDAO;
     private final ChatMemberKeyDAO chatMemberKeyDAO;
 
+    // ערוץ האירועים בין מופעי השרת (מקומי או בין צמתים)
+    private final ChatEventBus eventBus;
+
+    // מצבר write-behind לאישורי קבלה (סימן מים לכל חבר), או null לכתיבה מיידית
+    private final ReceiptAggregator receiptAggregator;
+
+    // כותב ההודעות באצוות (group commit)
+    private final MessageBatchWriter messageWriter;
+
+    // זנב ההודעות האחרונות בכל צ'אט פעיל (null = מושבת)
+    private final RecentMessageCache recentMessages;
+
     /**
      * קונסטרקטור של שירות הצ'אט
      * @param userDAO DAO למשתמשים
      * @param chatRoomDAO DAO לצ'אט רום
-     * @param messageDAO DAO להודעות
+     * @param messageStore מאגר ההודעות (SQL Server או הלוג המקומי)
      * @param inviteDAO DAO להזמנות
      * @param chatMemberKeyDAO DAO למפתחות צ'אט
      * @param connectionManager מנהל החיבורים והסשנים
      * @param otpCache מטמון OTP
      * @param pendingRegistrations מטמון רישומים בהמתנה
      * @param pendingUsers מטמון התחברויות בהמתנה
+     * @param eventBus ערוץ הפצת אירועי הצ'אט בין מופעי השרת
+     * @param receiptAggregator מצבר אישורי קבלה, או null לכתיבה ודחיפה מיידיות
+     * @param messageWriter כותב ההודעות באצוות
+     * @param recentMessages זנב ההודעות האחרונות בזיכרון, או null לקריאה תמיד מהמסד
      */
-    public ChatServiceImpl(UserDAO userDAO, ChatRoomDAO chatRoomDAO, MessageDAO messageDAO, InviteDAO inviteDAO, ChatMemberKeyDAO chatMemberKeyDAO
+    public ChatServiceImpl(UserDAO userDAO, ChatRoomDAO chatRoomDAO, MessageStore messageStore, InviteDAO inviteDAO, ChatMemberKeyDAO chatMemberKeyDAO
             , ConnectionManager connectionManager
             , Cache<String, OTP_Entry> otpCache, Cache<String, User> pendingRegistrations
-            , Cache<String, User> pendingUsers) {
+            , Cache<String, User> pendingUsers, ChatEventBus eventBus
+            , ReceiptAggregator receiptAggregator, MessageBatchWriter messageWriter
+            , RecentMessageCache recentMessages) {
         this.userDAO = userDAO;
         this.chatRoomDAO = chatRoomDAO;
-        this.messageDAO = messageDAO;
+        this.messageStore = messageStore;
         this.inviteDAO = inviteDAO;
         this.chatMemberKeyDAO = chatMemberKeyDAO;
         this.connectionManager = connectionManager;
         this.otpCache = otpCache;
         this.pendingRegistrations = pendingRegistrations;
         this.pendingUsers = pendingUsers;
+        this.eventBus = eventBus;
+        this.receiptAggregator = receiptAggregator;
+        this.messageWriter = messageWriter;
+        this.recentMessages = recentMessages;
+        this.eventBus.setListener(this::onChatEvent);
+        if (receiptAggregator != null) {
+            // סימני המים נדחפים לשולחים רק אחרי שנכתבו, פעם אחת לכל חבר בכל flush
+            receiptAggregator.setListener(this::publishReceipt);
+        }
+    }
+
+    /**
+     * מאגר ת'רדים חסום לזרמי היסטוריה. כל זרם מחזיק חיבור JDBC פתוח עד שהלקוח קרא הכל,
+     * ולכן מספר הת'רדים הוא גם התקרה על החיבורים שזרמים תופסים מה-pool.
+     */
+    private static ThreadPoolExecutor newHistoryStreamExecutor(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "history-stream-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
 
@@ -189,20 +273,40 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
 
         // 2) fetch & verify credentials
-        User user;
-        try {
-            // שלב 2: שליפת המשתמש מהמסד
-            user = userDAO.getUserByEmail(email);
-        } catch (SQLException | IOException e) {
-            logger.severe("DB error fetching user: " + e);
-            respondConnection(responseObserver, false,
-                    "Server error",
-                    null,
-                    null,
-                    List.of("Please try again later"),
-                    null);
-            return;
-        }
+        // שלב 2: שליפת המשתמש מהמסד, בתוך המכסה של AUTH כדי שעומס היסטוריה לא יחסום התחברות.
+        // ת'רד ה-RPC לא ממתין: המשך ההתחברות רץ כשהשליפה מסתיימת (על ת'רד ה-bulkhead)
+        userDAO.getUserByEmailAsync(email).whenComplete((user, error) -> {
+            if (error != null) {
+                logger.severe("DB error fetching user: " + error);
+                respondConnection(responseObserver, false,
+                        error instanceof RejectedExecutionException ? "Server busy" : "Server error",
+                        null,
+                        null,
+                        List.of("Please try again later"),
+                        null);
+                return;
+            }
+            try {
+                completeLogin(email, password, user, responseObserver);
+            } catch (RuntimeException e) {
+                logger.severe("Login error: " + e.getMessage());
+                respondConnection(responseObserver, false,
+                        "Server error",
+                        null,
+                        null,
+                        List.of("Please try again later"),
+                        null);
+            }
+        });
+    }
+
+    /**
+     * המשך ההתחברות אחרי שליפת המשתמש: בדיקת נעילה וסיסמה ושליחת OTP.
+     *
+     * @param user המשתמש שנשלף לפי האימייל, או null אם אינו קיים
+     */
+    private void completeLogin(String email, String password, User user,
+                               StreamObserver<ConnectionResponse> responseObserver) {
         if (user == null) {
             respondConnection(responseObserver, false, "Invalid credentials", null, null, List.of("Authentication failed"), null);
             return;
@@ -361,7 +465,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     @Override
     public void getCurrentUser(VerifyTokenRequest request, StreamObserver<UserResponse> responseObserver) {
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Invalid token").asRuntimeException());
             return;
@@ -413,7 +518,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
 
         // בדיקת תקינות טוקן
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(
                     Status.UNAUTHENTICATED
                             .withDescription("Invalid or expired token")
@@ -466,12 +572,13 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         try {
             // 1. אימות טוקן
             String token = request.getToken();
-            if (!Token.verifyToken(token)) {
+            TokenClaims claims = authenticate(token);
+            if (claims == null) {
                 throw Status.UNAUTHENTICATED.withDescription("Invalid token").asRuntimeException();
             }
 
             // שליפת שדה הבעלים שמופיע בטוקן
-            UUID tokenUserId = Token.extractUserId(token);
+            UUID tokenUserId = claims.getUserId();
             UUID senderId = UUID.fromString(request.getSenderId());
 
             //בדיקה שהטוקן שסופק שייך למי ששלח את הבקשה
@@ -479,9 +586,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                 throw Status.PERMISSION_DENIED.withDescription("Sender ID mismatch").asRuntimeException();
             }
 
-            // 2. בדיקת חברות בצ'אט
+            // 2. בדיקת חברות בצ'אט (מתוך מטמון החדרים - ללא SELECT במצב יציב)
             UUID chatId = UUID.fromString(request.getChatId());
-            ChatRoom chatRoom = chatRoomDAO.getChatRoomById(chatId);
+            ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatId);
 
             // בדיקה שהשולח חבר בצאט
             if (chatRoom == null || !chatRoom.isMember(senderId)) {
@@ -489,7 +596,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             // 3. שמירת ההודעה ב-DB
-            Messages message = new Messages(
+            final Messages message = new Messages(
                     UUID.fromString(request.getMessageId()),
                     chatId,
                     senderId,
@@ -500,40 +607,41 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                     chatRoom.getCurrentKeyVersion()
             );
 
-            messageDAO.saveMessage(message);
-            chatRoomDAO.updateLastMessageTime(chatId, message.getTimestamp());
+            // ההודעה מצטרפת לאצווה משותפת (INSERT + LastMessageTime בטרנזקציה אחת);
+            // ה-ACK וההפצה מתבצעים רק אחרי שהאצווה עברה commit
+            messageWriter.submit(message).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    Status status = error instanceof RejectedExecutionException
+                            ? Status.RESOURCE_EXHAUSTED
+                            : Status.INTERNAL;
+                    responseObserver.onError(status
+                            .withDescription("Error sending message: " + error.getMessage())
+                            .withCause(error)
+                            .asRuntimeException());
+                    return;
+                }
 
-            // 4. עדכון ספירת ההודעות שלא נקראו
-            for (ChatMember member : chatRoom.getMembers().values()) {
-                if (!member.getUserId().equals(senderId)) {
-                    member.incrementUnreadMessages();
-                    chatRoomDAO.updateUnreadMessages(chatId, member.getUserId(), member.getUnreadMessages());
+                // ההודעה נשמרה - נכנסת לזנב החם של הצ'אט בצורה שבה היא נקראת מהמסד
+                if (recentMessages != null) {
+                    recentMessages.append(chatId, toProtoMessage(message, ""));
                 }
-            }
 
-            // 5. השב ל-sender
-            responseObserver.onNext(ACK.newBuilder().setSuccess(true).build());
-            responseObserver.onCompleted();
+                // 4. מוני ההודעות שלא נקראו נגזרים ממיקומי הקריאה - אין כתיבה לשורות החברים,
+                // רק המונים השמורים במטמון של החדר ייספרו מחדש בקריאה הבאה
+                chatRoomDAO.onMessagesAdded(chatId);
+
+                // 5. השב ל-sender
+                responseObserver.onNext(ACK.newBuilder().setSuccess(true).build());
+                responseObserver.onCompleted();
 
-            // 6. דחיפת ההודעה לכל ה-subscribers
-            Map<UUID, StreamObserver<Message>> userObservers = subscribers.get(chatId);
-            if (userObservers != null) {
+                // 6. פרסום ההודעה לכל ה-subscribers בכל הצמתים (הכנסה לתורים בלבד, ללא המתנה ללקוחות)
+                // הטוקן של השולח לא נשלח הלאה לשאר חברי הצ'אט
                 Message pushed = Message.newBuilder(request)
-                        .setKeyVersion(chatRoom.getCurrentKeyVersion())
+                        .clearToken()
+                        .setKeyVersion(message.getKeyVersion())
                         .build();
-
-                for (Map.Entry<UUID, StreamObserver<Message>> entry : userObservers.entrySet()) {
-                    UUID userId = entry.getKey();
-                    if (!userId.equals(senderId)) {
-                        try {
-                            entry.getValue().onNext(pushed);
-                        } catch (Exception e) {
-                            // אם המנוי קרס, צרפו אותו להסרת מנוי
-                            entry.getValue().onError(e);
-                        }
-                    }
-                }
-            }
+                eventBus.publish(ChatEvent.message(chatId, EncodedMessage.of(pushed), senderId));
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -545,6 +653,98 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
     }
 
+    /**
+     * אישור קבלה (DELIVERED / SEEN) של כל ההודעות בצ'אט עד הודעה מסוימת.
+     * לא נכתבת שורה לכל הודעה: האישור מקדם את סימן המים של החבר, מצטבר בזיכרון
+     * ונכתב באצווה, ואחרי הכתיבה נדחף לשאר המנויים של הצ'אט.
+     * המיקום שהלקוח שולח מוגבל להודעה האחרונה שנשמרה בצ'אט, כי סימן המים רק מתקדם:
+     * זמן עתידי או מזהה מומצא היו מסמנים כל הודעה עתידית כנקראה.
+     */
+    @Override
+    public void sendReceipt(ReceiptRequest request, StreamObserver<ACK> responseObserver) {
+        try {
+            // 1. אימות טוקן
+            TokenClaims claims = authenticate(request.getToken());
+            if (claims == null) {
+                throw Status.UNAUTHENTICATED.withDescription("Invalid token").asRuntimeException();
+            }
+
+            UUID userId = UUID.fromString(request.getUserId());
+            if (!claims.getUserId().equals(userId)) {
+                throw Status.PERMISSION_DENIED.withDescription("User ID mismatch").asRuntimeException();
+            }
+
+            MessageStatus status;
+            switch (request.getStatus()) {
+                case DELIVERED -> status = MessageStatus.DELIVERED;
+                case SEEN -> status = MessageStatus.SEEN;
+                default -> throw Status.INVALID_ARGUMENT
+                        .withDescription("Receipt status must be DELIVERED or SEEN")
+                        .asRuntimeException();
+            }
+
+            // 2. בדיקת חברות בצ'אט (מתוך מטמון החדרים)
+            UUID chatId = UUID.fromString(request.getChatId());
+            ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatId);
+            if (chatRoom == null || !chatRoom.isMember(userId)) {
+                throw Status.PERMISSION_DENIED.withDescription("User not member of chat").asRuntimeException();
+            }
+
+            // 3. קידום סימן המים, לכל היותר עד ההודעה האחרונה שנשמרה (מהעותק הראשי)
+            MessagePosition position = new MessagePosition(
+                    Instant.ofEpochMilli(request.getTimestamp()), UUID.fromString(request.getMessageId()));
+            List<Messages> newest = messageStore.getMessagesBefore(chatId, null,
+                    chatRoom.getMember(userId).getJoinDate(), null, 1);
+            if (newest.isEmpty()) {
+                throw Status.FAILED_PRECONDITION
+                        .withDescription("No messages to acknowledge in this chat")
+                        .asRuntimeException();
+            }
+            MessagePosition lastCommitted = MessagePosition.of(newest.get(0));
+            if (position.compareTo(lastCommitted) > 0) {
+                position = lastCommitted;
+            }
+            if (receiptAggregator != null) {
+                receiptAggregator.record(chatId, userId, status, position);
+            } else {
+                Map<UUID, Map<UUID, MessagePosition>> positions = Map.of(chatId, Map.of(userId, position));
+                chatRoomDAO.advanceReceiptPositions(positions,
+                        status == MessageStatus.SEEN ? positions : Map.of());
+                publishReceipt(chatId, userId, status, position);
+            }
+
+            responseObserver.onNext(ACK.newBuilder().setSuccess(true).build());
+            responseObserver.onCompleted();
+
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Malformed receipt: " + e.getMessage())
+                    .asRuntimeException());
+        } catch (SQLException e) {
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("Error saving receipt: " + e.getMessage())
+                    .withCause(e)
+                    .asRuntimeException());
+        }
+    }
+
+    /**
+     * דוחף סימן מים של חבר לשאר המנויים של הצ'אט כהודעה עם status ובלי תוכן
+     * (senderId = החבר שאישר). בתורי המנויים נשאר רק האישור האחרון של כל חבר.
+     */
+    private void publishReceipt(UUID chatId, UUID userId, MessageStatus status, MessagePosition position) {
+        Message receipt = Message.newBuilder()
+                .setMessageId(position.getMessageId().toString())
+                .setSenderId(userId.toString())
+                .setChatId(chatId.toString())
+                .setTimestamp(position.getSentAt().toEpochMilli())
+                .setStatus(com.chatFlow.Chat.MessageStatus.valueOf(status.name()))
+                .build();
+        eventBus.publish(ChatEvent.receipt(chatId, EncodedMessage.of(receipt), userId, status));
+    }
+
     /**
      * הזמנת משתמש לצ'אט: אימות טוקן, הרשאות, הצפנת מפתח, יצירת Invite
      */
@@ -553,7 +753,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
 
         // אימות טוקן - בדיקה שתקין
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Unauthorized: Invalid or expired token")
                     .asRuntimeException());
@@ -585,7 +786,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             // שליפת המזהה של המשתמש שאליו שייך הטוקן
-            UUID userIdFromToken = Token.extractUserId(token);
+            UUID userIdFromToken = claims.getUserId();
 
             // בדיקה אם הטוקן שייך למי שיצר את הבקשה (והצא'ט)
             if (!userIdFromToken.equals(adminId)) {
@@ -669,14 +870,15 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     public void respondToInvite(InviteResponse request, StreamObserver<ACK> responseObserver) {
         // שלב 1: אימות טוקן
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Unauthorized: Invalid or expired token")
                     .asRuntimeException());
             return;
         }
 
-        UUID tokenUserId = Token.extractUserId(token);
+        UUID tokenUserId = claims.getUserId();
         UUID invitedUserId;
 
         try {
@@ -746,9 +948,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             // שליחת תשובה חיובית
             response(responseObserver, true, "Invite status updated to " + responseStatus);
 
-            Map<UUID, StreamObserver<Message>> userObservers = subscribers.get(chatId);
-
-            if (userObservers != null && systemText != null) {
+            if (systemText != null) {
                 // בונים את המסר
                 Message sys = Message.newBuilder()
                         .setMessageId(UUID.randomUUID().toString())
@@ -761,14 +961,12 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                         .setKeyVersion(invite.getKeyVersion())
                         .build();
 
-                // דוחף לכל המנויים
-                for (StreamObserver<Message> obs : userObservers.values()) {
-                    try {
-                        obs.onNext(sys);
-                    } catch (Exception ignore) {
-                        // מנוי מת — אפשר להסיר אותו
-                    }
-                }
+                // דוחף לכל המנויים בכל הצמתים
+                ChatEvent.Type type = responseStatus == InviteStatus.ACCEPTED
+                        ? ChatEvent.Type.MEMBER_ADDED
+                        : ChatEvent.Type.MESSAGE;
+                eventBus.publish(ChatEvent.membership(
+                        type, chatId, invitedUserId, EncodedMessage.of(sys), MEMBERSHIP_COALESCE_KEY));
             }
         } catch (Exception e) {
             // טיפול בשגיאות
@@ -778,14 +976,43 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     }
 
     /**
-     * נרשמ/ת למנוי הודעות: אימות טוקן, בדיקת חברות, רישום ה-stream
+     * רושם את השירות כאשר SubscribeMessages מוחלף במתודה עם marshaller של הודעות
+     * מקודדות מראש ({@link EncodedMessage#MARSHALLER}), כך שהודעה שמופצת לחדר
+     * מקודדת פעם אחת ולא פעם לכל מנוי. שאר המתודות נרשמות כרגיל.
+     * הפורמט על ה-wire זהה, ולכן אין שינוי בצד הלקוח.
+     * (bindService של ה-ImplBase הוא final, ולכן ההגדרה נבנית כאן ונרשמת ב-ChatServer.)
+     *
+     * @param impl מימוש השירות
+     * @return הגדרת השירות לרישום בשרת ה-gRPC
      */
-    @Override
-    public void subscribeMessages(ChatSubscribeRequest request, StreamObserver<Message> responseObserver) {
+    public static ServerServiceDefinition definition(ChatServiceImpl impl) {
+        ServerServiceDefinition generated = chatGrpc.bindService(impl);
+        MethodDescriptor<ChatSubscribeRequest, Message> original = chatGrpc.getSubscribeMessagesMethod();
+
+        MethodDescriptor<ChatSubscribeRequest, EncodedMessage> encoded = original.toBuilder(
+                original.getRequestMarshaller(), EncodedMessage.MARSHALLER).build();
+
+        ServerServiceDefinition.Builder builder =
+                ServerServiceDefinition.builder(generated.getServiceDescriptor().getName());
+        for (ServerMethodDefinition<?, ?> method : generated.getMethods()) {
+            if (!method.getMethodDescriptor().getFullMethodName().equals(original.getFullMethodName())) {
+                builder.addMethod(method);
+            }
+        }
+        builder.addMethod(encoded, ServerCalls.asyncServerStreamingCall(impl::subscribeEncodedMessages));
+        return builder.build();
+    }
+
+    /**
+     * נרשמ/ת למנוי הודעות: אימות טוקן, בדיקת חברות, רישום ה-stream.
+     * מחובר ל-SubscribeMessages דרך {@link #definition(ChatServiceImpl)}.
+     */
+    private void subscribeEncodedMessages(ChatSubscribeRequest request, StreamObserver<EncodedMessage> responseObserver) {
 
         // 1. אימות טוקן
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(
                     Status.UNAUTHENTICATED
                             .withDescription("Invalid or missing token")
@@ -794,13 +1021,13 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             return;
         }
 
-        UUID userId = Token.extractUserId(token);
+        UUID userId = claims.getUserId();
 
         // 2. המרת chatId ובדיקת חברות בחדר
         UUID chatId  = UUID.fromString(request.getChatId());
-        ChatRoom room;
+        ChatRoomSnapshot room;
         try {
-            room = chatRoomDAO.getChatRoomById(chatId);
+            room = chatRoomDAO.getChatRoomSnapshot(chatId);
         } catch (SQLException e) {
             responseObserver.onError(
                     Status.INTERNAL
@@ -816,21 +1043,116 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             return;
         }
 
-        // 3. רישום ה-StreamObserver למנויים
-        subscribers
-                .computeIfAbsent(chatId, id -> new ConcurrentHashMap<>())
-                .put(userId, responseObserver);
+        // 3. רישום ה-StreamObserver למנויים, עטוף בתור יוצא חסום
+        SubscriberQueue<EncodedMessage> queue = new SubscriberQueue<>(
+                chatId, userId, responseObserver,
+                subscriberQueueCapacity, subscriberOverflowPolicy,
+                q -> unsubscribe(chatId, userId, q));
+
+        // compute מבטיח שהכרזת העניין ב-bus עקבית מול הסרת המנוי האחרון
+        List<SubscriberQueue<EncodedMessage>> previous = new ArrayList<>(1);
+        subscribers.compute(chatId, (id, map) -> {
+            if (map == null) {
+                map = new ConcurrentHashMap<>();
+                eventBus.addInterest(id);
+            }
+            SubscriberQueue<EncodedMessage> old = map.put(userId, queue);
+            if (old != null) {
+                previous.add(old);
+            }
+            return map;
+        });
+        for (SubscriberQueue<EncodedMessage> old : previous) {
+            // מנוי קודם של אותו משתמש לאותו צ'אט מוחלף בחדש
+            old.complete();
+        }
 
         // הסרת המנוי אוטומטית כשלקוח נותק
         Context.current().addListener(ctx -> {
-            Map<UUID, StreamObserver<Message>> map = subscribers.get(chatId);
-            if (map != null) {
-                map.remove(userId);
-            }
+            queue.close();
+            unsubscribe(chatId, userId, queue);
         }, Runnable::run);
 
     }
 
+    /**
+     * מאזין ה-bus: מטפל באירוע (מקומי או מצומת אחר) מול המנויים של הצומת הנוכחי.
+     *
+     * @param event האירוע שהתקבל
+     */
+    private void onChatEvent(ChatEvent event) {
+        if (event.getType().changesRoom()) {
+            // שינוי חברות / מפתח - גם בצמתים אחרים תמונת המצב במטמון כבר לא עדכנית
+            chatRoomDAO.invalidateChatRoom(event.getChatId());
+        } else if (event.getType() == ChatEvent.Type.MESSAGE) {
+            // הודעה שנכתבה בצומת אחר - מוני ההודעות שלא נקראו של החדר בצומת הזה כבר לא עדכניים
+            chatRoomDAO.onMessagesAdded(event.getChatId());
+        }
+        if (event.getMessage() != null) {
+            broadcast(event.getChatId(), event.getMessage(), event.getExcludeUserId(), event.getCoalesceKey());
+        }
+        if (event.getType() == ChatEvent.Type.MEMBER_REMOVED && event.getAffectedUserId() != null) {
+            // חבר שהוסר לא ממשיך לקבל הודעות מהצ'אט
+            Map<UUID, SubscriberQueue<EncodedMessage>> queues = subscribers.get(event.getChatId());
+            SubscriberQueue<EncodedMessage> queue = queues == null ? null : queues.get(event.getAffectedUserId());
+            if (queue != null) {
+                queue.complete();
+                unsubscribe(event.getChatId(), event.getAffectedUserId(), queue);
+            }
+        }
+    }
+
+    /**
+     * מפיץ הודעה מקודדת לכל המנויים המקומיים של צ'אט דרך התורים היוצאים שלהם.
+     * הקריאה אינה ממתינה ללקוחות - מנוי איטי מטופל לפי מדיניות ה-overflow.
+     *
+     * @param chatId מזהה הצ'אט
+     * @param encoded ההודעה להפצה, מקודדת פעם אחת לכל המנויים
+     * @param excludeUserId משתמש שלא יקבל את ההודעה (השולח), או null
+     * @param coalesceKey מפתח איחוד בתור, או null להודעה רגילה
+     */
+    private void broadcast(UUID chatId, EncodedMessage encoded, UUID excludeUserId, String coalesceKey) {
+        Map<UUID, SubscriberQueue<EncodedMessage>> queues = subscribers.get(chatId);
+        if (queues == null || queues.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<UUID, SubscriberQueue<EncodedMessage>> entry : queues.entrySet()) {
+            if (!entry.getKey().equals(excludeUserId)) {
+                entry.getValue().offer(encoded, coalesceKey);
+            }
+        }
+    }
+
+    /**
+     * מסיר מנוי ממפת המנויים רק אם הוא עדיין התור הרשום (ולא מנוי חדש יותר).
+     * כשהמנוי המקומי האחרון של צ'אט עוזב מבוטלת הכרזת העניין ב-bus.
+     */
+    private void unsubscribe(UUID chatId, UUID userId, SubscriberQueue<EncodedMessage> queue) {
+        subscribers.computeIfPresent(chatId, (id, map) -> {
+            map.remove(userId, queue);
+            if (map.isEmpty()) {
+                eventBus.removeInterest(id);
+                return null;
+            }
+            return map;
+        });
+    }
+
+    /**
+     * מחזיר מדדי תור (עומק, הודעות שנזרקו, הודעות שנמסרו) לכל מנוי פעיל.
+     *
+     * @return רשימת מדדים לפי מנוי
+     */
+    public List<SubscriberQueue.Stats> getSubscriberStats() {
+        List<SubscriberQueue.Stats> stats = new ArrayList<>();
+        for (Map<UUID, SubscriberQueue<EncodedMessage>> queues : subscribers.values()) {
+            for (SubscriberQueue<EncodedMessage> queue : queues.values()) {
+                stats.add(queue.stats());
+            }
+        }
+        return stats;
+    }
+
     /**
      * אחזור היסטוריית הודעות עם pagination על בסיס הודעות שלא נקראו
      */
@@ -838,7 +1160,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     public void getChatHistory(ChatHistoryRequest request, StreamObserver<ChatHistoryResponse> responseObserver) {
         // אימות טוקן - בדיקה שתקין
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Unauthorized: Invalid or expired token")
                     .asRuntimeException());
@@ -846,7 +1169,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
 
         // שליפת שדה הבעלים שמופיע בטוקן
-        UUID tokenUserId = Token.extractUserId(token);
+        UUID tokenUserId = claims.getUserId();
         UUID requesterId;
 
         //בדיקה שהמשתמש תקין
@@ -879,71 +1202,347 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             return;
         }
 
+        // עבודת המסד רצה ב-bulkhead של ההיסטוריה, כדי שעומס גלילה לא יתפוס את החיבורים של שליחה והתחברות
+        DaoExecutor.of(Workload.HISTORY)
+                .supply(() -> readHistoryPage(request, requesterId, chatUUID))
+                .whenComplete((response, error) -> {
+                    if (error == null) {
+                        responseObserver.onNext(response);
+                        responseObserver.onCompleted();
+                    } else if (error instanceof StatusRuntimeException) {
+                        responseObserver.onError(error);
+                    } else if (error instanceof RejectedExecutionException) {
+                        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                                .withDescription("History is busy, try again later")
+                                .asRuntimeException());
+                    } else {
+                        responseObserver.onError(Status.INTERNAL
+                                .withDescription("Failed to retrieve messages: " + error.getMessage())
+                                .withCause(error)
+                                .asRuntimeException());
+                    }
+                });
+    }
+
+    /**
+     * גוף getChatHistory אחרי אימות הבקשה; רץ על ת'רד של bulkhead ההיסטוריה.
+     *
+     * @return עמוד ההיסטוריה
+     * @throws StatusRuntimeException אם המבקש אינו חבר או שהסמן פגום
+     */
+    private ChatHistoryResponse readHistoryPage(ChatHistoryRequest request, UUID requesterId, UUID chatUUID)
+            throws SQLException {
+        ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatUUID);
+
+        if (chatRoom == null || !chatRoom.isMember(requesterId)) {
+            throw Status.PERMISSION_DENIED
+                    .withDescription("Unauthorized: User not member of the chat")
+                    .asRuntimeException();
+        }
+
+        ChatRoomSnapshot.Member member = chatRoom.getMember(requesterId);
+        int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), MAX_HISTORY_PAGE) : DEFAULT_HISTORY_PAGE;
+
+        // בחירת נקודת ההתחלה: סמן מהלקוח, או מיקום הקריאה השמור של החבר
+        HistoryCursor.Direction direction;
+        MessagePosition from;
+        if (!request.getCursor().isEmpty()) {
+            HistoryCursor cursor;
+            try {
+                cursor = HistoryCursor.decode(request.getCursor());
+            } catch (IllegalArgumentException e) {
+                throw Status.INVALID_ARGUMENT
+                        .withDescription("Invalid history cursor")
+                        .asRuntimeException();
+            }
+            direction = cursor.getDirection();
+            from = cursor.getPosition();
+        } else {
+            int unread = chatRoomDAO.getUnreadMessages(chatUUID, requesterId);
+            MessagePosition lastRead = unread > limit ? chatRoomDAO.getReadPosition(chatUUID, requesterId) : null;
+            if (lastRead != null) {
+                // יש הרבה שלא נקראו - מביאים מההתחלה שלהן
+                direction = HistoryCursor.Direction.NEWER;
+                from = lastRead;
+            } else {
+                // אין הרבה שלא נקראו - מביאים את האחרונות
+                direction = HistoryCursor.Direction.OLDER;
+                from = null;
+            }
+        }
+
+        // שורה נוספת אחת רק כדי לדעת אם יש עוד; קודם מהזנב החם בזיכרון, ואם אין - מהמסד
+        List<Message> chatMessages = recentMessages == null ? null
+                : direction == HistoryCursor.Direction.NEWER
+                ? recentMessages.getAfter(chatUUID, member.getJoinDate(), from, limit + 1)
+                : recentMessages.getBefore(chatUUID, member.getJoinDate(), from, limit + 1);
+        if (chatMessages == null) {
+            chatMessages = loadHistoryPage(chatRoom, member, direction, from, limit + 1);
+        }
+        boolean hasMore = chatMessages.size() > limit;
+        if (hasMore) {
+            chatMessages = chatMessages.subList(0, limit);
+        }
+
+        ChatHistoryResponse.Builder historyBuilder = ChatHistoryResponse.newBuilder()
+                .setHasMore(hasMore);
+
+        if (!chatMessages.isEmpty()) {
+            // הסמן הבא ממשיך מהקצה הרחוק של העמוד באותו כיוון
+            Message edge = chatMessages.get(chatMessages.size() - 1);
+            historyBuilder.setNextCursor(
+                    new HistoryCursor(direction, RecentMessageCache.positionOf(edge)).encode());
+        }
+
+        // מיון בסדר עולה לפי זמן
+        if (direction == HistoryCursor.Direction.OLDER) {
+            chatMessages = new ArrayList<>(chatMessages);
+            Collections.reverse(chatMessages);
+        }
+
+        for (Message msg : chatMessages) {
+            historyBuilder.addMessages(msg.toBuilder().setToken(request.getToken()));
+        }
+
+        if (!chatMessages.isEmpty()) {
+            // שמירת המיקום של ההודעה החדשה ביותר שנשלחה (מתקדם רק קדימה);
+            // המונה של ההודעות שלא נקראו נגזר ממנו, ומתאפס כשהגיע להודעה האחרונה בחדר
+            chatRoomDAO.advanceReadPosition(chatUUID, requesterId,
+                    RecentMessageCache.positionOf(chatMessages.get(chatMessages.size() - 1)));
+        }
+
+        return historyBuilder.build();
+    }
+
+    /**
+     * טוען עמוד היסטוריה מהמסד. קריאת העמוד האחרון (from == null) משמשת גם כ-seed לזנב החם.
+     *
+     * @return ההודעות בסדר הקריאה (OLDER - מהחדשה לישנה, NEWER - מהישנה לחדשה), ללא טוקן
+     */
+    private List<Message> loadHistoryPage(ChatRoomSnapshot chatRoom, ChatRoomSnapshot.Member member,
+                                          HistoryCursor.Direction direction, MessagePosition from, int rows) throws SQLException {
+        UUID chatId = chatRoom.getChatId();
+        boolean seed = recentMessages != null && direction == HistoryCursor.Direction.OLDER && from == null;
+        long generation = seed ? recentMessages.generation(chatId) : 0;
+
+        // seed חייב לראות כל הודעה שכבר נכתבה, ולכן נקרא מהמאגר הראשי ולא מה-replica
+        UUID readerId = seed ? null : member.getUserId();
+        List<Messages> stored = direction == HistoryCursor.Direction.NEWER
+                ? messageStore.getMessagesAfter(chatId, readerId, member.getJoinDate(), from, rows)
+                : messageStore.getMessagesBefore(chatId, readerId, member.getJoinDate(), from, rows);
+        List<Message> page = new ArrayList<>(stored.size());
+        for (Messages msg : stored) {
+            page.add(toProtoMessage(msg, ""));
+        }
+
+        if (seed) {
+            // כל ההיסטוריה נקראה רק אם לא נחתך דבר - לא ע"י המגבלה ולא ע"י תאריך ההצטרפות
+            boolean complete = page.size() < rows && chatRoom.getCreatedAt() != null
+                    && !member.getJoinDate().isAfter(chatRoom.getCreatedAt());
+            recentMessages.seed(chatId, generation, page, complete);
+        }
+        return page;
+    }
+
+    /**
+     * היסטוריית צ'אט כזרם: השורות נקראות מ-ResultSet חד-כיווני ונשלחות בחלקים לפי קצב הלקוח,
+     * כך שמילוי של אלפי הודעות לא מחזיק את כולן בזיכרון השרת.
+     * <p>
+     * ללא cursor הזרם מתחיל מתחילת ההיסטוריה הגלויה לחבר (JoinDate) ומתקדם קדימה.
+     * הקריאה עצמה רצה על historyStreamExecutor ולא על ת'רד של gRPC, כי ההמתנה ל-onReady
+     * על ת'רד הקריאה הייתה חוסמת את האירוע שמשחרר אותה.
+     * </p>
+     */
+    @Override
+    public void streamChatHistory(ChatHistoryRequest request, StreamObserver<ChatHistoryResponse> responseObserver) {
+        String token = request.getToken();
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
+            responseObserver.onError(Status.UNAUTHENTICATED
+                    .withDescription("Unauthorized: Invalid or expired token")
+                    .asRuntimeException());
+            return;
+        }
+
+        UUID requesterId;
+        UUID chatUUID;
         try {
-            ChatRoom chatRoom = chatRoomDAO.getChatRoomById(chatUUID);
+            requesterId = UUID.fromString(request.getRequesterId());
+            chatUUID = UUID.fromString(request.getChatId());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Invalid chatId or requesterId format")
+                    .asRuntimeException());
+            return;
+        }
 
-            if (chatRoom == null || !chatRoom.isMember(requesterId)) {
-                responseObserver.onError(Status.PERMISSION_DENIED
-                        .withDescription("Unauthorized: User not member of the chat")
+        if (!claims.getUserId().equals(requesterId)) {
+            responseObserver.onError(Status.PERMISSION_DENIED
+                    .withDescription("Unauthorized:Token does not match sender")
+                    .asRuntimeException());
+            return;
+        }
+
+        HistoryCursor cursor = null;
+        if (!request.getCursor().isEmpty()) {
+            try {
+                cursor = HistoryCursor.decode(request.getCursor());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Invalid history cursor")
                         .asRuntimeException());
                 return;
             }
+        }
 
-            ChatMember member = chatRoom.getMembers().get(requesterId);
-            if (member == null) {
-                responseObserver.onError(Status.NOT_FOUND
-                        .withDescription("Chat member not found")
+        ServerCallStreamObserver<ChatHistoryResponse> call =
+                (ServerCallStreamObserver<ChatHistoryResponse>) responseObserver;
+        Object readySignal = new Object();
+        Runnable wakeUp = () -> {
+            synchronized (readySignal) {
+                readySignal.notifyAll();
+            }
+        };
+        call.setOnReadyHandler(wakeUp);
+        call.setOnCancelHandler(wakeUp);
+
+        HistoryCursor start = cursor;
+        try {
+            historyStreamExecutor.execute(() ->
+                    streamHistory(request, requesterId, chatUUID, start, call, readySignal));
+        } catch (RejectedExecutionException e) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Too many concurrent history streams, try again")
+                    .asRuntimeException());
+        }
+    }
+
+    private void streamHistory(ChatHistoryRequest request, UUID requesterId, UUID chatUUID, HistoryCursor cursor,
+                               ServerCallStreamObserver<ChatHistoryResponse> call, Object readySignal) {
+        try {
+            ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatUUID);
+            if (chatRoom == null || !chatRoom.isMember(requesterId)) {
+                call.onError(Status.PERMISSION_DENIED
+                        .withDescription("Unauthorized: User not member of the chat")
                         .asRuntimeException());
                 return;
             }
 
-            int totalMessages = messageDAO.countMessagesInChat(chatUUID);
-            int unread = member.getUnreadMessages();
-            int limit = request.getLimit(); // לרוב 100
-            int offset = unread > limit ?
-                    totalMessages - unread : // יש הרבה שלא נקראו - מביאים מההתחלה שלהם
-                    Math.max(0, totalMessages - limit); // אין הרבה שלא נקראו - מביאים את האחרונות
-
-            List<Messages> chatMessages = messageDAO.getMessagesByChatId(chatUUID, requesterId, limit, offset);
+            HistoryCursor.Direction direction = cursor == null ? HistoryCursor.Direction.NEWER : cursor.getDirection();
+            MessagePosition from = cursor == null ? null : cursor.getPosition();
+            int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), historyStreamMaxMessages) : historyStreamMaxMessages;
 
-            // מיון בסדר עולה לפי זמן
-            chatMessages.sort(Comparator.comparing(Messages::getTimestamp));
+            ChatHistoryResponse.Builder chunk = ChatHistoryResponse.newBuilder();
+            Messages[] last = new Messages[1];
+            int[] sent = {0};
 
-            ChatHistoryResponse.Builder historyBuilder = ChatHistoryResponse.newBuilder();
+            // שורה נוספת אחת רק כדי לדעת אם יש עוד
+            int read = messageStore.streamMessages(chatUUID, requesterId,
+                    chatRoom.getMember(requesterId).getJoinDate(), from,
+                    direction == HistoryCursor.Direction.NEWER, limit + 1, historyStreamFetchSize, msg -> {
+                        if (sent[0] == limit) {
+                            return false;
+                        }
+                        if (chunk.getMessagesCount() == historyStreamChunkSize) {
+                            if (!awaitReady(call, readySignal, historyStreamReadyTimeoutMillis)) {
+                                return false;
+                            }
+                            // כל חלק נושא cursor, כדי שלקוח שהזרם שלו נקטע ימשיך מהחלק האחרון שקיבל
+                            call.onNext(chunk
+                                    .setHasMore(true)
+                                    .setNextCursor(new HistoryCursor(direction, MessagePosition.of(last[0])).encode())
+                                    .build());
+                            chunk.clearMessages();
+                        }
+                        chunk.addMessages(toProtoMessage(msg, request.getToken()));
+                        last[0] = msg;
+                        sent[0]++;
+                        return true;
+                    });
 
-            for (Messages msg : chatMessages) {
-                Message message = Message.newBuilder()
-                        .setMessageId(msg.getMessageId().toString())
-                        .setSenderId(msg.getSenderId().toString())
-                        .setChatId(msg.getChatId().toString())
-                        .setCipherText(ByteString.copyFrom(msg.getContent()))
-                        .setTimestamp(msg.getTimestamp().toEpochMilli())
-                        .setToken(request.getToken())
-                        .setStatus(com.chatFlow.Chat.MessageStatus.valueOf(msg.getStatus().name()))
-                        .setIsSystem(msg.getIsSystem())
-                        .setKeyVersion(msg.getKeyVersion())
-                        .build();
-                historyBuilder.addMessages(message);
+            if (!awaitReady(call, readySignal, historyStreamReadyTimeoutMillis)) {
+                return; // הלקוח ביטל
             }
 
-            // אפס את המונה רק אם המשתמש קיבל את כל ההודעות שלא נקראו
-            if (unread <= limit) {
-                member.clearUnreadMessages();
-                chatRoomDAO.updateUnreadMessages(chatUUID, requesterId, 0);
+            boolean hasMore = read > limit;
+            chunk.setHasMore(hasMore);
+            if (last[0] != null) {
+                chunk.setNextCursor(new HistoryCursor(direction, MessagePosition.of(last[0])).encode());
             }
+            call.onNext(chunk.build());
+            call.onCompleted();
 
-            // שלח ללקוח
-            responseObserver.onNext(historyBuilder.build());
-            responseObserver.onCompleted();
-
+            if (direction == HistoryCursor.Direction.NEWER && last[0] != null) {
+                chatRoomDAO.advanceReadPosition(chatUUID, requesterId, MessagePosition.of(last[0]));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.onError(Status.CANCELLED.withDescription("Server shutting down").asRuntimeException());
+        } catch (StatusRuntimeException e) {
+            if (!call.isCancelled()) {
+                call.onError(e);
+            }
         } catch (Exception e) {
-            responseObserver.onError(Status.INTERNAL
-                    .withDescription("Failed to retrieve messages: " + e.getMessage())
-                    .withCause(e)
-                    .asRuntimeException());
+            if (!call.isCancelled()) {
+                call.onError(Status.INTERNAL
+                        .withDescription("Failed to stream messages: " + e.getMessage())
+                        .withCause(e)
+                        .asRuntimeException());
+            }
         }
     }
 
+    /**
+     * ממתין עד שהלקוח מוכן לקבל עוד (בקרת זרימה של gRPC), לכל היותר timeoutMillis.
+     * @return false אם הקריאה בוטלה
+     * @throws StatusRuntimeException עם DEADLINE_EXCEEDED אם הלקוח לא קרא בזמן; הזרם נסגר
+     *         והלקוח ממשיך מה-cursor האחרון שקיבל
+     */
+    private static boolean awaitReady(ServerCallStreamObserver<?> call, Object readySignal, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (readySignal) {
+            while (!call.isReady()) {
+                if (call.isCancelled()) {
+                    return false;
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw Status.DEADLINE_EXCEEDED
+                            .withDescription("Client did not read the history stream for " + timeoutMillis
+                                    + "ms; resume from the last cursor")
+                            .asRuntimeException();
+                }
+                readySignal.wait(Math.min(remaining, HISTORY_STREAM_READY_POLL_MILLIS));
+            }
+        }
+        return !call.isCancelled();
+    }
+
+    /**
+     * ממיר הודעה שמורה להודעת proto שנשלחת ללקוח.
+     */
+    private static Message toProtoMessage(Messages msg, String token) {
+        return Message.newBuilder()
+                .setMessageId(msg.getMessageId().toString())
+                .setSenderId(msg.getSenderId().toString())
+                .setChatId(msg.getChatId().toString())
+                .setCipherText(ByteString.copyFrom(msg.getContent()))
+                .setTimestamp(msg.getTimestamp().toEpochMilli())
+                .setToken(token)
+                .setStatus(com.chatFlow.Chat.MessageStatus.valueOf(msg.getStatus().name()))
+                .setIsSystem(msg.getIsSystem())
+                .setKeyVersion(msg.getKeyVersion())
+                .build();
+    }
+
+    /**
+     * עוצר את ת'רדי זרמי ההיסטוריה.
+     */
+    public void shutdown() {
+        historyStreamExecutor.shutdownNow();
+    }
+
     /**
      * יצירת צ'אט קבוצתי: אימות טוקן, בדיקת שם, יצירת מפתח, Google Drive, שמירה והזמנות
      */
@@ -952,7 +1551,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         try {
             // 1. אימות טוקן
             String token = request.getToken();
-            if (!Token.verifyToken(token)) {
+            TokenClaims claims = authenticate(token);
+            if (claims == null) {
                 responseObserver.onError(Status.UNAUTHENTICATED
                         .withDescription("Invalid or expired token")
                         .asRuntimeException()
@@ -970,7 +1570,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             // בדיקה אם הטוקן שייך למי שיצר את הבקשה (והצא'ט)
-            if (!Token.extractUserId(token).equals(creatorId)) {
+            if (!claims.getUserId().equals(creatorId)) {
                 responseObserver.onError(Status.PERMISSION_DENIED
                         .withDescription("Token does not match creator")
                         .asRuntimeException()
@@ -1096,7 +1696,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             // שליפת הטוקן מהבקשה
             String token = request.getToken();
             // אימות טוקן - בדיקה אם הוא תקף ונכון
-            if (!Token.verifyToken(token)) {
+            TokenClaims claims = authenticate(token);
+            if (claims == null) {
                 responseObserver.onError(
                         Status.UNAUTHENTICATED
                                 .withDescription("Invalid or expired token")
@@ -1108,7 +1709,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             UUID adminId = UUID.fromString(request.getAdminId());
 
             // שליפת המזהה של המשתמש שאליו שייך הטוקן
-            UUID userIdFromToken = Token.extractUserId(token);
+            UUID userIdFromToken = claims.getUserId();
 
             // בדיקה אם הטוקן שייך למי שיצר את הבקשה (והצא'ט)
             if (!userIdFromToken.equals(adminId)) {
@@ -1176,6 +1777,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             // כולם צריכים להחליף סיסמא כדי למנוע "עבודה מבפנים"
             regenerateGroupKey(chatRoom);
 
+            eventBus.publish(ChatEvent.membership(
+                    ChatEvent.Type.MEMBER_REMOVED, chatId, targetId, null, null));
+
             response(responseObserver, true, "User removed from the group. Everyone have the updated key");
 
         } catch (Exception e) {
@@ -1189,12 +1793,13 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     @Override
     public void leaveGroup(LeaveGroupRequest request, StreamObserver<ACK> responseObserver) {
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED.withDescription("Invalid token").asRuntimeException());
             return;
         }
 
-        UUID tokenUserId = Token.extractUserId(token);
+        UUID tokenUserId = claims.getUserId();
         UUID userId = UUID.fromString(request.getUserId());
         UUID chatId = UUID.fromString(request.getChatId());
 
@@ -1230,6 +1835,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             user.removeChat(chatId);
             userDAO.updateUser(user);
 
+            eventBus.publish(ChatEvent.membership(
+                    ChatEvent.Type.MEMBER_REMOVED, chatId, userId, null, null));
+
             response(responseObserver,
                     true,
                     "User left the group"
@@ -1248,7 +1856,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     @Override
     public void changeUserRole(ChangeUserRoleRequest request, StreamObserver<ACK> responseObserver) {
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED.withDescription("Invalid token").asRuntimeException());
             return;
         }
@@ -1259,7 +1868,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         String newRole = request.getNewRole().name();
 
         // אימות טוקן תואם למבקש
-        if (!requesterId.equals(Token.extractUserId(token))) {
+        if (!requesterId.equals(claims.getUserId())) {
             responseObserver.onError(Status.PERMISSION_DENIED.withDescription("Invalid user").asRuntimeException());
             return;
         }
@@ -1297,6 +1906,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             chatRoom.getMembers().get(targetId).setRole(ChatRole.fromString(newRole));
             chatRoomDAO.updateRole(requesterId, chatId, targetId, newRole);
 
+            eventBus.publish(ChatEvent.membership(
+                    ChatEvent.Type.ROLE_CHANGED, chatId, targetId, null, null));
+
             response(responseObserver, true, "Role changed to " + newRole);
 
         } catch (Exception e) {
@@ -1312,7 +1924,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
 
         // 1) אימות טוקן
         String oldToken = request.getToken();
-        if(!Token.verifyToken(oldToken)) {
+        TokenClaims claims = authenticate(oldToken);
+        if (claims == null) {
             responseObserver.onNext(RefreshTokenResponse.newBuilder()
                     .setSuccess(false)
                     .setMessage("Old token invalid or expired")
@@ -1322,7 +1935,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
 
         // 2) מצא את המשתמש
-        UUID userId = Token.extractUserId(oldToken);
+        UUID userId = claims.getUserId();
         User user;
         try {
             user = userDAO.getUserById(userId);
@@ -1366,7 +1979,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     public void getChatRoom(ChatRoomRequest request, StreamObserver<ChatRoomResponse> responseObserver) {
         try {
             String token = request.getToken();
-            if (!Token.verifyToken(token)) {
+            TokenClaims claims = authenticate(token);
+            if (claims == null) {
                 responseObserver.onError(Status.UNAUTHENTICATED
                         .withDescription("Invalid or expired token")
                         .asRuntimeException());
@@ -1374,7 +1988,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             UUID requesterId = UUID.fromString(request.getRequesterId());
-            UUID tokenId = Token.extractUserId(token);
+            UUID tokenId = claims.getUserId();
 
             if (!tokenId.equals(requesterId)) {
                 responseObserver.onError(Status.PERMISSION_DENIED
@@ -1384,7 +1998,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             UUID chatId = UUID.fromString(request.getChatId());
-            ChatRoom chatRoom = chatRoomDAO.getChatRoomById(chatId);
+            ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatId);
 
             if (chatRoom == null) {
                 responseObserver.onError(Status.NOT_FOUND
@@ -1394,7 +2008,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             // שליפת חבר הצ'אט (המשתמש ששולף את הצ'אט)
-            ChatMember requester = chatRoomDAO.getChatMember(chatId, requesterId);
+            ChatRoomSnapshot.Member requester = chatRoom.getMember(requesterId);
 
             // אם המשתמש אינו חבר בצ'אט
             if(requester == null){
@@ -1429,14 +2043,16 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                     .setFolderId(chatRoom.getFolderId())
                     .setKeyVersion(chatRoom.getCurrentKeyVersion());
 
-            for (ChatMember member : chatRoom.getMembers().values()) {
+            // מוני ההודעות אינם חלק מתמונת המצב - נשלפים בשאילתה אחת לכל החדר
+            Map<UUID, Integer> unreadCounts = chatRoomDAO.getUnreadCounts(chatId);
+            for (ChatRoomSnapshot.Member member : chatRoom.getMembers().values()) {
                 builder.addMembers(ChatMemberInfo.newBuilder()
                         .setUserId(member.getUserId().toString())
                         .setRole(member.getRole().name())
                         .setInviteStatus(member.getInviteStatus().name())
                         .setJoinDate(member.getJoinDate().toEpochMilli())
-                        .setUnreadMessages(member.getUnreadMessages())
-                        .setActive(member.isActive())
+                        .setUnreadMessages(unreadCounts.getOrDefault(member.getUserId(), 0))
+                        .setActive(false)
                         .build());
             }
 
@@ -1458,7 +2074,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     public void getSymmetricKey(MemberRequest request, StreamObserver<SymmetricKey> responseObserver){
         try {
             String token = request.getToken();
-            if (!Token.verifyToken(token)) {
+            TokenClaims claims = authenticate(token);
+            if (claims == null) {
                 responseObserver.onError(Status.UNAUTHENTICATED
                         .withDescription("Invalid or expired token")
                         .asRuntimeException());
@@ -1466,7 +2083,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             UUID requesterId = UUID.fromString(request.getUserId());
-            UUID userId = Token.extractUserId(token);
+            UUID userId = claims.getUserId();
             if (!userId.equals(requesterId)) {
                 responseObserver.onError(Status.PERMISSION_DENIED
                         .withDescription("Token mismatch")
@@ -1474,7 +2091,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                 return;
             }
             UUID chatId = UUID.fromString(request.getChatId());
-            ChatRoom chatRoom = chatRoomDAO.getChatRoomById(chatId);
+            ChatRoomSnapshot chatRoom = chatRoomDAO.getChatRoomSnapshot(chatId);
 
             if (chatRoom == null) {
                 responseObserver.onError(Status.NOT_FOUND
@@ -1484,24 +2101,10 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             }
 
             // שליפת חבר הצ'אט (המשתמש ששולף את הצ'אט)
-            ChatMember requester;
-            try {
-                requester = chatRoomDAO.getChatMember(chatId, requesterId);
-                if (requester == null) {
-                    responseObserver.onError(Status.PERMISSION_DENIED
-                            .withDescription("Requester is not a member of the chat")
-                            .asRuntimeException());
-                    return;
-                }
-            } catch (SQLException e) {
-                responseObserver.onError(Status.INTERNAL
-                        .withDescription("Database error while fetching chat member")
-                        .withCause(e)
-                        .asRuntimeException());
-                return;
-            } catch (Exception e) {
+            ChatRoomSnapshot.Member requester = chatRoom.getMember(requesterId);
+            if (requester == null) {
                 responseObserver.onError(Status.PERMISSION_DENIED
-                        .withDescription("Requester is not found")
+                        .withDescription("Requester is not a member of the chat")
                         .asRuntimeException());
                 return;
             }
@@ -1571,7 +2174,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     @Override
     public void getUserByEmail(UserEmailRequest request, StreamObserver<UserResponse> responseObserver) {
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Invalid or expired token")
                     .asRuntimeException());
@@ -1610,7 +2214,8 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         String token = request.getToken();
 
         // שלב 1: אימות טוקן
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Invalid or expired token")
                     .asRuntimeException());
@@ -1618,7 +2223,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         }
 
         try {
-            User user = userDAO.getUserById(UUID.fromString(request.getUserId()));
+            User user = userDAO.getUserById(UUID.fromString(request.getUserId()), claims.getUserId());
             if (user == null) {
                 responseObserver.onNext(UserResponse.newBuilder().setSuccess(false).build());
             } else {
@@ -1644,7 +2249,7 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
      */
     @Override
     public void getUserInvites(UserIdRequest request, StreamObserver<InviteListResponse> responseObserver) {
-        if (!Token.verifyToken(request.getToken())) {
+        if (authenticate(request.getToken()) == null) {
             responseObserver.onError(Status.UNAUTHENTICATED
                     .withDescription("Unauthorized: Invalid token")
                     .asRuntimeException());
@@ -1699,12 +2304,13 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
     @Override
     public void getUserChatRooms(UserIdRequest request, StreamObserver<ChatRoomResponseList> responseObserver) {
         String token = request.getToken();
-        if (!Token.verifyToken(token)) {
+        TokenClaims claims = authenticate(token);
+        if (claims == null) {
             responseObserver.onError(Status.UNAUTHENTICATED.withDescription("Invalid token").asRuntimeException());
             return;
         }
 
-        UUID tokenUserId = Token.extractUserId(token);
+        UUID tokenUserId = claims.getUserId();
         UUID userId = UUID.fromString(request.getUserId());
 
         if (!tokenUserId.equals(userId)) {
@@ -1712,44 +2318,66 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
             return;
         }
 
-        try {
-            List<ChatRoom> rooms = chatRoomDAO.getAllChatRooms(userId);
-
-            ChatRoomResponseList.Builder responseListBuilder = ChatRoomResponseList.newBuilder();
-
-            for (ChatRoom room : rooms) {
-                ChatRoomResponse.Builder roomBuilder = ChatRoomResponse.newBuilder()
-                        .setChatId(room.getChatId().toString())
-                        .setName(room.getName())
-                        .setOwnerId(room.getCreatedBy().toString())
-                        .setCreatedAt(room.getCreatedAt().toString())
-                        .setFolderId(room.getFolderId())
-                        .setKeyVersion(room.getCurrentKeyVersion());
-
-                for (ChatMember member : room.getMembers().values()) {
-                    roomBuilder.addMembers(ChatMemberInfo.newBuilder()
-                            .setUserId(member.getUserId().toString())
-                            .setRole(member.getRole().name())
-                            .setInviteStatus(member.getInviteStatus().name())
-                            .setJoinDate(member.getJoinDate().toEpochMilli())
-                            .setUnreadMessages(member.getUnreadMessages())
-                            .setActive(member.isActive())
-                            .build());
-                }
-
-                responseListBuilder.addRooms(roomBuilder.build());
+        // החדרים נוספים לתגובה אחד-אחד תוך כדי קריאת ה-ResultSet (על ת'רד ה-bulkhead)
+        ChatRoomResponseList.Builder responseListBuilder = ChatRoomResponseList.newBuilder();
+        chatRoomDAO.streamUserChatRoomsAsync(userId,
+                (room, lastMessage) -> responseListBuilder.addRooms(toChatRoomResponse(room, lastMessage))
+        ).whenComplete((count, error) -> {
+            if (error == null) {
+                responseObserver.onNext(responseListBuilder.build());
+                responseObserver.onCompleted();
+            } else if (error instanceof RejectedExecutionException) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                        .withDescription("Chat list is busy, try again later")
+                        .asRuntimeException());
+            } else {
+                error.printStackTrace();
+                responseObserver.onError(Status.INTERNAL
+                        .withDescription("Failed to load user chat rooms")
+                        .withCause(error)
+                        .asRuntimeException());
             }
+        });
+    }
 
-            responseObserver.onNext(responseListBuilder.build());
-            responseObserver.onCompleted();
+    /**
+     * ממיר חדר (עם חבריו) ואת ההודעה האחרונה בו לתגובת protobuf.
+     */
+    private static ChatRoomResponse toChatRoomResponse(ChatRoom room, Messages lastMessage) {
+        ChatRoomResponse.Builder roomBuilder = ChatRoomResponse.newBuilder()
+                .setChatId(room.getChatId().toString())
+                .setName(room.getName())
+                .setOwnerId(room.getCreatedBy().toString())
+                .setCreatedAt(room.getCreatedAt().toString())
+                .setFolderId(room.getFolderId() != null ? room.getFolderId() : "")
+                .setKeyVersion(room.getCurrentKeyVersion());
+
+        for (ChatMember member : room.getMembers().values()) {
+            roomBuilder.addMembers(ChatMemberInfo.newBuilder()
+                    .setUserId(member.getUserId().toString())
+                    .setRole(member.getRole().name())
+                    .setInviteStatus(member.getInviteStatus().name())
+                    .setJoinDate(member.getJoinDate().toEpochMilli())
+                    .setUnreadMessages(member.getUnreadMessages())
+                    .setActive(member.isActive())
+                    .build());
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObserver.onError(Status.INTERNAL
-                    .withDescription("Failed to load user chat rooms")
-                    .withCause(e)
-                    .asRuntimeException());
+        if (lastMessage != null) {
+            roomBuilder.setLastMessage(toProtoMessage(lastMessage, ""));
         }
+        return roomBuilder.build();
+    }
+
+    /**
+     * מחזיר את הטענות של הטוקן מהבקשה. בדרך כלל הן כבר אומתו ע"י {@link AuthInterceptor}
+     * ונקראות מה-Context; בלי interceptor (או לטוקן אחר) הטוקן מאומת כאן.
+     * @param token הטוקן מהבקשה
+     * @return הטענות, או null אם הטוקן אינו תקין או פג תוקף
+     */
+    private static TokenClaims authenticate(String token) {
+        TokenClaims claims = AuthInterceptor.currentClaims(token);
+        return claims != null ? claims : Token.parseVerified(token);
     }
 
     /**
@@ -1774,7 +2402,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
         roundKeys[0] = raw;
         keySchedule(roundKeys);
         byte[] aad = (chatId.toString() + creatorId + LocalDateTime.now()).getBytes(StandardCharsets.UTF_8);
-        byte[] cipher = AES_GCM.encrypt(roundKeys[0], aad, roundKeys);
+        GcmContext gcm = new GcmContext(roundKeys);
+        byte[] cipher = gcm.encrypt(roundKeys[0], aad);
+        gcm.destroy();
         for (byte[] rk : roundKeys)
             Arrays.fill(rk, (byte)0);
         return cipher;
@@ -1806,6 +2436,9 @@ public class ChatServiceImpl extends chatGrpc.chatImplBase {
                     newVersion,
                     encryptedKey);
         }
+
+        eventBus.publish(ChatEvent.membership(
+                ChatEvent.Type.KEY_ROTATED, chatId, null, null, null));
     }
 
     private void respondFailure(StreamObserver<GroupChat> responseObserver, String message) {
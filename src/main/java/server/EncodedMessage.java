@@ -0,0 +1,118 @@
+package server;
+
+import com.chatFlow.Chat.Message;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * הודעת צ'אט שכבר קודדה פעם אחת לפורמט ה-wire של protobuf.
+ * <p>
+ * בהפצה לחדר עם מאות מנויים ההודעה מקודדת פעם אחת בלבד, ואותו מערך בתים
+ * (בלתי ניתן לשינוי) נכתב לכל ה-streams דרך {@link #MARSHALLER}.
+ * כל stream מקבל InputStream משלו מעל אותו מערך, כך שאין העתקה ואין קידוד חוזר.
+ * </p>
+ */
+public final class EncodedMessage {
+
+    /**
+     * Marshaller עבור תשובות SubscribeMessages: כותב את הבתים המוכנים כמו שהם.
+     * ה-InputStream מממש KnownLength ו-Drainable כך ש-gRPC מעתיק ישירות ל-frame.
+     */
+    public static final MethodDescriptor.Marshaller<EncodedMessage> MARSHALLER =
+            new MethodDescriptor.Marshaller<>() {
+                @Override
+                public InputStream stream(EncodedMessage value) {
+                    return value.newStream();
+                }
+
+                @Override
+                public EncodedMessage parse(InputStream stream) {
+                    try {
+                        return new EncodedMessage(stream.readAllBytes());
+                    } catch (IOException e) {
+                        throw Status.INTERNAL
+                                .withDescription("Failed to read encoded message")
+                                .withCause(e)
+                                .asRuntimeException();
+                    }
+                }
+            };
+
+    private final byte[] bytes;
+
+    private EncodedMessage(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * מקודד הודעה פעם אחת.
+     * @param message ההודעה להפצה
+     * @return עטיפה משותפת לכל המנויים
+     */
+    public static EncodedMessage of(Message message) {
+        return new EncodedMessage(message.toByteArray());
+    }
+
+    /**
+     * עוטף בתים שכבר קודדו (למשל שהגיעו מצומת אחר). המערך לא מועתק
+     * ואסור לשנות אותו לאחר הקריאה.
+     * @param bytes הודעת Message מקודדת
+     * @return עטיפה משותפת לכל המנויים
+     */
+    public static EncodedMessage wrap(byte[] bytes) {
+        return new EncodedMessage(bytes);
+    }
+
+    /** @return אורך ההודעה המקודדת בבתים */
+    public int size() {
+        return bytes.length;
+    }
+
+    /** @return עותק של הבתים המקודדים */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    /**
+     * מפענח חזרה ל-Message (לשימוש מחוץ לנתיב ההפצה בלבד).
+     */
+    public Message decode() {
+        try {
+            return Message.parseFrom(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupted encoded message", e);
+        }
+    }
+
+    /** @return stream חדש ועצמאי מעל הבתים המשותפים */
+    InputStream newStream() {
+        return new SharedBytesStream(bytes);
+    }
+
+    /**
+     * InputStream מעל מערך משותף. מממש KnownLength ו-Drainable כדי ש-gRPC
+     * יכתוב את כל ההודעה ל-buffer היוצא בקריאה אחת.
+     */
+    private static final class SharedBytesStream extends ByteArrayInputStream
+            implements KnownLength, Drainable {
+
+        SharedBytesStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int drainTo(OutputStream target) throws IOException {
+            int length = count - pos;
+            target.write(buf, pos, length);
+            pos = count;
+            return length;
+        }
+    }
+}
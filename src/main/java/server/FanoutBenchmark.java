@@ -0,0 +1,120 @@
+package server;
+
+import com.chatFlow.Chat.Message;
+import com.google.protobuf.ByteString;
+import io.grpc.Drainable;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * מדידת זמן CPU להודעה שנמסרה בהפצה לחדר גדול:
+ * הנתיב הישן (marshaller של protobuf לכל מנוי) מול {@link EncodedMessage} (קידוד יחיד).
+ * <p>
+ * כל "מסירה" מדמה את מה ש-gRPC עושה לכל stream: קבלת InputStream מה-marshaller
+ * וכתיבתו ל-buffer היוצא.
+ * </p>
+ * שימוש: {@code java server.FanoutBenchmark [subscribers] [messages] [payloadBytes]}
+ */
+public class FanoutBenchmark {
+
+    /** OutputStream שזורק את הנתונים - מחליף את ה-buffer של Netty */
+    private static final class NullOutputStream extends OutputStream {
+        long written;
+
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int payload = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+
+        byte[] cipher = new byte[payload];
+        new SecureRandom().nextBytes(cipher);
+        Message template = Message.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setSenderId(UUID.randomUUID().toString())
+                .setChatId(UUID.randomUUID().toString())
+                .setCipherText(ByteString.copyFrom(cipher))
+                .setTimestamp(System.currentTimeMillis())
+                .setKeyVersion(1)
+                .build();
+
+        MethodDescriptor.Marshaller<Message> protoMarshaller =
+                ProtoUtils.marshaller(Message.getDefaultInstance());
+        NullOutputStream sink = new NullOutputStream();
+
+        // חימום
+        for (int round = 0; round < 3; round++) {
+            runPerSubscriber(template, protoMarshaller, subscribers, messages / 4, sink);
+            runEncodeOnce(template, subscribers, messages / 4, sink);
+        }
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long deliveries = (long) subscribers * messages;
+
+        long start = mx.getCurrentThreadCpuTime();
+        runPerSubscriber(template, protoMarshaller, subscribers, messages, sink);
+        long perSubscriberNs = mx.getCurrentThreadCpuTime() - start;
+
+        start = mx.getCurrentThreadCpuTime();
+        runEncodeOnce(template, subscribers, messages, sink);
+        long encodeOnceNs = mx.getCurrentThreadCpuTime() - start;
+
+        System.out.printf("subscribers=%d messages=%d payload=%dB deliveries=%d%n",
+                subscribers, messages, payload, deliveries);
+        System.out.printf("per-subscriber marshalling : %8.1f ns CPU / delivered message%n",
+                (double) perSubscriberNs / deliveries);
+        System.out.printf("encode-once shared buffer  : %8.1f ns CPU / delivered message%n",
+                (double) encodeOnceNs / deliveries);
+        System.out.printf("speedup x%.2f (bytes written: %d)%n",
+                (double) perSubscriberNs / Math.max(1, encodeOnceNs), sink.written);
+    }
+
+    /** הנתיב הקודם: בונים Message חדש ומקודדים אותו מחדש עבור כל מנוי */
+    private static void runPerSubscriber(Message template, MethodDescriptor.Marshaller<Message> marshaller,
+                                         int subscribers, int messages, OutputStream sink) throws IOException {
+        for (int m = 0; m < messages; m++) {
+            Message pushed = Message.newBuilder(template).setTimestamp(m).build();
+            for (int s = 0; s < subscribers; s++) {
+                deliver(marshaller.stream(pushed), sink);
+            }
+        }
+    }
+
+    /** הנתיב החדש: קידוד יחיד, אותם בתים לכל המנויים */
+    private static void runEncodeOnce(Message template, int subscribers, int messages,
+                                      OutputStream sink) throws IOException {
+        for (int m = 0; m < messages; m++) {
+            Message pushed = Message.newBuilder(template).setTimestamp(m).build();
+            EncodedMessage encoded = EncodedMessage.of(pushed);
+            for (int s = 0; s < subscribers; s++) {
+                deliver(EncodedMessage.MARSHALLER.stream(encoded), sink);
+            }
+        }
+    }
+
+    private static void deliver(InputStream in, OutputStream sink) throws IOException {
+        if (in instanceof Drainable) {
+            ((Drainable) in).drainTo(sink);
+        } else {
+            in.transferTo(sink);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package server;
+
+import com.chatFlow.bus.BusAck;
+import com.chatFlow.bus.BusEvent;
+import com.chatFlow.bus.BusEventType;
+import com.chatFlow.bus.ChatBusGrpc;
+import com.chatFlow.bus.InterestUpdate;
+import com.google.protobuf.ByteString;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import utils.AppConfig;
+
+import javax.net.ssl.SSLException;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * מימוש {@link ChatEventBus} בין כמה מופעי ChatServer מעל gRPC (שירות ChatBus).
+ * <p>
+ * כל צומת מכריז לשאר הצמתים על הצ'אטים שיש לו מנויים מקומיים אליהם (topic לכל צ'אט),
+ * ומרענן את ההכרזה מחזורית עם TTL כך שצומת שנפל מפסיק לקבל אירועים.
+ * הודעות צ'אט נשלחות רק לצמתים שהכריזו על הצ'אט; אירועי חברות (נדירים) נשלחים
+ * לכל הצמתים כדי שיוכלו לנקות מצב מקומי גם בלי מנויים פעילים.
+ * </p>
+ * <p>
+ * לכל צומת שכן יש תור שליחה חסום עם thread יחיד, כך שסדר האירועים מאותו מקור
+ * נשמר, וצומת איטי לא מעכב את ה-RPC המפרסם.
+ * </p>
+ * הגדרות (application.properties):
+ * <ul>
+ *   <li>chat.bus.nodeId - מזהה הצומת הנוכחי</li>
+ *   <li>chat.bus.peers - רשימה מופרדת בפסיקים של nodeId@host:port</li>
+ *   <li>chat.bus.secret - סוד משותף לאימות בין הצמתים</li>
+ *   <li>chat.bus.interestRefreshMillis - מחזור הכרזת העניין (TTL = פי 3)</li>
+ * </ul>
+ */
+public class GrpcChatEventBus implements ChatEventBus {
+
+    private static final Logger logger = Logger.getLogger(GrpcChatEventBus.class.getName());
+
+    /** קובץ התעודה שבה סומכים על השרתים האחרים (כמו בלקוח) */
+    private static final File TRUST_CERT_COLLECTION = new File("certs/server.crt");
+
+    private final String nodeId;
+    private final byte[] secret;
+    private final long refreshMillis;
+    private final long publishTimeoutMillis;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Set<UUID> localInterest = ConcurrentHashMap.newKeySet();
+    /**
+     * שינוי של localInterest והכנסת ההכרזה עליו לתורי השליחה נעשים יחד תחת המנעול, כך שהסדר בתור
+     * (סדרתי לכל צומת) הוא סדר השינויים: הכרזה מלאה לא תגיע אחרי הוספה שלא נכללה בה ותמחק אותה
+     */
+    private final Object interestLock = new Object();
+    private final ScheduledExecutorService scheduler;
+    private volatile Consumer<ChatEvent> listener = event -> {};
+
+    /**
+     * צומת שכן: ערוץ gRPC, תור שליחה סדרתי ומה שהצומת הכריז שהוא מעוניין בו.
+     */
+    private static final class Peer {
+        private final String nodeId;
+        private final String target;
+        private final ManagedChannel channel;
+        private final ChatBusGrpc.ChatBusBlockingStub stub;
+        private final ThreadPoolExecutor sender;
+        private final Set<UUID> interest = ConcurrentHashMap.newKeySet();
+        private volatile long interestExpiresAt = 0;
+
+        private Peer(String nodeId, String target, ManagedChannel channel, int queueCapacity) {
+            this.nodeId = nodeId;
+            this.target = target;
+            this.channel = channel;
+            this.stub = ChatBusGrpc.newBlockingStub(channel);
+            this.sender = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), r -> {
+                Thread thread = new Thread(r, "chat-bus-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private boolean isInterested(UUID chatId) {
+            return interestExpiresAt > System.currentTimeMillis() && interest.contains(chatId);
+        }
+    }
+
+    /**
+     * @param nodeId מזהה הצומת הנוכחי
+     * @param secret סוד משותף לכל הצמתים
+     * @param peerSpecs צמתים שכנים בפורמט nodeId@host:port
+     * @param refreshMillis מחזור הכרזת העניין
+     * @param publishTimeoutMillis deadline לכל שליחה לצומת
+     * @param queueCapacity גודל תור השליחה לכל צומת
+     */
+    public GrpcChatEventBus(String nodeId, String secret, Collection<String> peerSpecs,
+                            long refreshMillis, long publishTimeoutMillis, int queueCapacity) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("chat.bus.secret חייב להיות מוגדר כאשר יש צמתים נוספים");
+        }
+        this.nodeId = nodeId;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.refreshMillis = refreshMillis;
+        this.publishTimeoutMillis = publishTimeoutMillis;
+
+        for (String spec : peerSpecs) {
+            int at = spec.indexOf('@');
+            if (at <= 0 || at == spec.length() - 1) {
+                throw new IllegalArgumentException("צומת לא תקין (nodeId@host:port): " + spec);
+            }
+            String peerId = spec.substring(0, at).trim();
+            String target = spec.substring(at + 1).trim();
+            if (peerId.equals(nodeId)) {
+                continue;
+            }
+            peers.put(peerId, new Peer(peerId, target, buildChannel(target), queueCapacity));
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-bus-interest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::announceFullInterest,
+                0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * בונה את ה-bus המתאים לפי ההגדרות: ללא chat.bus.peers מוחזר מימוש מקומי.
+     * @return מימוש ChatEventBus
+     */
+    public static ChatEventBus fromConfig() {
+        String peerList = AppConfig.getString("chat.bus.peers", "");
+        List<String> specs = new ArrayList<>();
+        for (String spec : peerList.split(",")) {
+            if (!spec.isBlank()) {
+                specs.add(spec.trim());
+            }
+        }
+        if (specs.isEmpty()) {
+            return new InProcessChatEventBus();
+        }
+        return new GrpcChatEventBus(
+                AppConfig.getString("chat.bus.nodeId", UUID.randomUUID().toString()),
+                AppConfig.getString("chat.bus.secret", null),
+                specs,
+                AppConfig.getLong("chat.bus.interestRefreshMillis", 10_000),
+                AppConfig.getLong("chat.bus.publishTimeoutMillis", 2_000),
+                AppConfig.getInt("chat.bus.peerQueueCapacity", 10_000));
+    }
+
+    private static ManagedChannel buildChannel(String target) {
+        try {
+            return NettyChannelBuilder.forTarget(target)
+                    .sslContext(GrpcSslContexts.forClient()
+                            .trustManager(TRUST_CERT_COLLECTION)
+                            .build())
+                    .build();
+        } catch (SSLException e) {
+            throw new RuntimeException("Failed to set up TLS channel to " + target, e);
+        }
+    }
+
+    /** @return מזהה הצומת הנוכחי */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(ChatEvent event) {
+        deliverLocally(event);
+
+        BusEvent wire = null;
+        for (Peer peer : peers.values()) {
+            // הודעות ואישורים רק לצמתים מעוניינים; אירועי חברות לכולם
+            if (!event.getType().changesRoom() && !peer.isInterested(event.getChatId())) {
+                continue;
+            }
+            if (wire == null) {
+                wire = toWire(event);
+            }
+            BusEvent toSend = wire;
+            submit(peer, () -> peer.stub
+                    .withDeadlineAfter(publishTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .publish(toSend));
+        }
+    }
+
+    @Override
+    public void setListener(Consumer<ChatEvent> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void addInterest(UUID chatId) {
+        synchronized (interestLock) {
+            if (localInterest.add(chatId)) {
+                announce(InterestUpdate.newBuilder().addAdded(chatId.toString()));
+            }
+        }
+    }
+
+    @Override
+    public void removeInterest(UUID chatId) {
+        synchronized (interestLock) {
+            if (localInterest.remove(chatId)) {
+                announce(InterestUpdate.newBuilder().addRemoved(chatId.toString()));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        for (Peer peer : peers.values()) {
+            peer.sender.shutdown();
+            peer.channel.shutdown();
+        }
+    }
+
+    /**
+     * השירות שצמתים אחרים קוראים אליו - יש לרשום אותו בשרת ה-gRPC.
+     * @return מימוש שירות ChatBus
+     */
+    public BindableService getService() {
+        return new Endpoint();
+    }
+
+    private void deliverLocally(ChatEvent event) {
+        try {
+            listener.accept(event);
+        } catch (Exception e) {
+            logger.warning("שגיאה בטיפול באירוע " + event + ": " + e.getMessage());
+        }
+    }
+
+    /** מכריז מחדש על כל הצ'אטים המקומיים - מרענן את ה-TTL אצל השכנים */
+    private void announceFullInterest() {
+        synchronized (interestLock) {
+            InterestUpdate.Builder update = InterestUpdate.newBuilder().setFull(true);
+            for (UUID chatId : localInterest) {
+                update.addAdded(chatId.toString());
+            }
+            announce(update);
+        }
+    }
+
+    private void announce(InterestUpdate.Builder update) {
+        InterestUpdate request = update
+                .setNodeId(nodeId)
+                .setTtlMillis(refreshMillis * 3)
+                .setSecret(new String(secret, StandardCharsets.UTF_8))
+                .build();
+        for (Peer peer : peers.values()) {
+            submit(peer, () -> peer.stub
+                    .withDeadlineAfter(publishTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .announceInterest(request));
+        }
+    }
+
+    private void submit(Peer peer, Runnable call) {
+        try {
+            peer.sender.execute(() -> {
+                try {
+                    call.run();
+                } catch (StatusRuntimeException e) {
+                    logger.warning("ChatBus: שליחה לצומת " + peer.nodeId + " (" + peer.target + ") נכשלה: "
+                            + e.getStatus());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning("ChatBus: תור השליחה לצומת " + peer.nodeId + " מלא - אירוע נזרק");
+        }
+    }
+
+    private BusEvent toWire(ChatEvent event) {
+        BusEvent.Builder builder = BusEvent.newBuilder()
+                .setOriginNodeId(nodeId)
+                .setType(BusEventType.valueOf(event.getType().name()))
+                .setChatId(event.getChatId().toString())
+                .setSecret(new String(secret, StandardCharsets.UTF_8));
+        if (event.getMessage() != null) {
+            builder.setMessage(ByteString.copyFrom(event.getMessage().toByteArray()));
+        }
+        if (event.getExcludeUserId() != null) {
+            builder.setExcludeUserId(event.getExcludeUserId().toString());
+        }
+        if (event.getAffectedUserId() != null) {
+            builder.setAffectedUserId(event.getAffectedUserId().toString());
+        }
+        if (event.getCoalesceKey() != null) {
+            builder.setCoalesceKey(event.getCoalesceKey());
+        }
+        return builder.build();
+    }
+
+    private static ChatEvent fromWire(BusEvent event) {
+        return new ChatEvent(
+                ChatEvent.Type.valueOf(event.getType().name()),
+                UUID.fromString(event.getChatId()),
+                event.getMessage().isEmpty() ? null : EncodedMessage.wrap(event.getMessage().toByteArray()),
+                parseOrNull(event.getExcludeUserId()),
+                parseOrNull(event.getAffectedUserId()),
+                event.getCoalesceKey().isEmpty() ? null : event.getCoalesceKey());
+    }
+
+    private static UUID parseOrNull(String value) {
+        return value == null || value.isEmpty() ? null : UUID.fromString(value);
+    }
+
+    private boolean authorized(String presented) {
+        return MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * הצד המקבל של ה-bus: אירועים והכרזות עניין מצמתים אחרים.
+     */
+    private final class Endpoint extends ChatBusGrpc.ChatBusImplBase {
+
+        @Override
+        public void publish(BusEvent request, StreamObserver<BusAck> responseObserver) {
+            if (!authorized(request.getSecret())) {
+                ack(responseObserver, false, "Unauthorized node");
+                return;
+            }
+            try {
+                ChatEvent event = fromWire(request);
+                // הודעה לצ'אט שאין לנו בו מנויים (הכרזה ישנה) - אין מה למסור
+                if (event.getType().changesRoom() || localInterest.contains(event.getChatId())) {
+                    deliverLocally(event);
+                }
+                ack(responseObserver, true, "OK");
+            } catch (IllegalArgumentException e) {
+                ack(responseObserver, false, "Malformed event: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void announceInterest(InterestUpdate request, StreamObserver<BusAck> responseObserver) {
+            if (!authorized(request.getSecret())) {
+                ack(responseObserver, false, "Unauthorized node");
+                return;
+            }
+            Peer peer = peers.get(request.getNodeId());
+            if (peer == null) {
+                ack(responseObserver, false, "Unknown node " + request.getNodeId());
+                return;
+            }
+            try {
+                Set<UUID> added = ConcurrentHashMap.newKeySet();
+                for (String id : request.getAddedList()) {
+                    added.add(UUID.fromString(id));
+                }
+                if (request.getFull()) {
+                    peer.interest.retainAll(added);
+                }
+                peer.interest.addAll(added);
+                for (String id : request.getRemovedList()) {
+                    peer.interest.remove(UUID.fromString(id));
+                }
+                peer.interestExpiresAt = System.currentTimeMillis() + request.getTtlMillis();
+                ack(responseObserver, true, "OK");
+            } catch (IllegalArgumentException e) {
+                ack(responseObserver, false, "Malformed interest update: " + e.getMessage());
+            }
+        }
+
+        private void ack(StreamObserver<BusAck> observer, boolean success, String message) {
+            observer.onNext(BusAck.newBuilder().setSuccess(success).setMessage(message).build());
+            observer.onCompleted();
+        }
+    }
+}
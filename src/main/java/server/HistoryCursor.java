@@ -0,0 +1,81 @@
+package server;
+
+import model.MessagePosition;
+
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * סמן (cursor) אטום לדפדוף בהיסטוריית הצ'אט.
+ * <p>
+ * מקודד כיוון ומיקום (SentAt, Id) ל-Base64 בטוח ל-URL, כך שהלקוח רק מעביר אותו
+ * חזרה ב-{@code ChatHistoryRequest.cursor} ולא תלוי במבנה הפנימי.
+ * </p>
+ */
+final class HistoryCursor {
+
+    /** כיוון הדפדוף ביחס למיקום */
+    enum Direction {
+        /** הודעות ישנות יותר מהמיקום */
+        OLDER,
+        /** הודעות חדשות יותר מהמיקום */
+        NEWER
+    }
+
+    private static final byte VERSION = 1;
+    private static final int ENCODED_LENGTH = 1 + 1 + Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+
+    private final Direction direction;
+    private final MessagePosition position;
+
+    HistoryCursor(Direction direction, MessagePosition position) {
+        this.direction = direction;
+        this.position = position;
+    }
+
+    Direction getDirection() { return direction; }
+    MessagePosition getPosition() { return position; }
+
+    /**
+     * @return ייצוג מחרוזתי אטום של הסמן
+     */
+    String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH);
+        buffer.put(VERSION);
+        buffer.put((byte) direction.ordinal());
+        buffer.putLong(position.getSentAt().getEpochSecond());
+        buffer.putInt(position.getSentAt().getNano());
+        buffer.putLong(position.getMessageId().getMostSignificantBits());
+        buffer.putLong(position.getMessageId().getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * מפענח סמן שהתקבל מהלקוח.
+     * @param value המחרוזת מ-{@code ChatHistoryRequest.cursor}
+     * @return הסמן
+     * @throws IllegalArgumentException אם הסמן אינו תקין
+     */
+    static HistoryCursor decode(String value) {
+        byte[] bytes = Base64.getUrlDecoder().decode(value);
+        if (bytes.length != ENCODED_LENGTH || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Invalid history cursor");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        int direction = buffer.get();
+        if (direction < 0 || direction >= Direction.values().length) {
+            throw new IllegalArgumentException("Invalid history cursor");
+        }
+        Instant sentAt;
+        try {
+            sentAt = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid history cursor", e);
+        }
+        UUID messageId = new UUID(buffer.getLong(), buffer.getLong());
+        return new HistoryCursor(Direction.values()[direction], new MessagePosition(sentAt, messageId));
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * מימוש {@link ChatEventBus} לצומת בודד: האירוע מועבר ישירות למאזין המקומי.
+ * זה מימוש ברירת המחדל כאשר לא הוגדרו צמתים נוספים.
+ */
+public class InProcessChatEventBus implements ChatEventBus {
+
+    private static final Logger logger = Logger.getLogger(InProcessChatEventBus.class.getName());
+
+    private volatile Consumer<ChatEvent> listener = event -> {};
+
+    @Override
+    public void publish(ChatEvent event) {
+        try {
+            listener.accept(event);
+        } catch (Exception e) {
+            logger.warning("שגיאה בטיפול באירוע " + event + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void setListener(Consumer<ChatEvent> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void addInterest(UUID chatId) {
+        // צומת יחיד - כל האירועים מקומיים
+    }
+
+    @Override
+    public void removeInterest(UUID chatId) {
+        // צומת יחיד - כל האירועים מקומיים
+    }
+}
@@ -0,0 +1,149 @@
+package server;
+
+import model.LogMessageStore;
+import model.MessageDAO;
+import model.MessagePosition;
+import model.MessageStatus;
+import model.MessageStore;
+import model.Messages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * מדידת תפוקה של מאגרי ההודעות: הלוג המקומי ({@link LogMessageStore}) מול טבלת Messages ({@link MessageDAO}).
+ * <p>
+ * שלב הכתיבה מדמה את MessageBatchWriter: אצוות של batchSize הודעות מפוזרות על כל החדרים,
+ * וכל אצווה נשמרת בקריאה אחת ל-saveMessages. שלב הקריאה מבקש עמודי היסטוריה (getMessagesBefore)
+ * מנקודות אקראיות, ואז קורא כל חדר מתחילתו בזרם (streamMessages).
+ * כל המאגרים מקבלים את אותן הודעות.
+ * </p>
+ * מאגרים: {@code log} (fsync לכל אצווה), {@code log-interval} (fsync ברקע כל 10ms),
+ * {@code jdbc} (דורש מסד נתונים מוגדר; ההודעות שנכתבו נמחקות בסוף).
+ * שימוש: {@code java server.MessageStoreBenchmark [messages] [chats] [payloadBytes] [batchSize] [pageSize] [stores]}
+ */
+public class MessageStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int chats = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int payload = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int pageSize = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+        String stores = args.length > 5 ? args[5] : "log,log-interval";
+
+        System.out.printf("messages=%d chats=%d payload=%dB batch=%d page=%d java=%s%n",
+                messages, chats, payload, batchSize, pageSize, System.getProperty("java.version"));
+
+        Random random = new Random(42);
+        List<UUID> chatIds = new ArrayList<>(chats);
+        for (int i = 0; i < chats; i++) {
+            chatIds.add(UUID.randomUUID());
+        }
+        // זמנים בדיוק של מילישנייה, כדי שיישמרו כמו שהם גם ב-datetime2
+        long baseMillis = System.currentTimeMillis() - messages;
+        List<Messages> data = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            byte[] content = new byte[payload];
+            random.nextBytes(content);
+            data.add(new Messages(UUID.randomUUID(), chatIds.get(i % chats), UUID.randomUUID(), content,
+                    Instant.ofEpochMilli(baseMillis + i), MessageStatus.SENT, false, 1));
+        }
+
+        for (String store : stores.split(",")) {
+            switch (store.trim()) {
+                case "log", "log-interval" -> {
+                    Path dir = Files.createTempDirectory("chatflow-messages");
+                    LogMessageStore logStore = new LogMessageStore(dir, store.trim().equals("log") ? 0 : 10);
+                    try {
+                        run(store.trim(), logStore, data, chatIds, batchSize, pageSize);
+                    } finally {
+                        logStore.close();
+                        deleteRecursively(dir);
+                    }
+                }
+                case "jdbc" -> {
+                    MessageDAO messageDAO = new MessageDAO();
+                    try {
+                        run("jdbc", messageDAO, data, chatIds, batchSize, pageSize);
+                    } finally {
+                        for (int i = 0; i < data.size(); i += batchSize) {
+                            messageDAO.deleteMessages(data.subList(i, Math.min(data.size(), i + batchSize)));
+                        }
+                    }
+                }
+                default -> System.out.println("unknown store: " + store);
+            }
+        }
+    }
+
+    private static void run(String name, MessageStore store, List<Messages> data, List<UUID> chatIds,
+                            int batchSize, int pageSize) throws Exception {
+        // כתיבה
+        int batches = (data.size() + batchSize - 1) / batchSize;
+        long[] batchLatencies = new long[batches];
+        long start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+            List<Messages> batch = data.subList(b * batchSize, Math.min(data.size(), (b + 1) * batchSize));
+            long batchStart = System.nanoTime();
+            store.saveMessages(batch);
+            batchLatencies[b] = System.nanoTime() - batchStart;
+        }
+        long appendNanos = System.nanoTime() - start;
+        Arrays.sort(batchLatencies);
+        System.out.printf("%-13s append  %10.0f msg/s  batch p50=%7.2fms p99=%7.2fms%n", name,
+                data.size() / (appendNanos / 1e9), percentile(batchLatencies, 0.5) / 1e6,
+                percentile(batchLatencies, 0.99) / 1e6);
+
+        // עמודי היסטוריה מנקודות אקראיות
+        Random random = new Random(7);
+        int pages = Math.max(100, Math.min(10_000, data.size() / pageSize));
+        long[] pageLatencies = new long[pages];
+        long read = 0;
+        start = System.nanoTime();
+        for (int p = 0; p < pages; p++) {
+            Messages pivot = data.get(random.nextInt(data.size()));
+            long pageStart = System.nanoTime();
+            read += store.getMessagesBefore(pivot.getChatId(), null, Instant.EPOCH,
+                    MessagePosition.of(pivot), pageSize).size();
+            pageLatencies[p] = System.nanoTime() - pageStart;
+        }
+        long pageNanos = System.nanoTime() - start;
+        Arrays.sort(pageLatencies);
+        System.out.printf("%-13s pages   %10.0f msg/s  page  p50=%7.2fms p99=%7.2fms (%d pages)%n", name,
+                read / (pageNanos / 1e9), percentile(pageLatencies, 0.5) / 1e6,
+                percentile(pageLatencies, 0.99) / 1e6, pages);
+
+        // קריאה רציפה של כל חדר
+        long streamed = 0;
+        start = System.nanoTime();
+        for (UUID chatId : chatIds) {
+            streamed += store.streamMessages(chatId, null, Instant.EPOCH, null, true,
+                    Integer.MAX_VALUE, 500, message -> true);
+        }
+        long streamNanos = System.nanoTime() - start;
+        System.out.printf("%-13s stream  %10.0f msg/s  (%d messages)%n", name,
+                streamed / (streamNanos / 1e9), streamed);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * p) - 1)];
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package server;
+
+import com.chatFlow.Chat.Message;
+import model.MessagePosition;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * מטמון "זנב חם" של ההודעות האחרונות בכל צ'אט פעיל.
+ * <p>
+ * לכל צ'אט נשמר ring buffer חסום של הודעות proto שכבר נשמרו במסד, ממוין לפי (SentAt, Id)
+ * באותו סדר כמו במסד ({@link MessagePosition}). הבאפר מבטיח שהוא מכיל את <b>כל</b> ההודעות
+ * מההודעה הוותיקה שבו ואילך (או את כל ההיסטוריה, אם {@code complete}), ולכן בקשת היסטוריה
+ * שנופלת בתוכו נענית ממנו בלי לפנות ל-SQL Server.
+ * </p>
+ * <p>
+ * הבאפר נוצר מתוך תוצאת השאילתה של העמוד האחרון (seed) ומתעדכן בכל הודעה שעברה commit
+ * ({@link #append}). מונה דורות לכל צ'אט מונע התקנה של seed שנקרא לפני הודעה שהגיעה
+ * בזמן השאילתה. צ'אטים לא פעילים מפונים לפי LRU כשהזיכרון הכולל עובר את התקציב.
+ * </p>
+ * כל הפעולות מוגנות ע"י הנעילה של המופע; כולן קצרות וללא I/O.
+ */
+public class RecentMessageCache {
+
+    /** הערכת תקורה להודעה מעבר לגודל ה-ciphertext (proto, מחרוזות, מיקום) */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    private static final int GENERATION_STRIPES = 1024;
+
+    /** הודעה בבאפר יחד עם המיקום שלה (כדי לא לפענח UUID בכל השוואה) */
+    private static final class Entry {
+        private final Message message;
+        private final MessagePosition position;
+        private final long bytes;
+
+        private Entry(Message message) {
+            this.message = message;
+            this.position = positionOf(message);
+            this.bytes = message.getCipherText().size() + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    /** ring buffer ממוין של צ'אט אחד */
+    private static final class Tail {
+        private final Entry[] ring;
+        private int head;   // אינדקס ההודעה הוותיקה
+        private int size;
+        private long bytes;
+        /** true אם הבאפר מכיל את כל היסטוריית הצ'אט */
+        private boolean complete;
+
+        private Tail(int capacity) {
+            this.ring = new Entry[capacity];
+        }
+
+        private Entry get(int i) {
+            return ring[(head + i) % ring.length];
+        }
+
+        private void set(int i, Entry entry) {
+            ring[(head + i) % ring.length] = entry;
+        }
+
+        /** מוסיף במקום הממוין; מחזיר את השינוי בזיכרון */
+        private long insert(Entry entry) {
+            long delta = 0;
+            int pos = size;
+            while (pos > 0 && get(pos - 1).position.compareTo(entry.position) > 0) {
+                pos--;
+            }
+            if (pos > 0 && get(pos - 1).position.equals(entry.position)) {
+                return 0; // כבר קיימת
+            }
+            if (pos == 0 && size > 0 && !complete) {
+                return 0; // ישנה מהגבול המוכר - לא ידוע מה יש לפניה
+            }
+            if (size == ring.length) {
+                if (pos == 0) {
+                    complete = false; // הייתה הוותיקה ביותר ונופלת מיד
+                    return 0;
+                }
+                delta -= evictOldest();
+                pos--;
+            }
+            for (int i = size; i > pos; i--) {
+                set(i, get(i - 1));
+            }
+            set(pos, entry);
+            size++;
+            bytes += entry.bytes;
+            return delta + entry.bytes;
+        }
+
+        private long evictOldest() {
+            Entry oldest = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+            bytes -= oldest.bytes;
+            complete = false;
+            return oldest.bytes;
+        }
+
+        private boolean coversFrom(MessagePosition from) {
+            return complete || (size > 0 && from.compareTo(get(0).position) >= 0);
+        }
+    }
+
+    private final int perChatCapacity;
+    private final long maxBytes;
+    /** חדר -> זנב, בסדר גישה (LRU) */
+    private final LinkedHashMap<UUID, Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long totalBytes;
+
+    // מדדים
+    private long hits;
+    private long misses;
+    private long evictedChats;
+
+    /**
+     * @param perChatCapacity מספר ההודעות המרבי לכל צ'אט
+     * @param maxBytes תקציב הזיכרון הכולל (הערכה) לכל הצ'אטים יחד
+     */
+    public RecentMessageCache(int perChatCapacity, long maxBytes) {
+        this.perChatCapacity = perChatCapacity;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * מחזיר את הדור הנוכחי של הצ'אט. יש לקרוא לפני שאילתת ה-seed ולהעביר ל-{@link #seed}.
+     * @param chatId מזהה הצ'אט
+     */
+    public synchronized long generation(UUID chatId) {
+        return generations[stripe(chatId)];
+    }
+
+    /**
+     * מוסיף הודעה שעברה commit. אם אין זנב לצ'אט רק הדור מתקדם.
+     * @param chatId מזהה הצ'אט
+     * @param message ההודעה כפי שהיא נשמרה במסד (ללא טוקן)
+     */
+    public synchronized void append(UUID chatId, Message message) {
+        generations[stripe(chatId)]++;
+        Tail tail = tails.get(chatId);
+        if (tail == null) {
+            return;
+        }
+        long delta = tail.insert(new Entry(message));
+        totalBytes += delta;
+        evictOverBudget(chatId);
+    }
+
+    /**
+     * מתקין זנב מתוך תוצאת שאילתת העמוד האחרון, אלא אם הגיעה הודעה חדשה מאז {@code generation}.
+     *
+     * @param chatId מזהה הצ'אט
+     * @param generation הדור שנקרא לפני השאילתה
+     * @param newestFirst ההודעות שנקראו, מהחדשה לישנה (רצף מלא מהסוף)
+     * @param complete true אם אלו כל ההודעות בצ'אט
+     */
+    public synchronized void seed(UUID chatId, long generation, List<Message> newestFirst, boolean complete) {
+        if (generations[stripe(chatId)] != generation || tails.containsKey(chatId)) {
+            return;
+        }
+        if (newestFirst.isEmpty() && !complete) {
+            return;
+        }
+        Tail tail = new Tail(perChatCapacity);
+        tail.complete = complete;
+        // מכניסים מהוותיקה לחדשה; אם יש יותר מהקיבולת הוותיקות נופלות והזנב מפסיק להיות complete
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            Entry entry = new Entry(newestFirst.get(i));
+            if (tail.size == tail.ring.length) {
+                tail.evictOldest();
+            }
+            tail.set(tail.size++, entry);
+            tail.bytes += entry.bytes;
+        }
+        tails.put(chatId, tail);
+        totalBytes += tail.bytes;
+        evictOverBudget(chatId);
+    }
+
+    /**
+     * עמוד הודעות ישנות מ-{@code before}, מהחדשה לישנה.
+     *
+     * @param chatId מזהה הצ'אט
+     * @param notBefore SentAt המוקדם ביותר הגלוי לחבר (JoinDate)
+     * @param before גבול עליון לא כולל, או null מהסוף
+     * @param limit מספר ההודעות המרבי
+     * @return ההודעות, או null אם הזנב לא יכול לענות במלואו
+     */
+    public synchronized List<Message> getBefore(UUID chatId, Instant notBefore, MessagePosition before, int limit) {
+        Tail tail = tails.get(chatId);
+        if (tail == null) {
+            misses++;
+            return null;
+        }
+        List<Message> page = new ArrayList<>(Math.min(limit, tail.size));
+        for (int i = tail.size - 1; i >= 0 && page.size() < limit; i--) {
+            Entry entry = tail.get(i);
+            if (before != null && entry.position.compareTo(before) >= 0) {
+                continue;
+            }
+            if (entry.position.getSentAt().isBefore(notBefore)) {
+                hits++;
+                return page; // מכאן והלאה הכל לפני ההצטרפות
+            }
+            page.add(entry.message);
+        }
+        if (page.size() < limit && !tail.complete) {
+            misses++;
+            return null; // נגמר הזנב ולא ידוע מה יש לפניו
+        }
+        hits++;
+        return page;
+    }
+
+    /**
+     * עמוד הודעות חדשות מ-{@code after}, מהישנה לחדשה.
+     *
+     * @param chatId מזהה הצ'אט
+     * @param notBefore SentAt המוקדם ביותר הגלוי לחבר (JoinDate)
+     * @param after גבול תחתון לא כולל
+     * @param limit מספר ההודעות המרבי
+     * @return ההודעות, או null אם הזנב לא מכסה את {@code after}
+     */
+    public synchronized List<Message> getAfter(UUID chatId, Instant notBefore, MessagePosition after, int limit) {
+        Tail tail = tails.get(chatId);
+        if (tail == null || !tail.coversFrom(after)) {
+            misses++;
+            return null;
+        }
+        List<Message> page = new ArrayList<>(Math.min(limit, tail.size));
+        for (int i = 0; i < tail.size && page.size() < limit; i++) {
+            Entry entry = tail.get(i);
+            if (entry.position.compareTo(after) <= 0 || entry.position.getSentAt().isBefore(notBefore)) {
+                continue;
+            }
+            page.add(entry.message);
+        }
+        hits++;
+        return page;
+    }
+
+    /**
+     * מוחק את הזנב של צ'אט (למשל אם ההודעות במסד השתנו).
+     * @param chatId מזהה הצ'אט
+     */
+    public synchronized void invalidate(UUID chatId) {
+        generations[stripe(chatId)]++;
+        Tail tail = tails.remove(chatId);
+        if (tail != null) {
+            totalBytes -= tail.bytes;
+        }
+    }
+
+    private void evictOverBudget(UUID keep) {
+        Iterator<Map.Entry<UUID, Tail>> it = tails.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<UUID, Tail> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            totalBytes -= eldest.getValue().bytes;
+            it.remove();
+            evictedChats++;
+        }
+    }
+
+    /**
+     * @param message הודעה כפי שנקראה מהמסד
+     * @return המיקום שלה בסדר (SentAt, Id)
+     */
+    static MessagePosition positionOf(Message message) {
+        return new MessagePosition(Instant.ofEpochMilli(message.getTimestamp()), UUID.fromString(message.getMessageId()));
+    }
+
+    private static int stripe(UUID chatId) {
+        return (chatId.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    /**
+     * @return תמונת מצב של מדדי המטמון
+     */
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("chats=%d bytes=%d hits=%d misses=%d hitRate=%.3f evictedChats=%d",
+                tails.size(), totalBytes, hits, misses,
+                lookups == 0 ? 0.0 : (double) hits / lookups, evictedChats);
+    }
+}
@@ -0,0 +1,156 @@
+package server;
+
+import io.grpc.ServerBuilder;
+import utils.AppConfig;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * ה-executor שעליו שרת gRPC מריץ את ה-handlers, לפי מצב שנבחר בהגדרות.
+ * <ul>
+ *   <li>{@code DEFAULT} - ה-executor של gRPC (cached pool לא חסום), כמו עד היום.</li>
+ *   <li>{@code DIRECT} - ה-handlers רצים על ת'רדי ה-event loop של Netty. מתאים רק
+ *       ל-handlers שלא חוסמים.</li>
+ *   <li>{@code BOUNDED} - מאגר ת'רדים קבוע עם תור חסום.</li>
+ *   <li>{@code VIRTUAL} - ת'רד וירטואלי לכל משימה (Java 21 ומעלה). בגרסה ישנה יותר
+ *       נופל ל-BOUNDED עם אזהרה.</li>
+ * </ul>
+ * <p>
+ * ה-executor לא מגביל כמה handlers רצים בו-זמנית: handler שממתין ל-SMTP, ל-Google Drive
+ * או ל-flow control לא צריך חיבור למסד ולא אמור לעכב אחרים. את מספר החיבורים מגביל
+ * {@link model.DatabaseConnection#getConnection()}, שבו ת'רדים (גם וירטואליים) ממתינים
+ * בתור הוגן לחיבור פנוי.
+ * </p>
+ */
+public final class RpcExecutor {
+
+    private static final Logger logger = Logger.getLogger(RpcExecutor.class.getName());
+
+    /** מצבי ההרצה האפשריים */
+    public enum Mode {
+        DEFAULT, DIRECT, BOUNDED, VIRTUAL;
+
+        public static Mode fromString(String value) {
+            try {
+                return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return DEFAULT;
+            }
+        }
+    }
+
+    private final String name;
+    private final Mode mode;
+    private final ExecutorService delegate;
+
+    private RpcExecutor(String name, Mode mode, ExecutorService delegate) {
+        this.name = name;
+        this.mode = mode;
+        this.delegate = delegate;
+    }
+
+    /**
+     * בונה executor לפי מפתחות {@code <prefix>.executor.*}: mode, threads, queueCapacity.
+     *
+     * @param prefix קידומת המפתחות (למשל "chat" או "signaling")
+     * @return ה-executor
+     */
+    public static RpcExecutor fromConfig(String prefix) {
+        Mode mode = Mode.fromString(AppConfig.getString(prefix + ".executor.mode", "DEFAULT"));
+        int threads = AppConfig.getInt(prefix + ".executor.threads", 64);
+        int queueCapacity = AppConfig.getInt(prefix + ".executor.queueCapacity", 10_000);
+        return create(prefix, mode, threads, queueCapacity);
+    }
+
+    /**
+     * @param name שם לת'רדים ולמדדים
+     * @param mode מצב ההרצה
+     * @param threads מספר הת'רדים ב-BOUNDED
+     * @param queueCapacity גודל התור ב-BOUNDED
+     * @return ה-executor
+     */
+    public static RpcExecutor create(String name, Mode mode, int threads, int queueCapacity) {
+        switch (mode) {
+            case DEFAULT:
+            case DIRECT:
+                return new RpcExecutor(name, mode, null);
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    return new RpcExecutor(name, mode, virtual);
+                }
+                logger.warning(name + ": virtual threads require Java 21+, falling back to BOUNDED");
+                return create(name, Mode.BOUNDED, threads, queueCapacity);
+            case BOUNDED:
+            default:
+                AtomicInteger counter = new AtomicInteger();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(queueCapacity), r -> {
+                            Thread thread = new Thread(r, name + "-rpc-" + counter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                pool.allowCoreThreadTimeOut(true);
+                return new RpcExecutor(name, Mode.BOUNDED, pool);
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor דרך reflection, כדי שהקוד יתקמפל גם ב-Java 17.
+     * @return ה-executor, או null אם הוא לא קיים בגרסה הנוכחית
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * מחבר את ה-executor לבונה השרת.
+     * @param builder בונה השרת
+     */
+    public void applyTo(ServerBuilder<?> builder) {
+        if (mode == Mode.DIRECT) {
+            builder.directExecutor();
+        } else if (delegate != null) {
+            builder.executor(delegate);
+        }
+    }
+
+    /** @return המצב בפועל (אחרי fallback) */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * עוצר את ה-executor (אחרי שהשרת כבר הפסיק לקבל קריאות).
+     */
+    public void shutdown() {
+        if (delegate != null) {
+            delegate.shutdown();
+        }
+    }
+
+    /**
+     * @return תמונת מצב של המצב, ובמצב BOUNDED גם ת'רדים פעילים ואורך התור
+     */
+    public String stats() {
+        if (delegate instanceof ThreadPoolExecutor pool) {
+            return String.format("%s mode=%s active=%d/%d queued=%d",
+                    name, mode, pool.getActiveCount(), pool.getMaximumPoolSize(), pool.getQueue().size());
+        }
+        return name + " mode=" + mode;
+    }
+}
@@ -17,19 +17,23 @@ import java.io.IOException;
 public class SignalingServer {
 
     private final Server server; // מופע ה-gRPC Server
+    private final RpcExecutor rpcExecutor; // ה-executor של ה-handlers (signaling.executor.mode)
 
     /**
      * קונסטרקטור:
      * @param port הפורט שעליו השרת יאזין
      */
     public SignalingServer(int port) {
-        this.server = NettyServerBuilder.forPort(port)
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port)
                 .useTransportSecurity(
                         new File("certs/server.crt"),
                         new File("certs/server.key")
                 )
-                .addService(new SignalingServiceImpl())
-                .build();
+                .addService(new SignalingServiceImpl());
+        // שירות ה-signaling לא ניגש למסד, ולכן אין תקרת מקביליות כברירת מחדל
+        this.rpcExecutor = RpcExecutor.fromConfig("signaling");
+        rpcExecutor.applyTo(builder);
+        this.server = builder.build();
     }
 
     /**
@@ -43,6 +47,7 @@ public class SignalingServer {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down signaling server...");
             SignalingServer.this.stop();
+            rpcExecutor.shutdown();
         }));
     }
 
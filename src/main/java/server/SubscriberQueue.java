@@ -0,0 +1,287 @@
+package server;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * תור יוצא חסום עבור מנוי בודד ל-SubscribeMessages.
+ * <p>
+ * השולח רק מכניס לתור ({@link #offer}) וחוזר מיד; הריקון לרשת נעשה לפי
+ * {@link ServerCallStreamObserver#isReady()} ו-setOnReadyHandler, כך שלקוח איטי
+ * לא מעכב את ה-RPC של השולח ולא מנפח את ה-buffers של Netty ללא גבול.
+ * כשהתור מלא מופעלת מדיניות ה-{@link OverflowPolicy} שהוגדרה.
+ * </p>
+ *
+ * @param <T> סוג האובייקט שנדחף ל-stream
+ */
+public class SubscriberQueue<T> {
+
+    private static final Logger logger = Logger.getLogger(SubscriberQueue.class.getName());
+
+    /**
+     * מדיניות טיפול בתור מלא.
+     */
+    public enum OverflowPolicy {
+        /** זורק את ההודעה הוותיקה ביותר בתור ומכניס את החדשה */
+        DROP_OLDEST,
+        /** מנתק את המנוי האיטי עם RESOURCE_EXHAUSTED; הלקוח יירשם מחדש ויטען היסטוריה */
+        DISCONNECT,
+        /** מחליף הודעה ממתינה בעלת אותו מפתח איחוד; אם אין כזו - כמו DROP_OLDEST */
+        COALESCE;
+
+        public static OverflowPolicy fromString(String value) {
+            if (value == null) return DROP_OLDEST;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                logger.warning("מדיניות overflow לא מוכרת: " + value + ", משתמש ב-DROP_OLDEST");
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    /** פריט ממתין בתור יחד עם מפתח האיחוד שלו (null = לא ניתן לאיחוד) */
+    private static final class Pending<T> {
+        private T item;
+        private final String coalesceKey;
+
+        private Pending(T item, String coalesceKey) {
+            this.item = item;
+            this.coalesceKey = coalesceKey;
+        }
+    }
+
+    private final UUID chatId;
+    private final UUID userId;
+    private final StreamObserver<T> observer;
+    private final ServerCallStreamObserver<T> callObserver;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Consumer<SubscriberQueue<T>> onDisconnect;
+
+    // כל המצב מוגן ע"י הנעילה של המופע - גם onNext חייב להיות סדרתי
+    private final ArrayDeque<Pending<T>> queue = new ArrayDeque<>();
+    private boolean closed = false;
+    private int maxDepth = 0;
+    private long delivered = 0;
+    private long dropped = 0;
+    private long coalesced = 0;
+
+    /**
+     * יוצר תור ומחבר אותו ל-onReadyHandler של ה-stream.
+     * חייב להיקרא מתוך מתודת ה-RPC עצמה (לפני שהיא חוזרת), כדרישת gRPC.
+     *
+     * @param chatId מזהה הצ'אט
+     * @param userId מזהה המנוי
+     * @param observer ה-stream של הלקוח
+     * @param capacity מספר ההודעות המרבי שממתינות בתור
+     * @param policy מדיניות הטיפול בתור מלא
+     * @param onDisconnect נקרא כאשר התור מנתק את המנוי (להסרה ממפת המנויים)
+     */
+    public SubscriberQueue(UUID chatId, UUID userId, StreamObserver<T> observer,
+                           int capacity, OverflowPolicy policy,
+                           Consumer<SubscriberQueue<T>> onDisconnect) {
+        this.chatId = chatId;
+        this.userId = userId;
+        this.observer = observer;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.onDisconnect = onDisconnect;
+
+        if (observer instanceof ServerCallStreamObserver) {
+            this.callObserver = (ServerCallStreamObserver<T>) observer;
+            this.callObserver.setOnReadyHandler(this::drain);
+        } else {
+            this.callObserver = null;
+        }
+    }
+
+    /**
+     * מכניס פריט לתור ומנסה לרוקן מיד. לעולם לא חוסם.
+     *
+     * @param item הפריט לשליחה
+     * @param coalesceKey מפתח איחוד (למשל הודעות מערכת שרק האחרונה רלוונטית), או null
+     * @return false אם המנוי סגור או נותק כתוצאה מהצפה
+     */
+    public boolean offer(T item, String coalesceKey) {
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed || isCancelled()) {
+                return false;
+            }
+
+            if (policy == OverflowPolicy.COALESCE && coalesceKey != null) {
+                for (Pending<T> p : queue) {
+                    if (coalesceKey.equals(p.coalesceKey)) {
+                        p.item = item;
+                        coalesced++;
+                        drain();
+                        return true;
+                    }
+                }
+            }
+
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DISCONNECT -> disconnect = true;
+                    case COALESCE, DROP_OLDEST -> {
+                        dropOldest();
+                        queue.addLast(new Pending<>(item, coalesceKey));
+                    }
+                }
+            } else {
+                queue.addLast(new Pending<>(item, coalesceKey));
+            }
+
+            if (!disconnect) {
+                maxDepth = Math.max(maxDepth, queue.size());
+                drain();
+                return true;
+            }
+
+            dropped += queue.size() + 1;
+            queue.clear();
+            closed = true;
+            try {
+                observer.onError(Status.RESOURCE_EXHAUSTED
+                        .withDescription("Subscriber too slow, outbound queue overflow")
+                        .asRuntimeException());
+            } catch (Exception ignore) {
+                // ה-stream כבר נסגר
+            }
+        }
+
+        logger.warning("מנוי איטי נותק: chat=" + chatId + " user=" + userId);
+        if (onDisconnect != null) {
+            onDisconnect.accept(this);
+        }
+        return false;
+    }
+
+    /**
+     * מרוקן את התור לרשת כל עוד ה-transport מוכן לקבל.
+     * נקרא גם מה-onReadyHandler כאשר הלקוח מתפנה.
+     */
+    private synchronized void drain() {
+        while (!closed && !queue.isEmpty()) {
+            if (callObserver != null && (callObserver.isCancelled() || !callObserver.isReady())) {
+                return;
+            }
+            Pending<T> next = queue.pollFirst();
+            try {
+                observer.onNext(next.item);
+                delivered++;
+            } catch (Exception e) {
+                // ה-stream קרס - סוגרים ומשחררים את מה שנשאר
+                dropped += queue.size() + 1;
+                queue.clear();
+                closed = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * זורק את הפריט הוותיק ביותר. במדיניות COALESCE מעדיף לזרוק פריט ניתן-לאיחוד
+     * (הודעת מערכת / קבלה) לפני הודעת צ'אט רגילה.
+     */
+    private void dropOldest() {
+        if (policy == OverflowPolicy.COALESCE) {
+            Iterator<Pending<T>> it = queue.iterator();
+            while (it.hasNext()) {
+                if (it.next().coalesceKey != null) {
+                    it.remove();
+                    dropped++;
+                    return;
+                }
+            }
+        }
+        queue.pollFirst();
+        dropped++;
+    }
+
+    private boolean isCancelled() {
+        return callObserver != null && callObserver.isCancelled();
+    }
+
+    /**
+     * סוגר את התור בלי לשלוח שגיאה (הלקוח כבר נותק).
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * סוגר את התור ומסיים את ה-stream מול הלקוח.
+     */
+    public synchronized void complete() {
+        if (closed) return;
+        closed = true;
+        queue.clear();
+        try {
+            observer.onCompleted();
+        } catch (Exception ignore) {
+            // ה-stream כבר נסגר
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * תמונת מצב של מדדי התור לצורכי ניטור.
+     */
+    public synchronized Stats stats() {
+        return new Stats(chatId, userId, queue.size(), maxDepth, delivered, dropped, coalesced);
+    }
+
+    /**
+     * מדדי תור של מנוי בודד.
+     */
+    public static final class Stats {
+        private final UUID chatId;
+        private final UUID userId;
+        private final int depth;
+        private final int maxDepth;
+        private final long delivered;
+        private final long dropped;
+        private final long coalesced;
+
+        Stats(UUID chatId, UUID userId, int depth, int maxDepth,
+              long delivered, long dropped, long coalesced) {
+            this.chatId = chatId;
+            this.userId = userId;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+        }
+
+        public UUID getChatId() { return chatId; }
+        public UUID getUserId() { return userId; }
+        public int getDepth() { return depth; }
+        public int getMaxDepth() { return maxDepth; }
+        public long getDelivered() { return delivered; }
+        public long getDropped() { return dropped; }
+        public long getCoalesced() { return coalesced; }
+
+        @Override
+        public String toString() {
+            return "chat=" + chatId + " user=" + userId
+                    + " depth=" + depth + " maxDepth=" + maxDepth
+                    + " delivered=" + delivered + " dropped=" + dropped
+                    + " coalesced=" + coalesced;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * גישה מרוכזת להגדרות התפעול של השרת מתוך application.properties.
+ * <p>
+ * בניגוד להגדרות החובה (כמו db.url או token.secret) כל מפתח כאן הוא אופציונלי
+ * ומגיע עם ערך ברירת מחדל, כך שהיעדר הקובץ או המפתח לא מונע את עליית השרת.
+ * </p>
+ */
+public final class AppConfig {
+
+    private static final Logger logger = Logger.getLogger(AppConfig.class.getName());
+
+    /** המאפיינים שנטענו פעם אחת בעת טעינת המחלקה */
+    private static final Properties properties = new Properties();
+
+    static {
+        try (InputStream in = AppConfig.class.getClassLoader()
+                .getResourceAsStream("application.properties")) {
+            if (in != null) {
+                properties.load(in);
+            } else {
+                logger.warning("application.properties לא נמצא - נעשה שימוש בערכי ברירת מחדל");
+            }
+        } catch (IOException e) {
+            logger.warning("שגיאה בטעינת application.properties: " + e.getMessage());
+        }
+    }
+
+    private AppConfig() {}
+
+    /**
+     * מחזיר ערך מחרוזת: קודם System property (‎-Dkey=value) ואחר כך הקובץ.
+     * @param key שם המפתח
+     * @param defaultValue ערך ברירת מחדל
+     * @return הערך שנמצא או ברירת המחדל
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * מחזיר ערך שלם, או ברירת מחדל אם חסר / לא תקין.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warning("ערך לא תקין עבור " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * מחזיר ערך long, או ברירת מחדל אם חסר / לא תקין.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warning("ערך לא תקין עבור " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * מחזיר ערך בוליאני, או ברירת מחדל אם חסר.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
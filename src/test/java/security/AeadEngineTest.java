@@ -0,0 +1,92 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * בדיקות של {@link AeadEngine}: {@link JcaAeadEngine} מול וקטור התקן, מנועי {@link AeadEngine#create}
+ * פותחים הודעות של שני הפורמטים, והפורמטים עצמם שונים - JCA לבדו דוחה הודעת legacy.
+ */
+class AeadEngineTest {
+
+    private static final int SAMPLES = 500;
+
+    /** Test Case 3 של מסמך GCM המקורי (McGrew & Viega) */
+    @Test
+    void jcaMatchesGcmTestVector() {
+        HexFormat hex = HexFormat.of();
+        byte[] expected = hex.parseHex("42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985"
+                + "4d5c2af327cd64a62cf35abd2ba6fab4");
+        byte[] encrypted = new JcaAeadEngine(hex.parseHex("feffe9928665731c6d6a8f9467308308")).encrypt(
+                hex.parseHex("d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+                        + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255"),
+                null, hex.parseHex("cafebabefacedbaddecaf888"));
+
+        assertArrayEquals(expected, Arrays.copyOfRange(encrypted, GcmContext.IV_LENGTH, encrypted.length));
+    }
+
+    @Test
+    void eachEngineDecryptsTheOthersMessages() {
+        Random random = new Random(4);
+        for (int i = 0; i < SAMPLES; i++) {
+            byte[] key = randomBytes(random, 16);
+            byte[] aad = randomBytes(random, random.nextInt(60));
+            byte[] plain = randomBytes(random, random.nextInt(300));
+            AeadEngine legacy = AeadEngine.create("legacy", key);
+            AeadEngine jca = AeadEngine.create("jca", key);
+
+            assertArrayEquals(plain, jca.decrypt(legacy.encrypt(plain, aad), aad), "legacy -> jca, sample " + i);
+            assertArrayEquals(plain, legacy.decrypt(jca.encrypt(plain, aad), aad), "jca -> legacy, sample " + i);
+        }
+    }
+
+    /** הפורמטים שונים, כמו שמתועד ב-AeadEngine: בלי fallback הודעה של מנוע אחד נדחית בשני */
+    @Test
+    void bareEnginesRejectTheOtherFormat() {
+        Random random = new Random(5);
+        for (int i = 0; i < SAMPLES; i++) {
+            byte[] key = randomBytes(random, 16);
+            byte[] aad = randomBytes(random, random.nextInt(60));
+            byte[] plain = randomBytes(random, random.nextInt(300));
+            byte[] fromLegacy = AeadEngine.legacy(key).encrypt(plain, aad);
+            byte[] fromJca = new JcaAeadEngine(key).encrypt(plain, aad);
+
+            assertThrows(SecurityException.class, () -> new JcaAeadEngine(key).decrypt(fromLegacy, aad));
+            assertThrows(SecurityException.class, () -> AeadEngine.legacy(key).decrypt(fromJca, aad));
+        }
+    }
+
+    @Test
+    void fallbackStillRejectsTamperedMessages() {
+        byte[] key = randomBytes(new Random(6), 16);
+        byte[] aad = {1, 2, 3};
+        for (String name : new String[]{"legacy", "jca"}) {
+            AeadEngine engine = AeadEngine.create(name, key);
+            assertEquals(name, engine.name());
+            byte[] message = engine.encrypt("hello".getBytes(), aad);
+            message[GcmContext.IV_LENGTH] ^= 1;
+
+            assertThrows(SecurityException.class, () -> engine.decrypt(message, aad), name);
+            assertThrows(SecurityException.class, () -> engine.decrypt(engine.encrypt(new byte[0], aad), new byte[]{9}), name);
+        }
+    }
+
+    @Test
+    void createRejectsUnknownEngine() {
+        assertThrows(IllegalArgumentException.class, () -> AeadEngine.create("aes-ni", new byte[16]));
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
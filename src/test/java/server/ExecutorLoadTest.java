@@ -0,0 +1,130 @@
+package server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * בדיקת עומס שמשווה את מצבי {@link RpcExecutor} תחת אלפי קוראים בו-זמנית.
+ * <p>
+ * ה-handler מדמה את הפרופיל של ChatServiceImpl: המתנה ל-I/O חיצוני (SMTP / Google Drive)
+ * ואז עבודה מול "מאגר חיבורים" בגודל קבוע - semaphore הוגן עם timeout, כמו התור של
+ * {@code DatabaseConnection.getConnection()}. ההמתנה ל-I/O לא תופסת חיבור.
+ * השרת והלקוח רצים in-process, כך שנמדד רק תזמון ה-handlers ולא הרשת.
+ * </p>
+ * כלי מדידה ולא בדיקת יחידה, ולכן נמצא תחת src/test ואינו נארז עם השרת.
+ * שימוש (עם classpath הבדיקות): {@code java server.ExecutorLoadTest [callers] [ioMillis] [dbMillis] [poolSize] [threads]}
+ */
+public class ExecutorLoadTest {
+
+    private static final MethodDescriptor<EncodedMessage, EncodedMessage> METHOD =
+            MethodDescriptor.<EncodedMessage, EncodedMessage>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName("loadtest", "Call"))
+                    .setRequestMarshaller(EncodedMessage.MARSHALLER)
+                    .setResponseMarshaller(EncodedMessage.MARSHALLER)
+                    .build();
+
+    public static void main(String[] args) throws Exception {
+        int callers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long ioMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        long dbMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        int poolSize = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        System.out.printf("callers=%d io=%dms db=%dms pool=%d threads=%d java=%s%n",
+                callers, ioMillis, dbMillis, poolSize, threads, System.getProperty("java.version"));
+
+        for (RpcExecutor.Mode mode : new RpcExecutor.Mode[]{
+                RpcExecutor.Mode.DEFAULT, RpcExecutor.Mode.BOUNDED, RpcExecutor.Mode.VIRTUAL}) {
+            RpcExecutor executor = RpcExecutor.create("loadtest", mode, threads, callers);
+            run(executor, callers, ioMillis, dbMillis, poolSize);
+            executor.shutdown();
+        }
+    }
+
+    private static void run(RpcExecutor executor, int callers, long ioMillis, long dbMillis, int poolSize)
+            throws Exception {
+        Semaphore connections = new Semaphore(poolSize, true);
+        AtomicInteger poolTimeouts = new AtomicInteger();
+
+        ServerServiceDefinition service = ServerServiceDefinition.builder("loadtest")
+                .addMethod(METHOD, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    try {
+                        Thread.sleep(ioMillis); // קריאה חיצונית חוסמת
+                        // כמו connectionTimeout ב-DatabaseConnection
+                        if (!connections.tryAcquire(30, TimeUnit.SECONDS)) {
+                            poolTimeouts.incrementAndGet();
+                            responseObserver.onError(io.grpc.Status.UNAVAILABLE.asRuntimeException());
+                            return;
+                        }
+                        try {
+                            Thread.sleep(dbMillis); // שאילתה
+                        } finally {
+                            connections.release();
+                        }
+                        responseObserver.onNext(request);
+                        responseObserver.onCompleted();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        responseObserver.onError(io.grpc.Status.CANCELLED.asRuntimeException());
+                    }
+                }))
+                .build();
+
+        String name = "loadtest-" + executor.getMode() + "-" + System.nanoTime();
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(name).addService(service);
+        executor.applyTo(builder);
+        Server server = builder.build().start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+
+        EncodedMessage request = EncodedMessage.wrap(new byte[64]);
+        long[] latencies = new long[callers];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(callers);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < callers; i++) {
+            int index = i;
+            long sentAt = System.nanoTime();
+            ListenableFuture<EncodedMessage> future =
+                    ClientCalls.futureUnaryCall(channel.newCall(METHOD, CallOptions.DEFAULT), request);
+            future.addListener(() -> {
+                latencies[index] = System.nanoTime() - sentAt;
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            }, MoreExecutors.directExecutor());
+        }
+        done.await();
+        long wall = System.nanoTime() - start;
+
+        channel.shutdownNow();
+        server.shutdownNow();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-8s p50=%7.1fms p99=%7.1fms max=%7.1fms wall=%7.1fms failures=%d poolTimeouts=%d%n",
+                executor.getMode(),
+                latencies[callers / 2] / 1e6,
+                latencies[(int) Math.min(callers - 1, Math.ceil(callers * 0.99) - 1)] / 1e6,
+                latencies[callers - 1] / 1e6,
+                wall / 1e6, failures.get(), poolTimeouts.get());
+    }
+}